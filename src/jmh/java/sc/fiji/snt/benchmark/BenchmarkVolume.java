@@ -0,0 +1,210 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2021 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.benchmark;
+
+import ij.ImagePlus;
+import ij.measure.Calibration;
+import ij.process.ImageStatistics;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.display.imagej.ImageJFunctions;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import sc.fiji.snt.Path;
+import sc.fiji.snt.SNT;
+import sc.fiji.snt.tracing.PackedBiSearch;
+import sc.fiji.snt.tracing.cost.Cost;
+import sc.fiji.snt.tracing.cost.Difference;
+import sc.fiji.snt.tracing.cost.DifferenceSq;
+import sc.fiji.snt.tracing.cost.OneMinusErf;
+import sc.fiji.snt.tracing.cost.Reciprocal;
+import sc.fiji.snt.tracing.heuristic.Dijkstra;
+import sc.fiji.snt.tracing.heuristic.Euclidean;
+import sc.fiji.snt.tracing.heuristic.Heuristic;
+
+import java.net.URL;
+import java.util.Random;
+
+/**
+ * A test volume with the end points of a path to be traced through it. Two volumes are available:
+ * <ul>
+ * <li>{@code synthetic}: a noisy 256x256x64 8-bit stack crossed by a bright tube of radius 3, generated
+ * deterministically, so that it is always available</li>
+ * <li>{@code OP_1}: the olfactory projection fiber stack used by the tracing unit tests, loaded from the
+ * test classpath, with the same end points as {@code Tracing3DTest}</li>
+ * </ul>
+ */
+final class BenchmarkVolume {
+
+    static final String SYNTHETIC = "synthetic";
+    static final String OP_1 = "OP_1";
+
+    final String name;
+    final Img<UnsignedByteType> img;
+    final Calibration cal;
+    final ImageStatistics stats;
+    final int[] start;
+    final int[] goal;
+    private Path path;
+
+    private BenchmarkVolume(final String name, final Img<UnsignedByteType> img, final Calibration cal,
+                            final ImageStatistics stats, final int[] start, final int[] goal)
+    {
+        this.name = name;
+        this.img = img;
+        this.cal = cal;
+        this.stats = stats;
+        this.start = start;
+        this.goal = goal;
+    }
+
+    static BenchmarkVolume load(final String name) {
+        switch (name) {
+            case SYNTHETIC:
+                return synthetic(256, 256, 64, 3);
+            case OP_1:
+                final URL url = BenchmarkVolume.class.getClassLoader().getResource("OP_1.tif");
+                if (url == null)
+                    throw new IllegalStateException("OP_1.tif is not available in the test classpath");
+                final ImagePlus imp = new ImagePlus(url.getPath());
+                return new BenchmarkVolume(OP_1, ImageJFunctions.wrap(imp), imp.getCalibration(),
+                        imp.getStatistics(ImageStatistics.MIN_MAX | ImageStatistics.MEAN | ImageStatistics.STD_DEV),
+                        new int[]{33, 430, 1}, new int[]{439, 200, 45});
+            default:
+                throw new IllegalArgumentException("Unknown volume " + name);
+        }
+    }
+
+    /**
+     * Generates a noisy volume crossed by a tube running diagonally from near the origin to near the
+     * opposite corner.
+     */
+    static BenchmarkVolume synthetic(final int width, final int height, final int depth, final double radius) {
+        final Img<UnsignedByteType> img = ArrayImgs.unsignedBytes(width, height, depth);
+        final Random random = new Random(42);
+        for (final UnsignedByteType t : img) t.set(random.nextInt(32));
+        final int[] start = {8, 8, 4};
+        final int[] goal = {width - 9, height - 9, depth - 5};
+        final double[] d = {goal[0] - start[0], goal[1] - start[1], goal[2] - start[2]};
+        final double len2 = d[0] * d[0] + d[1] * d[1] + d[2] * d[2];
+        final Cursor<UnsignedByteType> cursor = img.localizingCursor();
+        final double[] p = new double[3];
+        while (cursor.hasNext()) {
+            cursor.fwd();
+            cursor.localize(p);
+            final double t = Math.max(0, Math.min(1, ((p[0] - start[0]) * d[0] + (p[1] - start[1]) * d[1]
+                    + (p[2] - start[2]) * d[2]) / len2));
+            final double dx = p[0] - start[0] - t * d[0];
+            final double dy = p[1] - start[1] - t * d[1];
+            final double dz = p[2] - start[2] - t * d[2];
+            if (dx * dx + dy * dy + dz * dz <= radius * radius)
+                cursor.get().set(160 + random.nextInt(96));
+        }
+        return new BenchmarkVolume(SYNTHETIC, img, new Calibration(), statistics(img), start, goal);
+    }
+
+    private static <T extends RealType<T>> ImageStatistics statistics(final Iterable<T> img) {
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double sum = 0;
+        double sumSq = 0;
+        long n = 0;
+        for (final T t : img) {
+            final double v = t.getRealDouble();
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+            sum += v;
+            sumSq += v * v;
+            n++;
+        }
+        final ImageStatistics stats = new ImageStatistics();
+        stats.min = min;
+        stats.max = max;
+        stats.mean = sum / n;
+        stats.stdDev = Math.sqrt(Math.max(0, (sumSq - sum * sum / n) / (n - 1)));
+        stats.pixelCount = (int) Math.min(Integer.MAX_VALUE, n);
+        return stats;
+    }
+
+    Cost cost(final SNT.CostType costType) {
+        switch (costType) {
+            case RECIPROCAL:
+                return new Reciprocal(stats.min, stats.max);
+            case DIFFERENCE:
+                return new Difference(stats.min, stats.max);
+            case DIFFERENCE_SQUARED:
+                return new DifferenceSq(stats.min, stats.max);
+            case PROBABILITY:
+                return new OneMinusErf(stats.max, stats.mean, stats.stdDev);
+            default:
+                throw new IllegalArgumentException("Unknown cost " + costType);
+        }
+    }
+
+    Heuristic heuristic(final SNT.HeuristicType heuristicType) {
+        switch (heuristicType) {
+            case EUCLIDEAN:
+                return new Euclidean(cal);
+            case DIJKSTRA:
+                return new Dijkstra();
+            default:
+                throw new IllegalArgumentException("Unknown heuristic " + heuristicType);
+        }
+    }
+
+    /**
+     * @return the path between the end points of this volume, traced once (with the fastest search) and
+     * reused as the seed of fills
+     */
+    Path path() {
+        if (path == null) {
+            final PackedBiSearch search = new PackedBiSearch(img, cal, start[0], start[1], start[2],
+                    goal[0], goal[1], goal[2], -1, 0, cost(SNT.CostType.RECIPROCAL),
+                    heuristic(SNT.HeuristicType.EUCLIDEAN));
+            search.run();
+            path = search.getResult();
+            if (path == null)
+                throw new IllegalStateException("Could not trace the seed path of " + name);
+        }
+        return path;
+    }
+
+    /**
+     * @return a copy of the raw voxel values, for benchmarks that need the intensities but not the image
+     */
+    double[] values(final int count) {
+        final double[] values = new double[count];
+        final RandomAccess<UnsignedByteType> access = img.randomAccess();
+        final Random random = new Random(7);
+        final long[] pos = new long[3];
+        for (int i = 0; i < count; i++) {
+            for (int d = 0; d < 3; d++) pos[d] = random.nextInt((int) img.dimension(d));
+            access.setPosition(pos);
+            values[i] = access.get().getRealDouble();
+        }
+        return values;
+    }
+
+}
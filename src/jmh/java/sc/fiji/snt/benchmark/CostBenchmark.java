@@ -0,0 +1,71 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2021 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import sc.fiji.snt.SNT;
+import sc.fiji.snt.tracing.cost.Cost;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluates each {@link SNT.CostType} over intensities sampled from a {@link BenchmarkVolume}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CostBenchmark {
+
+    private static final int SAMPLES = 4096;
+
+    @Param({BenchmarkVolume.SYNTHETIC})
+    public String volume;
+
+    @Param({"RECIPROCAL", "PROBABILITY", "DIFFERENCE", "DIFFERENCE_SQUARED"})
+    public SNT.CostType costType;
+
+    private Cost cost;
+    private double[] values;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final BenchmarkVolume data = BenchmarkVolume.load(volume);
+        cost = data.cost(costType);
+        values = data.values(SAMPLES);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public double costMovingTo() {
+        double sum = 0;
+        for (final double v : values) {
+            final double c = cost.costMovingTo(v);
+            sum += (c < cost.minStepCost()) ? cost.minStepCost() : c;
+        }
+        return sum;
+    }
+
+}
@@ -0,0 +1,102 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2021 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import sc.fiji.snt.SNT;
+import sc.fiji.snt.tracing.FillerThread;
+import sc.fiji.snt.tracing.PackedFillerThread;
+import sc.fiji.snt.tracing.ParallelFillerThread;
+import sc.fiji.snt.tracing.cost.Cost;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fills around the path traced through a {@link BenchmarkVolume}, with every {@link SNT.CostType} and
+ * filler implementation. So that fills are comparable across costs, the threshold is set to the cost of
+ * {@value #THRESHOLD_STEPS} steps through voxels of average intensity.
+ *
+ * @see TracingBenchmark for the reported metrics
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+@State(Scope.Benchmark)
+public class FillingBenchmark {
+
+    private static final int THRESHOLD_STEPS = 4;
+
+    @Param({BenchmarkVolume.SYNTHETIC, BenchmarkVolume.OP_1})
+    public String volume;
+
+    @Param({"RECIPROCAL", "PROBABILITY", "DIFFERENCE", "DIFFERENCE_SQUARED"})
+    public SNT.CostType costType;
+
+    /* One of the SearchImageTypes, or PARALLEL for a ParallelFillerThread using all available cores */
+    @Param({"ARRAY", "MAP", "PACKED", "PARALLEL"})
+    public String filler;
+
+    private BenchmarkVolume data;
+    private double threshold;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        data = BenchmarkVolume.load(volume);
+        data.path();
+        threshold = THRESHOLD_STEPS * data.cost(costType).costMovingTo(data.stats.mean);
+    }
+
+    private FillerThread createFiller() {
+        final Cost cost = data.cost(costType);
+        final FillerThread fillerThread;
+        switch (filler) {
+            case "PARALLEL":
+                fillerThread = new ParallelFillerThread(data.img, data.cal, threshold, 0, 0, cost,
+                        Runtime.getRuntime().availableProcessors(), ParallelFillerThread.DEFAULT_BLOCK_SIZE);
+                break;
+            case "PACKED":
+                fillerThread = new PackedFillerThread(data.img, data.cal, threshold, 0, cost);
+                break;
+            default:
+                fillerThread = new FillerThread(data.img, data.cal, threshold, 0, 0, cost,
+                        SNT.SearchImageType.valueOf(filler));
+        }
+        fillerThread.setStopAtThreshold(true);
+        fillerThread.setStoreExtraNodes(false);
+        fillerThread.setSourcePaths(Collections.singleton(data.path()));
+        return fillerThread;
+    }
+
+    @Benchmark
+    public void fill(final SearchCounters counters, final Blackhole blackhole) {
+        final FillerThread fillerThread = createFiller();
+        fillerThread.run();
+        counters.record(fillerThread);
+        blackhole.consume(fillerThread.getExitReason());
+    }
+
+}
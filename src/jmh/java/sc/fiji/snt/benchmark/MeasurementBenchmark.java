@@ -0,0 +1,104 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2021 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import sc.fiji.snt.Tree;
+import sc.fiji.snt.analysis.MeasurementEngine;
+import sc.fiji.snt.analysis.MultiTreeStatistics;
+import sc.fiji.snt.analysis.TreeAnalyzer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures all the {@link MultiTreeStatistics#getMetrics() common metrics} of a group of synthetic
+ * reconstructions, as done when comparing groups of cells: one {@link TreeAnalyzer} per metric and
+ * cell (as in {@link MultiTreeStatistics}), one {@link TreeAnalyzer} per cell (as in
+ * {@code TreeAnalyzer#measure()} prior to {@link MeasurementEngine}), and a single
+ * {@link MeasurementEngine}. E.g., {@code -Djmh.args="MeasurementBenchmark -p cells=1000"}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+@State(Scope.Benchmark)
+public class MeasurementBenchmark {
+
+    @Param({"100"})
+    public int cells;
+
+    @Param({"2000"})
+    public int nodes;
+
+    private List<Tree> trees;
+    private List<String> metrics;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final Random random = new Random(42);
+        trees = new ArrayList<>(cells);
+        for (int i = 0; i < cells; i++) {
+            final Tree tree = NodeAccessBenchmark.syntheticTree(nodes, random);
+            tree.setLabel("Cell " + i);
+            trees.add(tree);
+        }
+        metrics = MultiTreeStatistics.getMetrics();
+    }
+
+    @Benchmark
+    public double analyzerPerMetric() {
+        double sum = 0;
+        for (final String metric : metrics) {
+            for (final Tree tree : trees)
+                sum += new TreeAnalyzer(tree).getMetric(metric).doubleValue();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double analyzerPerCell() {
+        double sum = 0;
+        for (final Tree tree : trees) {
+            final TreeAnalyzer analyzer = new TreeAnalyzer(tree);
+            for (final String metric : metrics)
+                sum += analyzer.getMetric(metric).doubleValue();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double engine() {
+        final MeasurementEngine engine = new MeasurementEngine(metrics);
+        double sum = 0;
+        for (final Tree tree : trees) {
+            for (final Number value : engine.measure(tree))
+                sum += value.doubleValue();
+        }
+        return sum;
+    }
+
+}
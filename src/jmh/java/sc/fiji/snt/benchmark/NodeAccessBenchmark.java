@@ -0,0 +1,172 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2021 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import sc.fiji.snt.NodeCursor;
+import sc.fiji.snt.Path;
+import sc.fiji.snt.Tree;
+import sc.fiji.snt.io.SWCColumns;
+import sc.fiji.snt.util.BoundingBox;
+import sc.fiji.snt.util.PointInImage;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares node access through {@link Tree#getNodes()} and {@link Path#getNode(int)}, which allocate a
+ * {@link PointInImage} per node, against the primitive accessors, {@link NodeCursor}s and bulk copies of
+ * {@link Path} and {@link Tree}, on a synthetic reconstruction. Allocation rates are best compared with the
+ * GC profiler, e.g., {@code -Djmh.args="NodeAccessBenchmark -prof gc"}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+@State(Scope.Benchmark)
+public class NodeAccessBenchmark {
+
+    @Param({"10000", "100000"})
+    public int nodes;
+
+    private Tree tree;
+    private double[] coordinates;
+    private PointInImage target;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        tree = syntheticTree(nodes, new Random(42));
+        coordinates = new double[3 * tree.getNodesCount()];
+        target = new PointInImage(5010, 4010, 3005);
+    }
+
+    @Benchmark
+    public double boundingBoxLegacy() {
+        final BoundingBox box = new BoundingBox();
+        box.compute(tree.getNodes().iterator());
+        return box.width();
+    }
+
+    @Benchmark
+    public double boundingBoxCursor() {
+        return tree.getBoundingBox(true).width();
+    }
+
+    @Benchmark
+    public double centroidLegacy() {
+        double sum = 0;
+        for (final PointInImage p : tree.getNodes())
+            sum += p.x + p.y + p.z;
+        return sum;
+    }
+
+    @Benchmark
+    public double centroidCursor() {
+        double sum = 0;
+        final NodeCursor cursor = tree.cursor();
+        while (cursor.next())
+            sum += cursor.getX() + cursor.getY() + cursor.getZ();
+        return sum;
+    }
+
+    @Benchmark
+    public double centroidBulkCopy() {
+        final int n = tree.copyNodeCoordinates(coordinates);
+        double sum = 0;
+        for (int i = 0; i < 3 * n; i++)
+            sum += coordinates[i];
+        return sum;
+    }
+
+    @Benchmark
+    public double interNodeDistanceLegacy() {
+        double sum = 0;
+        for (final Path p : tree.list()) {
+            for (int i = 1; i < p.size(); i++)
+                sum += p.getNode(i).distanceTo(p.getNode(i - 1));
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double interNodeDistancePrimitive() {
+        double sum = 0;
+        for (final Path p : tree.list()) {
+            for (int i = 1; i < p.size(); i++)
+                sum += p.distanceBetweenNodes(i, i - 1);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int nearestNodeLegacy() {
+        int hits = 0;
+        for (final Path p : tree.list()) {
+            double minimumDistanceSquared = 100;
+            PointInImage closest = null;
+            for (int i = 0; i < p.size(); i++) {
+                final PointInImage node = p.getNode(i);
+                final double d = node.distanceSquaredTo(target);
+                if (d < minimumDistanceSquared) {
+                    closest = node;
+                    minimumDistanceSquared = d;
+                }
+            }
+            if (closest != null) hits++;
+        }
+        return hits;
+    }
+
+    @Benchmark
+    public int nearestNodePrimitive() {
+        int hits = 0;
+        for (final Path p : tree.list()) {
+            if (p.nearestNodeTo(target, 10) != null) hits++;
+        }
+        return hits;
+    }
+
+    /* A random walk that branches every ~50 nodes, with coordinates in microns */
+    static Tree syntheticTree(final int size, final Random random) {
+        final SWCColumns swc = new SWCColumns(size);
+        swc.add(1, 1, 5000, 4000, 3000, 6, -1);
+        double x = 5000, y = 4000, z = 3000;
+        int parent = 1;
+        for (int id = 2; id <= size; id++) {
+            if (random.nextInt(50) == 0) { // start a branch from a random node
+                parent = 1 + random.nextInt(id - 1);
+                x = swc.getX(parent - 1);
+                y = swc.getY(parent - 1);
+                z = swc.getZ(parent - 1);
+            }
+            x += random.nextGaussian() * 2;
+            y += random.nextGaussian() * 2;
+            z += random.nextGaussian();
+            swc.add(id, 2 + random.nextInt(2), x, y, z, 0.5 + random.nextDouble(), parent);
+            parent = id;
+        }
+        return new Tree(swc.toPoints(), "synthetic");
+    }
+
+}
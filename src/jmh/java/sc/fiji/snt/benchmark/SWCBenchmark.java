@@ -0,0 +1,193 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2021 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import sc.fiji.snt.PathAndFillManager;
+import sc.fiji.snt.io.SWCColumns;
+import sc.fiji.snt.util.SWCPoint;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the streaming SWC reader/writer ({@link SWCColumns}) against the legacy implementation
+ * (per-line regular expressions and {@code String.split()} into a {@code TreeSet<SWCPoint>}, and
+ * {@link SWCPoint#flush(java.util.Collection, PrintWriter)}), on a synthetic, MouseLight-like
+ * reconstruction. The {@code import*} benchmarks include the assembly of paths by
+ * {@link PathAndFillManager}, the {@code parse*} and {@code write*} ones only I/O. E.g.,
+ * {@code -Djmh.args="SWCBenchmark -p nodes=100000 -prof gc"}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+@State(Scope.Benchmark)
+public class SWCBenchmark {
+
+    @Param({"10000", "100000"})
+    public int nodes;
+
+    private File file;
+    private String contents;
+    private List<SWCPoint> points;
+    private SWCColumns columns;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        contents = syntheticSWC(nodes, new Random(42));
+        file = File.createTempFile("snt-benchmark", ".swc");
+        file.deleteOnExit();
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+        columns = SWCColumns.read(new StringReader(contents));
+        points = columns.toPoints();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (file != null) file.delete();
+    }
+
+    @Benchmark
+    public int importLegacy() throws IOException {
+        try (BufferedReader br = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            return PathAndFillManager.createFromNodes(legacyParse(br)).size();
+        }
+    }
+
+    @Benchmark
+    public int importStreaming() {
+        final PathAndFillManager pafm = new PathAndFillManager();
+        pafm.setHeadless(true);
+        pafm.importSWC(file.getAbsolutePath(), false, 0, 0, 0, 1, 1, 1, false);
+        return pafm.size();
+    }
+
+    @Benchmark
+    public int parseLegacy() throws IOException {
+        return legacyParse(new BufferedReader(new StringReader(contents))).size();
+    }
+
+    @Benchmark
+    public int parseStreaming() throws IOException {
+        return SWCColumns.read(new StringReader(contents)).size();
+    }
+
+    @Benchmark
+    public int writeLegacy() {
+        final CountingWriter writer = new CountingWriter();
+        SWCPoint.flush(points, new PrintWriter(writer));
+        return writer.count;
+    }
+
+    @Benchmark
+    public int writeStreaming() throws IOException {
+        final CountingWriter writer = new CountingWriter();
+        SWCColumns.fromPoints(points).write(writer);
+        return writer.count;
+    }
+
+    /* The parsing loop of PathAndFillManager#importSWC prior to SWCColumns */
+    private static TreeSet<SWCPoint> legacyParse(final BufferedReader br) throws IOException {
+        final Pattern pEmpty = Pattern.compile("^\\s*$");
+        final Pattern pComment = Pattern.compile("^([^#]*)#.*$");
+        final TreeSet<SWCPoint> nodes = new TreeSet<>();
+        String line;
+        while ((line = br.readLine()) != null) {
+            final Matcher mComment = pComment.matcher(line);
+            line = mComment.replaceAll("$1").trim();
+            final Matcher mEmpty = pEmpty.matcher(line);
+            if (mEmpty.matches()) continue;
+            final String[] fields = line.split("\\s+");
+            final int type = Integer.parseInt(fields[1]);
+            final int id = Integer.parseInt(fields[0]);
+            final double x = Double.parseDouble(fields[2]);
+            final double y = Double.parseDouble(fields[3]);
+            final double z = Double.parseDouble(fields[4]);
+            final double radius = Double.parseDouble(fields[5]);
+            final int previous = Integer.parseInt(fields[6]);
+            nodes.add(new SWCPoint(id, type, x, y, z, radius, previous));
+        }
+        return nodes;
+    }
+
+    /* A random walk that branches every ~50 nodes, with coordinates in microns */
+    private static String syntheticSWC(final int size, final Random random) {
+        final SWCColumns swc = new SWCColumns(size);
+        swc.add(1, 1, 5000, 4000, 3000, 6, -1);
+        double x = 5000, y = 4000, z = 3000;
+        int parent = 1;
+        for (int id = 2; id <= size; id++) {
+            if (random.nextInt(50) == 0) { // start a branch from a random node
+                parent = 1 + random.nextInt(id - 1);
+                x = swc.getX(parent - 1);
+                y = swc.getY(parent - 1);
+                z = swc.getZ(parent - 1);
+            }
+            x += random.nextGaussian() * 2;
+            y += random.nextGaussian() * 2;
+            z += random.nextGaussian();
+            swc.add(id, 2 + random.nextInt(2), x, y, z, 0.5 + random.nextDouble(), parent);
+            parent = id;
+        }
+        final StringWriter writer = new StringWriter();
+        writer.write("# Synthetic reconstruction" + System.lineSeparator());
+        try {
+            swc.write(writer);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return writer.toString();
+    }
+
+    private static class CountingWriter extends Writer {
+        int count;
+
+        @Override
+        public void write(final char[] cbuf, final int off, final int len) {
+            count += len;
+        }
+
+        @Override
+        public void write(final String str, final int off, final int len) {
+            count += len;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+}
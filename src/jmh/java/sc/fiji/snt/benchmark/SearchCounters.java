@@ -0,0 +1,62 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2021 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import sc.fiji.snt.tracing.AbstractSearch;
+
+/**
+ * Secondary metrics of search benchmarks. {@code nodes} is normalized by JMH into the number of nodes
+ * expanded per unit of time. The largest search state observed, as estimated by
+ * {@link AbstractSearch#estimatedMemoryInSearch()}, is kept across iterations and printed at the end of
+ * each trial: since searches only grow while running, the estimate taken when a search finishes is its
+ * peak.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class SearchCounters {
+
+    public long nodes;
+    private long peakBytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        nodes = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void printPeakMemory() {
+        System.out.println(String.format("Peak memory in search: %.1f MB", peakBytes / (1024d * 1024d)));
+    }
+
+    void record(final AbstractSearch search) {
+        nodes += search.pointsConsideredInSearch();
+        peakBytes = Math.max(peakBytes, search.estimatedMemoryInSearch());
+    }
+
+}
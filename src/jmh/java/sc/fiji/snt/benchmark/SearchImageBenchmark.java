@@ -0,0 +1,105 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2021 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import sc.fiji.snt.SNT;
+import sc.fiji.snt.tracing.DefaultSearchNode;
+import sc.fiji.snt.tracing.SearchThread;
+import sc.fiji.snt.tracing.image.SearchImage;
+import sc.fiji.snt.tracing.image.SupplierUtil;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Writes and reads {@link SearchImage} slices of the {@link SNT.SearchImageType}s that store
+ * {@link DefaultSearchNode}s, at a given fraction of occupied pixels. {@code PACKED} searches do not use
+ * {@link SearchImage}s and are covered by {@link TracingBenchmark} and {@link FillingBenchmark}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SearchImageBenchmark {
+
+    private static final int SIZE = 512;
+    private static final int ACCESSES = 1 << 14;
+
+    @Param({"ARRAY", "MAP"})
+    public SNT.SearchImageType imageType;
+
+    /* Fraction of the slice that is occupied by nodes */
+    @Param({"0.01", "0.1", "0.5"})
+    public double occupancy;
+
+    private Supplier<SearchImage<DefaultSearchNode>> supplier;
+    private SearchImage<DefaultSearchNode> slice;
+    private int[] xs;
+    private int[] ys;
+    private DefaultSearchNode[] nodes;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        supplier = SupplierUtil.createSupplier(imageType, DefaultSearchNode.class, SIZE, SIZE);
+        final Random random = new Random(42);
+        final int n = (int) (occupancy * SIZE * SIZE);
+        xs = new int[n];
+        ys = new int[n];
+        nodes = new DefaultSearchNode[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = random.nextInt(SIZE);
+            ys[i] = random.nextInt(SIZE);
+            nodes[i] = new DefaultSearchNode(xs[i], ys[i], 0, 0, 0, null, SearchThread.FREE);
+        }
+        slice = fill(supplier.get());
+    }
+
+    private SearchImage<DefaultSearchNode> fill(final SearchImage<DefaultSearchNode> image) {
+        for (int i = 0; i < nodes.length; i++)
+            image.setValue(xs[i], ys[i], nodes[i]);
+        return image;
+    }
+
+    /* Allocation of a new slice and insertion of all nodes */
+    @Benchmark
+    public SearchImage<DefaultSearchNode> newSliceAndSet() {
+        return fill(supplier.get());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ACCESSES)
+    public int get() {
+        int found = 0;
+        for (int i = 0; i < ACCESSES; i++) {
+            final int j = i % xs.length;
+            // Alternate hits with (likely) misses
+            if (slice.getValue(xs[j], (i % 2 == 0) ? ys[j] : SIZE - 1 - ys[j]) != null) found++;
+        }
+        return found;
+    }
+
+}
@@ -0,0 +1,111 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2021 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import sc.fiji.snt.SNT;
+import sc.fiji.snt.tracing.*;
+import sc.fiji.snt.tracing.cost.Cost;
+import sc.fiji.snt.tracing.heuristic.Heuristic;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Traces the path between the end points of a {@link BenchmarkVolume} with every combination of
+ * {@link SNT.SearchType}, {@link SNT.CostType}, {@link SNT.HeuristicType} and {@link SNT.SearchImageType}.
+ * <p>
+ * Besides the time per search, JMH reports the secondary metrics of {@link SearchCounters}: the
+ * throughput in nodes expanded per millisecond ({@code nodes}) and the peak memory held by the search
+ * state, printed at the end of each trial. Allocation rates are reported by the GC profiler ({@code -prof gc}, enabled by
+ * default in the {@code benchmarks} profile). Combinations can be narrowed down with {@code -p}, e.g.,
+ * {@code -Djmh.args="TracingBenchmark -p volume=synthetic -p imageType=PACKED -prof gc"}.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+@State(Scope.Benchmark)
+public class TracingBenchmark {
+
+    @Param({BenchmarkVolume.SYNTHETIC, BenchmarkVolume.OP_1})
+    public String volume;
+
+    @Param({"ASTAR", "NBASTAR", "MULTISCALE"})
+    public SNT.SearchType searchType;
+
+    @Param({"RECIPROCAL", "PROBABILITY", "DIFFERENCE", "DIFFERENCE_SQUARED"})
+    public SNT.CostType costType;
+
+    @Param({"EUCLIDEAN", "DIJKSTRA"})
+    public SNT.HeuristicType heuristicType;
+
+    @Param({"ARRAY", "MAP", "PACKED"})
+    public SNT.SearchImageType imageType;
+
+    private BenchmarkVolume data;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        data = BenchmarkVolume.load(volume);
+    }
+
+    private AbstractSearch createSearch() {
+        final Cost cost = data.cost(costType);
+        final Heuristic heuristic = data.heuristic(heuristicType);
+        final int[] s = data.start;
+        final int[] g = data.goal;
+        if (searchType == SNT.SearchType.MULTISCALE) {
+            return new MultiScaleSearch(data.img, data.cal, s[0], s[1], s[2], g[0], g[1], g[2], -1, 0,
+                    imageType, cost, heuristic);
+        }
+        final boolean packed = imageType == SNT.SearchImageType.PACKED;
+        switch (searchType) {
+            case ASTAR:
+                return (packed)
+                        ? new PackedTracerThread(data.img, data.cal, s[0], s[1], s[2], g[0], g[1], g[2], -1, 0,
+                        cost, heuristic)
+                        : new TracerThread(data.img, data.cal, s[0], s[1], s[2], g[0], g[1], g[2], -1, 0,
+                        imageType, cost, heuristic);
+            case NBASTAR:
+                return (packed)
+                        ? new PackedBiSearch(data.img, data.cal, s[0], s[1], s[2], g[0], g[1], g[2], -1, 0,
+                        cost, heuristic)
+                        : new BiSearch(data.img, data.cal, s[0], s[1], s[2], g[0], g[1], g[2], -1, 0,
+                        imageType, cost, heuristic);
+            default:
+                throw new IllegalArgumentException("Unknown search type " + searchType);
+        }
+    }
+
+    @Benchmark
+    public void trace(final SearchCounters counters, final Blackhole blackhole) {
+        final AbstractSearch search = createSearch();
+        search.run();
+        counters.record(search);
+        blackhole.consume(search.getResult());
+    }
+
+}
@@ -133,6 +133,22 @@ public class Fill {
 	}
 
 	public void writeXML(final PrintWriter pw, final int fillIndex) {
+		writeXML(pw, fillIndex, false);
+	}
+
+	/**
+	 * Writes this fill as a {@code <fill>} XML element.
+	 *
+	 * @param pw the writer
+	 * @param fillIndex the id of the fill
+	 * @param compact if true, nodes are stored in the (deflated) binary encoding
+	 *          of {@link FillCodec}, as Base64 text. Otherwise, or if the fill
+	 *          cannot be encoded (see {@link FillCodec#canEncode(Fill)}), each
+	 *          node is written as a {@code <node>} element
+	 */
+	public void writeXML(final PrintWriter pw, final int fillIndex,
+		final boolean compact)
+	{
 		pw.print("  <fill id=\"" + fillIndex + "\"");
 		if ((sourcePaths != null) && (sourcePaths.size() > 0)) {
 			pw.print(" frompaths=\"");
@@ -140,9 +156,15 @@ public class Fill {
 			pw.print("\"");
 		}
 		pw.print(" volume=\"" + getVolume() + "\"");
-		pw.println(" metric=\"" + getMetric().toString() + "\" threshold=\"" + getThreshold() +
-			"\">");
-		writeNodesXML(pw);
+		pw.print(" metric=\"" + getMetric().toString() + "\" threshold=\"" + getThreshold() + "\"");
+		if (compact && FillCodec.canEncode(this)) {
+			pw.println(" encoding=\"" + FillCodec.XML_ENCODING + "\">");
+			pw.println(FillCodec.toBase64(this, true));
+		}
+		else {
+			pw.println(">");
+			writeNodesXML(pw);
+		}
 		pw.println("  </fill>");
 	}
 
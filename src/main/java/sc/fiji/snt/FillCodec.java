@@ -0,0 +1,484 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2021 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt;
+
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import sc.fiji.snt.tracing.image.PackedNodeStore;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compact binary encoding of {@link Fill}s. Fill nodes are sorted in raster order and their positions stored as
+ * runs of consecutive voxels along X. For each node, the status and the position of its predecessor (as a step
+ * to one of its 26 neighbors) are packed in a single byte, followed by its distance. The encoded data can be
+ * optionally deflated.
+ * <p>
+ * Besides decoding into a {@link Fill}, encoded fills can be streamed node by node (see
+ * {@link #stream(InputStream, NodeConsumer)}), so that e.g., {@link FillConverter} outputs can be
+ * assembled without holding all nodes in memory. Note that this applies to raw encoded streams (e.g.,
+ * files written by {@link #write(Fill, OutputStream, boolean)}): Fills embedded in traces files are
+ * decoded in memory when the file is loaded.
+ * </p>
+ * <p>
+ * Voxel coordinates must be within 0 and 2<sup>21</sup>-1 (see {@link #canEncode(Fill)}).
+ * </p>
+ *
+ * @see PathAndFillManager#setCompactFillStorage(boolean)
+ */
+public class FillCodec {
+
+	/** The value of the {@code encoding} attribute of compact {@code <fill>} XML elements */
+	public static final String XML_ENCODING = "snt-rle";
+
+	private static final int MAGIC = 0x534E5446; // "SNTF"
+	private static final byte VERSION = 1;
+	private static final byte FLAG_DEFLATED = 1;
+
+	private static final int NO_PARENT = PackedNodeStore.NO_PARENT;
+	private static final int FAR_PARENT = 27;
+	private static final int OPEN_BIT = 0x80;
+	private static final int COORDINATE_BITS = 21;
+	private static final long COORDINATE_MASK = (1L << COORDINATE_BITS) - 1;
+	private static final int MAX_COORDINATE = (int) COORDINATE_MASK;
+
+	private FillCodec() {}
+
+	/**
+	 * Checks whether the specified fill can be encoded, i.e., whether all of its
+	 * node coordinates are within 0 and 2<sup>21</sup>-1.
+	 *
+	 * @param fill the fill to be checked
+	 * @return true if the fill can be encoded
+	 */
+	public static boolean canEncode(final Fill fill) {
+		for (final Fill.Node node : fill.getNodeList()) {
+			if (!isValid(node.x, node.y, node.z)) return false;
+		}
+		return true;
+	}
+
+	private static boolean isValid(final int x, final int y, final int z) {
+		return x >= 0 && y >= 0 && z >= 0 && x <= MAX_COORDINATE &&
+			y <= MAX_COORDINATE && z <= MAX_COORDINATE;
+	}
+
+	/**
+	 * Receives the nodes of an encoded fill, in raster order (Z, then Y, then
+	 * X).
+	 */
+	@FunctionalInterface
+	public interface NodeConsumer {
+		void accept(int x, int y, int z, double distance, boolean open);
+	}
+
+	/**
+	 * Encodes the specified fill.
+	 *
+	 * @param fill the fill to be encoded
+	 * @param out the output stream. It is not closed by this method
+	 * @param compress whether the encoded data should be deflated
+	 * @throws IOException if an I/O error occurs
+	 * @throws IllegalArgumentException if the fill has coordinates that cannot
+	 *           be encoded
+	 * @see #canEncode(Fill)
+	 */
+	public static void write(final Fill fill, final OutputStream out,
+		final boolean compress) throws IOException, IllegalArgumentException
+	{
+		for (final Fill.Node node : fill.getNodeList()) {
+			if (!isValid(node.x, node.y, node.z)) throw new IllegalArgumentException(
+				"Fill node coordinates out of range [0, " + MAX_COORDINATE + "]: " +
+					node.x + "," + node.y + "," + node.z);
+		}
+		final DataOutputStream header = new DataOutputStream(out);
+		header.writeInt(MAGIC);
+		header.writeByte(VERSION);
+		header.writeByte(compress ? FLAG_DEFLATED : 0);
+		header.flush();
+		final DeflaterOutputStream deflater = (compress) ? new DeflaterOutputStream(
+			out, new Deflater(Deflater.BEST_SPEED), 65536) : null;
+		final DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+			(compress) ? deflater : out, 65536));
+		writeBody(fill, dos);
+		dos.flush();
+		if (deflater != null) deflater.finish();
+		out.flush();
+	}
+
+	/**
+	 * Encodes the specified fill as a Base64 string, suitable for embedding in
+	 * XML.
+	 *
+	 * @param fill the fill to be encoded
+	 * @param compress whether the encoded data should be deflated
+	 * @return the encoded fill
+	 * @throws IllegalArgumentException if the fill has coordinates that cannot
+	 *           be encoded
+	 */
+	public static String toBase64(final Fill fill, final boolean compress)
+		throws IllegalArgumentException
+	{
+		final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try {
+			write(fill, bos, compress);
+		}
+		catch (final IOException e) {
+			throw new IllegalStateException(e); // cannot happen with in-memory streams
+		}
+		return Base64.getEncoder().encodeToString(bos.toByteArray());
+	}
+
+	/**
+	 * Decodes a fill.
+	 *
+	 * @param in the input stream holding the encoded fill
+	 * @return the decoded fill. Note that source paths are not encoded.
+	 * @throws IOException if an I/O error occurs or if data is not a valid
+	 *           encoded fill
+	 */
+	public static Fill read(final InputStream in) throws IOException {
+		final Fill fill = new Fill();
+		read(in, fill);
+		return fill;
+	}
+
+	/**
+	 * Decodes a fill from a Base64 string.
+	 *
+	 * @see #read(InputStream)
+	 * @see #toBase64(Fill, boolean)
+	 */
+	public static Fill fromBase64(final String encoded) throws IOException {
+		return read(new ByteArrayInputStream(Base64.getMimeDecoder().decode(encoded)));
+	}
+
+	/**
+	 * Decodes the specified fill, appending its nodes and parameters to an
+	 * existing {@link Fill}.
+	 *
+	 * @param in the input stream holding the encoded fill
+	 * @param fill the fill to be populated
+	 * @throws IOException if an I/O error occurs or if data is not a valid
+	 *           encoded fill
+	 */
+	public static void read(final InputStream in, final Fill fill) throws IOException {
+		final DataInputStream dis = open(in);
+		readParameters(dis, fill);
+		final int nodeCount = dis.readInt();
+		if (nodeCount < 0) throw new IOException("Corrupted fill data: " + nodeCount + " nodes");
+		final int[] xs = new int[nodeCount];
+		final int[] ys = new int[nodeCount];
+		final int[] zs = new int[nodeCount];
+		readRuns(dis, xs, ys, zs);
+		final Long2IntOpenHashMap indices = new Long2IntOpenHashMap(nodeCount);
+		indices.defaultReturnValue(-1);
+		for (int i = 0; i < nodeCount; i++)
+			indices.put(key(xs[i], ys[i], zs[i]), i);
+		final int offset = fill.getNodeList().size();
+		for (int i = 0; i < nodeCount; i++) {
+			final int flags = dis.readUnsignedByte();
+			final int direction = flags & ~OPEN_BIT;
+			int previous;
+			if (direction == NO_PARENT) {
+				previous = -1;
+			}
+			else if (direction == FAR_PARENT) {
+				previous = readVarInt(dis);
+				if (previous < 0 || previous >= nodeCount || previous == i)
+					throw new IOException("Corrupted fill data: invalid predecessor " +
+						previous + " of node " + i);
+			}
+			else if (direction < FAR_PARENT) {
+				previous = indices.get(key(xs[i] - (direction % 3 - 1), ys[i] -
+					((direction / 3) % 3 - 1), zs[i] - (direction / 9 - 1)));
+				if (previous < 0) throw new IOException(
+					"Corrupted fill data: missing predecessor of node " + i);
+			}
+			else {
+				throw new IOException("Corrupted fill data: invalid predecessor code " +
+					direction + " of node " + i);
+			}
+			fill.add(xs[i], ys[i], zs[i], dis.readDouble(), (previous < 0) ? -1
+				: previous + offset, (flags & OPEN_BIT) != 0);
+		}
+	}
+
+	/**
+	 * Streams the nodes of an encoded fill, without assembling a {@link Fill}.
+	 * Predecessors are not decoded.
+	 *
+	 * @param in the input stream holding the encoded fill
+	 * @param consumer the consumer of fill nodes
+	 * @return a {@link Fill} holding the parameters (threshold, metric and
+	 *         spacing) of the encoded fill, but no nodes
+	 * @throws IOException if an I/O error occurs or if data is not a valid
+	 *           encoded fill
+	 */
+	public static Fill stream(final InputStream in, final NodeConsumer consumer)
+		throws IOException
+	{
+		return stream(in, null, consumer);
+	}
+
+	/**
+	 * Streams the nodes of an encoded fill, without assembling a {@link Fill}.
+	 *
+	 * @param in the input stream holding the encoded fill
+	 * @param parametersConsumer if not null, receives the parameters of the
+	 *          fill (see {@link #stream(InputStream, NodeConsumer)}) before any
+	 *          node is streamed
+	 * @param consumer the consumer of fill nodes
+	 * @return a {@link Fill} holding the parameters of the encoded fill
+	 * @throws IOException if an I/O error occurs or if data is not a valid
+	 *           encoded fill
+	 */
+	public static Fill stream(final InputStream in,
+		final Consumer<Fill> parametersConsumer, final NodeConsumer consumer)
+		throws IOException
+	{
+		final DataInputStream dis = open(in);
+		final Fill parameters = new Fill();
+		readParameters(dis, parameters);
+		if (parametersConsumer != null) parametersConsumer.accept(parameters);
+		final int nodeCount = dis.readInt();
+		// Runs precede node data: keep them as (compact) run descriptors only
+		final int runCount = dis.readInt();
+		if (nodeCount < 0 || runCount < 0 || runCount > nodeCount)
+			throw new IOException("Corrupted fill data");
+		final int[] runs = new int[runCount * 4];
+		int x = 0, y = 0, z = 0;
+		for (int r = 0; r < runCount; r++) {
+			z += readZigZag(dis);
+			y += readZigZag(dis);
+			x += readZigZag(dis);
+			final int length = readVarInt(dis);
+			if (length < 1 || !isValid(x, y, z) || !isValid(x + length - 1, y, z))
+				throw new IOException("Corrupted fill data");
+			runs[4 * r] = x;
+			runs[4 * r + 1] = y;
+			runs[4 * r + 2] = z;
+			runs[4 * r + 3] = length;
+		}
+		int read = 0;
+		for (int r = 0; r < runCount; r++) {
+			for (int i = 0; i < runs[4 * r + 3]; i++) {
+				final int flags = dis.readUnsignedByte();
+				final int direction = flags & ~OPEN_BIT;
+				if (direction > FAR_PARENT) throw new IOException(
+					"Corrupted fill data: invalid predecessor code " + direction);
+				if (direction == FAR_PARENT) {
+					final int previous = readVarInt(dis);
+					if (previous < 0 || previous >= nodeCount) throw new IOException(
+						"Corrupted fill data: invalid predecessor " + previous);
+				}
+				consumer.accept(runs[4 * r] + i, runs[4 * r + 1], runs[4 * r + 2], dis
+					.readDouble(), (flags & OPEN_BIT) != 0);
+				read++;
+			}
+		}
+		if (read != nodeCount) throw new IOException("Corrupted fill data: " +
+			read + " nodes read, " + nodeCount + " expected");
+		return parameters;
+	}
+
+	private static DataInputStream open(final InputStream in) throws IOException {
+		final DataInputStream header = new DataInputStream(in);
+		if (header.readInt() != MAGIC) throw new IOException("Not an encoded fill");
+		final byte version = header.readByte();
+		if (version > VERSION) throw new IOException(
+			"Unsupported fill encoding version: " + version);
+		final boolean deflated = (header.readByte() & FLAG_DEFLATED) != 0;
+		return new DataInputStream(new BufferedInputStream((deflated)
+			? new InflaterInputStream(in) : in, 65536));
+	}
+
+	private static void writeBody(final Fill fill, final DataOutputStream dos)
+		throws IOException
+	{
+		dos.writeUTF((fill.getMetric() == null) ? "" : fill.getMetric().name());
+		dos.writeDouble(fill.getThreshold());
+		dos.writeDouble(fill.x_spacing);
+		dos.writeDouble(fill.y_spacing);
+		dos.writeDouble(fill.z_spacing);
+		dos.writeUTF((fill.spacing_units == null) ? "" : fill.spacing_units);
+
+		final List<Fill.Node> nodes = fill.getNodeList();
+		final int n = nodes.size();
+		final long[] keys = new long[n];
+		final int[] order = new int[n];
+		for (int i = 0; i < n; i++) {
+			final Fill.Node node = nodes.get(i);
+			keys[i] = key(node.x, node.y, node.z);
+			order[i] = i;
+		}
+		IntArrays.quickSort(order, (a, b) -> Long.compare(keys[a], keys[b]));
+		final int[] rank = new int[n];
+		for (int i = 0; i < n; i++)
+			rank[order[i]] = i;
+		dos.writeInt(n);
+
+		// Runs of consecutive voxels along X
+		int runCount = 0;
+		for (int i = 0; i < n; i++) {
+			if (i == 0 || keys[order[i]] != keys[order[i - 1]] + 1) runCount++;
+		}
+		dos.writeInt(runCount);
+		int lastX = 0, lastY = 0, lastZ = 0;
+		for (int i = 0; i < n;) {
+			int j = i + 1;
+			while (j < n && keys[order[j]] == keys[order[j - 1]] + 1)
+				j++;
+			final Fill.Node first = nodes.get(order[i]);
+			writeZigZag(dos, first.z - lastZ);
+			writeZigZag(dos, first.y - lastY);
+			writeZigZag(dos, first.x - lastX);
+			writeVarInt(dos, j - i);
+			lastX = first.x;
+			lastY = first.y;
+			lastZ = first.z;
+			i = j;
+		}
+
+		for (int i = 0; i < n; i++) {
+			final Fill.Node node = nodes.get(order[i]);
+			final int open = (node.open) ? OPEN_BIT : 0;
+			if (node.previous < 0 || node.previous >= n) {
+				dos.writeByte(NO_PARENT | open);
+			}
+			else {
+				final Fill.Node previous = nodes.get(node.previous);
+				final int dx = node.x - previous.x;
+				final int dy = node.y - previous.y;
+				final int dz = node.z - previous.z;
+				final int p = rank[node.previous];
+				final boolean unique = (p == 0 || keys[order[p - 1]] != keys[order[p]]) &&
+					(p == n - 1 || keys[order[p + 1]] != keys[order[p]]);
+				if (unique && Math.abs(dx) <= 1 && Math.abs(dy) <= 1 && Math.abs(dz) <= 1 &&
+					(dx != 0 || dy != 0 || dz != 0))
+				{
+					dos.writeByte(PackedNodeStore.direction(dx, dy, dz) | open);
+				}
+				else {
+					dos.writeByte(FAR_PARENT | open);
+					writeVarInt(dos, p);
+				}
+			}
+			dos.writeDouble(node.distance);
+		}
+	}
+
+	private static void readParameters(final DataInputStream dis, final Fill fill)
+		throws IOException
+	{
+		final String metric = dis.readUTF();
+		if (!metric.isEmpty()) {
+			try {
+				fill.setMetric(SNT.CostType.valueOf(metric));
+			}
+			catch (final IllegalArgumentException e) {
+				throw new IOException("Unknown fill metric: " + metric);
+			}
+		}
+		fill.setThreshold(dis.readDouble());
+		final double x = dis.readDouble();
+		final double y = dis.readDouble();
+		final double z = dis.readDouble();
+		fill.setSpacing(x, y, z, dis.readUTF());
+	}
+
+	private static void readRuns(final DataInputStream dis, final int[] xs,
+		final int[] ys, final int[] zs) throws IOException
+	{
+		final int runCount = dis.readInt();
+		int x = 0, y = 0, z = 0, i = 0;
+		for (int r = 0; r < runCount; r++) {
+			z += readZigZag(dis);
+			y += readZigZag(dis);
+			x += readZigZag(dis);
+			final int length = readVarInt(dis);
+			if (length < 1 || i + length > xs.length || !isValid(x, y, z) || !isValid(x +
+				length - 1, y, z)) throw new IOException("Corrupted fill data");
+			for (int k = 0; k < length; k++, i++) {
+				xs[i] = x + k;
+				ys[i] = y;
+				zs[i] = z;
+			}
+		}
+		if (i != xs.length) throw new IOException("Corrupted fill data");
+	}
+
+	/* Raster-order key. Consecutive voxels along X have consecutive keys */
+	private static long key(final int x, final int y, final int z) {
+		return ((z & COORDINATE_MASK) << (2 * COORDINATE_BITS)) |
+			((y & COORDINATE_MASK) << COORDINATE_BITS) | (x & COORDINATE_MASK);
+	}
+
+	private static void writeVarInt(final DataOutputStream dos, int value)
+		throws IOException
+	{
+		while ((value & ~0x7F) != 0) {
+			dos.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		dos.writeByte(value);
+	}
+
+	private static int readVarInt(final DataInputStream dis) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			final int b = dis.read();
+			if (b < 0) throw new EOFException();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+		throw new IOException("Corrupted fill data");
+	}
+
+	private static void writeZigZag(final DataOutputStream dos, final int value)
+		throws IOException
+	{
+		writeVarInt(dos, (value << 1) ^ (value >> 31));
+	}
+
+	private static int readZigZag(final DataInputStream dis) throws IOException {
+		final int value = readVarInt(dis);
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+}
@@ -34,6 +34,8 @@ import sc.fiji.snt.tracing.image.SearchImage;
 import sc.fiji.snt.tracing.image.SearchImageStack;
 import sc.fiji.snt.tracing.image.SupplierUtil;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collection;
 import java.util.List;
 
@@ -162,6 +164,79 @@ public class FillConverter {
         }
     }
 
+    /**
+     * Sets 1 at the (sub-threshold) voxel positions of a fill encoded with {@link FillCodec}. Nodes are streamed
+     * from the input, so that the fill is never held in memory.
+     *
+     * @param encodedFill the input stream holding the raw (not Base64) encoded fill, e.g., a file written by
+     *                    {@link FillCodec#write(Fill, java.io.OutputStream, boolean)}
+     * @param out         the output rai
+     * @param <T>
+     * @throws IOException if the fill could not be read
+     */
+    public static <T extends SetOne> void convertBinary(final InputStream encodedFill,
+                                                        final RandomAccessible<T> out) throws IOException
+    {
+        final RandomAccess<T> outAccess = out.randomAccess();
+        stream(encodedFill, (pos, distance) -> outAccess.setPositionAndGet(pos).setOne());
+    }
+
+    /**
+     * Maps the node distances of a fill encoded with {@link FillCodec} to its (sub-threshold) voxel positions.
+     * Nodes are streamed from the input, so that the fill is never held in memory.
+     *
+     * @param encodedFill the input stream holding the raw (not Base64) encoded fill, e.g., a file written by
+     *                    {@link FillCodec#write(Fill, java.io.OutputStream, boolean)}
+     * @param out         the output rai
+     * @param <T>
+     * @throws IOException if the fill could not be read
+     * @see #convertDistance(RandomAccessible)
+     */
+    public static <T extends RealType<T>> void convertDistance(final InputStream encodedFill,
+                                                               final RandomAccessible<T> out) throws IOException
+    {
+        final RandomAccess<T> outAccess = out.randomAccess();
+        stream(encodedFill, (pos, distance) -> outAccess.setPositionAndGet(pos).setReal(distance));
+    }
+
+    /**
+     * Assigns a label to the (sub-threshold) voxel positions of a fill encoded with {@link FillCodec}. Nodes are
+     * streamed from the input, so that the fill is never held in memory. To label multiple fills, call this
+     * method once per fill. Note that, unlike {@link #convertLabels(RandomAccessible)}, voxels shared by multiple
+     * fills are assigned the label of the last converted fill.
+     *
+     * @param encodedFill the input stream holding the raw (not Base64) encoded fill, e.g., a file written by
+     *                    {@link FillCodec#write(Fill, java.io.OutputStream, boolean)}
+     * @param label       the label of the fill
+     * @param out         the output rai
+     * @param <T>
+     * @throws IOException if the fill could not be read
+     */
+    public static <T extends IntegerType<T>> void convertLabel(final InputStream encodedFill, final long label,
+                                                               final RandomAccessible<T> out) throws IOException
+    {
+        final RandomAccess<T> outAccess = out.randomAccess();
+        stream(encodedFill, (pos, distance) -> outAccess.setPositionAndGet(pos).setInteger(label));
+    }
+
+    private interface VoxelConsumer {
+        void accept(int[] pos, double distance);
+    }
+
+    /* Streams the sub-threshold nodes of an encoded fill. The threshold is only known once the header is read */
+    private static void stream(final InputStream encodedFill, final VoxelConsumer consumer) throws IOException {
+        final int[] pos = new int[3];
+        final double[] threshold = {Double.NaN};
+        FillCodec.stream(encodedFill, parameters -> threshold[0] = parameters.getThreshold(),
+                (x, y, z, distance, open) -> {
+                    if (distance > threshold[0]) return;
+                    pos[0] = x;
+                    pos[1] = y;
+                    pos[2] = z;
+                    consumer.accept(pos, distance);
+                });
+    }
+
     /**
      * Merges the input {@link FillerThread}s into a single {@link SearchImageStack}. When a filled voxel position
      * is present in multiple filler instances, the node with the lowest g-score is chosen for inclusion in the merged
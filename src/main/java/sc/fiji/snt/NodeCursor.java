@@ -0,0 +1,173 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2021 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt;
+
+import java.util.Collections;
+import java.util.List;
+
+import sc.fiji.snt.util.PointInImage;
+
+/**
+ * A reusable, allocation-free view over the nodes of one or more {@link Path}s.
+ * Rather than materializing a {@link PointInImage} per node, the cursor is
+ * advanced with {@link #next()} and node properties are read directly from the
+ * arrays backing the current Path. E.g.:
+ *
+ * <pre>
+ * final NodeCursor cursor = tree.cursor();
+ * while (cursor.next()) {
+ * 	sumX += cursor.getX();
+ * }
+ * </pre>
+ * <p>
+ * Paths should not be modified while being traversed. Nodes shared by
+ * connected Paths (i.e., fork points) are visited once per Path, as in
+ * {@link Tree#getNodes()}.
+ * </p>
+ *
+ * @see Path#cursor()
+ * @see Tree#cursor()
+ */
+public final class NodeCursor {
+
+	private final List<Path> paths;
+	private int pathIndex;
+	private Path path;
+	private int index;
+
+	NodeCursor(final Path path) {
+		this(Collections.singletonList(path));
+	}
+
+	NodeCursor(final List<Path> paths) {
+		this.paths = paths;
+		reset();
+	}
+
+	/**
+	 * Rewinds this cursor so that the next call to {@link #next()} moves it to
+	 * the first node.
+	 */
+	public void reset() {
+		pathIndex = -1;
+		path = null;
+		index = -1;
+	}
+
+	/**
+	 * Moves this cursor to the next node.
+	 *
+	 * @return true if the cursor points to a valid node, false if all nodes have
+	 *         been visited
+	 */
+	public boolean next() {
+		if (path != null && ++index < path.size()) return true;
+		while (++pathIndex < paths.size()) {
+			path = paths.get(pathIndex);
+			if (path.size() > 0) {
+				index = 0;
+				return true;
+			}
+		}
+		path = null;
+		return false;
+	}
+
+	/**
+	 * @return the Path of the current node
+	 */
+	public Path getPath() {
+		return path;
+	}
+
+	/**
+	 * @return the position of the current node in its Path
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return the x-coordinate of the current node (calibrated units)
+	 */
+	public double getX() {
+		return path.precise_x_positions[index];
+	}
+
+	/**
+	 * @return the y-coordinate of the current node (calibrated units)
+	 */
+	public double getY() {
+		return path.precise_y_positions[index];
+	}
+
+	/**
+	 * @return the z-coordinate of the current node (calibrated units)
+	 */
+	public double getZ() {
+		return path.precise_z_positions[index];
+	}
+
+	/**
+	 * @return the radius of the current node, or zero if its Path has no defined
+	 *         thickness
+	 */
+	public double getRadius() {
+		return (path.radii == null) ? 0 : path.radii[index];
+	}
+
+	/**
+	 * @return the value of the current node, or {@code NaN} if its Path has no
+	 *         assigned values
+	 * @see Path#getNodeValue(int)
+	 */
+	public double getValue() {
+		return (path.hasNodeValues()) ? path.getNodeValue(index) : Double.NaN;
+	}
+
+	/**
+	 * Computes the Euclidean distance between the current node and the specified
+	 * point.
+	 *
+	 * @param x the x-coordinate of the point
+	 * @param y the y-coordinate of the point
+	 * @param z the z-coordinate of the point
+	 * @return the distance to the point
+	 */
+	public double distanceTo(final double x, final double y, final double z) {
+		final double xd = getX() - x;
+		final double yd = getY() - y;
+		final double zd = getZ() - z;
+		return Math.sqrt(xd * xd + yd * yd + zd * zd);
+	}
+
+	/**
+	 * Materializes the current node. Note that this allocates a new object.
+	 *
+	 * @return the current node as a {@link PointInImage}
+	 */
+	public PointInImage getNode() {
+		return path.getNodeWithoutChecks(index);
+	}
+
+}
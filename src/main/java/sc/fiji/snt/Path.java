@@ -42,6 +42,7 @@ import java.awt.*;
 import java.awt.geom.Line2D;
 import java.util.List;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.stream.DoubleStream;
 
 /**
@@ -233,7 +234,7 @@ public class Path implements Comparable<Path> {
 		somehowJoins = new ArrayList<>();
 		children = new ArrayList<>();
 		ctPosition = new int[] {1, 1};
-		changeListeners = new ArrayList<>();
+		changeListeners = new CopyOnWriteArrayList<>();
 	}
 
 	/* (non-Javadoc)
@@ -382,7 +383,7 @@ public class Path implements Comparable<Path> {
 	public double getContraction() {
 		final double length = getLength();
 		if (length == 0) return Double.NaN;
-		final double eDistance = getNode(size() - 1).distanceTo(getNode(0));
+		final double eDistance = distanceBetweenNodes(size() - 1, 0);
 		return eDistance / length;
 	}
 
@@ -478,6 +479,7 @@ public class Path implements Comparable<Path> {
 		}
 		// update order
 		setOrder(other.order + 1);
+		fireConnectionsChanged();
 	}
 
 	protected void replaceNodesWithFittedVersion() {
@@ -488,6 +490,7 @@ public class Path implements Comparable<Path> {
 		precise_x_positions = fitted.precise_x_positions.clone();
 		precise_y_positions = fitted.precise_y_positions.clone();
 		precise_z_positions = fitted.precise_z_positions.clone();
+		fireNodesChanged();
 		if (fitted.radii != null) radii = fitted.radii.clone();
 		if (fitted.tangents_x != null) tangents_x = fitted.tangents_x.clone();
 		if (fitted.tangents_y != null) tangents_y = fitted.tangents_y.clone();
@@ -540,6 +543,7 @@ public class Path implements Comparable<Path> {
 			startJoinsPoint = null;
 		}
 		setOrder(-1);
+		fireConnectionsChanged();
 	}
 
 	protected double getMinimumSeparation() {
@@ -608,6 +612,112 @@ public class Path implements Comparable<Path> {
 		return result;
 	}
 
+	/**
+	 * Gets the x-coordinate of the specified node without allocating a
+	 * {@link PointInImage}. Unlike {@link #getNode(int)}, the position is not
+	 * validated.
+	 *
+	 * @param pos the node position (0-based)
+	 * @return the x-coordinate of the node (calibrated units)
+	 */
+	public double getNodeX(final int pos) {
+		return precise_x_positions[pos];
+	}
+
+	/**
+	 * Gets the y-coordinate of the specified node without allocating a
+	 * {@link PointInImage}.
+	 *
+	 * @param pos the node position (0-based)
+	 * @return the y-coordinate of the node (calibrated units)
+	 * @see #getNodeX(int)
+	 */
+	public double getNodeY(final int pos) {
+		return precise_y_positions[pos];
+	}
+
+	/**
+	 * Gets the z-coordinate of the specified node without allocating a
+	 * {@link PointInImage}.
+	 *
+	 * @param pos the node position (0-based)
+	 * @return the z-coordinate of the node (calibrated units)
+	 * @see #getNodeX(int)
+	 */
+	public double getNodeZ(final int pos) {
+		return precise_z_positions[pos];
+	}
+
+	/**
+	 * Computes the Euclidean distance between two nodes of this Path.
+	 *
+	 * @param pos1 the position of the first node (0-based)
+	 * @param pos2 the position of the second node (0-based)
+	 * @return the distance between the two nodes (calibrated units)
+	 */
+	public double distanceBetweenNodes(final int pos1, final int pos2) {
+		final double xd = precise_x_positions[pos1] - precise_x_positions[pos2];
+		final double yd = precise_y_positions[pos1] - precise_y_positions[pos2];
+		final double zd = precise_z_positions[pos1] - precise_z_positions[pos2];
+		return Math.sqrt(xd * xd + yd * yd + zd * zd);
+	}
+
+	/**
+	 * Copies the coordinates of all the nodes of this Path into the specified
+	 * array, interleaved as {x0, y0, z0, x1, y1, z1, ...}.
+	 *
+	 * @param dest the destination array. Must be able to hold
+	 *          {@code 3 * size()} elements from {@code offset}
+	 * @param offset the starting position in the destination array
+	 * @return the number of nodes copied, i.e., {@link #size()}
+	 * @throws IndexOutOfBoundsException if the destination array is too small
+	 */
+	public int copyNodeCoordinates(final double[] dest, final int offset)
+		throws IndexOutOfBoundsException
+	{
+		if (offset < 0 || offset + 3L * points > dest.length) {
+			throw new IndexOutOfBoundsException("Array cannot hold " + points +
+				" nodes from position " + offset);
+		}
+		for (int i = 0, j = offset; i < points; i++) {
+			dest[j++] = precise_x_positions[i];
+			dest[j++] = precise_y_positions[i];
+			dest[j++] = precise_z_positions[i];
+		}
+		return points;
+	}
+
+	/**
+	 * Copies the radii of all the nodes of this Path into the specified array.
+	 *
+	 * @param dest the destination array. Must be able to hold {@code size()}
+	 *          elements from {@code offset}
+	 * @param offset the starting position in the destination array
+	 * @return the number of nodes copied, i.e., {@link #size()}
+	 * @throws IndexOutOfBoundsException if the destination array is too small
+	 * @see #getNodeRadius(int)
+	 */
+	public int copyNodeRadii(final double[] dest, final int offset)
+		throws IndexOutOfBoundsException
+	{
+		if (offset < 0 || offset + (long) points > dest.length) {
+			throw new IndexOutOfBoundsException("Array cannot hold " + points +
+				" radii from position " + offset);
+		}
+		if (radii == null) Arrays.fill(dest, offset, offset + points, 0d);
+		else System.arraycopy(radii, 0, dest, offset, points);
+		return points;
+	}
+
+	/**
+	 * Returns a flyweight cursor over the nodes of this Path.
+	 *
+	 * @return a new {@link NodeCursor}, positioned before the first node
+	 */
+	public NodeCursor cursor() {
+		return new NodeCursor(this);
+	}
+
 	protected PointInCanvas getPointInCanvas(final int node) {
 		final PointInCanvas result = new PointInCanvas(getXUnscaledDouble(node), getYUnscaledDouble(node),
 				getZUnscaledDouble(node));
@@ -699,6 +809,7 @@ public class Path implements Comparable<Path> {
 		if (nodeValues != null) {
 			nodeValues = ArrayUtils.insert(index, nodeValues, Double.NaN);
 		}
+		fireNodesChanged();
 	}
 
 	/**
@@ -734,6 +845,7 @@ public class Path implements Comparable<Path> {
 			nodeValues = ArrayUtils.remove(nodeValues, index);
 		}
 		if (p.equals(startJoinsPoint)) startJoinsPoint = getNodeWithoutChecks(0);
+		fireNodesChanged();
 	}
 
 	/**
@@ -759,6 +871,7 @@ public class Path implements Comparable<Path> {
 				startJoinsPoint.z = destination.z;
 			}
 		}
+		fireNodesChanged();
 	}
 
 	/**
@@ -795,16 +908,18 @@ public class Path implements Comparable<Path> {
 		final double within)
 	{
 		double minimumDistanceSquared = within * within;
-		PointInImage closestNode = null;
+		int closestIndex = -1;
 		for (int i = 0; i < size(); ++i) {
-			final PointInImage cNode = getNodeWithoutChecks(i);
-			final double thisDistanceSquared = cNode.distanceSquaredTo(node);
+			final double xd = precise_x_positions[i] - node.x;
+			final double yd = precise_y_positions[i] - node.y;
+			final double zd = precise_z_positions[i] - node.z;
+			final double thisDistanceSquared = xd * xd + yd * yd + zd * zd;
 			if (thisDistanceSquared < minimumDistanceSquared) {
-				closestNode = cNode;
+				closestIndex = i;
 				minimumDistanceSquared = thisDistanceSquared;
 			}
 		}
-		return closestNode;
+		return (closestIndex == -1) ? null : getNodeWithoutChecks(closestIndex);
 	}
 
 	/**
@@ -842,6 +957,7 @@ public class Path implements Comparable<Path> {
 			if (thisDistanceSquared < minimumDistanceSquared) {
 				indexOfMinimum = i;
 				minimumDistanceSquared = thisDistanceSquared;
+				if (thisDistanceSquared == 0) break; // cannot get any closer
 			}
 		}
 
@@ -1181,6 +1297,7 @@ public class Path implements Comparable<Path> {
 		if (hasRadii()) {
 			setGuessedTangents(2);
 		}
+		fireNodesChanged();
 	}
 
 	protected void unsetPrimaryForConnected(final HashSet<Path> pathsExplored) {
@@ -1236,6 +1353,22 @@ public class Path implements Comparable<Path> {
 		precise_x_positions[points] = x;
 		precise_y_positions[points] = y;
 		precise_z_positions[points++] = z;
+		fireNodesChanged();
+	}
+
+	/*
+	 * Replaces the nodes of this Path with a range of the specified coordinate
+	 * arrays. Used by bulk importers to avoid appending nodes one at a time.
+	 */
+	void setNodes(final double[] xs, final double[] ys, final double[] zs, final int from,
+		final int count)
+	{
+		if (count > maxPoints) expandTo(count);
+		System.arraycopy(xs, from, precise_x_positions, 0, count);
+		System.arraycopy(ys, from, precise_y_positions, 0, count);
+		System.arraycopy(zs, from, precise_z_positions, 0, count);
+		points = count;
+		fireNodesChanged();
 	}
 
 	public void drawPathAsPoints(final TracerCanvas canvas, final Graphics2D g,
@@ -2026,6 +2159,7 @@ public class Path implements Comparable<Path> {
 		this.precise_x_positions = optimized_x.clone();
 		this.precise_y_positions = optimized_y.clone();
 		this.precise_z_positions = optimized_z.clone();
+		fireNodesChanged();
 	}
 
 	/**
@@ -2810,6 +2944,7 @@ public class Path implements Comparable<Path> {
 			lastIndex = fpi;
 		}
 		invalidate3DView();
+		fireNodesChanged();
 	}
 
 	/**
@@ -2877,6 +3012,20 @@ public class Path implements Comparable<Path> {
 		return changeListeners.remove(listener);
 	}
 
+	/* Notifies listeners that nodes were added, removed or displaced */
+	private void fireNodesChanged() {
+		if (changeListeners.isEmpty()) return;
+		final PathChangeEvent event = new PathChangeEvent(this, PathChangeEvent.EventType.NODES_CHANGED);
+		changeListeners.forEach(l -> l.pathChanged(event));
+	}
+
+	/* Notifies listeners that this path was connected to, or detached from, its parent */
+	private void fireConnectionsChanged() {
+		if (changeListeners.isEmpty()) return;
+		final PathChangeEvent event = new PathChangeEvent(this, PathChangeEvent.EventType.CONNECTIONS_CHANGED);
+		changeListeners.forEach(l -> l.pathChanged(event));
+	}
+
 // FIXME: Implementing hasCode() and equals() breaks current TreeAnalyzer tests
 //	@Override
 //	public int hashCode() {
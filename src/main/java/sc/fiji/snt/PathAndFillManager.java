@@ -27,6 +27,9 @@ import ij.gui.Roi;
 import ij.measure.Calibration;
 import ij3d.Content;
 import ij3d.UniverseListener;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntHeapPriorityQueue;
 import net.imagej.Dataset;
 import net.imagej.axis.Axes;
 import org.jgrapht.Graphs;
@@ -40,10 +43,14 @@ import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 import sc.fiji.snt.analysis.graph.DirectedWeightedGraph;
+import sc.fiji.snt.annotation.AllenUtils;
+import sc.fiji.snt.annotation.BrainAnnotation;
 import sc.fiji.snt.analysis.graph.SWCWeightedEdge;
 import sc.fiji.snt.gui.GuiUtils;
+import sc.fiji.snt.io.BinaryTraces;
 import sc.fiji.snt.io.MouseLightLoader;
 import sc.fiji.snt.io.NeuroMorphoLoader;
+import sc.fiji.snt.io.SWCColumns;
 import sc.fiji.snt.tracing.FillerThread;
 import sc.fiji.snt.util.*;
 import util.Bresenham3D;
@@ -61,8 +68,7 @@ import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.util.List;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
@@ -85,6 +91,7 @@ public class PathAndFillManager extends DefaultHandler implements
 	protected static final int TRACES_FILE_TYPE_UNCOMPRESSED_XML = 2;
 	protected static final int TRACES_FILE_TYPE_SWC = 3;
 	protected static final int TRACES_FILE_TYPE_ML_JSON = 4;
+	protected static final int TRACES_FILE_TYPE_BINARY = 5;
 
 	private static final DecimalFormat fileIndexFormatter = new DecimalFormat(
 		"000");
@@ -106,10 +113,14 @@ public class PathAndFillManager extends DefaultHandler implements
 	private final Map<Fill, FillerThread> loadedFills;
 	private final ArrayList<PathAndFillListener> listeners;
 	private final HashSet<Path> selectedPathsSet;
+	/** Spatial index of path nodes backing nearest-node queries */
+	private final PathNodeIndex nodeIndex;
 	private int maxUsedPathID = 0;
 	private int maxUsedTreeID = 0;
 
 	private Fill current_fill;
+	private StringBuilder current_fill_data;
+	private boolean compactFillStorage = false;
 	private Path current_path;
 	private HashMap<Integer, Integer> startJoins;
 	private HashMap<Integer, Integer> startJoinsIndices;
@@ -145,6 +156,7 @@ public class PathAndFillManager extends DefaultHandler implements
 		loadedFills = new HashMap<>();
 		listeners = new ArrayList<>();
 		selectedPathsSet = new HashSet<>();
+		nodeIndex = new PathNodeIndex();
 		resetSpatialSettings(false);
 	}
 
@@ -475,9 +487,9 @@ public class PathAndFillManager extends DefaultHandler implements
 				}
 			}
 
-			List<SWCPoint> swcPoints = null;
+			final SWCColumns swcColumns;
 			try {
-				swcPoints = getSWCFor(connectedPaths);
+				swcColumns = getSWCColumnsFor(connectedPaths);
 			}
 			catch (final SWCExportException see) {
 				error("" + see.getMessage());
@@ -490,7 +502,7 @@ public class PathAndFillManager extends DefaultHandler implements
 			try {
 				final PrintWriter pw = new PrintWriter(new OutputStreamWriter(
 					new FileOutputStream(swcFile), StandardCharsets.UTF_8));
-				flushSWCPoints(swcPoints, pw);
+				flushSWC(swcColumns, pw);
 			}
 			catch (final IOException ioe) {
 				error("Saving to " + swcFile.getAbsolutePath() + " failed.");
@@ -511,6 +523,24 @@ public class PathAndFillManager extends DefaultHandler implements
 		this.headless = headless;
 	}
 
+	/**
+	 * Sets whether fills should be saved in a compact format. If true, fill
+	 * nodes are saved in a run-length, deflated binary encoding (embedded in
+	 * the traces file as Base64 text) rather than one XML element per node.
+	 * Traces files saved this way cannot be read by older versions of SNT.
+	 *
+	 * @param compact true to save fills in a compact format, false (the
+	 *          default) to save each fill node as an XML element
+	 * @see FillCodec
+	 */
+	public void setCompactFillStorage(final boolean compact) {
+		this.compactFillStorage = compact;
+	}
+
+	public boolean isCompactFillStorage() {
+		return compactFillStorage;
+	}
+
 	private void errorStatic(final String msg) {
 		if (headless || GraphicsEnvironment.isHeadless()) {
 			SNTUtils.error(msg);
@@ -528,6 +558,10 @@ public class PathAndFillManager extends DefaultHandler implements
 	protected void flushSWCPoints(final List<SWCPoint> swcPoints,
 		final PrintWriter pw)
 	{
+		flushSWC(SWCColumns.fromPoints(swcPoints), pw);
+	}
+
+	private void flushSWC(final SWCColumns swcColumns, final PrintWriter pw) {
 		pw.println("# Exported from SNT v" +
 			SNTUtils.VERSION + " on " + LocalDateTime.of(LocalDate.now(), LocalTime
 				.now()));
@@ -541,7 +575,12 @@ public class PathAndFillManager extends DefaultHandler implements
 				pw.println("# Voxel separation (x,y,z): " + x_spacing + ", " + y_spacing + ", " + z_spacing);
 			pw.println("#");
 		}
-		SWCPoint.flush(swcPoints, pw);
+		try {
+			swcColumns.write(pw);
+		}
+		catch (final IOException e) {
+			SNTUtils.error("IO Error", e);
+		}
 		pw.close();
 	}
 
@@ -680,6 +719,72 @@ public class PathAndFillManager extends DefaultHandler implements
 
 	public synchronized List<SWCPoint> getSWCFor(final Collection<Path> paths)
 			throws SWCExportException
+	{
+		final List<SWCPoint> result = new ArrayList<>();
+		traverseSWC(paths, new SWCNodeConsumer() {
+
+			boolean hasAnnotations;
+			boolean hasHemisphereFlags;
+			boolean hasNodeValues;
+			Color pathColor;
+			String pathTags;
+
+			@Override
+			public void startPath(final Path path) {
+				hasAnnotations = path.hasNodeAnnotations();
+				hasHemisphereFlags = path.hasNodeHemisphereFlags();
+				hasNodeValues = path.hasNodeValues();
+				pathColor = path.getColor();
+				pathTags = PathManagerUI.extractTagsFromPath(path);
+			}
+
+			@Override
+			public void accept(final int id, final Path path, final int i, final PointInImage pim,
+				final int parentId)
+			{
+				final SWCPoint swcPoint = new SWCPoint(
+						id,
+						path.getSWCType(),
+						pim.getX(),
+						pim.getY(),
+						pim.getZ(),
+						path.getNodeRadius(i),
+						parentId);
+				swcPoint.setPath(path);
+				// Only use Path color, node colors are ignored
+				swcPoint.setColor(pathColor);
+				swcPoint.setTags(pathTags);
+				if (hasNodeValues) swcPoint.v = path.getNodeValue(i);
+				if (hasAnnotations) swcPoint.setAnnotation(path.getNodeAnnotation(i));
+				if (hasHemisphereFlags) swcPoint.setHemisphere(path.getNodeHemisphereFlag(i));
+				result.add(swcPoint);
+			}
+		});
+		return result;
+	}
+
+	/*
+	 * Counterpart of getSWCFor() used by SWC export: Only the SWC fields are
+	 * retained, so that no SWCPoint is allocated per node.
+	 */
+	private SWCColumns getSWCColumnsFor(final Collection<Path> paths) throws SWCExportException {
+		int size = 0;
+		for (final Path p : paths) size += p.size();
+		final SWCColumns columns = new SWCColumns(size);
+		traverseSWC(paths, (id, path, i, pim, parentId) -> columns.add(id, path.getSWCType(), pim.getX(),
+			pim.getY(), pim.getZ(), path.getNodeRadius(i), parentId));
+		return columns;
+	}
+
+	/* Receives the nodes of a tree, in SWC order */
+	private interface SWCNodeConsumer {
+		default void startPath(final Path path) {}
+
+		void accept(int id, Path path, int indexInPath, PointInImage node, int parentId);
+	}
+
+	private void traverseSWC(final Collection<Path> paths, final SWCNodeConsumer consumer)
+			throws SWCExportException
 	{
 		final Map<Path, List<Path>> pathChildrenMap = new HashMap<>();
 		final Set<PointInImage> joinPointSet = new HashSet<>();
@@ -708,17 +813,12 @@ public class PathAndFillManager extends DefaultHandler implements
 		}
 		int swcPointId = 1;
 		final Set<Path> pathsAlreadyDone = new HashSet<>();
-		final List<SWCPoint> result = new ArrayList<>();
 		final Map<PointInImage, Integer> joinPointIdMap = new HashMap<>();
 		final Deque<Path> pathStack = new ArrayDeque<>();
 		pathStack.push(primaryPaths.iterator().next());
 		while (!pathStack.isEmpty()) {
 			final Path path = pathStack.pop();
-			final boolean hasAnnotations = path.hasNodeAnnotations();
-			final boolean hasHemisphereFlags = path.hasNodeHemisphereFlags();
-			final Color pathColor = path.getColor();
-			final String pathTags = PathManagerUI.extractTagsFromPath(path);
-			final boolean hasNodeValues = path.hasNodeValues();
+			consumer.startPath(path);
 			for (int i = 0; i < path.size(); ++i) {
 				final PointInImage pim = path.getNode(i);
 				// This is where our hack comes into play
@@ -738,22 +838,7 @@ public class PathAndFillManager extends DefaultHandler implements
 				} else {
 					parentId = swcPointId - 1;
 				}
-				final SWCPoint swcPoint = new SWCPoint(
-						swcPointId,
-						path.getSWCType(),
-						pim.getX(),
-						pim.getY(),
-						pim.getZ(),
-						path.getNodeRadius(i),
-						parentId);
-				swcPoint.setPath(path);
-				// Only use Path color, node colors are ignored
-				swcPoint.setColor(pathColor);
-				swcPoint.setTags(pathTags);
-				if (hasNodeValues) swcPoint.v = path.getNodeValue(i);
-				if (hasAnnotations) swcPoint.setAnnotation(path.getNodeAnnotation(i));
-				if (hasHemisphereFlags) swcPoint.setHemisphere(path.getNodeHemisphereFlag(i));
-				result.add(swcPoint);
+				consumer.accept(swcPointId, path, i, pim, parentId);
 				swcPointId++;
 			}
 			final List<Path> children = pathChildrenMap.get(path);
@@ -776,8 +861,6 @@ public class PathAndFillManager extends DefaultHandler implements
 		if (selectedAndNotConnected > 0) throw new SWCExportException(
 				"You must select all the connected paths\n(" + selectedAndNotConnected +
 						" paths (e.g. \"" + disconnectedExample + "\") were not connected.)");
-
-		return result;
 	}
 
 	/**
@@ -1037,6 +1120,42 @@ public class PathAndFillManager extends DefaultHandler implements
 		tree.list().forEach(p -> addPath(p, true, true));
 	}
 
+	/**
+	 * Adds a collection of {@link Tree}s. Listeners are notified only once, after
+	 * all trees have been added.
+	 *
+	 * @param trees the trees to be added
+	 */
+	public void addTrees(final Collection<Tree> trees) {
+		addTrees(trees, false);
+	}
+
+	/**
+	 * Adds a collection of {@link Tree}s. Listeners are notified only once, after
+	 * all trees have been added.
+	 *
+	 * @param trees the trees to be added
+	 * @param assignSpatialSettings if true, the spatial calibration of this
+	 *          instance is assigned to the paths of {@code trees}, as if they
+	 *          had been imported by this instance. This is useful for trees
+	 *          imported from formats that do not store calibration (e.g., SWC)
+	 */
+	public void addTrees(final Collection<Tree> trees, final boolean assignSpatialSettings) {
+		final boolean existingEnableUiUpdates = enableUIupdates;
+		enableUIupdates = false;
+		if (assignSpatialSettings) {
+			final Calibration cal = new Calibration();
+			cal.pixelWidth = x_spacing;
+			cal.pixelHeight = y_spacing;
+			cal.pixelDepth = z_spacing;
+			cal.setUnit(spacing_units);
+			trees.forEach(tree -> tree.list().forEach(p -> p.setSpacing(cal)));
+		}
+		trees.forEach(this::addTree);
+		enableUIupdates = existingEnableUiUpdates;
+		resetListeners(null, true);
+	}
+
 	/**
 	 * Adds a new path.
 	 *
@@ -1120,6 +1239,7 @@ public class PathAndFillManager extends DefaultHandler implements
 		pathNameMap.put(p.getName(), p);
 		pathNameLowercaseMap.put(p.getName().toLowerCase(Locale.ROOT), p);
 		p.addChangeListener(this);
+		nodeIndex.invalidate(p);
 		resetListeners(p);
 	}
 
@@ -1211,12 +1331,14 @@ public class PathAndFillManager extends DefaultHandler implements
 		pathNameMap.remove(unfittedPathToDelete.getName());
 		pathNameLowercaseMap.remove(unfittedPathToDelete.getName().toLowerCase(Locale.ROOT));
 		unfittedPathToDelete.removeChangeListener(this);
+		nodeIndex.remove(unfittedPathToDelete);
 		if (fittedPathToDelete != null) {
 			removed = removed || allPaths.remove(fittedPathToDelete);
 			pathIdMap.remove(fittedPathToDelete.getID());
 			pathNameMap.remove(fittedPathToDelete.getName());
 			pathNameLowercaseMap.remove(fittedPathToDelete.getName().toLowerCase(Locale.ROOT));
 			fittedPathToDelete.removeChangeListener(this);
+			nodeIndex.remove(fittedPathToDelete);
 		}
 		if (removed && plugin != null) plugin.unsavedPaths = true;
 
@@ -1297,6 +1419,118 @@ public class PathAndFillManager extends DefaultHandler implements
 		}
 	}
 
+	/**
+	 * Saves all paths (including their fitted flavors) to a binary file. Unlike
+	 * {@code .traces} files, fills are not saved.
+	 *
+	 * @param fileName the absolute path of the output file (typically with a
+	 *          {@value BinaryTraces#EXTENSION} extension)
+	 * @throws IOException if file could not be written
+	 * @see BinaryTraces
+	 */
+	public synchronized void writeBinary(final String fileName) throws IOException {
+		if (!allFills.isEmpty())
+			SNTUtils.log("Fills are not stored in binary files and will not be saved");
+		toBinary().write(new File(fileName));
+	}
+
+	private BinaryTraces toBinary() {
+		final List<Path> paths = new ArrayList<>(allPaths.size());
+		for (final Path p : allPaths) {
+			paths.add(p);
+			if (p.getFitted() != null) paths.add(p.getFitted());
+		}
+		final Map<Path, Integer> indices = new IdentityHashMap<>(paths.size());
+		int nodeCount = 0;
+		for (final Path p : paths) {
+			indices.put(p, indices.size());
+			nodeCount += p.size();
+		}
+		final BinaryTraces data = new BinaryTraces(paths.size(), nodeCount);
+		data.xSpacing = x_spacing;
+		data.ySpacing = y_spacing;
+		data.zSpacing = z_spacing;
+		data.spacingUnits = spacing_units;
+		for (int i = 0; i < paths.size(); i++)
+			data.nodeOffsets[i + 1] = data.nodeOffsets[i] + paths.get(i).size();
+
+		for (int i = 0; i < paths.size(); i++) {
+			final Path p = paths.get(i);
+			final int offset = data.nodeOffsets[i];
+			final int n = p.size();
+			int flags = 0;
+			if (p.isPrimary()) flags |= BinaryTraces.PRIMARY;
+			if (p.getUseFitted()) flags |= BinaryTraces.USE_FITTED;
+			if (p.getColor() != null) {
+				flags |= BinaryTraces.HAS_COLOR;
+				data.colors[i] = p.getColor().getRGB();
+			}
+			data.pathIds[i] = p.getID();
+			data.treeIds[i] = p.getTreeID();
+			data.swcTypes[i] = p.getSWCType();
+			data.channels[i] = p.getChannel();
+			data.frames[i] = p.getFrame();
+			data.spines[i] = p.getSpineOrVaricosityCount();
+			data.names[i] = p.getName();
+			if (!p.isFittedVersionOfAnotherPath()) data.treeLabels[i] = p.getTreeLabel();
+
+			System.arraycopy(p.precise_x_positions, 0, data.xs, offset, n);
+			System.arraycopy(p.precise_y_positions, 0, data.ys, offset, n);
+			System.arraycopy(p.precise_z_positions, 0, data.zs, offset, n);
+			for (int j = 1; j < n; j++)
+				data.parents[offset + j] = offset + j - 1;
+			if (n > 0) data.parents[offset] = -1;
+
+			data.startsOn[i] = -1;
+			final Integer startIndex = (p.startJoins == null) ? null : indices.get(p.startJoins);
+			if (startIndex != null) {
+				final PointInImage join = p.startJoinsPoint;
+				data.startsOn[i] = startIndex;
+				data.startX[i] = join.x;
+				data.startY[i] = join.y;
+				data.startZ[i] = join.z;
+				if (n > 0 && p.startJoins.size() > 0)
+					data.parents[offset] = data.nodeOffsets[startIndex] + p.startJoins.indexNearestTo(join.x, join.y, join.z);
+			}
+			final Integer fittedIndex = (p.fittedVersionOf == null) ? null : indices.get(p.fittedVersionOf);
+			data.fittedVersionOf[i] = (fittedIndex == null) ? -1 : fittedIndex;
+
+			if (p.hasRadii()) {
+				flags |= BinaryTraces.HAS_RADII;
+				data.createRadii();
+				System.arraycopy(p.radii, 0, data.radii, offset, n);
+				System.arraycopy(p.tangents_x, 0, data.tangentsX, offset, n);
+				System.arraycopy(p.tangents_y, 0, data.tangentsY, offset, n);
+				System.arraycopy(p.tangents_z, 0, data.tangentsZ, offset, n);
+			}
+			if (p.hasNodeValues()) {
+				flags |= BinaryTraces.HAS_VALUES;
+				data.createValues();
+				for (int j = 0; j < n; j++)
+					data.values[offset + j] = p.getNodeValue(j);
+			}
+			if (p.hasNodeColors()) {
+				flags |= BinaryTraces.HAS_NODE_COLORS;
+				data.createNodeColors();
+				for (int j = 0; j < n; j++) {
+					final Color c = p.getNodeColor(j);
+					data.nodeColors[offset + j] = (c == null) ? 0 : c.getRGB();
+				}
+			}
+			if (p.hasNodeAnnotations() || p.hasNodeHemisphereFlags()) {
+				flags |= BinaryTraces.HAS_ANNOTATIONS;
+				data.createAnnotations();
+				for (int j = 0; j < n; j++) {
+					final BrainAnnotation annotation = p.getNodeAnnotation(j);
+					data.annotations[offset + j] = (annotation == null) ? 0 : annotation.id();
+					data.hemispheres[offset + j] = (byte) p.getNodeHemisphereFlag(j);
+				}
+			}
+			data.flags[i] = flags;
+		}
+		return data;
+	}
+
 	// FIXME: should probably use XMLStreamWriter instead of this ad-hoc
 	// approach:
 	synchronized protected void writeXML(final String fileName,
@@ -1319,7 +1553,7 @@ public class PathAndFillManager extends DefaultHandler implements
 			pw.println("  <!ELEMENT samplespacing  EMPTY>");
 			pw.println("  <!ELEMENT path           (point+)>");
 			pw.println("  <!ELEMENT point          EMPTY>");
-			pw.println("  <!ELEMENT fill           (node*)>");
+			pw.println("  <!ELEMENT fill           (#PCDATA|node)*>");
 			pw.println("  <!ELEMENT node           EMPTY>");
 			pw.println(
 				"  <!ATTLIST samplespacing  x                 CDATA           #REQUIRED>");
@@ -1407,6 +1641,8 @@ public class PathAndFillManager extends DefaultHandler implements
 				"  <!ATTLIST fill           threshold         CDATA           #REQUIRED>");
 			pw.println(
 				"  <!ATTLIST fill           volume            CDATA           #IMPLIED>");
+			pw.println(
+				"  <!ATTLIST fill           encoding          CDATA           #IMPLIED>");
 			pw.println(
 				"  <!ATTLIST node           id                CDATA           #REQUIRED>");
 			pw.println(
@@ -1441,7 +1677,7 @@ public class PathAndFillManager extends DefaultHandler implements
 			// Now output the fills:
 			int fillIndex = 0;
 			for (final Fill f : allFills) {
-				f.writeXML(pw, fillIndex);
+				f.writeXML(pw, fillIndex, compactFillStorage);
 				++fillIndex;
 			}
 			pw.println("</tracings>");
@@ -1892,6 +2128,18 @@ public class PathAndFillManager extends DefaultHandler implements
 
 					current_fill.setThreshold(fillThreshold);
 
+					final String encoding = attributes.getValue("encoding");
+					if (encoding == null) {
+						current_fill_data = null;
+					}
+					else if (FillCodec.XML_ENCODING.equals(encoding)) {
+						current_fill_data = new StringBuilder();
+					}
+					else {
+						throw new TracesFileFormatException(
+							"Unknown fill encoding: " + encoding);
+					}
+
 				} catch (final NumberFormatException e) {
 					throw new TracesFileFormatException(
 							"There was an invalid attribute to <fill>");
@@ -1957,6 +2205,11 @@ public class PathAndFillManager extends DefaultHandler implements
 		}
 	}
 
+	@Override
+	public void characters(final char[] ch, final int start, final int length) {
+		if (current_fill_data != null) current_fill_data.append(ch, start, length);
+	}
+
 	/* (non-Javadoc)
 	 * @see org.xml.sax.helpers.DefaultHandler#endElement(java.lang.String, java.lang.String, java.lang.String)
 	 */
@@ -1973,10 +2226,22 @@ public class PathAndFillManager extends DefaultHandler implements
 				pathNameMap.put(current_path.getName(), current_path);
 				pathNameLowercaseMap.put(current_path.getName().toLowerCase(Locale.ROOT), current_path);
 				current_path.addChangeListener(this);
+				nodeIndex.invalidate(current_path);
 
 				break;
 			case "fill":
 
+				if (current_fill_data != null) {
+					try {
+						FillCodec.read(new ByteArrayInputStream(Base64.getMimeDecoder()
+							.decode(current_fill_data.toString().trim())), current_fill);
+					}
+					catch (final IOException | IllegalArgumentException e) {
+						throw new TracesFileFormatException(
+							"Invalid compact fill data: " + e.getMessage());
+					}
+					current_fill_data = null;
+				}
 				allFills.add(current_fill);
 
 				break;
@@ -2126,6 +2391,28 @@ public class PathAndFillManager extends DefaultHandler implements
 		else return null;
 	}
 
+	/**
+	 * Creates a PathAndFillManager instance from a stream of reconstruction data
+	 * in any of the supported formats.
+	 *
+	 * @param is         the stream containing the data (.traces, SWC, JSON or
+	 *                   binary). It is not closed by this method
+	 * @param descriptor the label describing the imported data (typically the
+	 *                   filename without extension)
+	 * @return the PathAndFillManager instance, or null if data could not be
+	 *         imported
+	 */
+	public static PathAndFillManager createFromStream(final InputStream is, final String descriptor) {
+		final PathAndFillManager pafm = new PathAndFillManager();
+		pafm.setHeadless(true);
+		try {
+			if (pafm.loadGuessingType(descriptor, is)) return pafm;
+		} catch (final IOException | IllegalArgumentException | JSONException e) {
+			SNTUtils.log("Could not parse " + descriptor + ": " + e.getMessage());
+		}
+		return null;
+	}
+
 	/**
 	 * Creates a PathAndFillManager instance from a collection of reconstruction
 	 * nodes.
@@ -2375,6 +2662,7 @@ public class PathAndFillManager extends DefaultHandler implements
 				p.removeFrom3DViewer(plugin.univ);
 		}
 		allPaths.clear();
+		nodeIndex.clear();
 		pathIdMap.clear();
 		pathNameMap.clear();
 		pathNameLowercaseMap.clear();
@@ -2521,50 +2809,19 @@ public class PathAndFillManager extends DefaultHandler implements
 
 		if (replaceAllPaths) clear();
 
-		final Pattern pEmpty = Pattern.compile("^\\s*$");
-		final Pattern pComment = Pattern.compile("^([^#]*)#.*$");
-
-		final TreeSet<SWCPoint> nodes = new TreeSet<>();
-		String line;
+		final SWCColumns nodes;
 		try {
-			while ((line = br.readLine()) != null) {
-				final Matcher mComment = pComment.matcher(line);
-				line = mComment.replaceAll("$1").trim();
-				final Matcher mEmpty = pEmpty.matcher(line);
-				if (mEmpty.matches()) continue;
-				final String[] fields = line.split("\\s+");
-				if (fields.length < 7) {
-					error("Wrong number of fields (" + fields.length + ") in line: " +
-						line);
-					return false;
-				}
-				try {
-					final int type = Integer.parseInt(fields[1]);
-					if (matchesType(type, swcTypes)) {
-						final int id = Integer.parseInt(fields[0]);
-						final double x = xScale * Double.parseDouble(fields[2]) + xOffset;
-						final double y = yScale * Double.parseDouble(fields[3]) + yOffset;
-						final double z = zScale * Double.parseDouble(fields[4]) + zOffset;
-						double radius;
-						try {
-							radius = Double.parseDouble(fields[5]);
-						} catch (final NumberFormatException ignored) {
-							radius = 0; // files in which radius is set to NaN
-						}
-						final int previous = Integer.parseInt(fields[6]);
-						nodes.add(new SWCPoint(id, type, x, y, z, radius, previous));
-					}
-				}
-				catch (final NumberFormatException nfe) {
-					error("There was a malformed number in line: " + line);
-					return false;
-				}
-			}
+			nodes = SWCColumns.read(br, swcTypes);
+		}
+		catch (final IllegalArgumentException iae) {
+			error(iae.getMessage());
+			return false;
 		}
 		catch (final IOException exc) {
 			SNTUtils.error("IO ERROR", exc);
 			return false;
 		}
+		nodes.transform(xScale, yScale, zScale, xOffset, yOffset, zOffset);
 		return importNodes(descriptor, nodes, null, assumeCoordinatesInVoxels);
 	}
 
@@ -2572,6 +2829,127 @@ public class PathAndFillManager extends DefaultHandler implements
 		return swcTypes.length == 0 || Arrays.stream(swcTypes).anyMatch(t -> t == type);
 	}
 
+	/*
+	 * Array-based counterpart of importNodes(String, TreeSet, ColorRGB, boolean).
+	 * Paths are assembled exactly as from SWCPoints (nodes sorted by id, branches
+	 * visited in id order, nodes only linked to parents listed before them), but
+	 * without allocating objects per node.
+	 */
+	private boolean importNodes(final String descriptor, final SWCColumns swcData,
+		final ColorRGB color, final boolean assumeCoordinatesInVoxels)
+	{
+		final SWCColumns nodes = swcData.sortedById();
+		final int n = nodes.size();
+		final int[] parentIndices = nodes.parentIndices();
+		final int[] firstChild = new int[n];
+		final int[] nextSibling = new int[n];
+		Arrays.fill(firstChild, -1);
+		Arrays.fill(nextSibling, -1);
+		final IntHeapPriorityQueue backtrackTo = new IntHeapPriorityQueue();
+		for (int i = n - 1; i >= 0; i--) { // reverse order so that siblings are listed by id
+			final int parent = parentIndices[i];
+			if (nodes.getParent(i) == -1) {
+				backtrackTo.enqueue(i);
+			}
+			else if (parent >= 0 && parent < i) {
+				nextSibling[i] = firstChild[parent];
+				firstChild[parent] = i;
+			}
+			else {
+				parentIndices[i] = -1; // orphan node: ignored
+			}
+		}
+
+		double minimumVoxelSpacing = 0;
+		if (assumeCoordinatesInVoxels) {
+			minimumVoxelSpacing = Math.min(Math.abs(x_spacing), Math.min(Math.abs(y_spacing), Math.abs(z_spacing)));
+			nodes.scale(x_spacing, y_spacing, z_spacing, minimumVoxelSpacing);
+		}
+
+		final boolean existingEnableUIupdates = enableUIupdates;
+		this.enableUIupdates = false;
+		final int[] nodeToPath = new int[n];
+		final List<Path> pathList = new ArrayList<>();
+		final IntArrayList pathStartsOnNode = new IntArrayList();
+		while (!backtrackTo.isEmpty()) {
+			final int start = backtrackTo.dequeueInt();
+			final Path currentPath = new Path(x_spacing, y_spacing, z_spacing, spacing_units);
+			currentPath.createCircles();
+			int current = start;
+			while (current >= 0) {
+				currentPath.addPointDouble(nodes.getX(current), nodes.getY(current), nodes.getZ(current));
+				double radius = nodes.getRadius(current);
+				// If the radius is set to near zero, then artificially set it to half
+				// of the voxel spacing so that something* appears in the 3D Viewer!
+				if (assumeCoordinatesInVoxels && Math.abs(radius) < 0.0000001)
+					radius = minimumVoxelSpacing / 2;
+				if (radius > 0) currentPath.radii[currentPath.size() - 1] = radius;
+				nodeToPath[current] = pathList.size();
+				final int child = firstChild[current];
+				if (child >= 0) {
+					for (int sibling = nextSibling[child]; sibling >= 0; sibling = nextSibling[sibling])
+						backtrackTo.enqueue(sibling);
+					current = child;
+				}
+				else {
+					currentPath.setSWCType(nodes.getType(current)); // Assign point type to path
+					current = -1;
+				}
+			}
+			currentPath.setNodeValue(0, 0); // as with SWCPoints, whose values default to 0
+			currentPath.setGuessedTangents(2);
+			currentPath.setIDs(currentPath.getID(), maxUsedTreeID);
+			pathList.add(currentPath);
+			pathStartsOnNode.add(parentIndices[start]);
+		}
+
+		// Set the start joins:
+		for (int i = 0; i < pathList.size(); i++) {
+			final Path p = pathList.get(i);
+			if (descriptor != null) {
+				p.setTreeLabel(descriptor);
+				p.setColor(color);
+			}
+			final int joinNode = pathStartsOnNode.getInt(i);
+			if (joinNode < 0) {
+				p.setIsPrimary(true);
+				continue;
+			}
+			p.setStartJoin(pathList.get(nodeToPath[joinNode]),
+				new PointInImage(nodes.getX(joinNode), nodes.getY(joinNode), nodes.getZ(joinNode)));
+		}
+
+		// Add paths after setting all joins to ensure treeIDs are computed correctly
+		for (final Path p : pathList) {
+			addPath(p);
+		}
+
+		this.enableUIupdates = existingEnableUIupdates;
+		resetListeners(null, true);
+
+		// Infer fields for when an image has not been specified (see below)
+		if (boundingBox == null)
+			boundingBox = new BoundingBox();
+		final List<PointInImage> corners = new ArrayList<>(2);
+		if (n > 0) {
+			double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, minZ = Double.MAX_VALUE;
+			double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE, maxZ = -Double.MAX_VALUE;
+			for (int i = 0; i < n; i++) {
+				minX = Math.min(minX, nodes.getX(i));
+				minY = Math.min(minY, nodes.getY(i));
+				minZ = Math.min(minZ, nodes.getZ(i));
+				maxX = Math.max(maxX, nodes.getX(i));
+				maxY = Math.max(maxY, nodes.getY(i));
+				maxZ = Math.max(maxZ, nodes.getZ(i));
+			}
+			corners.add(new PointInImage(minX, minY, minZ));
+			corners.add(new PointInImage(maxX, maxY, maxZ));
+		}
+		boundingBox.append(corners.iterator());
+		checkForAppropriateImageDimensions();
+		return true;
+	}
+
 	private boolean importNodes(final String descriptor,
 	                            final TreeSet<SWCPoint> points, final ColorRGB color,
 	                            final boolean assumeCoordinatesInVoxels)
@@ -2866,8 +3244,8 @@ public class PathAndFillManager extends DefaultHandler implements
 		 *
 		 * If this looks as if it's gzip compressed, assume it's a compressed traces
 		 * file. If it begins "<?xml", assume it's an uncompressed traces file. If it
-		 * begins with '{"' assume it is a ML JSON file, otherwise assume it's an SWC
-		 * file.
+		 * begins with '{"' assume it is a ML JSON file. If it begins with "SNTB",
+		 * assume it's a binary file, otherwise assume it's an SWC file.
 		 */
 		if (!headless)
 			SNTUtils.log("Guessing file type...");
@@ -2888,6 +3266,8 @@ public class PathAndFillManager extends DefaultHandler implements
 			return TRACES_FILE_TYPE_UNCOMPRESSED_XML;
 		} else if (((char) (buf[0] & 0xFF) == '{')) {
 			return TRACES_FILE_TYPE_ML_JSON;
+		} else if (BinaryTraces.isBinary(buf)) {
+			return TRACES_FILE_TYPE_BINARY;
 		}
 		return TRACES_FILE_TYPE_SWC;
 	}
@@ -2916,6 +3296,144 @@ public class PathAndFillManager extends DefaultHandler implements
 		}
 	}
 
+	protected boolean loadBinary(final String filename) {
+		try {
+			SNTUtils.log("Loading binary file...");
+			return importBinary(BinaryTraces.read(new File(filename)));
+		}
+		catch (final IOException ioe) {
+			error("Could not read file '" + filename + "' (" + ioe.getMessage() + ")");
+			return false;
+		}
+	}
+
+	/*
+	 * Replaces all paths with those stored in binary data. Mirrors the import of
+	 * .traces files, except that nodes are bulk copied into paths.
+	 */
+	private boolean importBinary(final BinaryTraces data) {
+		final boolean existingEnableUiUpdates = enableUIupdates;
+		enableUIupdates = false;
+		clear();
+		if (boundingBox == null) boundingBox = new BoundingBox();
+		final boolean spacingIsUnset = !boundingBox.isScaled();
+		boundingBox.setUnit(data.spacingUnits);
+		boundingBox.xSpacing = data.xSpacing;
+		boundingBox.ySpacing = data.ySpacing;
+		boundingBox.zSpacing = data.zSpacing;
+		if (spacingIsUnset) {
+			x_spacing = data.xSpacing;
+			y_spacing = data.ySpacing;
+			z_spacing = data.zSpacing;
+			spacing_units = data.spacingUnits;
+		}
+
+		final Path[] paths = new Path[data.pathCount];
+		final Int2ObjectOpenHashMap<BrainAnnotation> annotations = new Int2ObjectOpenHashMap<>();
+		for (int i = 0; i < data.pathCount; i++) {
+			final int from = data.nodeOffsets[i];
+			final int n = data.size(i);
+			final Path p = new Path(x_spacing, y_spacing, z_spacing, spacing_units, n);
+			p.setNodes(data.xs, data.ys, data.zs, from, n);
+			if (data.hasFlag(i, BinaryTraces.HAS_RADII) && data.radii != null) {
+				p.createCircles();
+				System.arraycopy(data.radii, from, p.radii, 0, n);
+				System.arraycopy(data.tangentsX, from, p.tangents_x, 0, n);
+				System.arraycopy(data.tangentsY, from, p.tangents_y, 0, n);
+				System.arraycopy(data.tangentsZ, from, p.tangents_z, 0, n);
+			}
+			if (data.hasFlag(i, BinaryTraces.HAS_VALUES) && data.values != null) {
+				p.setNodeValues(Arrays.copyOfRange(data.values, from, from + n));
+			}
+			if (data.hasFlag(i, BinaryTraces.HAS_NODE_COLORS) && data.nodeColors != null) {
+				final Color[] colors = new Color[n];
+				for (int j = 0; j < n; j++) {
+					final int argb = data.nodeColors[from + j];
+					if (argb != 0) colors[j] = new Color(argb, true);
+				}
+				p.setNodeColors(colors);
+			}
+			if (data.hasFlag(i, BinaryTraces.HAS_ANNOTATIONS) && data.annotations != null) {
+				for (int j = 0; j < n; j++) {
+					final int id = data.annotations[from + j];
+					if (id != 0) {
+						BrainAnnotation annotation = annotations.get(id);
+						if (annotation == null && !annotations.containsKey(id)) {
+							annotation = AllenUtils.getCompartment(id);
+							annotations.put(id, annotation);
+						}
+						if (annotation != null) p.setNodeAnnotation(annotation, j);
+					}
+					final char hemisphere = (char) data.hemispheres[from + j];
+					if (hemisphere != BrainAnnotation.ANY_HEMISPHERE) p.setNodeHemisphere(hemisphere, j);
+				}
+			}
+			p.setSWCType(data.swcTypes[i], false);
+			if (data.hasFlag(i, BinaryTraces.HAS_COLOR)) p.setColor(new Color(data.colors[i], true));
+			p.setCTposition(data.channels[i], data.frames[i]);
+			p.setSpineOrVaricosityCount(data.spines[i]);
+			if (data.hasFlag(i, BinaryTraces.PRIMARY)) p.setIsPrimary(true);
+			p.setIDs(data.pathIds[i], data.treeIds[i]);
+			if (data.pathIds[i] > maxUsedPathID) maxUsedPathID = data.pathIds[i];
+			if (data.treeIds[i] > maxUsedTreeID) maxUsedTreeID = data.treeIds[i];
+			p.setName(data.names[i]); // default name if null
+			paths[i] = p;
+		}
+
+		for (int i = 0; i < data.pathCount; i++) {
+			final Path p = paths[i];
+			if (data.startsOn[i] >= 0) {
+				p.setStartJoin(paths[data.startsOn[i]],
+					new PointInImage(data.startX[i], data.startY[i], data.startZ[i]));
+			}
+			if (data.fittedVersionOf[i] >= 0) {
+				final Path fittedVersionOf = paths[data.fittedVersionOf[i]];
+				fittedVersionOf.fitted = p;
+				p.fittedVersionOf = fittedVersionOf;
+			}
+		}
+		for (int i = 0; i < data.pathCount; i++) {
+			final Path p = paths[i];
+			if (data.hasFlag(i, BinaryTraces.USE_FITTED) && p.getFitted() != null) p.setUseFitted(true);
+			if (p.isFittedVersionOfAnotherPath()) continue; // accessed through Path#fitted
+			allPaths.add(p);
+			pathIdMap.put(p.getID(), p);
+			pathNameMap.put(p.getName(), p);
+			pathNameLowercaseMap.put(p.getName().toLowerCase(Locale.ROOT), p);
+			p.addChangeListener(this);
+			nodeIndex.invalidate(p);
+		}
+
+		// As with .traces files: recompute path orders and cell IDs. Labels are reassigned afterwards
+		rebuildRelationships();
+		for (int i = 0; i < data.pathCount; i++) {
+			if (data.treeLabels[i] != null && !paths[i].isFittedVersionOfAnotherPath())
+				paths[i].setTreeLabel(data.treeLabels[i]);
+		}
+
+		if (data.nodeCount > 0) {
+			double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, minZ = Double.MAX_VALUE;
+			double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE, maxZ = -Double.MAX_VALUE;
+			for (int i = 0; i < data.nodeCount; i++) {
+				minX = Math.min(minX, data.xs[i]);
+				minY = Math.min(minY, data.ys[i]);
+				minZ = Math.min(minZ, data.zs[i]);
+				maxX = Math.max(maxX, data.xs[i]);
+				maxY = Math.max(maxY, data.ys[i]);
+				maxZ = Math.max(maxZ, data.zs[i]);
+			}
+			boundingBox.append(Arrays.asList(new PointInImage(minX, minY, minZ),
+				new PointInImage(maxX, maxY, maxZ)).iterator());
+		}
+		checkForAppropriateImageDimensions();
+
+		addImportedPathsTo3DViewer();
+		if (plugin != null) plugin.updateTracingViewers(true);
+		enableUIupdates = existingEnableUiUpdates;
+		resetListeners(null, true);
+		return true;
+	}
+
 	private boolean loadJSON(final String filename, final int... swcTypes) {
 		String compartment = "all";
 		if (swcTypes.length == 1 && swcTypes[0] == Path.SWC_AXON) {
@@ -2964,6 +3482,9 @@ public class PathAndFillManager extends DefaultHandler implements
 			case TRACES_FILE_TYPE_SWC:
 				result = importSWC(filePath, false, 0, 0, 0, 1, 1, 1, true, swcTypes);
 				break;
+			case TRACES_FILE_TYPE_BINARY:
+				result = loadBinary(filePath);
+				break;
 			default:
 				SNTUtils.warn("guessTracesFileType() return an unknown type" + guessedType);
 				return false;
@@ -3000,7 +3521,11 @@ public class PathAndFillManager extends DefaultHandler implements
 			break;
 		case TRACES_FILE_TYPE_SWC:
 			final BufferedReader br = new BufferedReader(new InputStreamReader(bis, StandardCharsets.UTF_8));
-			result = plugin.getPathAndFillManager().importSWC(br, optionalDescription, false, 0, 0, 0, 1, 1, 1, true);
+			result = importSWC(br, optionalDescription, false, 0, 0, 0, 1, 1, 1, true);
+			break;
+		case TRACES_FILE_TYPE_BINARY:
+			SNTUtils.log("Loading binary file...");
+			result = importBinary(BinaryTraces.read(bis));
 			break;
 		default:
 			SNTUtils.warn("guessTracesFileType() return an unknown type" + guessedType);
@@ -3035,6 +3560,7 @@ public class PathAndFillManager extends DefaultHandler implements
 	synchronized void setPathPointsInVolume(final Collection<Path> paths,
 		final short[][] slices, final int pixelIntensity, final int width, final int height, final int depth)
 	{
+		nodeIndex.sync(allPaths);
 		for (final Path topologyPath : paths) {
 			Path p = topologyPath;
 			if (topologyPath.getUseFitted()) {
@@ -3048,7 +3574,7 @@ public class PathAndFillManager extends DefaultHandler implements
 			if (p.startJoins != null) {
 				final PointInImage s = p.startJoinsPoint;
 				final Path sp = p.startJoins;
-				final int spi = sp.indexNearestTo(s.x, s.y, s.z);
+				final int spi = nodeIndex.indexNearestTo(sp, s.x, s.y, s.z, Double.MAX_VALUE);
 				pointsToJoin.add(new Bresenham3D.IntegerPoint(sp.getXUnscaled(spi), sp
 					.getYUnscaled(spi), sp.getZUnscaled(spi)));
 			}
@@ -3101,31 +3627,10 @@ public class PathAndFillManager extends DefaultHandler implements
 	synchronized PointInImage nearestJoinPointOnSelectedPaths(final double x,
 		final double y, final double z)
 	{
-
-		PointInImage result = null;
-		double minimumDistanceSquared = Double.MAX_VALUE;
-
-		for (final Path p : allPaths) {
-
-			if (!selectedPathsSet.contains(p)) continue;
-
-			if (0 == p.size()) continue;
-
-			final int i = p.indexNearestTo(x * x_spacing, y * y_spacing, z *
-					z_spacing);
-
-			final PointInImage nearestOnPath = p.getNodeWithoutChecks(i);
-
-			final double distanceSquared = nearestOnPath.distanceSquaredTo(x *
-					x_spacing, y * y_spacing, z * z_spacing);
-
-			if (distanceSquared < minimumDistanceSquared) {
-				result = nearestOnPath;
-				minimumDistanceSquared = distanceSquared;
-			}
-		}
-
-		return result;
+		if (selectedPathsSet.isEmpty()) return null;
+		nodeIndex.sync(allPaths);
+		return nodeIndex.nearestNode(x * x_spacing, y * y_spacing, z * z_spacing,
+			selectedPathsSet::contains);
 	}
 
 	/**
@@ -3267,6 +3772,40 @@ public class PathAndFillManager extends DefaultHandler implements
 		final PointInImage pim, final double distanceLimitSquared,
 		final boolean unScaledPositions)
 	{
+		if (paths.isEmpty()) return null;
+		nodeIndex.sync(allPaths);
+		final Predicate<Path> filter;
+		if (paths == allPaths) {
+			filter = Path::versionInUse;
+		}
+		else {
+			final Set<Path> pathSet = Collections.newSetFromMap(new IdentityHashMap<>());
+			for (final Path p : paths) {
+				if (!nodeIndex.contains(p)) // not managed by us: cannot use the index
+					return nearestPointOnAnyPathExhaustive(paths, pim, distanceLimitSquared, unScaledPositions);
+				pathSet.add(p);
+			}
+			filter = p -> pathSet.contains(p) && p.versionInUse();
+		}
+		Path reference = null;
+		if (unScaledPositions) {
+			// Pixel coordinates can only be mapped onto the index if all paths share the same scale
+			for (final Path p : paths) {
+				if (reference == null) reference = p;
+				else if (p.x_spacing != reference.x_spacing || p.y_spacing != reference.y_spacing
+						|| p.canvasOffset.x != reference.canvasOffset.x
+						|| p.canvasOffset.y != reference.canvasOffset.y)
+					return nearestPointOnAnyPathExhaustive(paths, pim, distanceLimitSquared, unScaledPositions);
+			}
+		}
+		return nodeIndex.nearestPointOnAnyPath(pim, distanceLimitSquared, unScaledPositions, reference, filter);
+	}
+
+	/* Package-private for testing */
+	NearPoint nearestPointOnAnyPathExhaustive(final Collection<Path> paths,
+		final PointInImage pim, final double distanceLimitSquared,
+		final boolean unScaledPositions)
+	{
 
 		// Order all points in all paths by their Euclidean distance to pim:
 		final PriorityQueue<NearPoint> pq = new PriorityQueue<>();
@@ -3636,6 +4175,15 @@ public class PathAndFillManager extends DefaultHandler implements
 				break;
 			}
 
+			case NODES_CHANGED:
+			{
+				nodeIndex.invalidate(path);
+				break;
+			}
+
+			case CONNECTIONS_CHANGED:
+				break;
+
 			default:
 				throw new IllegalArgumentException("Unknown event type:" + event.getEventType());
 
@@ -31,7 +31,7 @@ class PathChangeEvent extends EventObject {
 
 	private static final long serialVersionUID = 4237091433859122738L;
 
-	enum EventType {NAME_CHANGED, ID_CHANGED}
+	enum EventType {NAME_CHANGED, ID_CHANGED, NODES_CHANGED, CONNECTIONS_CHANGED}
 
     private final EventType eventType;
     private final Object[] args;
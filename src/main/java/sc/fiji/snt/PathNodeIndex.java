@@ -0,0 +1,442 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2021 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Predicate;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import sc.fiji.snt.util.PointInImage;
+
+/**
+ * A uniform grid over the (calibrated) XY positions of the nodes of a
+ * collection of {@link Path}s, used by {@link PathAndFillManager} to answer
+ * nearest-node queries without visiting every node of every path. The grid is
+ * maintained incrementally: paths flagged through {@link #invalidate(Path)}
+ * (e.g., upon a {@link PathChangeEvent.EventType#NODES_CHANGED} event) are
+ * re-indexed lazily, before the next query.
+ * <p>
+ * Z is not part of the cell key, so that queries ignoring Z (e.g., those
+ * performed in the XY canvas) can be served by the same grid. Since the XY
+ * distance to a cell is a lower bound of the 3D distance, queries visit cells in
+ * rings of increasing distance and stop as soon as no unvisited cell can hold a
+ * closer node.
+ * </p>
+ */
+class PathNodeIndex {
+
+	/** Mean number of nodes per cell targeted when sizing the grid */
+	private static final double NODES_PER_CELL = 4;
+
+	private final Long2ObjectOpenHashMap<Bucket> grid;
+	private final Map<Path, Entry> entries;
+	private double cellSize;
+	private long nodeCount;
+	private long nodeCountAtSizing;
+	private int minCx, maxCx, minCy, maxCy;
+
+	PathNodeIndex() {
+		grid = new Long2ObjectOpenHashMap<>();
+		entries = new IdentityHashMap<>();
+		clear();
+	}
+
+	/** Removes all paths from the index. */
+	synchronized void clear() {
+		grid.clear();
+		entries.clear();
+		cellSize = Double.NaN;
+		nodeCount = 0;
+		nodeCountAtSizing = 0;
+		resetBounds();
+	}
+
+	/**
+	 * Flags the specified path for re-indexing. Paths not yet known to the index
+	 * are added to it.
+	 */
+	synchronized void invalidate(final Path path) {
+		final Entry entry = entries.get(path);
+		if (entry == null) entries.put(path, new Entry());
+		else entry.dirty = true;
+	}
+
+	/** Removes the specified path from the index. */
+	synchronized void remove(final Path path) {
+		final Entry entry = entries.remove(path);
+		if (entry != null) unindex(path, entry);
+	}
+
+	/**
+	 * Reconciles the index with the specified collection of paths: Paths not
+	 * indexed are added, paths no longer present are removed, and paths flagged
+	 * as modified (or whose size no longer matches the indexed one) are
+	 * re-indexed. This is O(number of paths), plus the cost of re-indexing the
+	 * modified ones.
+	 */
+	synchronized void sync(final Collection<Path> paths) {
+		for (final Path p : paths) {
+			if (p == null) continue;
+			Entry entry = entries.get(p);
+			if (entry == null) {
+				entry = new Entry();
+				entries.put(p, entry);
+			}
+			entry.visited = true;
+		}
+		long total = 0;
+		final Iterator<Map.Entry<Path, Entry>> it = entries.entrySet().iterator();
+		while (it.hasNext()) {
+			final Map.Entry<Path, Entry> e = it.next();
+			if (!e.getValue().visited) {
+				unindex(e.getKey(), e.getValue());
+				it.remove();
+				continue;
+			}
+			e.getValue().visited = false;
+			total += e.getKey().size();
+		}
+		// Resize the grid if the number of nodes changed substantially since it was sized
+		if (Double.isNaN(cellSize) || total > 2 * nodeCountAtSizing + 1024 || 4 * total < nodeCountAtSizing) {
+			rebuild();
+			return;
+		}
+		for (final Map.Entry<Path, Entry> e : entries.entrySet()) {
+			final Entry entry = e.getValue();
+			if (entry.dirty || entry.size != e.getKey().size()) {
+				unindex(e.getKey(), entry);
+				index(e.getKey(), entry);
+			}
+		}
+	}
+
+	/**
+	 * Retrieves the node closest to the specified point, among paths accepted by
+	 * the filter.
+	 *
+	 * @param x the x-coordinate (calibrated units)
+	 * @param y the y-coordinate (calibrated units)
+	 * @param z the z-coordinate (calibrated units)
+	 * @param filter the path filter
+	 * @return the closest node, or null if no path is accepted by the filter
+	 */
+	synchronized PointInImage nearestNode(final double x, final double y, final double z,
+		final Predicate<Path> filter)
+	{
+		final Hit hit = nearestNode(x, y, z, Double.MAX_VALUE, filter);
+		return (hit.path == null) ? null : hit.path.getNodeWithoutChecks(hit.index);
+	}
+
+	/**
+	 * Retrieves the index of the node of the specified path closest to the
+	 * specified point. This is the indexed counterpart of
+	 * {@link Path#indexNearestTo(double, double, double, double)}.
+	 *
+	 * @return the index of the closest node, or -1 if no node is within the
+	 *         specified distance
+	 */
+	synchronized int indexNearestTo(final Path path, final double x, final double y,
+		final double z, final double within)
+	{
+		if (!entries.containsKey(path)) return path.indexNearestTo(x, y, z, within);
+		return nearestNode(x, y, z, within * within, p -> p == path).index;
+	}
+
+	/**
+	 * Indexed counterpart of the exhaustive search in
+	 * {@link PathAndFillManager#nearestPointOnAnyPath(Collection, PointInImage, double, boolean)}:
+	 * Path nodes are examined in order of increasing distance to {@code pim},
+	 * and the first one for which a point on the path can be found is returned.
+	 *
+	 * @param pim the query point. If {@code unScaled} is true, coordinates are
+	 *          in pixels and are converted to calibrated units using the spacing
+	 *          and canvas offset of {@code reference}. A NaN z-coordinate
+	 *          ignores Z
+	 * @param distanceLimitSquared the maximum squared distance to nodes
+	 * @param unScaled whether {@code pim} and distances are in pixels
+	 * @param reference the path holding the pixel-to-calibrated conversion
+	 *          (ignored if {@code unScaled} is false)
+	 * @param filter the path filter
+	 * @return the {@link NearPoint}, or null if none was found
+	 */
+	synchronized NearPoint nearestPointOnAnyPath(final PointInImage pim,
+		final double distanceLimitSquared, final boolean unScaled, final Path reference,
+		final Predicate<Path> filter)
+	{
+		if (entries.isEmpty() || Double.isNaN(cellSize)) return null;
+		final double qx, qy;
+		final double unitsPerRing; // lower bound of the distance gained by each ring
+		if (unScaled) {
+			qx = (pim.x - reference.canvasOffset.x) * reference.x_spacing;
+			qy = (pim.y - reference.canvasOffset.y) * reference.y_spacing;
+			unitsPerRing = cellSize / Math.max(reference.x_spacing, reference.y_spacing);
+		} else {
+			qx = pim.x;
+			qy = pim.y;
+			unitsPerRing = cellSize;
+		}
+		final int cx = cell(qx);
+		final int cy = cell(qy);
+		final int maxRing = maxRing(cx, cy);
+		final PriorityQueue<NearPoint> pq = new PriorityQueue<>();
+		for (int ring = minRing(cx, cy); ring <= maxRing; ring++) {
+			forEachBucketInRing(cx, cy, ring, bucket -> {
+				for (int i = 0; i < bucket.size; i++) {
+					if (filter.test(bucket.paths[i]))
+						pq.add(new NearPoint(pim, bucket.paths[i], bucket.indices[i], unScaled));
+				}
+			});
+			// Nodes in unvisited rings are at least this far away:
+			final double bound = ring * unitsPerRing;
+			final double boundSquared = bound * bound;
+			while (!pq.isEmpty() && pq.peek().distanceToPathPointSquared() <= boundSquared) {
+				final NearPoint np = pq.poll();
+				if (np.distanceToPathPointSquared() > distanceLimitSquared) return null;
+				if (np.distanceToPathNearPoint() >= 0) return np;
+			}
+			if (boundSquared > distanceLimitSquared) return null;
+		}
+		while (true) {
+			final NearPoint np = pq.poll();
+			if (np == null || np.distanceToPathPointSquared() > distanceLimitSquared) return null;
+			if (np.distanceToPathNearPoint() >= 0) return np;
+		}
+	}
+
+	/** @return whether the specified path is tracked by this index */
+	synchronized boolean contains(final Path path) {
+		return entries.containsKey(path);
+	}
+
+	/** @return the number of indexed nodes */
+	synchronized long size() {
+		return nodeCount;
+	}
+
+	private Hit nearestNode(final double x, final double y, final double z,
+		final double distanceLimitSquared, final Predicate<Path> filter)
+	{
+		final Hit hit = new Hit();
+		hit.distanceSquared = distanceLimitSquared;
+		if (entries.isEmpty() || Double.isNaN(cellSize)) return hit;
+		final int cx = cell(x);
+		final int cy = cell(y);
+		final int maxRing = maxRing(cx, cy);
+		for (int ring = minRing(cx, cy); ring <= maxRing; ring++) {
+			forEachBucketInRing(cx, cy, ring, bucket -> {
+				for (int i = 0; i < bucket.size; i++) {
+					final Path p = bucket.paths[i];
+					if (!filter.test(p)) continue;
+					final int j = bucket.indices[i];
+					final double dx = x - p.precise_x_positions[j];
+					final double dy = y - p.precise_y_positions[j];
+					final double dz = z - p.precise_z_positions[j];
+					final double d = dx * dx + dy * dy + dz * dz;
+					if (d < hit.distanceSquared) {
+						hit.distanceSquared = d;
+						hit.path = p;
+						hit.index = j;
+					}
+				}
+			});
+			final double bound = ring * cellSize;
+			if (bound * bound >= hit.distanceSquared) break;
+		}
+		return hit;
+	}
+
+	private void rebuild() {
+		grid.clear();
+		resetBounds();
+		nodeCount = 0;
+		double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+		double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+		long n = 0;
+		for (final Path p : entries.keySet()) {
+			for (int i = 0; i < p.size(); i++) {
+				minX = Math.min(minX, p.precise_x_positions[i]);
+				maxX = Math.max(maxX, p.precise_x_positions[i]);
+				minY = Math.min(minY, p.precise_y_positions[i]);
+				maxY = Math.max(maxY, p.precise_y_positions[i]);
+			}
+			n += p.size();
+		}
+		cellSize = (n == 0) ? 1d : Math.sqrt((maxX - minX) * (maxY - minY) * NODES_PER_CELL / n);
+		if (!(cellSize > 0) || Double.isInfinite(cellSize)) {
+			// Degenerate extent (e.g., a single node or a straight line)
+			final double extent = Math.max(maxX - minX, maxY - minY);
+			cellSize = (extent > 0 && n > 0) ? extent * NODES_PER_CELL / n : 1d;
+		}
+		for (final Map.Entry<Path, Entry> e : entries.entrySet()) {
+			e.getValue().cells = null;
+			index(e.getKey(), e.getValue());
+		}
+		nodeCountAtSizing = nodeCount;
+	}
+
+	private void index(final Path path, final Entry entry) {
+		final int size = path.size();
+		final LongOpenHashSet cells = new LongOpenHashSet();
+		for (int i = 0; i < size; i++) {
+			final int cx = cell(path.precise_x_positions[i]);
+			final int cy = cell(path.precise_y_positions[i]);
+			final long key = key(cx, cy);
+			Bucket bucket = grid.get(key);
+			if (bucket == null) {
+				bucket = new Bucket();
+				grid.put(key, bucket);
+			}
+			bucket.add(path, i);
+			cells.add(key);
+			if (cx < minCx) minCx = cx;
+			if (cx > maxCx) maxCx = cx;
+			if (cy < minCy) minCy = cy;
+			if (cy > maxCy) maxCy = cy;
+		}
+		entry.cells = cells.toLongArray();
+		entry.size = size;
+		entry.dirty = false;
+		nodeCount += size;
+	}
+
+	private void unindex(final Path path, final Entry entry) {
+		if (entry.cells == null) return;
+		for (final long key : entry.cells) {
+			final Bucket bucket = grid.get(key);
+			if (bucket == null) continue;
+			bucket.removeAll(path);
+			if (bucket.size == 0) grid.remove(key);
+		}
+		nodeCount -= entry.size;
+		entry.cells = null;
+		entry.size = -1;
+	}
+
+	private void forEachBucketInRing(final int cx, final int cy, final int ring,
+		final BucketConsumer consumer)
+	{
+		if (ring == 0) {
+			visit(cx, cy, consumer);
+			return;
+		}
+		final int x0 = Math.max(cx - ring, minCx);
+		final int x1 = Math.min(cx + ring, maxCx);
+		// top and bottom rows
+		for (int y = cy - ring; y <= cy + ring; y += 2 * ring) {
+			if (y < minCy || y > maxCy) continue;
+			for (int x = x0; x <= x1; x++)
+				visit(x, y, consumer);
+		}
+		// left and right columns, excluding corners
+		final int y0 = Math.max(cy - ring + 1, minCy);
+		final int y1 = Math.min(cy + ring - 1, maxCy);
+		for (int x = cx - ring; x <= cx + ring; x += 2 * ring) {
+			if (x < minCx || x > maxCx) continue;
+			for (int y = y0; y <= y1; y++)
+				visit(x, y, consumer);
+		}
+	}
+
+	private void visit(final int x, final int y, final BucketConsumer consumer) {
+		final Bucket bucket = grid.get(key(x, y));
+		if (bucket != null) consumer.accept(bucket);
+	}
+
+	/* Rings closer to the query cell than this one do not overlap occupied cells */
+	private int minRing(final int cx, final int cy) {
+		return Math.max(0, Math.max(Math.max(minCx - cx, cx - maxCx), Math.max(minCy - cy, cy - maxCy)));
+	}
+
+	private int maxRing(final int cx, final int cy) {
+		if (minCx > maxCx) return -1;
+		return Math.max(Math.max(Math.abs(cx - minCx), Math.abs(cx - maxCx)),
+			Math.max(Math.abs(cy - minCy), Math.abs(cy - maxCy)));
+	}
+
+	private int cell(final double v) {
+		return (int) Math.floor(v / cellSize);
+	}
+
+	private static long key(final int cx, final int cy) {
+		return ((long) cx << 32) | (cy & 0xffffffffL);
+	}
+
+	private void resetBounds() {
+		minCx = minCy = Integer.MAX_VALUE;
+		maxCx = maxCy = Integer.MIN_VALUE;
+	}
+
+	@FunctionalInterface
+	private interface BucketConsumer {
+		void accept(Bucket bucket);
+	}
+
+	/* Indexing state of a path */
+	private static class Entry {
+		long[] cells;
+		int size = -1;
+		boolean dirty = true;
+		boolean visited;
+	}
+
+	private static class Hit {
+		Path path;
+		int index = -1;
+		double distanceSquared;
+	}
+
+	/* The nodes falling in a grid cell */
+	private static class Bucket {
+		Path[] paths = new Path[4];
+		int[] indices = new int[4];
+		int size;
+
+		void add(final Path path, final int index) {
+			if (size == paths.length) {
+				paths = Arrays.copyOf(paths, size * 2);
+				indices = Arrays.copyOf(indices, size * 2);
+			}
+			paths[size] = path;
+			indices[size++] = index;
+		}
+
+		void removeAll(final Path path) {
+			int j = 0;
+			for (int i = 0; i < size; i++) {
+				if (paths[i] == path) continue;
+				paths[j] = paths[i];
+				indices[j++] = indices[i];
+			}
+			for (int i = j; i < size; i++)
+				paths[i] = null;
+			size = j;
+		}
+	}
+
+}
@@ -79,6 +79,7 @@ import sc.fiji.snt.event.SNTEvent;
 import sc.fiji.snt.event.SNTListener;
 import sc.fiji.snt.filter.Frangi;
 import sc.fiji.snt.filter.Lazy;
+import sc.fiji.snt.filter.PersistentCellCache;
 import sc.fiji.snt.filter.Tubeness;
 import sc.fiji.snt.gui.GuiUtils;
 import sc.fiji.snt.gui.SWCImportOptionsDialog;
@@ -133,14 +134,14 @@ public class SNT extends MultiDThreePanes implements
 	protected LUTService lutService;
 
 	public enum SearchType {
-		ASTAR, NBASTAR;
+		ASTAR, NBASTAR, MULTISCALE;
 		@Override
 		public String toString() {
 			return StringUtils.capitalize(super.toString().toLowerCase());
 		}
 	}
 	public enum SearchImageType {
-		ARRAY, MAP;
+		ARRAY, MAP, PACKED;
 		@Override
 		public String toString() {
 			return StringUtils.capitalize(super.toString().toLowerCase());
@@ -266,6 +267,14 @@ public class SNT extends MultiDThreePanes implements
 
 	/* Compute image statistics on the bounding box sub-volume given by the start and goal nodes */
 	protected volatile boolean isUseSubVolumeStats = true;
+	protected int searchCorridorPadding = 0;
+	protected long searchNodeBudget = 0;
+	private CostVolumeCache costVolumeCache;
+	private PersistentCellCache filterCellCache;
+	protected int fillerThreads = 1;
+	/* Metrics of all searches and fills run in this session, if enabled */
+	private volatile boolean searchMetricsEnabled = false;
+	private final SearchMetrics sessionSearchMetrics = new SearchMetrics();
 
 	/* adjustable parameters for cost functions */
 	// This should be less than 1, prevents meandering path
@@ -696,6 +705,7 @@ public class SNT extends MultiDThreePanes implements
 		statusService.showStatus("Loading data...");
 		this.dataset = convertService.convert(imp, Dataset.class);
 		this.ctSlice3d = ImgUtils.getCtSlice3d(this.dataset, channel - 1, frame - 1);
+		clearCostVolumes();
 		SNTUtils.log("Dataset dimensions: " + Arrays.toString(Intervals.dimensionsAsLongArray(dataset)));
 		SNTUtils.log("CT HyperSlice dimensions: " + Arrays.toString(Intervals.dimensionsAsLongArray(this.ctSlice3d)));
 		statusService.showStatus("Finding stack minimum / maximum");
@@ -967,6 +977,8 @@ public class SNT extends MultiDThreePanes implements
 	@Override
 	public void finished(final SearchInterface source, final boolean success) {
 
+		recordSearchMetrics(source);
+
 		if (source == currentSearchThread ||  source == tubularGeodesicsThread || source == manualSearchThread)
 		{
 			removeSphere(targetBallName);
@@ -1723,6 +1735,53 @@ public class SNT extends MultiDThreePanes implements
 				throw new IllegalArgumentException("BUG: Unknown heuristic " + heuristicType);
 		}
 
+		// Local statistics change with every search: Whole-image volumes keyed on
+		// them would never be reused, and would evict volumes that are
+		final boolean useCostVolume = costVolumeCache != null && !isUseSubVolumeStats;
+		final RandomAccessibleInterval<? extends RealType<?>> searchImg = (useCostVolume)
+				? costVolumeCache.get(img, costType, costFunction, costParameters(imgStats, oneMinusErfZFudge))
+				: img;
+		final Cost searchCost = (useCostVolume) ? new CachedCost(costFunction) : costFunction;
+
+		if (searchCorridorPadding > 0) {
+			final BoundedSearch search = new BoundedSearch(this, searchImg, x_start, y_start, z_start, x_end, y_end,
+					z_end, corridor -> createSearch(corridor, x_start, y_start, z_start, x_end, y_end, z_end,
+							searchCost, heuristic));
+			search.setPadding(searchCorridorPadding);
+			search.setNodeBudget(searchNodeBudget);
+			search.setMetricsEnabled(searchMetricsEnabled);
+			return search;
+		}
+		final AbstractSearch search = createSearch(searchImg, x_start, y_start, z_start, x_end, y_end, z_end,
+				searchCost, heuristic);
+		search.setNodeBudget(searchNodeBudget);
+		search.setMetricsEnabled(searchMetricsEnabled);
+		return search;
+	}
+
+	private AbstractSearch createSearch(final RandomAccessibleInterval<? extends RealType<?>> img,
+										final int x_start, final int y_start, final int z_start,
+										final int x_end, final int y_end, final int z_end,
+										final Cost costFunction, final Heuristic heuristic)
+	{
+		if (searchType == SearchType.MULTISCALE) {
+			return new MultiScaleSearch(this, img, x_start, y_start, z_start, x_end, y_end, z_end,
+					searchImageType, costFunction, heuristic);
+		}
+		if (searchImageType == SearchImageType.PACKED) {
+			switch (searchType)
+			{
+				case ASTAR:
+					return new PackedTracerThread(this, img, x_start, y_start, z_start, x_end, y_end, z_end,
+							costFunction, heuristic);
+				case NBASTAR:
+					return new PackedBiSearch(this, img, x_start, y_start, z_start, x_end, y_end, z_end,
+							costFunction, heuristic);
+				default:
+					throw new IllegalArgumentException("BUG: Unknown search class");
+			}
+		}
+
 		AbstractSearch search;
 		switch (searchType)
 		{
@@ -1919,12 +1978,36 @@ public class SNT extends MultiDThreePanes implements
 		}
 		final RandomAccessibleInterval<FloatType> filtered;
 		if (strategy.equalsIgnoreCase("lazy")) {
-			filtered = Lazy.process(
-				data,
-				data,
-				new int[]{32, 32, 32},
-				new FloatType(),
-				op);
+			final int[] blockSize = new int[]{32, 32, 32};
+			final PersistentCellCache cache = getFilterCellCache();
+			// Secondary images are not fingerprinted: they are not necessarily backed by a file
+			final String fingerprint = (cache == null || useSecondary) ? null
+				: PersistentCellCache.fingerprint(getImagePlus());
+			if (cache != null && fingerprint == null) {
+				SNTUtils.log("Filtered image not persisted: image is not backed by an unmodified file");
+			}
+			if (fingerprint == null) {
+				filtered = Lazy.process(
+					data,
+					data,
+					blockSize,
+					new FloatType(),
+					op);
+			} else {
+				// Frangi responses are normalized by the maximum intensity of the image
+				final String key = PersistentCellCache.key(fingerprint, channel, frame,
+					filter.toLowerCase(), scales, spacing, filter.equalsIgnoreCase("frangi") ? stats.max : 0,
+					blockSize, FloatType.class.getSimpleName());
+				SNTUtils.log("Filtered image " + (cache.contains(key) ? "found in " : "will be stored in ") + cache);
+				filtered = Lazy.process(
+					data,
+					data,
+					blockSize,
+					new FloatType(),
+					op,
+					cache,
+					key);
+			}
 		} else if (strategy.equalsIgnoreCase("preprocess")) {
 			filtered = opService.create().img(data, new FloatType());
 			op.compute(data, filtered);
@@ -2052,44 +2135,117 @@ public class SNT extends MultiDThreePanes implements
 	private Path autoTraceHeadless(final List<SNTPoint> pointList, final PointInImage forkPoint) {
 		if (pointList == null || pointList.size() == 0)
 			throw new IllegalArgumentException("pointList cannot be null or empty");
+		return traceHeadless(Collections.singletonList(pointList), Collections.singletonList(forkPoint),
+				SNTPrefs.getThreads()).get(0);
+	}
 
-		if (tracerThreadPool == null || tracerThreadPool.isShutdown()) {
-			tracerThreadPool = Executors.newSingleThreadExecutor();
-		}
-
-		Path fullPath = new Path(x_spacing, y_spacing, z_spacing, spacing_units);
+	/**
+	 * Automatically traces paths from several lists of points without involving
+	 * SNT's UI. The segments between consecutive points of all lists are
+	 * independent searches: they are computed in parallel using the active
+	 * search parameters (cost function, heuristic, search type, etc.) and stitched
+	 * back in order. The computed paths are <i>not</i> added to the
+	 * {@link PathAndFillManager}.
+	 * <p>
+	 * All input {@link SNTPoint}s must be specified in real world coordinates.
+	 * </p>
+	 *
+	 * @param pointLists the lists of points to be traced. For each list, the first
+	 *          point is the start of the path, the last its terminus. Null
+	 *          objects not allowed.
+	 * @param forkPoints the fork points of the parent paths from which each of
+	 *          the searched paths should branch off (matched by index to
+	 *          {@code pointLists}). Either the list or any of its elements can
+	 *          be null if paths should not have any parent.
+	 * @param nThreads the maximum number of searches to be computed concurrently.
+	 *          If not positive, {@link SNTPrefs#getThreads()} is used.
+	 * @return the list of computed paths, in the order of {@code pointLists}. If
+	 *         a path cannot be fully computed, its list entry is null.
+	 * @throws IllegalArgumentException if the lists of points are invalid or if
+	 *           no valid image data is available
+	 */
+	public List<Path> autoTraceHeadless(final List<List<SNTPoint>> pointLists,
+										final List<PointInImage> forkPoints, final int nThreads)
+	{
+		if (!accessToValidImageData())
+			throw new IllegalArgumentException("Valid image data is not available");
+		return traceHeadless(pointLists, forkPoints, nThreads);
+	}
 
-		// Now keep appending nodes to temporary path
-		for (int i = 0; i < pointList.size() - 1; i++) {
-			// Append node and wait for search to be finished
-			final SNTPoint start = pointList.get(i);
-			final SNTPoint end = pointList.get(i + 1);
-			AbstractSearch pathSearch = createSearch(
-					start.getX(),
-					start.getY(),
-					start.getZ(),
-					end.getX(),
-					end.getY(),
-					end.getZ());
-			Future<?> result = tracerThreadPool.submit(pathSearch);
-			Path pathResult = null;
-			try {
-				result.get();
-				pathResult = pathSearch.getResult();
-			} catch (InterruptedException | ExecutionException e) {
-				SNTUtils.error("Error during auto-trace", e);
-			}
-			if (pathResult == null) {
-				SNTUtils.log("Auto-trace result was null.");
-				return null;
+	private List<Path> traceHeadless(final List<List<SNTPoint>> pointLists, final List<PointInImage> forkPoints,
+									 final int nThreads)
+	{
+		if (pointLists == null || pointLists.isEmpty())
+			throw new IllegalArgumentException("pointLists cannot be null or empty");
+		if (forkPoints != null && forkPoints.size() != pointLists.size())
+			throw new IllegalArgumentException("forkPoints and pointLists must have the same size");
+
+		int nSegments = 0;
+		for (final List<SNTPoint> pointList : pointLists) {
+			if (pointList == null || pointList.isEmpty())
+				throw new IllegalArgumentException("pointLists cannot contain null or empty lists");
+			nSegments += pointList.size() - 1;
+		}
+		final int poolSize = Math.max(1, Math.min(nSegments, (nThreads > 0) ? nThreads : SNTPrefs.getThreads()));
+		final ExecutorService pool = Executors.newFixedThreadPool(poolSize);
+
+		// Searches are only created when a thread becomes available to keep memory
+		// bounded. Creation is serialized since it may compute (shared) image statistics
+		final Object searchFactoryLock = new Object();
+		final List<List<Future<Path>>> segmentResults = new ArrayList<>(pointLists.size());
+		try {
+			for (final List<SNTPoint> pointList : pointLists) {
+				final List<Future<Path>> futures = new ArrayList<>(pointList.size() - 1);
+				for (int i = 0; i < pointList.size() - 1; i++) {
+					final SNTPoint start = pointList.get(i);
+					final SNTPoint end = pointList.get(i + 1);
+					futures.add(pool.submit(() -> {
+						final AbstractSearch pathSearch;
+						synchronized (searchFactoryLock) {
+							pathSearch = createSearch(start.getX(), start.getY(), start.getZ(),
+									end.getX(), end.getY(), end.getZ());
+						}
+						pathSearch.run();
+						recordSearchMetrics(pathSearch);
+						return pathSearch.getResult();
+					}));
+				}
+				segmentResults.add(futures);
 			}
-			fullPath.add(pathResult);
-		}
 
-		if (forkPoint != null) {
-			fullPath.setStartJoin(forkPoint.getPath(), forkPoint);
+			final List<Path> paths = new ArrayList<>(pointLists.size());
+			for (int i = 0; i < segmentResults.size(); i++) {
+				Path fullPath = new Path(x_spacing, y_spacing, z_spacing, spacing_units);
+				for (final Future<Path> future : segmentResults.get(i)) {
+					Path pathResult = null;
+					try {
+						pathResult = future.get();
+					} catch (final ExecutionException e) {
+						SNTUtils.error("Error during auto-trace", e);
+					}
+					if (pathResult == null) {
+						SNTUtils.log("Auto-trace result was null.");
+						fullPath = null;
+						break;
+					}
+					fullPath.add(pathResult);
+				}
+				final PointInImage forkPoint = (forkPoints == null) ? null : forkPoints.get(i);
+				if (fullPath != null && forkPoint != null) {
+					fullPath.setStartJoin(forkPoint.getPath(), forkPoint);
+				}
+				paths.add(fullPath);
+			}
+			return paths;
+		} catch (final InterruptedException e) {
+			SNTUtils.error("Auto-trace interrupted", e);
+			Thread.currentThread().interrupt();
+			final List<Path> paths = new ArrayList<>(pointLists.size());
+			for (int i = 0; i < pointLists.size(); i++) paths.add(null);
+			return paths;
+		} finally {
+			pool.shutdownNow();
 		}
-		return fullPath;
 	}
 
 	synchronized protected void replaceCurrentPath(final Path path) {
@@ -2488,12 +2644,23 @@ public class SNT extends MultiDThreePanes implements
 			default:
 				throw new IllegalArgumentException("BUG: Unrecognized cost function " + costType);
 		}
-		final FillerThread filler = new FillerThread(
-				data,
-				xy.getCalibration(),
-				fillThresholdDistance,
-				1000,
-				costFunction);
+		final RandomAccessibleInterval<? extends RealType<?>> fillData;
+		if (costVolumeCache != null) {
+			fillData = costVolumeCache.get(data, costType, costFunction, costParameters(imgStats, 1d));
+			costFunction = new CachedCost(costFunction);
+		} else {
+			fillData = data;
+		}
+		final FillerThread filler;
+		if (fillerThreads > 1) {
+			filler = new ParallelFillerThread(fillData, xy.getCalibration(), fillThresholdDistance, 0, 1000,
+					costFunction, fillerThreads, ParallelFillerThread.DEFAULT_BLOCK_SIZE);
+		} else if (searchImageType == SearchImageType.PACKED) {
+			filler = new PackedFillerThread(fillData, xy.getCalibration(), fillThresholdDistance, 1000, costFunction);
+		} else {
+			filler = new FillerThread(fillData, xy.getCalibration(), fillThresholdDistance, 1000, costFunction);
+		}
+		filler.setMetricsEnabled(searchMetricsEnabled);
 		addThreadToDraw(filler);
 		filler.addProgressListener(this);
 		filler.addProgressListener(ui.getFillManager());
@@ -2645,6 +2812,7 @@ public class SNT extends MultiDThreePanes implements
 		if (changeUIState) changeUIState(SNTUI.CACHING_DATA);
 		imp.setPosition( channel, xy.getSlice(), frame );
 		secondaryData = ImgUtils.getCtSlice(imp);
+		clearCostVolumes();
 		SNTUtils.log("Secondary data dimensions: " +
 				Arrays.toString(Intervals.dimensionsAsLongArray(secondaryData)));
 		ImageStatistics imgStats = imp.getStatistics(ImageStatistics.MIN_MAX | ImageStatistics.MEAN |
@@ -2680,6 +2848,7 @@ public class SNT extends MultiDThreePanes implements
 		}
 		if (changeUIState) changeUIState(SNTUI.CACHING_DATA);
 		secondaryData =  img;
+		clearCostVolumes();
 		SNTUtils.log("Secondary data dimensions: " +
 				Arrays.toString(Intervals.dimensionsAsLongArray(secondaryData)));
 		if (computeStatistics) {
@@ -2743,6 +2912,7 @@ public class SNT extends MultiDThreePanes implements
 				img.getCache().invalidateAll();
 		}
 		secondaryData = null;
+		clearCostVolumes();
 		setSecondaryImage(null);
 		if (getUI() != null) {
 			getUI().disableSecondaryLayerComponents();
@@ -3566,6 +3736,162 @@ public class SNT extends MultiDThreePanes implements
 		this.searchImageType = searchImageType;
 	}
 
+	/**
+	 * Restricts searches between two points to a corridor around them, so that
+	 * memory usage remains bounded on large images. The corridor is grown on
+	 * demand if no route can be found within it.
+	 *
+	 * @param padding the initial number of voxels by which the bounding box of
+	 *          the start and goal points is expanded. If not positive,
+	 *          searches are not restricted (the default)
+	 * @see BoundedSearch
+	 */
+	public void setSearchCorridorPadding(final int padding) {
+		this.searchCorridorPadding = Math.max(0, padding);
+	}
+
+	public int getSearchCorridorPadding() {
+		return searchCorridorPadding;
+	}
+
+	/**
+	 * Sets the maximum number of nodes a search between two points may hold
+	 * before being aborted.
+	 *
+	 * @param nodeBudget the maximum number of nodes. If not positive, searches
+	 *          are unbounded (the default)
+	 * @see AbstractSearch#setNodeBudget(long)
+	 */
+	public void setSearchNodeBudget(final long nodeBudget) {
+		this.searchNodeBudget = Math.max(0, nodeBudget);
+	}
+
+	public long getSearchNodeBudget() {
+		return searchNodeBudget;
+	}
+
+	/**
+	 * Sets the number of threads used to fill paths. Parallel fills are opt-in:
+	 * When more than one thread is specified, fills are computed by a
+	 * {@link ParallelFillerThread}. Otherwise, fills are computed by a single
+	 * thread, using the active {@link SearchImageType}.
+	 *
+	 * @param nThreads the number of threads. Fills are single-threaded (the
+	 *          default) if less than 2
+	 */
+	public void setFillerThreads(final int nThreads) {
+		this.fillerThreads = Math.max(1, nThreads);
+	}
+
+	public int getFillerThreads() {
+		return fillerThreads;
+	}
+
+	/**
+	 * Sets whether the cost of moving into each voxel should be cached across
+	 * searches and fills, so that it is computed only once per image, cost
+	 * function and image statistics. Costs are computed lazily, in blocks, and
+	 * are discarded when memory runs low. Volumes are identified by the image
+	 * statistics used by the cost function, so they are only reused with
+	 * image-wide statistics: Searches using
+	 * {@link #setUseSubVolumeStats(boolean) local (sub-volume) statistics} (the
+	 * default) bypass the cache.
+	 *
+	 * @param useCostVolumeCache whether cost volumes should be cached. Disabled
+	 *          by default
+	 * @see CostVolumeCache
+	 */
+	public void setUseCostVolumeCache(final boolean useCostVolumeCache) {
+		if (useCostVolumeCache && costVolumeCache == null) {
+			costVolumeCache = new CostVolumeCache();
+		} else if (!useCostVolumeCache) {
+			clearCostVolumes();
+			costVolumeCache = null;
+		}
+	}
+
+	public boolean isUseCostVolumeCache() {
+		return costVolumeCache != null;
+	}
+
+	protected CostVolumeCache getCostVolumeCache() {
+		return costVolumeCache;
+	}
+
+	/**
+	 * Sets whether searches and fills started by this instance should collect
+	 * {@link SearchMetrics}. Metrics of individual searches are aggregated into
+	 * the session metrics returned by {@link #getSearchMetrics()}.
+	 *
+	 * @param enabled whether metrics should be collected. Disabled by default
+	 * @see AbstractSearch#setMetricsEnabled(boolean)
+	 */
+	public void setSearchMetricsEnabled(final boolean enabled) {
+		this.searchMetricsEnabled = enabled;
+	}
+
+	public boolean isSearchMetricsEnabled() {
+		return searchMetricsEnabled;
+	}
+
+	/**
+	 * Returns the metrics aggregated across all searches and fills completed
+	 * since metrics were enabled (or last reset). E.g., to tabulate them from a
+	 * script: {@code snt.getSearchMetrics().toTable()}.
+	 *
+	 * @return the session metrics. Use {@link SearchMetrics#reset()} to clear
+	 *         them
+	 * @see #setSearchMetricsEnabled(boolean)
+	 */
+	public SearchMetrics getSearchMetrics() {
+		return sessionSearchMetrics;
+	}
+
+	private void recordSearchMetrics(final SearchInterface search) {
+		if (searchMetricsEnabled) sessionSearchMetrics.add(search.getMetrics());
+	}
+
+	/**
+	 * Sets the directory in which lazily filtered images (see
+	 * {@link #startHessian(String, String, double[], String, int)}) are persisted,
+	 * so that they are not recomputed when the same image is filtered again with
+	 * the same settings, in this or in later sessions. The setting is stored in
+	 * SNT's preferences. Only filtered main images backed by an unmodified file
+	 * are persisted, and the cache is capped at
+	 * {@link PersistentCellCache#DEFAULT_MAX_BYTES}.
+	 *
+	 * @param directory the cache directory, or null to disable persistence (the
+	 *          default)
+	 * @see PersistentCellCache
+	 */
+	public void setFilterCacheDirectory(final File directory) {
+		SNTPrefs.setFilterCacheDirectory(directory);
+		filterCellCache = null;
+	}
+
+	/**
+	 * @return the persistent cache of lazily filtered images, holding hit and
+	 *         miss counts, or null if filtered images are not persisted
+	 * @see #setFilterCacheDirectory(File)
+	 */
+	public PersistentCellCache getFilterCellCache() {
+		final File dir = SNTPrefs.getFilterCacheDirectory();
+		if (dir == null) return null;
+		if (filterCellCache == null || !filterCellCache.getDirectory().equals(dir)) {
+			filterCellCache = new PersistentCellCache(dir);
+		}
+		return filterCellCache;
+	}
+
+	private void clearCostVolumes() {
+		if (costVolumeCache != null) costVolumeCache.clear();
+	}
+
+	private double[] costParameters(final ImageStatistics imgStats, final double zFudge) {
+		return new double[] { imgStats.min, imgStats.max, imgStats.mean, imgStats.stdDev,
+				(costType == CostType.PROBABILITY) ? zFudge : 1d };
+	}
+
 	public FilterType getFilterType() {
 		return filterType;
 	}
@@ -65,6 +65,7 @@ public class SNTPrefs { // TODO: Adopt PrefService
 	private static final String PATHWIN_LOC = "tracing.snt.pwloc";
 	private static final String FILLWIN_LOC = "tracing.snt.fwloc";
 	private static final String FILTERED_IMG_PATH = "tracing.snt.fipath";
+	private static final String FILTER_CACHE_DIR = "tracing.snt.fcdir";
 
 	@Deprecated
 	private static final String LOAD_DIRECTORY_KEY = "tracing.snt.lastdir";
@@ -288,6 +289,24 @@ public class SNTPrefs { // TODO: Adopt PrefService
 		return Prefs.getThreads();
 	}
 
+	/**
+	 * @return the directory in which lazily filtered images are persisted
+	 *         across sessions, or null if filtered images are not persisted
+	 * @see sc.fiji.snt.filter.PersistentCellCache
+	 */
+	public static File getFilterCacheDirectory() {
+		final String path = Prefs.get(FILTER_CACHE_DIR, null);
+		return (path == null || path.isEmpty()) ? null : new File(path);
+	}
+
+	/**
+	 * @param dir the directory in which lazily filtered images should be
+	 *          persisted across sessions, or null to disable persistence
+	 */
+	public static void setFilterCacheDirectory(final File dir) {
+		Prefs.set(FILTER_CACHE_DIR, (dir == null) ? null : dir.getAbsolutePath());
+	}
+
 	private void setPref(final int key, final boolean value) {
 		if (value) currentBooleans |= key;
 		else currentBooleans &= ~key;
@@ -315,6 +334,7 @@ public class SNTPrefs { // TODO: Adopt PrefService
 		Prefs.set(FILLWIN_LOC, null);
 		Prefs.set(PATHWIN_LOC, null);
 		Prefs.set(FILTERED_IMG_PATH, null);
+		Prefs.set(FILTER_CACHE_DIR, null);
 		setLookAndFeel(getDefaultLookAndFeel());
 		setThreads(0);
 		wipeSessionPrefs();
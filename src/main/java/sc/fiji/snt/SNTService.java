@@ -64,6 +64,7 @@ import sc.fiji.snt.analysis.graph.DirectedWeightedGraph;
 import sc.fiji.snt.event.SNTEvent;
 import sc.fiji.snt.hyperpanes.MultiDThreePanes;
 import sc.fiji.snt.io.MouseLightLoader;
+import sc.fiji.snt.util.SNTPoint;
 import sc.fiji.snt.util.SWCPoint;
 import sc.fiji.snt.viewer.Viewer3D;
 
@@ -187,6 +188,28 @@ public class SNTService extends AbstractService implements ImageJService {
 		return plugin;
 	}
 
+	/**
+	 * Automatically traces paths from several lists of points without involving
+	 * SNT's UI, using the search parameters of the active {@link SNT} instance.
+	 * Segments between consecutive points are computed in parallel, using
+	 * {@link SNTPrefs#getThreads()} threads. Computed paths are not added to the
+	 * Path Manager.
+	 *
+	 * @param pointLists the lists of points (in real world coordinates) to be
+	 *                   traced. For each list, the first point is the start of
+	 *                   the path, the last its terminus.
+	 * @return the computed paths, in the order of {@code pointLists}. Paths that
+	 *         could not be computed are null.
+	 * @throws UnsupportedOperationException if SNT is not running
+	 * @throws IllegalArgumentException      If valid imaged data is not available
+	 * @see SNT#autoTraceHeadless(List, List, int)
+	 */
+	public List<Path> autoTrace(final List<List<SNTPoint>> pointLists) throws UnsupportedOperationException,
+			IllegalArgumentException {
+		accessActiveInstance(false);
+		return plugin.autoTraceHeadless(pointLists, null, SNTPrefs.getThreads());
+	}
+
 	/**
 	 * Returns a reference to the active {@link SNT} plugin.
 	 *
@@ -2757,6 +2757,7 @@ public class SNTUI extends JDialog {
 		searchAlgoChoice = new JComboBox<String>();
 		searchAlgoChoice.addItem("A* search");
 		searchAlgoChoice.addItem("NBA* search");
+		searchAlgoChoice.addItem("Coarse-to-fine NBA* search");
 		searchAlgoChoice.addItem("Fast marching");
 		//TODO: ensure choice reflects the current state of plugin when assembling GUI
 		searchAlgoChoice.addItemListener(new ItemListener() {
@@ -2778,6 +2779,9 @@ public class SNTUI extends JDialog {
 						enableNBAStar();
 						setFastMarchSearchEnabled(false);
 					} else if (idx == 2) {
+						enableMultiScaleSearch();
+						setFastMarchSearchEnabled(false);
+					} else if (idx == 3) {
 						if (!setFastMarchSearchEnabled(true)) {
 							searchAlgoChoice.setSelectedItem(previousSelection);
 						}
@@ -2801,6 +2805,7 @@ public class SNTUI extends JDialog {
 		final Map<String, SNT.SearchImageType> searchMap = new LinkedHashMap<>();
 		searchMap.put("Map (Lightweight)", SNT.SearchImageType.MAP);
 		searchMap.put("Array (Fast)", SNT.SearchImageType.ARRAY);
+		searchMap.put("Packed (Fast, Low Overhead)", SNT.SearchImageType.PACKED);
 		searchMap.forEach((lbl, type) -> {
 			final JRadioButtonMenuItem rbmi = new JRadioButtonMenuItem(lbl);
 			dataStructureButtonGroup.add(rbmi);
@@ -2872,6 +2877,10 @@ public class SNTUI extends JDialog {
 		plugin.setSearchType(SNT.SearchType.NBASTAR);
 	}
 
+	private void enableMultiScaleSearch() {
+		plugin.setSearchType(SNT.SearchType.MULTISCALE);
+	}
+
 	private JPanel hideWindowsPanel() {
 		showOrHidePathList = new JButton("Show Path Manager");
 		showOrHidePathList.addActionListener(listener);
@@ -2900,7 +2909,7 @@ public class SNTUI extends JDialog {
 	boolean setFastMarchSearchEnabled(boolean enable) {
 		if (enable && isFastMarchSearchAvailable()) {
 			plugin.tubularGeodesicsTracingEnabled = true;
-			searchAlgoChoice.setSelectedIndex(2);
+			searchAlgoChoice.setSelectedIndex(3);
 			return true;
 		} else {
 			plugin.tubularGeodesicsTracingEnabled = false;
@@ -66,6 +66,7 @@ import ij.process.StackConverter;
 import net.imglib2.display.ColorTable;
 import sc.fiji.snt.analysis.sholl.ShollUtils;
 import sc.fiji.snt.gui.GuiUtils;
+import sc.fiji.snt.io.BinaryTraces;
 import sc.fiji.snt.util.BoundingBox;
 import sc.fiji.snt.viewer.Viewer3D;
 
@@ -530,7 +531,8 @@ public class SNTUtils {
 			if (!name.contains(validatedPattern))
 				return false;
 			final String lName = name.toLowerCase();
-			return file.canRead() && (lName.endsWith("swc") || lName.endsWith(".traces") || lName.endsWith(".json"));
+			return file.canRead() && (lName.endsWith("swc") || lName.endsWith(".traces") || lName.endsWith(".json")
+					|| lName.endsWith(BinaryTraces.EXTENSION));
 		};
 		return dir.listFiles(filter);
 	}
@@ -45,4 +45,13 @@ public interface SearchProgressCallback {
 
 	void threadStatus(SearchInterface source, int currentStatus);
 
+	/*
+	 * Reports the (estimated) memory, in bytes, held by the state of the search.
+	 * It is called alongside pointsInSearch(). Ignored by default.
+	 */
+
+	default void memoryInSearch(final SearchInterface source, final long bytes) {
+		// do nothing by default
+	}
+
 }
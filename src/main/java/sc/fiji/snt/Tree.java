@@ -24,7 +24,10 @@ package sc.fiji.snt;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
 import java.util.*;
+import java.util.stream.Stream;
 
 import net.imagej.Dataset;
 import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
@@ -38,7 +41,9 @@ import ij.measure.Calibration;
 import sc.fiji.snt.analysis.TreeAnalyzer;
 import sc.fiji.snt.analysis.graph.DirectedWeightedGraph;
 import sc.fiji.snt.hyperpanes.MultiDThreePanes;
+import sc.fiji.snt.io.BinaryTraces;
 import sc.fiji.snt.io.MouseLightLoader;
+import sc.fiji.snt.io.TreeSource;
 import sc.fiji.snt.util.BoundingBox;
 import sc.fiji.snt.util.PointInCanvas;
 import sc.fiji.snt.util.PointInImage;
@@ -72,6 +77,11 @@ public class Tree implements TreeProperties {
 	private PathAndFillManager pafm;
 	private DirectedWeightedGraph graph;
 	private DirectedWeightedGraph simplifiedGraph;
+	private List<SWCPoint> graphTips;
+	private List<SWCPoint> graphBranchPoints;
+	private final GraphInvalidator graphInvalidator = new GraphInvalidator(this);
+	private List<Path> observedPaths;
+	private long modCount;
 	private double value;
 	private Properties properties;
 
@@ -860,6 +870,49 @@ public class Tree implements TreeProperties {
 		return list;
 	}
 
+	/**
+	 * Gets the number of nodes (path points) forming this tree. Equivalent to
+	 * {@code getNodes().size()}, without materializing the nodes.
+	 *
+	 * @return the number of nodes
+	 */
+	public int getNodesCount() {
+		int count = 0;
+		for (final Path p : tree)
+			count += p.size();
+		return count;
+	}
+
+	/**
+	 * Copies the coordinates of all the nodes of this tree into the specified
+	 * array, interleaved as {x0, y0, z0, x1, y1, z1, ...}, in the same order as
+	 * {@link #getNodes()}.
+	 *
+	 * @param dest the destination array. Must be able to hold
+	 *          {@code 3 * getNodesCount()} elements
+	 * @return the number of nodes copied
+	 * @throws IndexOutOfBoundsException if the destination array is too small
+	 * @see Path#copyNodeCoordinates(double[], int)
+	 */
+	public int copyNodeCoordinates(final double[] dest)
+		throws IndexOutOfBoundsException
+	{
+		int count = 0;
+		for (final Path p : tree)
+			count += p.copyNodeCoordinates(dest, 3 * count);
+		return count;
+	}
+
+	/**
+	 * Returns a flyweight cursor over all the nodes of this tree, visited in the
+	 * same order as {@link #getNodes()}.
+	 *
+	 * @return a new {@link NodeCursor}, positioned before the first node
+	 */
+	public NodeCursor cursor() {
+		return new NodeCursor(tree);
+	}
+
 	/**
 	 * Assesses whether this Tree has depth.
 	 *
@@ -869,11 +922,11 @@ public class Tree implements TreeProperties {
 	public boolean is3D() throws IllegalArgumentException {
 		if (isEmpty())
 			throw new IllegalArgumentException("Tree is empty");
-		final double zRef = tree.get(0).getNodeWithoutChecks(0).getZ();
-		for (final Path p : tree) {
-			for (int i = 0; i < p.size(); ++i) {
-				if (p.getNodeWithoutChecks(i).getZ() != zRef) return true;
-			}
+		final NodeCursor cursor = cursor();
+		if (!cursor.next()) return false;
+		final double zRef = cursor.getZ();
+		while (cursor.next()) {
+			if (cursor.getZ() != zRef) return true;
 		}
 		return false;
 	}
@@ -910,7 +963,7 @@ public class Tree implements TreeProperties {
 		if (box == null) 
 			box = new TreeBoundingBox();
 		if (compute)
-			box.compute(getNodes().iterator());
+			box.compute(cursor());
 		return box;
 	}
 
@@ -1050,10 +1103,11 @@ public class Tree implements TreeProperties {
 		final SummaryStatistics xStats = new SummaryStatistics();
 		final SummaryStatistics yStats = new SummaryStatistics();
 		final SummaryStatistics zStats = new SummaryStatistics();
-		for (final PointInImage p : getNodes()) {
-			xStats.addValue(p.x);
-			yStats.addValue(p.y);
-			zStats.addValue(p.z);
+		final NodeCursor cursor = cursor();
+		while (cursor.next()) {
+			xStats.addValue(cursor.getX());
+			yStats.addValue(cursor.getY());
+			zStats.addValue(cursor.getZ());
 		}
 		final PointInImage origin = new PointInImage(xStats.getMin(), yStats.getMin(), zStats.getMin());
 		final double width = Math.abs(xStats.getMax() - origin.getX());
@@ -1246,32 +1300,124 @@ public class Tree implements TreeProperties {
 	}
 
 	/**
-	 * Assembles a DirectedGraph from this Tree.
+	 * Assembles a DirectedGraph from this Tree. The graph is cached: Subsequent
+	 * calls return the same instance until this Tree, or any of its Paths, is
+	 * modified.
 	 *
 	 * @return the Tree's graph with edge weights corresponding to inter-node
 	 *         distances
 	 * @throws IllegalArgumentException if tree contains multiple roots or loops
+	 * @see #getModificationCount()
 	 */
-	public DirectedWeightedGraph getGraph() throws IllegalArgumentException {
-		if (graph == null) graph = new DirectedWeightedGraph(this);
+	public synchronized DirectedWeightedGraph getGraph() throws IllegalArgumentException {
+		if (graph == null) {
+			graph = new DirectedWeightedGraph(this);
+			observePaths();
+		}
 		return graph;
 	}
 
+	/**
+	 * Gets the tips (end points) of the graph returned by {@link #getGraph()}.
+	 * The list is cached alongside the graph.
+	 *
+	 * @return the (unmodifiable) list of graph tips
+	 * @throws IllegalArgumentException if tree contains multiple roots or loops
+	 * @see DirectedWeightedGraph#getTips()
+	 */
+	public synchronized List<SWCPoint> getGraphTips() throws IllegalArgumentException {
+		if (graphTips == null) graphTips = Collections.unmodifiableList(getGraph().getTips());
+		return graphTips;
+	}
+
+	/**
+	 * Gets the branch points of the graph returned by {@link #getGraph()}. The
+	 * list is cached alongside the graph.
+	 *
+	 * @return the (unmodifiable) list of graph branch points
+	 * @throws IllegalArgumentException if tree contains multiple roots or loops
+	 * @see DirectedWeightedGraph#getBPs()
+	 */
+	public synchronized List<SWCPoint> getGraphBranchPoints() throws IllegalArgumentException {
+		if (graphBranchPoints == null) graphBranchPoints = Collections.unmodifiableList(getGraph().getBPs());
+		return graphBranchPoints;
+	}
+
+	/**
+	 * Returns the number of modifications that invalidated the cached graphs of
+	 * this Tree, i.e., adding or removing Paths, geometric transformations, and
+	 * edits to the nodes or connectivity of its Paths. Useful for callers caching
+	 * data derived from this Tree to detect that it has since changed: Edits to
+	 * Paths are tracked from the first call onwards, even if no graph is cached.
+	 *
+	 * @return the modification count
+	 */
+	public synchronized long getModificationCount() {
+		observePaths();
+		return modCount;
+	}
+
 	/**
 	 * Re-assembles the DirectedGraph object returned by {@link #getGraph()}
 	 * ensuring that no untracked changes exist. Usually, calling this method is not
 	 * necessary since most changes to this Tree percolate to its graph
 	 * representation.
 	 */
-	public void rebuildGraph() {
+	public synchronized void rebuildGraph() {
 		nullifyGraphsAndPafm();
-		graph = new DirectedWeightedGraph(this);
+		getGraph();
+	}
+
+	private synchronized void nullifyGraphsAndPafm() {
+		invalidateGraphs();
+		pafm = null;
 	}
 
-	private void nullifyGraphsAndPafm() {
+	private synchronized void invalidateGraphs() {
+		modCount++;
 		graph = null;
 		simplifiedGraph = null;
-		pafm = null;
+		graphTips = null;
+		graphBranchPoints = null;
+		if (observedPaths != null) {
+			observedPaths.forEach(p -> p.removeChangeListener(graphInvalidator));
+			observedPaths = null;
+		}
+	}
+
+	/* Paths are only observed while a graph is cached, or modifications are being tracked */
+	private void observePaths() {
+		if (observedPaths != null) return;
+		observedPaths = new ArrayList<>(tree);
+		observedPaths.forEach(p -> p.addChangeListener(graphInvalidator));
+	}
+
+	/*
+	 * Invalidates the cached graphs when the nodes or the connectivity of a Path
+	 * change. Only weakly references its Tree, so that Paths outliving the Tree
+	 * (e.g., shared with another Tree) do not retain it.
+	 */
+	private static class GraphInvalidator implements PathChangeListener {
+
+		private final WeakReference<Tree> treeRef;
+
+		GraphInvalidator(final Tree tree) {
+			treeRef = new WeakReference<>(tree);
+		}
+
+		@Override
+		public void pathChanged(final PathChangeEvent event) {
+			switch (event.getEventType()) {
+			case NODES_CHANGED:
+			case CONNECTIONS_CHANGED:
+				final Tree tree = treeRef.get();
+				if (tree != null) tree.invalidateGraphs();
+				else ((Path) event.getSource()).removeChangeListener(this);
+				break;
+			default:
+				break;
+			}
+		}
 	}
 
 	/**
@@ -1282,7 +1428,7 @@ public class Tree implements TreeProperties {
 	 * @return the Tree's graph with edge weights corresponding to branch lengths
 	 * @throws IllegalArgumentException if tree contains multiple roots or loops
 	 */
-	public DirectedWeightedGraph getGraph(final boolean simplify) throws IllegalArgumentException {
+	public synchronized DirectedWeightedGraph getGraph(final boolean simplify) throws IllegalArgumentException {
 		if (simplify) {
 			if (simplifiedGraph == null) simplifiedGraph = getGraph().getSimplifiedGraph();
 			return simplifiedGraph;
@@ -1328,8 +1474,28 @@ public class Tree implements TreeProperties {
 		} catch (final IllegalArgumentException ignored) {
 			return new ArrayList<>();
 		}
-		final Collection<Tree> trees = dummyTree.pafm.getTrees();
-		final String baseName = SNTUtils.stripExtension(f.getName());
+		return labelTrees(dummyTree.pafm.getTrees(), SNTUtils.stripExtension(f.getName()));
+	}
+
+	/**
+	 * Retrieves a list of {@link Tree}s from a stream of reconstruction data.
+	 *
+	 * @param is       the stream containing the reconstructions in any of the
+	 *                 supported formats (.traces, .(e)swc, .json, .sntb). It is
+	 *                 not closed by this method.
+	 * @param baseName the label of the imported tree (typically the filename
+	 *                 without extension). If the stream holds multiple trees, it
+	 *                 is used as a prefix for their labels.
+	 * @return the collection of imported {@link Tree}s. An empty list is retrieved
+	 *         if {@code is} could not be parsed.
+	 */
+	public static Collection<Tree> listFromStream(final InputStream is, final String baseName) {
+		final PathAndFillManager pafm = PathAndFillManager.createFromStream(is, baseName);
+		if (pafm == null) return new ArrayList<>();
+		return labelTrees(pafm.getTrees(), baseName);
+	}
+
+	private static Collection<Tree> labelTrees(final Collection<Tree> trees, final String baseName) {
 		if (trees.size() == 1)
 			trees.iterator().next().setLabel(baseName);
 		else {
@@ -1383,26 +1549,31 @@ public class Tree implements TreeProperties {
 	 *         {@code dir} is not a valid, readable directory.
 	 */
 	public static List<Tree> listFromDir(final String dir, final String pattern, final String... swcTypes) {
-		final List<Tree> trees = new ArrayList<>();
-		if (dir == null) return trees;
-		final File dirFile = new File(dir);
-		final File treeFiles[] = SNTUtils.getReconstructionFiles(dirFile, pattern);
-		if (treeFiles == null || treeFiles.length == 0) {
-			return trees;
-		}
-		for (final File treeFile : treeFiles) {
-			final Collection<Tree> treesInFile = Tree.listFromFile(treeFile.getAbsolutePath());
-			if (treesInFile != null) {
-				if (swcTypes == null)
-					trees.addAll(treesInFile);
-				else {
-					treesInFile.forEach(t -> {
-						trees.add(t.subTree(swcTypes));
-					});
-				}
-			}
-		}
-		return trees;
+		// Files are read and parsed in parallel. Trees are listed by filename
+		return TreeSource.fromDir(dir, pattern).setSWCTypes(swcTypes).readAll();
+	}
+
+	/**
+	 * Lazily retrieves {@link Tree}s from reconstruction files stored in a common
+	 * directory. Unlike {@link #listFromDir(String, String, String...)}, files
+	 * are read on demand by background readers, so that large collections can
+	 * be processed with bounded memory.
+	 *
+	 * @param dir      the directory containing the reconstruction files (.(e)swc,
+	 *                 .traces, .json, .sntb extension)
+	 * @param pattern  the filename substring (case sensitive) to be matched. Only
+	 *                 filenames containing {@code pattern} will be imported from
+	 *                 the directory. {@code null} allowed.
+	 * @param swcTypes SWC type(s) a string with at least 2 characters describing
+	 *                 the SWC type allowed in the subtree (e.g., 'soma', 'axn', or
+	 *                 'dendrite'). Ignored when {@code null}
+	 * @return the sequential stream of imported {@link Tree}s. It should be
+	 *         closed once consumed. An empty stream is retrieved if {@code dir}
+	 *         is not a valid, readable directory.
+	 * @see TreeSource
+	 */
+	public static Stream<Tree> streamFromDir(final String dir, final String pattern, final String... swcTypes) {
+		return TreeSource.fromDir(dir, pattern).setSWCTypes(swcTypes).stream();
 	}
 
 	/**
@@ -1479,6 +1650,38 @@ public class Tree implements TreeProperties {
 		return true;
 	}
 
+	/**
+	 * Saves this Tree to a binary file, which can be loaded considerably faster
+	 * than other formats.
+	 *
+	 * @param filePath the absolute path of the output file. {@code .sntb} is
+	 *                 automatically appended if {@code filePath} does not include
+	 *                 an extension. If a label has been assigned, {@code filePath}
+	 *                 can also be a directory.
+	 * @return true, if file successfully saved.
+	 * @see BinaryTraces
+	 */
+	public boolean saveAsBinary(final String filePath) {
+		if (list() == null || list().isEmpty() || filePath == null || filePath.isEmpty())
+			return false;
+		initPathAndFillManager();
+		File file = new File(filePath);
+		if (file.isDirectory() && getLabel() != null) {
+			final String fName = (getLabel().toLowerCase().endsWith(BinaryTraces.EXTENSION)) ? getLabel()
+					: getLabel() + BinaryTraces.EXTENSION;
+			file = new File(file.getAbsolutePath(), fName);
+		} else if (!filePath.toLowerCase().endsWith(BinaryTraces.EXTENSION)) {
+			file = new File(filePath + BinaryTraces.EXTENSION);
+		}
+		try {
+			pafm.writeBinary(file.getAbsolutePath());
+		} catch (final IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		return true;
+	}
+
 	/**
 	 * Assigns a numeric property to this Tree.
 	 * 
@@ -1588,6 +1791,27 @@ public class Tree implements TreeProperties {
 			return dimensionsNeedToBeComputed;
 		}
 
+		/* Same as BoundingBox#compute(Iterator), without materializing nodes */
+		void compute(final NodeCursor cursor) {
+			double xMin = Double.NaN, yMin = Double.NaN, zMin = Double.NaN;
+			double xMax = Double.NaN, yMax = Double.NaN, zMax = Double.NaN;
+			if (cursor.next()) {
+				xMin = xMax = cursor.getX();
+				yMin = yMax = cursor.getY();
+				zMin = zMax = cursor.getZ();
+				while (cursor.next()) {
+					xMin = Math.min(xMin, cursor.getX());
+					yMin = Math.min(yMin, cursor.getY());
+					zMin = Math.min(zMin, cursor.getZ());
+					xMax = Math.max(xMax, cursor.getX());
+					yMax = Math.max(yMax, cursor.getY());
+					zMax = Math.max(zMax, cursor.getZ());
+				}
+			}
+			origin = new PointInImage(xMin, yMin, zMin);
+			originOpposite = new PointInImage(xMax, yMax, zMax);
+		}
+
 		public String toString() {
 			return "[TreeBoundingBox: origin: " + this.origin + ", originOpposite: " + this.originOpposite + "]";
 		}
@@ -1695,7 +1919,7 @@ public class Tree implements TreeProperties {
 		System.out.println("Creating graph...");
 
 		DirectedWeightedGraph graph = tree.getGraph();
-		final int nodes = tree.getNodes().size();
+		final int nodes = tree.getNodesCount();
 		final int points = tree.getNodesAsSWCPoints().size();
 		final int vertices = graph.vertexSet().size();
 		final int bps = analyzer.getBranchPoints().size();
@@ -63,6 +63,7 @@ import sc.fiji.snt.SNTService;
 import sc.fiji.snt.Tree;
 import sc.fiji.snt.analysis.TreeStatistics.HDPlus;
 import sc.fiji.snt.annotation.BrainAnnotation;
+import sc.fiji.snt.io.TreeSource;
 import sc.fiji.snt.util.SNTColor;
 
 /**
@@ -81,6 +82,7 @@ public class GroupedTreeStatistics {
 
 	private final LinkedHashMap<String, MultiTreeStatistics> groups;
 	private int minNoOfBins = 1;
+	private boolean parallel;
 
 	/**
 	 * Instantiates a new grouped tree statistics.
@@ -98,6 +100,22 @@ public class GroupedTreeStatistics {
 	public void addGroup(final Collection<Tree> group, final String groupLabel) {
 		final MultiTreeStatistics mStats = new MultiTreeStatistics(group);
 		mStats.setLabel(groupLabel);
+		mStats.setParallel(parallel);
+		groups.put(groupLabel, mStats);
+	}
+
+	/**
+	 * Adds a comparison group to the analysis queue. Trees in the group are read
+	 * on demand rather than kept in memory.
+	 *
+	 * @param source     the source of the Trees in the group
+	 * @param groupLabel a unique label identifying the group
+	 * @see MultiTreeStatistics#MultiTreeStatistics(TreeSource)
+	 */
+	public void addGroup(final TreeSource source, final String groupLabel) {
+		final MultiTreeStatistics mStats = new MultiTreeStatistics(source);
+		mStats.setLabel(groupLabel);
+		mStats.setParallel(parallel);
 		groups.put(groupLabel, mStats);
 	}
 
@@ -115,6 +133,7 @@ public class GroupedTreeStatistics {
 			throws NoSuchElementException {
 		final MultiTreeStatistics mStats = new MultiTreeStatistics(group, swcTypes);
 		mStats.setLabel(groupLabel);
+		mStats.setParallel(parallel);
 		groups.put(groupLabel, mStats);
 	}
 
@@ -567,4 +586,17 @@ public class GroupedTreeStatistics {
 	public void setMinNBins(int minNoOfBins) {
 		this.minNoOfBins = minNoOfBins;
 	}
+
+	/**
+	 * Sets whether the Trees of each group should be measured in parallel.
+	 * Applies to all groups, including those added afterwards. Statistics are
+	 * identical to those of sequential evaluation.
+	 *
+	 * @param parallel if true, Trees are measured concurrently. Default is false
+	 * @see MultiTreeStatistics#setParallel(boolean)
+	 */
+	public void setParallel(final boolean parallel) {
+		this.parallel = parallel;
+		groups.values().forEach(mStats -> mStats.setParallel(parallel));
+	}
 }
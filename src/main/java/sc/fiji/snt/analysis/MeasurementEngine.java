@@ -0,0 +1,278 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2021 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
+
+import sc.fiji.snt.Path;
+import sc.fiji.snt.SNTUtils;
+import sc.fiji.snt.Tree;
+import sc.fiji.snt.util.BoundingBox;
+import sc.fiji.snt.util.PointInImage;
+
+/**
+ * Computes several {@link TreeAnalyzer} metrics at once. Metric names are
+ * resolved once, and metrics are evaluated so that intermediate results are
+ * shared: Path-level metrics (cable length, number of nodes, spines, mean
+ * radius, etc.) are computed in a single traversal of the Tree, the bounding
+ * box is computed once for width, height and depth, and tips, branch points
+ * and branches are computed once for all the metrics that depend on them.
+ * Computed values are identical to those of {@link TreeAnalyzer#getMetric(String)}.
+ * E.g.:
+ *
+ * <pre>
+ * final MeasurementEngine engine = new MeasurementEngine(TreeAnalyzer.getMetrics());
+ * final SNTTable table = new SNTTable();
+ * for (final Tree tree : trees)
+ * 	engine.measure(tree, tree.getLabel(), table);
+ * </pre>
+ *
+ * @see TreeAnalyzer#measure(String, Collection, boolean)
+ */
+public class MeasurementEngine {
+
+	/* metrics computed in a single traversal of the Tree's paths */
+	private static final List<String> PATH_METRICS = Arrays.asList(MultiTreeStatistics.LENGTH,
+			MultiTreeStatistics.N_NODES, MultiTreeStatistics.N_SPINES, MultiTreeStatistics.AVG_SPINE_DENSITY,
+			MultiTreeStatistics.HIGHEST_PATH_ORDER, MultiTreeStatistics.MEAN_RADIUS, MultiTreeStatistics.N_PATHS);
+
+	private final List<String> metrics;
+	private final String[] keys;
+	private final boolean pathPass;
+
+	/**
+	 * Instantiates a new engine.
+	 *
+	 * @param metrics the metrics to be computed. Names are resolved as in
+	 *                {@link TreeAnalyzer#getMetric(String)}. Unrecognized metrics
+	 *                are kept, but evaluate to {@code NaN}.
+	 */
+	public MeasurementEngine(final Collection<String> metrics) {
+		this.metrics = Collections.unmodifiableList(new ArrayList<>(metrics));
+		keys = new String[this.metrics.size()];
+		boolean pathPass = false;
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = normalize(this.metrics.get(i));
+			pathPass |= PATH_METRICS.contains(keys[i]);
+		}
+		this.pathPass = pathPass;
+	}
+
+	private static String normalize(final String metric) {
+		try {
+			return MultiTreeStatistics.getNormalizedMeasurement(metric, false);
+		} catch (final IllegalArgumentException ignored) {
+			SNTUtils.log("Error: " + ignored.getMessage());
+			return metric;
+		}
+	}
+
+	/**
+	 * @return the metrics computed by this engine, as specified in the constructor
+	 */
+	public List<String> getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Measures the specified Tree.
+	 *
+	 * @param tree the Tree to be measured
+	 * @return the computed values, in the order of {@link #getMetrics()}.
+	 *         Metrics that could not be computed are set to {@code NaN}
+	 */
+	public Number[] measure(final Tree tree) {
+		return measure(new Evaluator(tree, 0));
+	}
+
+	/**
+	 * Measures the specified Tree, appending the results to a new row of the
+	 * specified table.
+	 *
+	 * @param tree      the Tree to be measured
+	 * @param rowHeader the row header label
+	 * @param table     the table to which results are appended
+	 */
+	public void measure(final Tree tree, final String rowHeader, final SNTTable table) {
+		final Number[] values = measure(tree);
+		final int row = table.insertRow((rowHeader == null) ? "" : rowHeader);
+		for (int i = 0; i < values.length; i++)
+			table.set(TreeAnalyzer.getUnitAwareHeader(metrics.get(i), tree), row, values[i]);
+	}
+
+	/**
+	 * Measures the specified Trees.
+	 *
+	 * @param trees the Trees to be measured
+	 * @return a table with one row per Tree, labeled by the Tree's label
+	 */
+	public SNTTable measure(final Collection<Tree> trees) {
+		final SNTTable table = new SNTTable();
+		trees.forEach(tree -> measure(tree, tree.getLabel(), table));
+		return table;
+	}
+
+	/* Measures the analyzed tree of a TreeAnalyzer, preserving its no. of fitted paths */
+	Number[] measure(final Tree tree, final int nFittedPaths) {
+		return measure(new Evaluator(tree, nFittedPaths));
+	}
+
+	private Number[] measure(final Evaluator evaluator) {
+		if (pathPass) evaluator.traversePaths();
+		final Number[] values = new Number[keys.length];
+		for (int i = 0; i < keys.length; i++)
+			values[i] = evaluator.getMetricInternal(keys[i]);
+		return values;
+	}
+
+	/*
+	 * A single-use TreeAnalyzer that memoizes intermediate results shared by
+	 * several metrics.
+	 */
+	private static class Evaluator extends TreeAnalyzer {
+
+		private final int nFittedPaths;
+		private boolean pathsTraversed;
+		private double cableLength;
+		private int nNodes;
+		private int nSpines;
+		private int highestPathOrder;
+		private double meanRadius;
+		private BoundingBox box;
+		private Set<PointInImage> branchPoints;
+		private List<Path> branches;
+		private RuntimeException branchesError;
+
+		Evaluator(final Tree tree, final int nFittedPaths) {
+			super(tree);
+			this.nFittedPaths = nFittedPaths;
+		}
+
+		/* Same as sumLength(), getNoSpinesOrVaricosities(), etc. in a single pass */
+		void traversePaths() {
+			final SummaryStatistics radii = new SummaryStatistics();
+			highestPathOrder = -1;
+			for (final Path p : tree.list()) {
+				if (p.getStartJoins() != null) {
+					final PointInImage join = p.getStartJoinsPoint();
+					final double xd = join.x - p.getNodeX(0);
+					final double yd = join.y - p.getNodeY(0);
+					final double zd = join.z - p.getNodeZ(0);
+					cableLength += Math.sqrt(xd * xd + yd * yd + zd * zd);
+				}
+				cableLength += p.getLength();
+				nNodes += p.size();
+				nSpines += p.getSpineOrVaricosityCount();
+				if (p.getOrder() > highestPathOrder) highestPathOrder = p.getOrder();
+				radii.addValue(p.getMeanRadius());
+			}
+			meanRadius = radii.getMean();
+			pathsTraversed = true;
+		}
+
+		@Override
+		protected Number getMetricWithoutChecks(final String metric) throws UnknownMetricException {
+			if (pathsTraversed) {
+				switch (metric) {
+				case MultiTreeStatistics.LENGTH:
+					return cableLength;
+				case MultiTreeStatistics.N_NODES:
+					return nNodes;
+				case MultiTreeStatistics.N_SPINES:
+					return nSpines;
+				case MultiTreeStatistics.AVG_SPINE_DENSITY:
+					return nSpines / cableLength;
+				case MultiTreeStatistics.HIGHEST_PATH_ORDER:
+					return highestPathOrder;
+				case MultiTreeStatistics.MEAN_RADIUS:
+					return meanRadius;
+				case MultiTreeStatistics.N_PATHS:
+					return tree.list().size();
+				default:
+					break;
+				}
+			}
+			return super.getMetricWithoutChecks(metric);
+		}
+
+		@Override
+		protected int getNFittedPaths() {
+			return nFittedPaths;
+		}
+
+		@Override
+		public double getWidth() {
+			return getBoundingBox().width();
+		}
+
+		@Override
+		public double getHeight() {
+			return getBoundingBox().height();
+		}
+
+		@Override
+		public double getDepth() {
+			return getBoundingBox().depth();
+		}
+
+		private BoundingBox getBoundingBox() {
+			if (box == null) box = tree.getBoundingBox(true);
+			return box;
+		}
+
+		@Override
+		public Set<PointInImage> getTips() {
+			if (tips == null) super.getTips();
+			return tips;
+		}
+
+		@Override
+		public Set<PointInImage> getBranchPoints() {
+			if (branchPoints == null) branchPoints = super.getBranchPoints();
+			return branchPoints;
+		}
+
+		@Override
+		public List<Path> getBranches() throws IllegalArgumentException {
+			if (branchesError != null) throw branchesError;
+			if (branches == null) {
+				try {
+					branches = super.getBranches();
+				} catch (final RuntimeException e) {
+					// e.g., tree has multiple roots: do not retry for every metric
+					branchesError = e;
+					throw e;
+				}
+			}
+			return branches;
+		}
+	}
+
+}
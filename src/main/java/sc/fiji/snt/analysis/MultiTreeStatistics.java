@@ -28,10 +28,20 @@ import static java.util.stream.Collectors.summingDouble;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
@@ -45,6 +55,7 @@ import sc.fiji.snt.SNTUtils;
 import sc.fiji.snt.Tree;
 import sc.fiji.snt.analysis.graph.DirectedWeightedGraph;
 import sc.fiji.snt.annotation.BrainAnnotation;
+import sc.fiji.snt.io.TreeSource;
 import sc.fiji.snt.util.PointInImage;
 
 /**
@@ -180,6 +191,13 @@ public class MultiTreeStatistics extends TreeStatistics {
 
 	private Collection<Tree> groupOfTrees;
 	private Collection<DirectedWeightedGraph> groupOfGraphs;
+	/* Whether Trees are read on demand, in which case the group is never merged or retained */
+	private final boolean lazy;
+	private boolean parallel;
+	/* Statistics of metrics measured in batch, keyed by normalized metric */
+	private final Map<String, DescriptiveStatistics> measuredStats = new LinkedHashMap<>();
+	/* Fingerprint of the group when cached statistics were computed */
+	private long cachedGroupStamp;
 	
 
 	/**
@@ -190,6 +208,27 @@ public class MultiTreeStatistics extends TreeStatistics {
 	public MultiTreeStatistics(final Collection<Tree> group) {
 		super(new Tree());
 		this.groupOfTrees = group;
+		lazy = false;
+	}
+
+	/**
+	 * Instantiates a new instance from a lazy source of Trees. Trees are read
+	 * from disk whenever a metric is computed, rather than being kept in memory,
+	 * so that large collections can be analyzed with bounded memory.
+	 * <p>
+	 * Group-wide queries (metrics, tips, branch points, annotations and annotated
+	 * lengths) are computed one Tree at a time. The exceptions are
+	 * {@link #getBranches()}, {@link #getPrimaryBranches()},
+	 * {@link #getInnerBranches()} and {@link #getTerminalBranches()}: The lists
+	 * they return hold the branches of every Tree in the group.
+	 * </p>
+	 *
+	 * @param source the source of the Trees to be analyzed
+	 */
+	public MultiTreeStatistics(final TreeSource source) {
+		super(new Tree());
+		this.groupOfTrees = source.asCollection();
+		lazy = true;
 	}
 
 	/**
@@ -204,6 +243,7 @@ public class MultiTreeStatistics extends TreeStatistics {
 	public MultiTreeStatistics(final Collection<Tree> group, final String... swcTypes) throws NoSuchElementException {
 		super(new Tree());
 		this.groupOfTrees = new ArrayList<>();
+		lazy = false;
 		group.forEach( inputTree -> {
 			final Tree filteredTree = inputTree.subTree(swcTypes);
 			if (filteredTree != null && filteredTree.size() > 0) groupOfTrees.add(filteredTree);
@@ -232,7 +272,10 @@ public class MultiTreeStatistics extends TreeStatistics {
 	}
 
 	/**
-	 * Gets the collection of Trees being analyzed.
+	 * Gets the collection of Trees being analyzed. For groups read from a
+	 * {@link TreeSource}, this is a lazy view: Iterating over it reads Trees one
+	 * at a time, but operations such as {@code size()} or {@code stream()} may
+	 * read every file.
 	 *
 	 * @return the Tree group
 	 */
@@ -240,6 +283,26 @@ public class MultiTreeStatistics extends TreeStatistics {
 		return groupOfTrees;
 	}
 
+	/**
+	 * Sets whether Trees should be measured in parallel. Values are identical
+	 * to those of sequential evaluation, and are accumulated in the iteration
+	 * order of the group, so that statistics are deterministic. Note that in
+	 * parallel mode, each Tree should only be listed once in the group.
+	 *
+	 * @param parallel if true, Trees are measured concurrently. Default is false
+	 */
+	public void setParallel(final boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	/**
+	 * @return whether Trees are measured in parallel
+	 * @see #setParallel(boolean)
+	 */
+	public boolean isParallel() {
+		return parallel;
+	}
+
 	/**
 	 * Sets an identifying label for the group of Trees being analyzed.
 	 *
@@ -393,15 +456,68 @@ public class MultiTreeStatistics extends TreeStatistics {
 			assembleStats(new StatisticsInstance(dStats), normMeasurement);
 			lastDstats = new LastDstats(normMeasurement, dStats);
 		}
-		return lastDstats.dStats;
+		return lastDstats.dStats.copy(); // callers must not alter cached values
+	}
+
+	/**
+	 * Computes descriptive statistics for several metrics at once. Each Tree is
+	 * measured only once, sharing intermediate results across metrics, and in
+	 * parallel if {@link #setParallel(boolean) parallel mode} is enabled. Results
+	 * are retained, so that subsequent queries of these metrics (e.g., by
+	 * {@link #getDescriptiveStats(String)} or histograms) do not re-measure the
+	 * group, until any of its Trees is modified (see
+	 * {@link Tree#getModificationCount()}).
+	 *
+	 * @param metrics the metrics to be computed (see {@link #getAllMetrics()})
+	 * @return the map of statistics, keyed by the specified metric names (in the
+	 *         same order)
+	 * @throws UnknownMetricException if a metric is not recognized
+	 */
+	public Map<String, DescriptiveStatistics> getDescriptiveStats(final Collection<String> metrics)
+			throws UnknownMetricException {
+		final List<String> normMetrics = new ArrayList<>(metrics.size());
+		for (final String metric : metrics)
+			normMetrics.add(getNormalizedMeasurement(metric, false));
+		validateCachedStats();
+		final List<Number[]> rows = measureGroup(new MeasurementEngine(normMetrics));
+		final Map<String, DescriptiveStatistics> result = new LinkedHashMap<>();
+		int col = 0;
+		for (final String metric : metrics) {
+			final DescriptiveStatistics dStats = new DescriptiveStatistics();
+			for (final Number[] row : rows)
+				dStats.addValue(row[col].doubleValue());
+			result.put(metric, dStats);
+			measuredStats.put(getNormalizedMeasurement(metric, true), dStats.copy());
+			col++;
+		}
+		return result;
+	}
+
+	@Override
+	protected boolean lastDstatsCanBeRecycled(final String normMeasurement) {
+		validateCachedStats();
+		return super.lastDstatsCanBeRecycled(normMeasurement);
 	}
 
 	@Override
 	protected void assembleStats(final StatisticsInstance stat,
 		final String measurement) throws UnknownMetricException
 	{
+		validateCachedStats();
+		final DescriptiveStatistics measured = measuredStats.get(measurement);
+		if (measured != null) {
+			for (final double value : measured.getValues())
+				stat.addValue(value);
+			return;
+		}
 		try {
 			String normMeasurement = getNormalizedMeasurement(measurement, false);
+			if (parallel) {
+				// Values are accumulated in group order, so that statistics do not depend on scheduling
+				for (final Number[] row : measureGroup(new MeasurementEngine(Collections.singletonList(normMeasurement))))
+					stat.addValue(row[0].doubleValue());
+				return;
+			}
 			for (final Tree t : groupOfTrees) {
 				final TreeAnalyzer ta = new TreeAnalyzer(t);
 				stat.addValue(ta.getMetricInternal(normMeasurement).doubleValue());
@@ -409,11 +525,68 @@ public class MultiTreeStatistics extends TreeStatistics {
 		} catch (final UnknownMetricException ignored) {
 			SNTUtils.log("Unrecognized MultiTreeStatistics parameter... Defaulting to TreeStatistics analysis");
 			final String normMeasurement = TreeStatistics.getNormalizedMeasurement(measurement); // Will throw yet another UnknownMetricException
+			if (lazy) {
+				for (final Tree t : groupOfTrees)
+					new TreeStatistics(t).assembleStats(stat, normMeasurement);
+				return;
+			}
 			assignGroupToSuperTree();
 			super.assembleStats(stat, normMeasurement);
 		}
 	}
 
+	/* Measures each Tree in the group, listing values in group order */
+	private List<Number[]> measureGroup(final MeasurementEngine engine) {
+		final List<Number[]> rows = new ArrayList<>();
+		if (!parallel) {
+			groupOfTrees.forEach(t -> rows.add(engine.measure(t)));
+			return rows;
+		}
+		// Bound the no. of Trees in flight, so that lazy groups (e.g., TreeSources) are not read in full
+		final Semaphore inFlight = new Semaphore(2 * ForkJoinPool.getCommonPoolParallelism());
+		final List<CompletableFuture<Number[]>> futures = new ArrayList<>();
+		try {
+			for (final Tree t : groupOfTrees) {
+				inFlight.acquire();
+				futures.add(CompletableFuture.supplyAsync(() -> engine.measure(t))
+						.whenComplete((values, error) -> inFlight.release()));
+			}
+			for (final CompletableFuture<Number[]> future : futures)
+				rows.add(future.join());
+		} catch (final InterruptedException e) {
+			futures.forEach(f -> f.cancel(true));
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Measurements interrupted");
+		} catch (final CompletionException e) {
+			futures.forEach(f -> f.cancel(true));
+			if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+			throw e;
+		}
+		return rows;
+	}
+
+	/*
+	 * Discards cached statistics and graphs if Trees were modified, added or
+	 * removed since they were computed. Lazy groups are read anew on every pass,
+	 * so their Trees cannot be edited (and fingerprinting them would read every
+	 * file).
+	 */
+	private void validateCachedStats() {
+		if (lazy) return;
+		long stamp = groupOfTrees.size();
+		for (final Tree t : groupOfTrees) {
+			stamp = 31 * stamp + System.identityHashCode(t);
+			stamp = 31 * stamp + t.getModificationCount();
+		}
+		if (stamp != cachedGroupStamp) {
+			measuredStats.clear();
+			lastDstats = null;
+			groupOfGraphs = null;
+			cachedGroupStamp = stamp;
+		}
+	}
+
+	/* Merges the group into a single Tree. Never used by lazy groups, which would be read in full */
 	private void assignGroupToSuperTree() {
 		if (super.tree.isEmpty()) {
 			for (final Tree tree : groupOfTrees)
@@ -428,6 +601,24 @@ public class MultiTreeStatistics extends TreeStatistics {
 		}
 	}
 
+	/* Graphs of lazy groups are created one at a time and not retained */
+	private void forEachGraph(final Consumer<DirectedWeightedGraph> consumer) {
+		if (lazy) {
+			groupOfTrees.forEach(t -> consumer.accept(t.getGraph()));
+			return;
+		}
+		validateCachedStats();
+		populateGroupOfGraphs();
+		groupOfGraphs.forEach(consumer);
+	}
+
+	/* Merges the sets retrieved from each Tree of the group, one Tree at a time */
+	private <T> Set<T> collectFromGroup(final Function<TreeStatistics, Set<T>> getter) {
+		final Set<T> result = new HashSet<>();
+		groupOfTrees.forEach(t -> result.addAll(getter.apply(new TreeStatistics(t))));
+		return result;
+	}
+
 	@Override
 	public void restrictToSWCType(final int... types) {
 		throw new IllegalArgumentException("Operation not supported. Only filtering in constructor is supported");
@@ -450,18 +641,25 @@ public class MultiTreeStatistics extends TreeStatistics {
 
 	@Override
 	public Set<BrainAnnotation> getAnnotations() {
+		if (lazy) return collectFromGroup(TreeStatistics::getAnnotations);
 		assignGroupToSuperTree();
 		return super.getAnnotations();
 	}
 
 	@Override
 	public Set<BrainAnnotation> getAnnotations(final int level) {
-		assignGroupToSuperTree();
+		if (!lazy) assignGroupToSuperTree();
 		return super.getAnnotations(level);
 	}
 
 	@Override
 	public double getCableLength(final BrainAnnotation compartment) {
+		if (lazy) {
+			double length = 0;
+			for (final Tree t : groupOfTrees)
+				length += new TreeStatistics(t).getCableLength(compartment, true);
+			return length;
+		}
 		assignGroupToSuperTree();
 		return getCableLength(compartment, true);
 	}
@@ -469,9 +667,8 @@ public class MultiTreeStatistics extends TreeStatistics {
 	@Override
 	public Map<BrainAnnotation, Double> getAnnotatedLength(final int level, final String hemisphere) {
 		final char lrflag = BrainAnnotation.getHemisphereFlag(hemisphere);
-		populateGroupOfGraphs();
 		final List<Map<BrainAnnotation, Double>> mapList = new ArrayList<>();
-		groupOfGraphs.forEach(g -> mapList.add(getAnnotatedLength(g, level, lrflag)));
+		forEachGraph(g -> mapList.add(getAnnotatedLength(g, level, lrflag)));
 		mapList.forEach(e -> e.keySet().remove(null)); // remove all null keys (untagged nodes)
 		final Map<BrainAnnotation, Double> map = mapList.stream().flatMap(m -> m.entrySet().stream())
 				.collect(groupingBy(Map.Entry::getKey, summingDouble(Map.Entry::getValue)));
@@ -480,15 +677,13 @@ public class MultiTreeStatistics extends TreeStatistics {
 
 	@Override
 	public Map<BrainAnnotation, Double> getAnnotatedLength(final int level) {
-		populateGroupOfGraphs();
 		return getAnnotatedLength(level, "both");
 	}
 
 	@Override
 	public Map<BrainAnnotation, double[]> getAnnotatedLengthsByHemisphere(final int level) {
-		populateGroupOfGraphs();
 		final List<Map<BrainAnnotation, double[]>> mapList = new ArrayList<>();
-		groupOfGraphs.forEach(g -> {
+		forEachGraph(g -> {
 			mapList.add(getAnnotatedLengthsByHemisphere(g, level));
 		});
 		final Map<BrainAnnotation, double[]> result = mapList.stream().flatMap(m -> m.entrySet().stream())
@@ -510,16 +705,27 @@ public class MultiTreeStatistics extends TreeStatistics {
 
 	@Override
 	public Set<PointInImage> getTips() {
+		if (lazy) {
+			tips = collectFromGroup(TreeStatistics::getTips);
+			return tips;
+		}
 		assignGroupToSuperTree();
 		return super.getTips();
 	}
 
 	@Override
 	public Set<PointInImage> getBranchPoints() {
+		if (lazy) return collectFromGroup(TreeStatistics::getBranchPoints);
 		assignGroupToSuperTree();
 		return super.getBranchPoints();
 	}
 
+	@Override
+	public Set<PointInImage> getBranchPoints(final BrainAnnotation annot) {
+		if (lazy) return collectFromGroup(stats -> stats.getBranchPoints(annot));
+		return super.getBranchPoints(annot);
+	}
+
 	@Override
 	public List<Path> getBranches() throws IllegalArgumentException {
 		final List<Path> allBranches = new ArrayList<>();
@@ -255,17 +255,9 @@ public class NodeStatistics <T extends PointInImage> {
 	 */
 	public Map<BrainAnnotation, Set<T>> getAnnotatedNodes(final int level) {
 		final HashMap<BrainAnnotation, Set<T>> map  = new HashMap<>();
+		final HashMap<BrainAnnotation, BrainAnnotation> ancestors = new HashMap<>();
 		for (final T p : points) {
-			BrainAnnotation mappingAnnotation = null;
-			final BrainAnnotation pAnnotation = p.getAnnotation();
-			if (pAnnotation != null) {
-				final int depth = pAnnotation.getOntologyDepth();
-				if (depth > level) {
-					mappingAnnotation = pAnnotation.getAncestor(level-depth);
-				} else {
-					mappingAnnotation = pAnnotation;
-				}
-			}
+			final BrainAnnotation mappingAnnotation = getMappingAnnotation(p.getAnnotation(), level, ancestors);
 			Set<T> currentList = map.get(mappingAnnotation);
 			if (currentList == null) {
 				currentList = new HashSet<T>();
@@ -318,20 +310,12 @@ public class NodeStatistics <T extends PointInImage> {
 
 	private Map<BrainAnnotation, Integer> getAnnotatedFrequencies(final int level, final char lr) {
 		final HashMap<BrainAnnotation, Integer> map  = new HashMap<>();
+		final HashMap<BrainAnnotation, BrainAnnotation> ancestors = new HashMap<>();
 		for (final T p : points) {
 
 			if (lr != BrainAnnotation.ANY_HEMISPHERE && lr != p.getHemisphere()) continue;
 
-			BrainAnnotation mappingAnnotation = null;
-			final BrainAnnotation pAnnotation = p.getAnnotation();
-			if (pAnnotation != null) {
-				final int depth = pAnnotation.getOntologyDepth();
-				if (depth > level) {
-					mappingAnnotation = pAnnotation.getAncestor(level-depth);
-				} else {
-					mappingAnnotation = pAnnotation;
-				}
-			}
+			final BrainAnnotation mappingAnnotation = getMappingAnnotation(p.getAnnotation(), level, ancestors);
 			Integer currentCount = map.get(mappingAnnotation);
 			if (currentCount == null) currentCount = 0;
 			map.put(mappingAnnotation, ++currentCount);
@@ -339,6 +323,18 @@ public class NodeStatistics <T extends PointInImage> {
 		return map;
 	}
 
+	/*
+	 * Nodes share few annotations, so ancestors are resolved once per
+	 * annotation rather than once per node
+	 */
+	private static BrainAnnotation getMappingAnnotation(final BrainAnnotation annotation, final int level,
+			final Map<BrainAnnotation, BrainAnnotation> ancestors) {
+		if (annotation == null) return null;
+		final int depth = annotation.getOntologyDepth();
+		if (depth <= level) return annotation;
+		return ancestors.computeIfAbsent(annotation, a -> a.getAncestor(level - depth));
+	}
+
 	public Map<BrainAnnotation, int[]> getAnnotatedFrequenciesByHemisphere(final int level, final Tree tree) {
 		final PointInImage root = tree.getRoot();
 		if (root == null)
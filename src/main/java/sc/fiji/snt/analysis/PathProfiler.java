@@ -56,7 +56,6 @@ import sc.fiji.snt.Tree;
 import sc.fiji.snt.analysis.ProfileProcessor.Shape;
 import sc.fiji.snt.gui.cmds.CommonDynamicCmd;
 import sc.fiji.snt.util.ImgUtils;
-import sc.fiji.snt.util.PointInImage;
 import sc.fiji.snt.util.SNTColor;
 
 /**
@@ -509,13 +508,10 @@ public class PathProfiler extends CommonDynamicCmd {
 			yList.add(p.getNodeValue(0));
 
 			// Add data for remaining nodes
-			PointInImage previousNode = p.getNode(0);
 			double cumulativePathLength = 0d;
 			for (int i = 1; i < p.size(); i++) {
-				final PointInImage node = p.getNode(i);
-				cumulativePathLength += node.distanceTo(previousNode);
+				cumulativePathLength += p.distanceBetweenNodes(i, i - 1);
 				xList.add(cumulativePathLength);
-				previousNode = node;
 				yList.add(p.getNodeValue(i));
 			}
 		}
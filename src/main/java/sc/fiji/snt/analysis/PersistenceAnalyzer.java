@@ -23,7 +23,6 @@
 package sc.fiji.snt.analysis;
 
 import net.imagej.ImageJ;
-import org.jgrapht.Graphs;
 import sc.fiji.snt.Path;
 import sc.fiji.snt.SNTService;
 import sc.fiji.snt.SNTUtils;
@@ -33,6 +32,7 @@ import sc.fiji.snt.analysis.graph.SWCWeightedEdge;
 import sc.fiji.snt.util.SWCPoint;
 
 import java.util.*;
+import java.util.stream.Collectors;
 
 /**
  * Performs persistent homology analysis on a {@link Tree}. For an overview see
@@ -93,8 +93,6 @@ public class PersistenceAnalyzer {
     private final HashMap<String, ArrayList<ArrayList<Double>>> persistenceDiagramMap = new HashMap<>();
     private final HashMap<String, ArrayList<ArrayList<SWCPoint>>> persistenceNodesMap = new HashMap<>();
 
-    private boolean nodeValuesAssigned;
-
     public PersistenceAnalyzer(final Tree tree) {
         this.tree = tree;
     }
@@ -109,17 +107,97 @@ public class PersistenceAnalyzer {
     }
 
     /**
-     * Generate Persistence Diagram using the base algorithm described by Kanari, L.,
-     * Dłotko, P., Scolamiero, M. et al. A Topological Representation of Branching
-     * Neuronal Morphologies. Neuroinform 16, 3–13 (2018).
+     * Computes the persistence diagram of each tree in the specified collection.
+     * Trees are processed in parallel.
+     *
+     * @param trees      the trees to be analyzed. Each tree should only be listed
+     *                   once.
+     * @param descriptor A descriptor for the filter function as per
+     *                   {@link #getDescriptors()} (case insensitive)
+     * @return the persistence diagrams, listed in the iteration order of
+     * {@code trees}
+     * @throws IllegalArgumentException If {@code descriptor} is not valid or
+     *                                  the graph of a tree could not be
+     *                                  obtained
+     * @see #getDiagram(String)
      */
-    private void compute(final String func) throws IllegalArgumentException {
+    public static List<ArrayList<ArrayList<Double>>> getDiagrams(final Collection<Tree> trees,
+                                                                 final String descriptor) throws IllegalArgumentException {
+        validateDescriptor(descriptor);
+        return trees.parallelStream().map(tree -> new PersistenceAnalyzer(tree).getDiagram(descriptor))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Computes the barcode of each tree in the specified collection. Trees are
+     * processed in parallel.
+     *
+     * @param trees      the trees to be analyzed. Each tree should only be listed
+     *                   once.
+     * @param descriptor A descriptor for the filter function as per
+     *                   {@link #getDescriptors()} (case insensitive)
+     * @return the barcodes, listed in the iteration order of {@code trees}
+     * @throws IllegalArgumentException If {@code descriptor} is not valid or
+     *                                  the graph of a tree could not be
+     *                                  obtained
+     * @see #getBarcode(String)
+     */
+    public static List<ArrayList<Double>> getBarcodes(final Collection<Tree> trees, final String descriptor)
+            throws IllegalArgumentException {
+        validateDescriptor(descriptor);
+        return trees.parallelStream().map(tree -> new PersistenceAnalyzer(tree).getBarcode(descriptor))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Computes the persistence landscape of each tree in the specified collection,
+     * e.g., to assemble the feature matrix of a morphological classifier. Trees
+     * are processed in parallel.
+     *
+     * @param trees         the trees to be analyzed. Each tree should only be
+     *                      listed once.
+     * @param descriptor    A descriptor for the filter function as per
+     *                      {@link #getDescriptors()} (case insensitive)
+     * @param numLandscapes the number of piecewise-linear functions to output.
+     * @param resolution    the number of samples for all piecewise-linear
+     *                      functions.
+     * @return the landscapes, listed in the iteration order of {@code trees}
+     * @throws IllegalArgumentException If {@code descriptor} is not valid or
+     *                                  the graph of a tree could not be
+     *                                  obtained
+     * @see #getLandscape(String, int, int)
+     */
+    public static List<double[]> getLandscapes(final Collection<Tree> trees, final String descriptor,
+                                               final int numLandscapes, final int resolution)
+            throws IllegalArgumentException {
+        validateDescriptor(descriptor);
+        return trees.parallelStream()
+                .map(tree -> new PersistenceAnalyzer(tree).getLandscape(descriptor, numLandscapes, resolution))
+                .collect(Collectors.toList());
+    }
 
+    private static int validateDescriptor(final String func) throws IllegalArgumentException {
         final int function = getNormFunction(func);
         if (function == FUNC_UNKNOWN) {
             throw new IllegalArgumentException("Unrecognizable descriptor \"" + func + "\". "
                     + "Maybe you meant one of the following?: \"" + String.join(", ", getDescriptors() + "\""));
         }
+        return function;
+    }
+
+    /**
+     * Generate Persistence Diagram using the base algorithm described by Kanari, L.,
+     * Dłotko, P., Scolamiero, M. et al. A Topological Representation of Branching
+     * Neuronal Morphologies. Neuroinform 16, 3–13 (2018).
+     * <p>
+     * The filtration is performed in a single post-order pass: Each node inherits
+     * the branch of the child with the largest descriptor value (the 'survivor'),
+     * while the branches of its remaining children die at the node.
+     * </p>
+     */
+    private void compute(final String func) throws IllegalArgumentException {
+
+        final int function = validateDescriptor(func);
 
         final ArrayList<ArrayList<SWCPoint>> persistenceNodes = new ArrayList<>();
         final ArrayList<ArrayList<Double>> persistenceDiagram = new ArrayList<>();
@@ -127,65 +205,95 @@ public class PersistenceAnalyzer {
         SNTUtils.log("Retrieving graph...");
         // Use simplified graph since geodesic distances are preserved as edge weights
         // This provides a significant performance boost over the full Graph.
-        DirectedWeightedGraph graph = tree.getGraph().getSimplifiedGraph(); // IllegalArgumentException if i.e, tree has multiple roots
-        final HashMap<SWCPoint, Double> descriptorMap = new HashMap<>();
-        for (final SWCPoint node : graph.vertexSet()) {
-            descriptorMap.put(node, descriptorFunc(graph, node, function));
+        final DirectedWeightedGraph graph = tree.getGraph(true); // IllegalArgumentException if i.e, tree has multiple roots
+        final int n = graph.vertexSet().size();
+
+        // Pre-order traversal: parents are indexed before their children, and
+        // children are indexed in the order of the graph's outgoing edges
+        final SWCPoint[] nodes = new SWCPoint[n];
+        final int[] parents = new int[n];
+        final double[] geodesic = new double[n];
+        final SWCPoint root = graph.getRoot();
+        final SWCPoint[] stack = new SWCPoint[n];
+        final int[] stackParents = new int[n];
+        final double[] stackWeights = new double[n];
+        final List<SWCWeightedEdge> outgoing = new ArrayList<>();
+        int top = 0;
+        stack[top] = root;
+        stackParents[top++] = -1;
+        int count = 0;
+        while (top > 0) {
+            final SWCPoint node = stack[--top];
+            final int parent = stackParents[top];
+            nodes[count] = node;
+            parents[count] = parent;
+            geodesic[count] = (parent < 0) ? 0d : geodesic[parent] + stackWeights[top];
+            outgoing.clear();
+            outgoing.addAll(graph.outgoingEdgesOf(node));
+            if (count + 1 + top + outgoing.size() > n) {
+                throw new IllegalArgumentException("Graph of tree contains loops or nodes with multiple parents");
+            }
+            for (int i = outgoing.size() - 1; i >= 0; i--) {
+                stack[top] = outgoing.get(i).getTarget();
+                stackParents[top] = count;
+                stackWeights[top++] = outgoing.get(i).getWeight();
+            }
+            count++;
+        }
+        if (count != n) {
+            throw new IllegalArgumentException("Graph of tree has nodes not connected to its root");
         }
-        final Set<SWCPoint> openSet = new HashSet<>();
-        Map<SWCPoint, SWCPoint> parentMap = new HashMap<>();
-        final List<SWCPoint> tips = graph.getTips();
-        SWCPoint maxTip = tips.get(0);
-        for (final SWCPoint t : tips) {
-            openSet.add(t);
-            t.v = descriptorMap.get(t);
-            if (t.v > maxTip.v) {
-                maxTip = t;
+
+        final double[] descriptor = new double[n];
+        if (function == FUNC_2_CENTRIFUGAL) {
+            // The graph is cached by the tree and may be shared with other analyzers:
+            // Read orders from the engine rather than assigning them to the vertices
+            final TopologyEngine topology = new TopologyEngine(graph);
+            for (int i = 0; i < n; i++) {
+                descriptor[i] = topology.getReverseStrahlerOrder(topology.indexOf(nodes[i]));
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                descriptor[i] = descriptorFunc(nodes[i], root, geodesic[i], function);
             }
         }
-        final SWCPoint root = graph.getRoot();
 
-        while (!openSet.contains(root)) {
-            final List<SWCPoint> toRemove = new ArrayList<>();
-            final List<SWCPoint> toAdd = new ArrayList<>();
-            for (final SWCPoint l : openSet) {
-                if (toRemove.contains(l)) continue;
-                final SWCPoint p = Graphs.predecessorListOf(graph, l).get(0);
-                final List<SWCPoint> children = Graphs.successorListOf(graph, p);
-                if (openSet.containsAll(children)) {
-                    //noinspection OptionalGetWithoutIsPresent
-                    final SWCPoint survivor = children.stream().max(Comparator.comparingDouble(n -> n.v)).get();
-                    toAdd.add(p);
-                    for (final SWCPoint child : children) {
-                        toRemove.add(child);
-                        if (!child.equals(survivor)) {
-                            persistenceDiagram.add(new ArrayList<>(Arrays.asList(descriptorMap.get(p), child.v)));
-                            persistenceNodes.add(new ArrayList<>(Arrays.asList(p, backtrackToTip(child, parentMap))));
-                        }
-                    }
-                    p.v = survivor.v;
-                    parentMap.put(p, survivor);
-                }
+        // Post-order merging: when a node is reached, all of its children have been merged into it.
+        // Each node carries the descriptor value of its surviving branch and the tip it originates from
+        final int[] survivors = new int[n];
+        Arrays.fill(survivors, -1);
+        final double[] values = new double[n];
+        final int[] originTips = new int[n];
+        for (int i = n - 1; i >= 0; i--) {
+            if (survivors[i] < 0) {
+                values[i] = descriptor[i];
+                originTips[i] = i;
+            } else {
+                values[i] = values[survivors[i]];
+                originTips[i] = originTips[survivors[i]];
+            }
+            final int p = parents[i];
+            if (p < 0) continue;
+            final int loser;
+            // Children are visited in reverse order: On ties, the earliest child survives
+            if (survivors[p] < 0) {
+                survivors[p] = i;
+                continue;
+            } else if (values[i] >= values[survivors[p]]) {
+                loser = survivors[p];
+                survivors[p] = i;
+            } else {
+                loser = i;
             }
-            openSet.addAll(toAdd);
-            toRemove.forEach(openSet::remove);
+            persistenceDiagram.add(new ArrayList<>(Arrays.asList(descriptor[p], values[loser])));
+            persistenceNodes.add(new ArrayList<>(Arrays.asList(nodes[p], nodes[originTips[loser]])));
         }
 
-        persistenceDiagram.add(new ArrayList<>(Arrays.asList(descriptorMap.get(root), root.v)));
-        root.v = 0;
-        persistenceNodes.add(new ArrayList<>(Arrays.asList(root, backtrackToTip(root, parentMap))));
+        persistenceDiagram.add(new ArrayList<>(Arrays.asList(descriptor[0], values[0])));
+        persistenceNodes.add(new ArrayList<>(Arrays.asList(root, nodes[originTips[0]])));
 
         persistenceDiagramMap.put(func, persistenceDiagram);
         persistenceNodesMap.put(func, persistenceNodes);
-        nodeValuesAssigned = false; // reset field so that it can be recycled by a different func
-    }
-
-    private SWCPoint backtrackToTip(SWCPoint p, Map<SWCPoint, SWCPoint> parentMap) {
-        SWCPoint current = p;
-        while (parentMap.containsKey(current)) {
-            current = parentMap.get(current);
-        }
-        return current;
     }
 
     /**
@@ -256,6 +364,7 @@ public class PersistenceAnalyzer {
      *                      (reverse Strahler), etc.
      * @param numLandscapes the number of piecewise-linear functions to output.
      * @param resolution    the number of samples for all piecewise-linear functions.
+     * @see PersistenceFeatures
      */
     public double[] getLandscape(final String descriptor, final int numLandscapes, final int resolution) {
         if (persistenceDiagramMap.get(descriptor) == null || persistenceDiagramMap.get(descriptor).isEmpty()) {
@@ -265,18 +374,13 @@ public class PersistenceAnalyzer {
         return landscapeTransform(diagram, numLandscapes, resolution);
     }
 
-    private double descriptorFunc(final DirectedWeightedGraph graph, final SWCPoint node, final int func) throws UnknownMetricException {
+    private double descriptorFunc(final SWCPoint node, final SWCPoint root, final double geodesicDistance,
+                                  final int func) throws UnknownMetricException {
         switch (func) {
             case FUNC_0_GEODESIC:
-                return geodesicDistanceToRoot(graph, node);
+                return geodesicDistance;
             case FUNC_1_RADIAL:
-                return radialDistanceToRoot(graph, node);
-            case FUNC_2_CENTRIFUGAL:
-                if (!nodeValuesAssigned) {
-                    StrahlerAnalyzer.classify(graph, true);
-                    nodeValuesAssigned = true;
-                }
-                return node.v;
+                return root.distanceTo(node);
             case FUNC_3_PATH_ORDER:
                 return node.getPath().getOrder();
             case FUNC_4_X:
@@ -290,7 +394,7 @@ public class PersistenceAnalyzer {
         }
     }
 
-    private int getNormFunction(final String func) {
+    private static int getNormFunction(final String func) {
         if (func == null || func.trim().isEmpty()) return FUNC_UNKNOWN;
         for (int i = 0; i < FUNC_STRINGS.length; i++) {
             if (FUNC_STRINGS[i].equalsIgnoreCase(func)) return i;
@@ -308,104 +412,15 @@ public class PersistenceAnalyzer {
         return FUNC_UNKNOWN;
     }
 
-    private double geodesicDistanceToRoot(final DirectedWeightedGraph graph, SWCPoint node) {
-        double distance = 0;
-        if (node.parent == -1)
-            return 0.0;
-        while (node.parent != -1) {
-            final SWCPoint p = Graphs.predecessorListOf(graph, node).get(0);
-            final SWCWeightedEdge incomingEdge = graph.getEdge(p, node);
-            final double weight = incomingEdge.getWeight();
-            distance += weight;
-            node = p;
-        }
-        return distance;
-    }
-
-    private double radialDistanceToRoot(final DirectedWeightedGraph graph, final SWCPoint node) {
-        return graph.getRoot().distanceTo(node);
-    }
-
-    private double[] getMinMax(ArrayList<ArrayList<Double>> diagram) {
-        double minX = Double.MAX_VALUE;
-        double maxY = -Double.MAX_VALUE;
-        for (ArrayList<Double> point : diagram) {
-            if (point.get(0) < minX) minX = point.get(0);
-            if (point.get(1) > maxY) maxY = point.get(1);
-        }
-        return new double[]{minX, maxY};
-    }
-
-    private double[] landscapeTransform(ArrayList<ArrayList<Double>> diagram, int numLandscapes, int resolution) {
-        double[] sampleRange = getMinMax(diagram);
-        Linspace xValues = new Linspace(sampleRange[0], sampleRange[1], resolution);
-        double stepX = xValues.step;
-
-        double[][] ls = new double[numLandscapes][resolution];
-        for (double[] l : ls) {
-            Arrays.fill(l, 0);
-        }
-        ArrayList<ArrayList<Double>> events = new ArrayList<>();
-        for (int j = 0; j < resolution; j++) {
-            events.add(new ArrayList<>());
-        }
-        for (ArrayList<Double> doubles : diagram) {
-            double px = doubles.get(0);
-            double py = doubles.get(1);
-            int minIndex = Math.min(Math.max((int) Math.ceil((px - sampleRange[0]) / stepX), 0), resolution);
-            int midIndex = Math.min(Math.max((int) Math.ceil((0.5 * (py + px) - sampleRange[0]) / stepX), 0), resolution);
-            int maxIndex = Math.min(Math.max((int) Math.ceil((py - sampleRange[0]) / stepX), 0), resolution);
-            if (minIndex < resolution && maxIndex > 0) {
-                double landscapeValue = sampleRange[0] + minIndex * stepX - px;
-                for (int k = minIndex; k < midIndex; k++) {
-                    events.get(k).add(landscapeValue);
-                    landscapeValue += stepX;
-                }
-
-                landscapeValue = py - sampleRange[0] - midIndex * stepX;
-                for (int k = midIndex; k < maxIndex; k++) {
-                    events.get(k).add(landscapeValue);
-                    landscapeValue -= stepX;
-                }
-            }
-        }
-        for (int j = 0; j < resolution; j++) {
-            events.get(j).sort(Collections.reverseOrder());
-            int range = Math.min(numLandscapes, events.get(j).size());
-            for (int k = 0; k < range; k++) {
-                ls[k][j] = events.get(j).get(k);
-            }
-        }
-        double[] landscape = Arrays.stream(ls)
-                .flatMapToDouble(Arrays::stream)
-                .toArray();
-        for (int i = 0; i < landscape.length; i++) {
-            landscape[i] *= Math.sqrt(2);
-        }
-        return landscape;
-    }
-
-    private static class Linspace {
-        private final double end;
-        private final double step;
-        private double current;
-
-        Linspace(double start, double end, double totalCount) {
-            this.current = start;
-            this.end = end;
-            this.step = (end - start) / totalCount;
-        }
-
-        @SuppressWarnings("unused")
-        boolean hasNext() {
-            return current < (end + step / 2);
-        }
-
-        @SuppressWarnings("unused")
-        double getNextDouble() {
-            current += step;
-            return current;
+    private double[] landscapeTransform(final ArrayList<ArrayList<Double>> diagram, final int numLandscapes,
+                                        final int resolution) {
+        final double[] births = new double[diagram.size()];
+        final double[] deaths = new double[diagram.size()];
+        for (int i = 0; i < diagram.size(); i++) {
+            births[i] = diagram.get(i).get(0);
+            deaths[i] = diagram.get(i).get(1);
         }
+        return PersistenceFeatures.landscape(births, deaths, numLandscapes, resolution);
     }
 
     /* IDE debug method */
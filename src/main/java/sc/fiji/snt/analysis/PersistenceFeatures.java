@@ -0,0 +1,357 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2021 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.analysis;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import sc.fiji.snt.SNTUtils;
+import sc.fiji.snt.Tree;
+
+/**
+ * Assembles feature vectors from the persistence diagrams of a cohort of
+ * {@link Tree}s, e.g., for clustering or classification of morphologies.
+ * Diagrams are stored as primitive arrays, and feature vectors of all the
+ * diagrams are computed in parallel. Two vectorizations are supported:
+ * <ul>
+ * <li>Persistence landscapes (Bubenik, P. Statistical topological data analysis
+ * using persistence landscapes. JMLR 16, 77-102 (2015)), identical to those
+ * computed by {@link PersistenceAnalyzer#getLandscape(String, int, int)}</li>
+ * <li>Persistence images (Adams, H. et al. Persistence images: A stable vector
+ * representation of persistent homology. JMLR 18, 1-35 (2017))</li>
+ * </ul>
+ * Feature matrices (one row per diagram) can be saved as CSV or as a compact
+ * binary file.
+ *
+ * @see PersistenceAnalyzer
+ */
+public class PersistenceFeatures {
+
+	private final List<String> labels;
+	private final double[][] births;
+	private final double[][] deaths;
+
+	/**
+	 * Computes the persistence diagrams of the specified trees (in parallel).
+	 *
+	 * @param trees      the trees to be analyzed. Each tree should only be listed
+	 *                   once. Unlabeled trees keep the default label (e.g.,
+	 *                   "Diagram 1").
+	 * @param descriptor A descriptor for the filter function as per
+	 *                   {@link PersistenceAnalyzer#getDescriptors()}
+	 * @throws IllegalArgumentException If {@code descriptor} is not valid or the
+	 *                                  graph of a tree could not be obtained
+	 */
+	public PersistenceFeatures(final Collection<Tree> trees, final String descriptor)
+			throws IllegalArgumentException {
+		this(PersistenceAnalyzer.getDiagrams(trees, descriptor));
+		int i = 0;
+		for (final Tree tree : trees) {
+			final String label = tree.getLabel();
+			if (label != null) labels.set(i, label);
+			i++;
+		}
+	}
+
+	/**
+	 * Wraps pre-computed persistence diagrams.
+	 *
+	 * @param diagrams the persistence diagrams, as returned by
+	 *                 {@link PersistenceAnalyzer#getDiagram(String)}
+	 */
+	public PersistenceFeatures(final List<? extends List<? extends List<Double>>> diagrams) {
+		final int n = diagrams.size();
+		labels = new ArrayList<>(n);
+		births = new double[n][];
+		deaths = new double[n][];
+		for (int i = 0; i < n; i++) {
+			final List<? extends List<Double>> diagram = diagrams.get(i);
+			births[i] = new double[diagram.size()];
+			deaths[i] = new double[diagram.size()];
+			for (int j = 0; j < diagram.size(); j++) {
+				births[i][j] = diagram.get(j).get(0);
+				deaths[i][j] = diagram.get(j).get(1);
+			}
+			labels.add("Diagram " + (i + 1));
+		}
+	}
+
+	/**
+	 * @return the number of diagrams
+	 */
+	public int size() {
+		return births.length;
+	}
+
+	/**
+	 * @return the labels of the diagrams, i.e., the row headers of feature
+	 *         matrices. Tree labels are used when diagrams were computed from
+	 *         trees.
+	 */
+	public List<String> getLabels() {
+		return Collections.unmodifiableList(labels);
+	}
+
+	/**
+	 * Computes the persistence landscape of each diagram.
+	 *
+	 * @param numLandscapes the number of piecewise-linear functions to output.
+	 * @param resolution    the number of samples for all piecewise-linear
+	 *                      functions.
+	 * @return the feature matrix, with one row (of length
+	 *         {@code numLandscapes x resolution}) per diagram
+	 * @see #landscape(double[], double[], int, int)
+	 */
+	public double[][] getLandscapes(final int numLandscapes, final int resolution) {
+		final double[][] features = new double[size()][];
+		IntStream.range(0, size()).parallel()
+				.forEach(i -> features[i] = landscape(births[i], deaths[i], numLandscapes, resolution));
+		return features;
+	}
+
+	/**
+	 * Computes the persistence image of each diagram. Points are mapped to
+	 * (birth, persistence) coordinates, weighted linearly by persistence, and
+	 * convolved with a Gaussian kernel sampled at pixel centers. All images share
+	 * the same grid, spanning the birth and persistence ranges of the whole cohort,
+	 * so that pixels are comparable across diagrams.
+	 *
+	 * @param resolution the number of pixels along each axis of the image
+	 * @param sigma      the standard deviation of the Gaussian kernel, as a
+	 *                   fraction of the grid extent (e.g., 0.05)
+	 * @return the feature matrix, with one row (of length
+	 *         {@code resolution x resolution}) per diagram. Images are stored
+	 *         row-major, with rows indexing persistence and columns indexing
+	 *         birth
+	 */
+	public double[][] getImages(final int resolution, final double sigma) {
+		if (resolution < 1 || sigma <= 0) {
+			throw new IllegalArgumentException("resolution and sigma must be positive");
+		}
+		double minBirth = Double.MAX_VALUE;
+		double maxBirth = -Double.MAX_VALUE;
+		double maxPersistence = 0;
+		for (int i = 0; i < size(); i++) {
+			for (int j = 0; j < births[i].length; j++) {
+				minBirth = Math.min(minBirth, births[i][j]);
+				maxBirth = Math.max(maxBirth, births[i][j]);
+				maxPersistence = Math.max(maxPersistence, Math.abs(deaths[i][j] - births[i][j]));
+			}
+		}
+		final double birthRange = (maxBirth > minBirth) ? maxBirth - minBirth : 1d;
+		final double persistenceRange = (maxPersistence > 0) ? maxPersistence : 1d;
+		final double fMinBirth = minBirth;
+		final double[][] features = new double[size()][];
+		IntStream.range(0, size()).parallel().forEach(i -> features[i] = image(births[i], deaths[i], fMinBirth,
+				birthRange, persistenceRange, resolution, sigma));
+		return features;
+	}
+
+	private static double[] image(final double[] births, final double[] deaths, final double minBirth,
+			final double birthRange, final double persistenceRange, final int resolution, final double sigma) {
+		final double[] image = new double[resolution * resolution];
+		final double[] gx = new double[resolution];
+		final double[] gy = new double[resolution];
+		final double twoSigmaSq = 2 * sigma * sigma;
+		final double norm = 1d / (Math.PI * twoSigmaSq);
+		for (int j = 0; j < births.length; j++) {
+			// Normalized coordinates, so that the kernel is isotropic on the grid
+			final double b = (births[j] - minBirth) / birthRange;
+			final double p = Math.abs(deaths[j] - births[j]) / persistenceRange;
+			if (p == 0) continue; // zero weight
+			for (int k = 0; k < resolution; k++) {
+				final double center = (k + 0.5) / resolution;
+				gx[k] = Math.exp(-(center - b) * (center - b) / twoSigmaSq);
+				gy[k] = Math.exp(-(center - p) * (center - p) / twoSigmaSq);
+			}
+			final double weight = p * norm;
+			for (int row = 0; row < resolution; row++) {
+				final double wy = weight * gy[row];
+				final int offset = row * resolution;
+				for (int col = 0; col < resolution; col++) {
+					image[offset + col] += wy * gx[col];
+				}
+			}
+		}
+		return image;
+	}
+
+	/**
+	 * Computes the persistence landscape of a single diagram as an N-dimensional
+	 * vector, where N == numLandscapes x resolution.
+	 *
+	 * @param births        the birth values of the diagram points
+	 * @param deaths        the death values of the diagram points
+	 * @param numLandscapes the number of piecewise-linear functions to output.
+	 * @param resolution    the number of samples for all piecewise-linear
+	 *                      functions.
+	 * @return the landscape vector
+	 */
+	public static double[] landscape(final double[] births, final double[] deaths, final int numLandscapes,
+			final int resolution) {
+		double minX = Double.MAX_VALUE;
+		double maxY = -Double.MAX_VALUE;
+		for (int i = 0; i < births.length; i++) {
+			if (births[i] < minX) minX = births[i];
+			if (deaths[i] > maxY) maxY = deaths[i];
+		}
+		final double stepX = (maxY - minX) / resolution;
+
+		// Sample indices of each point's tent function: [min, mid) ascending, [mid, max) descending
+		final int n = births.length;
+		final int[] minIndices = new int[n];
+		final int[] midIndices = new int[n];
+		final int[] maxIndices = new int[n];
+		final int[] offsets = new int[resolution + 1];
+		for (int i = 0; i < n; i++) {
+			final double px = births[i];
+			final double py = deaths[i];
+			minIndices[i] = Math.min(Math.max((int) Math.ceil((px - minX) / stepX), 0), resolution);
+			midIndices[i] = Math.min(Math.max((int) Math.ceil((0.5 * (py + px) - minX) / stepX), 0), resolution);
+			maxIndices[i] = Math.min(Math.max((int) Math.ceil((py - minX) / stepX), 0), resolution);
+			if (minIndices[i] < resolution && maxIndices[i] > 0) {
+				for (int k = minIndices[i]; k < midIndices[i]; k++) offsets[k + 1]++;
+				for (int k = midIndices[i]; k < maxIndices[i]; k++) offsets[k + 1]++;
+			}
+		}
+		for (int k = 0; k < resolution; k++) {
+			offsets[k + 1] += offsets[k];
+		}
+
+		// Events of each sample are stored contiguously
+		final double[] events = new double[offsets[resolution]];
+		final int[] cursors = Arrays.copyOf(offsets, resolution);
+		for (int i = 0; i < n; i++) {
+			if (minIndices[i] >= resolution || maxIndices[i] <= 0) continue;
+			final double px = births[i];
+			final double py = deaths[i];
+			double landscapeValue = minX + minIndices[i] * stepX - px;
+			for (int k = minIndices[i]; k < midIndices[i]; k++) {
+				events[cursors[k]++] = landscapeValue;
+				landscapeValue += stepX;
+			}
+			landscapeValue = py - minX - midIndices[i] * stepX;
+			for (int k = midIndices[i]; k < maxIndices[i]; k++) {
+				events[cursors[k]++] = landscapeValue;
+				landscapeValue -= stepX;
+			}
+		}
+
+		final double[] landscape = new double[numLandscapes * resolution];
+		final double sqrt2 = Math.sqrt(2);
+		for (int j = 0; j < resolution; j++) {
+			final int from = offsets[j];
+			final int to = offsets[j + 1];
+			Arrays.sort(events, from, to);
+			final int range = Math.min(numLandscapes, to - from);
+			for (int k = 0; k < range; k++) {
+				landscape[k * resolution + j] = events[to - 1 - k] * sqrt2;
+			}
+		}
+		return landscape;
+	}
+
+	/**
+	 * Saves a feature matrix as a CSV file, with one row per diagram.
+	 *
+	 * @param features  the feature matrix, e.g., as returned by
+	 *                  {@link #getLandscapes(int, int)}
+	 * @param rowLabels the row headers (e.g., {@link #getLabels()}). May be null.
+	 * @param file      the output file
+	 * @throws IOException if the file could not be written
+	 */
+	public static void saveCSV(final double[][] features, final List<String> rowLabels, final File file)
+			throws IOException {
+		final int columns = columnCount(features);
+		try (PrintWriter pw = new PrintWriter(
+				new OutputStreamWriter(new FileOutputStream(file.getAbsolutePath()), StandardCharsets.UTF_8))) {
+			if (rowLabels != null) {
+				SNTUtils.csvQuoteAndPrint(pw, "-");
+				pw.print(',');
+			}
+			for (int col = 0; col < columns; col++) {
+				pw.print("F" + col);
+				if (col < (columns - 1)) pw.print(',');
+			}
+			pw.print("\r\n");
+			for (int row = 0; row < features.length; row++) {
+				if (rowLabels != null) {
+					SNTUtils.csvQuoteAndPrint(pw, rowLabels.get(row));
+					pw.print(',');
+				}
+				for (int col = 0; col < columns; col++) {
+					pw.print(features[row][col]);
+					if (col < (columns - 1)) pw.print(',');
+				}
+				pw.print("\r\n");
+			}
+			if (pw.checkError()) throw new IOException("Could not write " + file);
+		}
+	}
+
+	/**
+	 * Saves a feature matrix as a binary file: The number of rows and the number
+	 * of columns (as 32-bit integers), followed by the row-major matrix values (as
+	 * 64-bit doubles). All values are big-endian, as in
+	 * {@link java.io.DataOutputStream}, e.g., readable with NumPy's
+	 * {@code np.fromfile(f, dtype='>f8', offset=8)}.
+	 *
+	 * @param features the feature matrix, e.g., as returned by
+	 *                 {@link #getLandscapes(int, int)}
+	 * @param file     the output file
+	 * @throws IOException if the file could not be written
+	 */
+	public static void saveBinary(final double[][] features, final File file) throws IOException {
+		final int columns = columnCount(features);
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(features.length);
+			out.writeInt(columns);
+			for (final double[] row : features) {
+				for (final double value : row) {
+					out.writeDouble(value);
+				}
+			}
+		}
+	}
+
+	private static int columnCount(final double[][] features) throws IllegalArgumentException {
+		final int columns = (features.length == 0) ? 0 : features[0].length;
+		for (final double[] row : features) {
+			if (row.length != columns) throw new IllegalArgumentException("Feature matrix is not rectangular");
+		}
+		return columns;
+	}
+
+}
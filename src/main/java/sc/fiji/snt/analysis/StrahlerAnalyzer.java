@@ -23,20 +23,11 @@
 package sc.fiji.snt.analysis;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashSet;
-import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
-import java.util.Set;
 import java.util.TreeMap;
-import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
-import org.jgrapht.Graphs;
-import org.jgrapht.graph.AsSubgraph;
 
 import net.imagej.ImageJ;
 import net.imagej.display.ColorTables;
@@ -45,7 +36,6 @@ import sc.fiji.snt.SNTService;
 import sc.fiji.snt.SNTUtils;
 import sc.fiji.snt.Tree;
 import sc.fiji.snt.analysis.graph.DirectedWeightedGraph;
-import sc.fiji.snt.analysis.graph.SWCWeightedEdge;
 import sc.fiji.snt.util.SWCPoint;
 import sc.fiji.snt.viewer.Viewer3D;
 
@@ -65,6 +55,7 @@ public class StrahlerAnalyzer {
 	private final Map<Integer, Double> bRatioMap = new TreeMap<>();
 	private final Map<Integer, Double> tLengthMap = new TreeMap<>();
 	private DirectedWeightedGraph graph;
+	private TopologyEngine topology;
 
 	public StrahlerAnalyzer(final Tree tree) {
 		this.tree = tree;
@@ -79,106 +70,19 @@ public class StrahlerAnalyzer {
 
 		this.graph = graph;
 
-		final List<SWCPoint> allNodes = new ArrayList<>();
-		final List<SWCPoint> unVisitedNodes = new ArrayList<>();
-
-		// we'll store order classification in the "value" field of each node,
-		// so we need to reset those to 0 in case they have been set elsewhere
-		SNTUtils.log("Resetting node values...");
-		for (final SWCPoint node : graph.vertexSet()) {
-			node.v = 0;
-			allNodes.add(node);
-		}
-
+		// we'll store order classification in the "value" field of each node
 		SNTUtils.log("Assigning order labels...");
-		// NB: We must iterate over vertices in reverse order
-		maxOrder = 1;
-		final ListIterator<SWCPoint> listIterator = allNodes.listIterator(allNodes.size());
-		while (listIterator.hasPrevious()) {
-			final SWCPoint node = listIterator.previous();
-			classifyNode(node);
-			if (node.v < 1)
-				unVisitedNodes.add(node);
-		}
-
-		// All vertices should have been visited at this point. Do a 2nd pass
-		// if not (perhaps ordering in graph.vertexSet() got scrambled?),
-		assert unVisitedNodes.isEmpty();
-		while (unVisitedNodes.size() > 0) {
-			final ListIterator<SWCPoint> unvisitedIterator = unVisitedNodes.listIterator(unVisitedNodes.size());
-			while (unvisitedIterator.hasPrevious()) {
-				final SWCPoint node = unvisitedIterator.previous();
-				classifyNode(node);
-				if (node.v < 1)
-					unvisitedIterator.remove();
-			}
-		}
+		topology = new TopologyEngine(graph);
+		topology.assignOrders(false);
+		maxOrder = topology.getRootNumber();
 		SNTUtils.log("Max order: " + maxOrder);
 
 		SNTUtils.log("Assembling maps...");
-		IntStream.rangeClosed(1, maxOrder).forEach(order -> {
-
-			final Set<SWCPoint> nodes = graph.vertexSet().stream() //
-					.filter(node -> node.v == order) // include only those of this order
-					.collect(Collectors.toCollection(HashSet::new)); // collect output in new list
-
-			// now measure the group
-			final AsSubgraph<SWCPoint, SWCWeightedEdge> subGraph = new AsSubgraph<SWCPoint, SWCWeightedEdge>(
-					graph, nodes);
-
-			// Total length
-			double cableLength = 0;
-			for (final SWCWeightedEdge edge : subGraph.edgeSet()) {
-				cableLength += subGraph.getEdgeWeight(edge);
-			}
-			tLengthMap.put(order, cableLength);
-
-			// # N Branch Points
-			double nBPs = 0;
-			for (final SWCPoint node : subGraph.vertexSet()) {
-				if (graph.outDegreeOf(node) > 1) {
-					nBPs++;
-				}
-			}
-			bPointsMap.put(order, nBPs);
-
-			// # N. branches
-			ArrayList<Path>branches = new ArrayList<>();
-			final LinkedHashSet<SWCPoint> relevantNodes = new LinkedHashSet<>();
-			relevantNodes.addAll(subGraph.vertexSet().stream()
-					.filter(v -> graph.outDegreeOf(v) > 1).collect(Collectors.toCollection(HashSet::new)));
-			relevantNodes.addAll(subGraph.vertexSet().stream()
-					.filter(v -> graph.outDegreeOf(v) == 0).collect(Collectors.toCollection(HashSet::new)));
-			
-			for (SWCPoint subGraphNode : relevantNodes) {
-				Path p = getPathToFirstRelevantAncestor(subGraphNode);
-				if (p.size() > 1) branches.add(p);
-			}
-			
-			nBranchesMap.put(order, (double)branches.size());
-			branchesMap.put(order, branches);
-		});
-	}
-
-	private void classifyNode(final SWCPoint node) {
-		final int degree = graph.outDegreeOf(node);
-		int order = 0;
-		if (degree == 0) {
-			order = 1;
-		} else if (degree == 1) {
-			order = (int) Graphs.successorListOf(graph, node).get(0).v;
-		} else if (degree > 1) {
-			final List<SWCPoint> children = Graphs.successorListOf(graph, node);
-			final int highestOrder = (int) Collections.max(children, Comparator.comparing(n -> (int) n.v)).v;
-			final long highestOrderFreq = children.stream().filter(c -> (int) c.v == highestOrder).count();
-			if (highestOrderFreq == 1L)
-				order = highestOrder;
-			else if (highestOrderFreq > 1L) {
-				order = highestOrder + 1;
-			}
+		for (int order = 1; order <= maxOrder; order++) {
+			tLengthMap.put(order, topology.getLength(order));
+			bPointsMap.put(order, (double) topology.getNBranchPoints(order));
+			nBranchesMap.put(order, (double) topology.getNBranches(order));
 		}
-		if (order > maxOrder) maxOrder = order;
-		node.v = order;
 	}
 
 	/**
@@ -189,26 +93,15 @@ public class StrahlerAnalyzer {
 		return graph;
 	}
 	
-	private Path getPathToFirstRelevantAncestor(SWCPoint startVertex) {
-		Path path = startVertex.getPath().createPath();
-		path.setOrder((int) startVertex.v);
-		SWCPoint currentVertex = startVertex;
-
-		List<SWCPoint> reversed = new ArrayList<SWCPoint>();
-		reversed.add(0, currentVertex);
-		
-		while (Graphs.vertexHasPredecessors(graph, currentVertex)) {
-			currentVertex = Graphs.predecessorListOf(graph,  currentVertex).get(0);
-			reversed.add(0, currentVertex);
-			if (graph.outDegreeOf(currentVertex) > 1) {
-				break;
-			}
-		}
-
-		for (SWCPoint point : reversed) {
-			path.addNode(point);
-		}
-		return path;
+	/**
+	 * Gets the array-based description of the parsed tree, from which branch
+	 * metrics can be obtained without assembling branches as Paths.
+	 *
+	 * @return the topology of the tree being parsed.
+	 */
+	public TopologyEngine getTopology() {
+		if (topology == null) compute();
+		return topology;
 	}
 
 	/**
@@ -225,8 +118,7 @@ public class StrahlerAnalyzer {
 	 *         {@code getRootNumber()-1}.
 	 */
 	public int getHighestBranchOrder() {
-		if (branchesMap == null || branchesMap.isEmpty()) compute();
-		return (branchesMap.get(getRootNumber()).isEmpty()) ? maxOrder-1 : maxOrder;
+		return (getTopology().getNBranches(getRootNumber()) == 0) ? maxOrder-1 : maxOrder;
 	}
 
 	/**
@@ -240,24 +132,19 @@ public class StrahlerAnalyzer {
 
 	public Map<Integer, Double> getAvgFragmentations() {
 		final Map<Integer, Double> fragMap = new TreeMap<>();
-		getBranches().forEach( (order, branches) -> {
-			final double nNodes = branches.stream().mapToInt(branch -> branch.size()).sum();
-			fragMap.put(order, (branches.size()==0) ? Double.NaN : nNodes/branches.size());
-		});
+		final TopologyEngine topology = getTopology();
+		for (int order = 1; order <= maxOrder; order++) {
+			fragMap.put(order, topology.getAvgFragmentation(order, order));
+		}
 		return fragMap;
 	}
 
 	public Map<Integer, Double> getAvgContractions() {
 		final Map<Integer, Double> contractMap = new TreeMap<>();
-		getBranches().forEach((order, branches) -> {
-			double contraction = 0;
-			for (final Path branch : branches) {
-				final double pContraction = branch.getContraction();
-				if (!Double.isNaN(pContraction))
-					contraction += pContraction;
-			}
-			contractMap.put(order, contraction / branches.size());
-		});
+		final TopologyEngine topology = getTopology();
+		for (int order = 1; order <= maxOrder; order++) {
+			contractMap.put(order, topology.getAvgContraction(order, order));
+		}
 		return contractMap;
 	}
 
@@ -284,28 +171,28 @@ public class StrahlerAnalyzer {
 	 *         (Horton-Strahler numbers as key and branch points count as value).
 	 */
 	public Map<Integer, List<Path>> getBranches() {
-		if (branchesMap == null || branchesMap.isEmpty()) compute();
+		if (branchesMap == null || branchesMap.isEmpty()) {
+			// Branches are only assembled as Paths on demand
+			final TopologyEngine topology = getTopology();
+			for (int order = 1; order <= maxOrder; order++) {
+				branchesMap.put(order, topology.getBranches(order));
+			}
+		}
 		return branchesMap;
 	}
 
 	public List<Path> getBranches(final int order) throws IllegalArgumentException {
 		if (order < 1 || order > getHighestBranchOrder())
 			throw new IllegalArgumentException("Invalid branch order: 1 >= order <= " + getHighestBranchOrder());
-		return branchesMap.get(order);
+		return getBranches().get(order);
 	}
 
 	public List<Path> getRootAssociatedBranches() {
 		final List<Path> rootBranches = new ArrayList<>();
-		final int highestBranchOrder = getHighestBranchOrder();
-		final SWCPoint root = graph.getRoot();
-		IntStream.rangeClosed(1, highestBranchOrder).forEach(order -> {
-			getBranches().get(order).forEach(branch -> {
-				if (branch.getNode(0).isSameLocation(root)) {
-					//System.out.println("Adding root branch order " + branch.getOrder());
-					rootBranches.add(branch);
-				}
-			});
-		});
+		final TopologyEngine topology = getTopology();
+		for (int branch = 0; branch < topology.getNBranches(); branch++) {
+			if (topology.getBranchStart(branch) == 0) rootBranches.add(topology.getBranch(branch));
+		}
 		return rootBranches;
 	}
 
@@ -316,7 +203,7 @@ public class StrahlerAnalyzer {
 	 */
 	public Map<Integer, Double> getBifurcationRatios() {
 		if (bRatioMap == null || bRatioMap.isEmpty()) {
-			compute();
+			getTopology();
 			int hbo = getHighestBranchOrder();
 			IntStream.rangeClosed(2, hbo).forEach(order -> {
 				bRatioMap.put(order - 1, nBranchesMap.get(order - 1) / nBranchesMap.get(order));
@@ -341,7 +228,7 @@ public class StrahlerAnalyzer {
 	 */
 	protected Map<Integer, List<SWCPoint>> getNodes() {
 		if (mappedNodes == null || mappedNodes.isEmpty()) {
-			compute();
+			getTopology();
 			for (final SWCPoint node : graph.vertexSet()) {
 				List<SWCPoint> list = mappedNodes.get((int) node.v);
 				if (list == null) {
@@ -381,12 +268,6 @@ public class StrahlerAnalyzer {
 	}
 
 	public static void classify(final DirectedWeightedGraph graph, final boolean reverseOrder) {
-		final StrahlerAnalyzer sa = new StrahlerAnalyzer(null);
-		sa.compute(graph);
-		if (reverseOrder) {
-			graph.vertexSet().forEach( vertex -> {
-				vertex.v = sa.getRootNumber() - vertex.v + 1;
-			});
-		}
+		new TopologyEngine(graph).assignOrders(reverseOrder);
 	}
 }
@@ -0,0 +1,483 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2021 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import sc.fiji.snt.Path;
+import sc.fiji.snt.analysis.graph.DirectedWeightedGraph;
+import sc.fiji.snt.analysis.graph.SWCWeightedEdge;
+import sc.fiji.snt.util.SWCPoint;
+
+/**
+ * Array-based topological description of a {@link DirectedWeightedGraph}.
+ * Nodes are indexed in pre-order (the root has index 0, and parents precede
+ * their children) in a single iterative traversal of the graph. Horton-Strahler
+ * orders are then computed in a post-order sweep of the indexed nodes, while
+ * centrifugal orders and the decomposition of the graph into branches (segments
+ * between branch points, the root and tips) are computed in pre-order. Branch
+ * lengths, contractions and fragmentations are accumulated during the
+ * traversal, so that no {@link Path} is created unless branches are explicitly
+ * requested.
+ * <p>
+ * Branches are sorted by Horton-Strahler order, and, within each order, by the
+ * pre-order index of their distal node. Branch metrics are identical to those
+ * of the Paths returned by {@link #getBranches(int)}. The engine reflects the
+ * state of the graph at construction time.
+ * </p>
+ *
+ * @see StrahlerAnalyzer#getTopology()
+ */
+public class TopologyEngine {
+
+	private final SWCPoint[] nodes;
+	private final Map<SWCPoint, Integer> indices;
+	private final int[] parents;
+	private final int[] outDegrees;
+	private final double[] inWeights;
+	private final int[] strahlerOrders;
+	private final int[] centrifugalOrders;
+	private final int rootNumber;
+
+	/* per node: the branch ending at the node */
+	private final int[] branchStarts;
+	private final int[] branchSizes;
+	private final double[] branchLengths;
+
+	/* branches (by distal node), sorted by order, then pre-order */
+	private final int[] branchEnds;
+	private final int[] orderOffsets;
+
+	/**
+	 * Parses the specified graph.
+	 *
+	 * @param graph the graph to be parsed
+	 * @throws IllegalArgumentException if the graph does not have exactly one
+	 *           root, or if it contains loops
+	 */
+	public TopologyEngine(final DirectedWeightedGraph graph) throws IllegalArgumentException {
+		final int n = graph.vertexSet().size();
+		nodes = new SWCPoint[n];
+		indices = new HashMap<>(2 * n);
+		parents = new int[n];
+		outDegrees = new int[n];
+		inWeights = new double[n];
+		strahlerOrders = new int[n];
+		centrifugalOrders = new int[n];
+		branchStarts = new int[n];
+		branchSizes = new int[n];
+		branchLengths = new double[n];
+
+		// Pre-order indexing. Children are indexed in the order of the graph's outgoing edges
+		final SWCPoint root;
+		try {
+			root = graph.getRoot();
+		} catch (final IllegalStateException ex) {
+			throw new IllegalArgumentException(ex.getMessage(), ex);
+		}
+		final SWCPoint[] stack = new SWCPoint[n];
+		final int[] stackParents = new int[n];
+		final double[] stackWeights = new double[n];
+		final List<SWCWeightedEdge> outgoing = new ArrayList<>();
+		int top = 0;
+		stack[top] = root;
+		stackParents[top++] = -1;
+		int count = 0;
+		while (top > 0) {
+			final SWCPoint node = stack[--top];
+			nodes[count] = node;
+			parents[count] = stackParents[top];
+			inWeights[count] = stackWeights[top];
+			if (indices.put(node, count) != null) {
+				throw new IllegalArgumentException("Graph contains loops: " + node + " visited more than once");
+			}
+			outgoing.clear();
+			outgoing.addAll(graph.outgoingEdgesOf(node));
+			outDegrees[count] = outgoing.size();
+			if (count + 1 + top + outgoing.size() > n) {
+				throw new IllegalArgumentException("Graph contains loops or nodes with multiple parents");
+			}
+			for (int i = outgoing.size() - 1; i >= 0; i--) {
+				stack[top] = outgoing.get(i).getTarget();
+				stackParents[top] = count;
+				stackWeights[top++] = graph.getEdgeWeight(outgoing.get(i));
+			}
+			count++;
+		}
+		if (count != n) {
+			throw new IllegalArgumentException("Graph contains nodes not connected to its root");
+		}
+
+		// Post-order: Horton-Strahler orders
+		final int[] highestChildOrder = new int[n];
+		final int[] highestChildOrderFreq = new int[n];
+		int maxOrder = 1;
+		for (int i = n - 1; i >= 0; i--) {
+			final int order;
+			if (outDegrees[i] == 0) {
+				order = 1;
+			} else if (outDegrees[i] == 1 || highestChildOrderFreq[i] == 1) {
+				order = highestChildOrder[i];
+			} else {
+				order = highestChildOrder[i] + 1;
+			}
+			strahlerOrders[i] = order;
+			if (order > maxOrder) maxOrder = order;
+			final int p = parents[i];
+			if (p < 0) continue;
+			if (order > highestChildOrder[p]) {
+				highestChildOrder[p] = order;
+				highestChildOrderFreq[p] = 1;
+			} else if (order == highestChildOrder[p]) {
+				highestChildOrderFreq[p]++;
+			}
+		}
+		rootNumber = maxOrder;
+
+		// Pre-order: centrifugal orders and branch segmentation. Lengths are
+		// accumulated from proximal to distal nodes, as in Path#getLength()
+		branchStarts[0] = 0;
+		branchSizes[0] = 1;
+		int nBranches = 0;
+		final int[] branchCounts = new int[maxOrder + 2];
+		for (int i = 1; i < n; i++) {
+			final int p = parents[i];
+			final boolean newBranch = parents[p] < 0 || outDegrees[p] > 1;
+			centrifugalOrders[i] = centrifugalOrders[p] + ((outDegrees[p] > 1) ? 1 : 0);
+			branchStarts[i] = (newBranch) ? p : branchStarts[p];
+			branchSizes[i] = ((newBranch) ? 1 : branchSizes[p]) + 1;
+			branchLengths[i] = ((newBranch) ? 0d : branchLengths[p]) + distance(i, p);
+			if (outDegrees[i] != 1) {
+				nBranches++;
+				branchCounts[strahlerOrders[i] + 1]++;
+			}
+		}
+
+		// Counting sort of branches by order, preserving pre-order
+		orderOffsets = new int[maxOrder + 2];
+		for (int order = 1; order <= maxOrder; order++) {
+			orderOffsets[order + 1] = orderOffsets[order] + branchCounts[order + 1];
+		}
+		branchEnds = new int[nBranches];
+		final int[] cursors = Arrays.copyOf(orderOffsets, maxOrder + 1);
+		for (int i = 1; i < n; i++) {
+			if (outDegrees[i] != 1) branchEnds[cursors[strahlerOrders[i]]++] = i;
+		}
+	}
+
+	private double distance(final int child, final int parent) {
+		final double xd = nodes[child].getX() - nodes[parent].getX();
+		final double yd = nodes[child].getY() - nodes[parent].getY();
+		final double zd = nodes[child].getZ() - nodes[parent].getZ();
+		return Math.sqrt(xd * xd + yd * yd + zd * zd);
+	}
+
+	/**
+	 * @return the number of nodes in the parsed graph
+	 */
+	public int size() {
+		return nodes.length;
+	}
+
+	/**
+	 * @param index the pre-order index of the node
+	 * @return the node associated with {@code index}
+	 */
+	public SWCPoint getNode(final int index) {
+		return nodes[index];
+	}
+
+	/**
+	 * @param node the query node
+	 * @return the pre-order index of {@code node}, or -1 if {@code node} is not
+	 *         part of the parsed graph
+	 */
+	public int indexOf(final SWCPoint node) {
+		final Integer index = indices.get(node);
+		return (index == null) ? -1 : index;
+	}
+
+	/**
+	 * @param index the pre-order index of the node
+	 * @return the index of the parent of the node, or -1 if the node is the root
+	 */
+	public int getParent(final int index) {
+		return parents[index];
+	}
+
+	/**
+	 * @param index the pre-order index of the node
+	 * @return the number of children of the node
+	 */
+	public int getNChildren(final int index) {
+		return outDegrees[index];
+	}
+
+	/**
+	 * @return the highest Horton-Strahler number in the parsed graph, i.e., the
+	 *         order of the root
+	 */
+	public int getRootNumber() {
+		return rootNumber;
+	}
+
+	/**
+	 * @param index the pre-order index of the node
+	 * @return the Horton-Strahler order of the node
+	 */
+	public int getStrahlerOrder(final int index) {
+		return strahlerOrders[index];
+	}
+
+	/**
+	 * @param index the pre-order index of the node
+	 * @return the reverse Horton-Strahler order of the node, i.e.,
+	 *         {@code getRootNumber() - getStrahlerOrder(index) + 1}
+	 */
+	public int getReverseStrahlerOrder(final int index) {
+		return rootNumber - strahlerOrders[index] + 1;
+	}
+
+	/**
+	 * @param index the pre-order index of the node
+	 * @return the centrifugal order of the node, i.e., the number of branch
+	 *         points between the node and the root
+	 */
+	public int getCentrifugalOrder(final int index) {
+		return centrifugalOrders[index];
+	}
+
+	/**
+	 * Stores the Horton-Strahler order of each node in its {@code v} field.
+	 *
+	 * @param reverseOrder if true, reverse Horton-Strahler orders are assigned
+	 */
+	public void assignOrders(final boolean reverseOrder) {
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i].v = (reverseOrder) ? getReverseStrahlerOrder(i) : strahlerOrders[i];
+		}
+	}
+
+	/**
+	 * Gets the cable length associated with a Horton-Strahler order, i.e., the
+	 * sum of the weights of the edges connecting two nodes of that order.
+	 *
+	 * @param order the Horton-Strahler order
+	 * @return the cable length of the order
+	 */
+	public double getLength(final int order) {
+		double length = 0;
+		for (int i = 1; i < nodes.length; i++) {
+			if (strahlerOrders[i] == order && strahlerOrders[parents[i]] == order) length += inWeights[i];
+		}
+		return length;
+	}
+
+	/**
+	 * @param order the Horton-Strahler order
+	 * @return the number of branch points of the specified order
+	 */
+	public int getNBranchPoints(final int order) {
+		int count = 0;
+		for (int i = 0; i < nodes.length; i++) {
+			if (outDegrees[i] > 1 && strahlerOrders[i] == order) count++;
+		}
+		return count;
+	}
+
+	/**
+	 * @return the number of branches in the parsed graph
+	 */
+	public int getNBranches() {
+		return branchEnds.length;
+	}
+
+	/**
+	 * @param order the Horton-Strahler order
+	 * @return the number of branches of the specified order, or 0 if the order
+	 *         does not exist
+	 */
+	public int getNBranches(final int order) {
+		return (order < 1 || order > rootNumber) ? 0 : orderOffsets[order + 1] - orderOffsets[order];
+	}
+
+	/**
+	 * @param branch the branch index, between 0 and {@code getNBranches() - 1}
+	 * @return the pre-order index of the distal node (branch point or tip) of
+	 *         the branch
+	 */
+	public int getBranchEnd(final int branch) {
+		return branchEnds[branch];
+	}
+
+	/**
+	 * @param branch the branch index, between 0 and {@code getNBranches() - 1}
+	 * @return the pre-order index of the proximal node (branch point or root)
+	 *         of the branch
+	 */
+	public int getBranchStart(final int branch) {
+		return branchStarts[branchEnds[branch]];
+	}
+
+	/**
+	 * @param branch the branch index, between 0 and {@code getNBranches() - 1}
+	 * @return the Horton-Strahler order of the branch, i.e., the order of its
+	 *         distal node
+	 */
+	public int getBranchOrder(final int branch) {
+		return strahlerOrders[branchEnds[branch]];
+	}
+
+	/**
+	 * @param branch the branch index, between 0 and {@code getNBranches() - 1}
+	 * @return the number of nodes of the branch, including its proximal node
+	 */
+	public int getBranchSize(final int branch) {
+		return branchSizes[branchEnds[branch]];
+	}
+
+	/**
+	 * @param branch the branch index, between 0 and {@code getNBranches() - 1}
+	 * @return the length of the branch
+	 * @see Path#getLength()
+	 */
+	public double getBranchLength(final int branch) {
+		return branchLengths[branchEnds[branch]];
+	}
+
+	/**
+	 * @param branch the branch index, between 0 and {@code getNBranches() - 1}
+	 * @return the contraction of the branch, or {@code NaN} if its length is 0
+	 * @see Path#getContraction()
+	 */
+	public double getBranchContraction(final int branch) {
+		final int end = branchEnds[branch];
+		final double length = branchLengths[end];
+		if (length == 0) return Double.NaN;
+		return distance(end, branchStarts[end]) / length;
+	}
+
+	/**
+	 * Gets the average length of the branches of the specified order range.
+	 *
+	 * @param fromOrder the lowest order (inclusive)
+	 * @param toOrder   the highest order (inclusive)
+	 * @return the average branch length, or {@code NaN} if there are no
+	 *         branches in the order range
+	 */
+	public double getAvgBranchLength(final int fromOrder, final int toOrder) {
+		double sum = 0;
+		final int[] range = range(fromOrder, toOrder);
+		for (int b = range[0]; b < range[1]; b++) sum += getBranchLength(b);
+		return sum / (range[1] - range[0]);
+	}
+
+	/**
+	 * Gets the average contraction of the branches of the specified order range.
+	 * Branches of null length are counted, but do not contribute to the sum.
+	 *
+	 * @param fromOrder the lowest order (inclusive)
+	 * @param toOrder   the highest order (inclusive)
+	 * @return the average branch contraction, or {@code NaN} if there are no
+	 *         branches in the order range
+	 */
+	public double getAvgContraction(final int fromOrder, final int toOrder) {
+		double sum = 0;
+		final int[] range = range(fromOrder, toOrder);
+		for (int b = range[0]; b < range[1]; b++) {
+			final double contraction = getBranchContraction(b);
+			if (!Double.isNaN(contraction)) sum += contraction;
+		}
+		return sum / (range[1] - range[0]);
+	}
+
+	/**
+	 * Gets the average fragmentation (no. of nodes) of the branches of the
+	 * specified order range.
+	 *
+	 * @param fromOrder the lowest order (inclusive)
+	 * @param toOrder   the highest order (inclusive)
+	 * @return the average branch fragmentation, or {@code NaN} if there are no
+	 *         branches in the order range
+	 */
+	public double getAvgFragmentation(final int fromOrder, final int toOrder) {
+		double sum = 0;
+		final int[] range = range(fromOrder, toOrder);
+		for (int b = range[0]; b < range[1]; b++) sum += getBranchSize(b);
+		return sum / (range[1] - range[0]);
+	}
+
+	private int[] range(final int fromOrder, final int toOrder) {
+		final int from = Math.max(1, fromOrder);
+		final int to = Math.min(rootNumber, toOrder);
+		if (from > to) return new int[] { 0, 0 };
+		return new int[] { orderOffsets[from], orderOffsets[to + 1] };
+	}
+
+	/**
+	 * Assembles the specified branch as a {@link Path}, from its proximal to its
+	 * distal node. Note that the Path does not carry any connectivity
+	 * information.
+	 *
+	 * @param branch the branch index, between 0 and {@code getNBranches() - 1}
+	 * @return the branch
+	 */
+	public Path getBranch(final int branch) {
+		final int end = branchEnds[branch];
+		final int[] sequence = new int[branchSizes[end]];
+		int node = end;
+		for (int i = sequence.length - 1; i >= 0; i--) {
+			sequence[i] = node;
+			node = parents[node];
+		}
+		final Path path = nodes[end].getPath().createPath();
+		path.setOrder(strahlerOrders[end]);
+		for (int i = 0; i < sequence.length; i++) {
+			path.addNode(nodes[sequence[i]]);
+			// Node values hold Horton-Strahler orders, even if v fields were reassigned since
+			path.setNodeValue(strahlerOrders[sequence[i]], i);
+		}
+		return path;
+	}
+
+	/**
+	 * Assembles the branches of the specified order as {@link Path}s.
+	 *
+	 * @param order the Horton-Strahler order
+	 * @return the list of branches, empty if the order does not exist
+	 * @see #getBranch(int)
+	 */
+	public List<Path> getBranches(final int order) {
+		final List<Path> branches = new ArrayList<>(getNBranches(order));
+		if (order < 1 || order > rootNumber) return branches;
+		for (int b = orderOffsets[order]; b < orderOffsets[order + 1]; b++) {
+			branches.add(getBranch(b));
+		}
+		return branches;
+	}
+
+}
@@ -36,7 +36,6 @@ import org.scijava.table.DefaultGenericTable;
 import net.imagej.ImageJ;
 
 import org.jgrapht.Graphs;
-import org.jgrapht.traverse.DepthFirstIterator;
 import org.scijava.app.StatusService;
 import org.scijava.command.ContextCommand;
 import org.scijava.display.Display;
@@ -48,7 +47,7 @@ import sc.fiji.snt.SNTService;
 import sc.fiji.snt.SNTUtils;
 import sc.fiji.snt.Tree;
 import sc.fiji.snt.analysis.graph.DirectedWeightedGraph;
-import sc.fiji.snt.analysis.graph.SWCWeightedEdge;
+import sc.fiji.snt.analysis.graph.SubtreeAggregates;
 import sc.fiji.snt.annotation.BrainAnnotation;
 import sc.fiji.snt.util.PointInImage;
 import sc.fiji.snt.util.SWCPoint;
@@ -394,7 +393,7 @@ public class TreeAnalyzer extends ContextCommand {
 		case MultiTreeStatistics.N_FITTED_PATHS:
 			return getNFittedPaths();
 		case MultiTreeStatistics.N_NODES:
-			return tree.getNodes().size();
+			return tree.getNodesCount();
 		case MultiTreeStatistics.N_PATHS:
 			return getNPaths();
 		case MultiTreeStatistics.N_PRIMARY_BRANCHES:
@@ -459,23 +458,35 @@ public class TreeAnalyzer extends ContextCommand {
 	public void measure(final String rowHeader, final Collection<String> metrics, final boolean groupByType) {
 		if (table == null) table = new SNTTable();
 		final Collection<String> measuringMetrics = (metrics == null || metrics.isEmpty()) ? getMetrics() : metrics;
+		// Subclasses may redefine metrics, so only plain analyzers use the engine
+		final MeasurementEngine engine = (getClass() == TreeAnalyzer.class) ? new MeasurementEngine(measuringMetrics) : null;
 		if (groupByType) {
 			for (final int type : tree.getSWCTypes()) {
 				if (type == Path.SWC_SOMA) continue;
 				restrictToSWCType(type);
 				final int row = getNextRow(rowHeader);
 				table.set(getCol("SWC Type(s)"), row, Path.getSWCtypeName(type, true));
-				measuringMetrics.forEach(metric -> table.set(getCol(metric), row, getMetricInternal(metric)));
+				setRow(row, measuringMetrics, engine);
 				resetRestrictions();
 			}
 		} else {
 			final int row = getNextRow(rowHeader);
 			table.set(getCol("SWC Type(s)"), row, getSWCTypesAsString());
-			measuringMetrics.forEach(metric -> table.set(getCol(metric), row, getMetricInternal(metric)));
+			setRow(row, measuringMetrics, engine);
 		}
 		if (getContext() != null) updateAndDisplayTable();
 	}
 
+	private void setRow(final int row, final Collection<String> metrics, final MeasurementEngine engine) {
+		if (engine == null) {
+			metrics.forEach(metric -> table.set(getCol(metric), row, getMetricInternal(metric)));
+			return;
+		}
+		final Number[] values = engine.measure(tree, getNFittedPaths());
+		for (int i = 0; i < values.length; i++)
+			table.set(getCol(engine.getMetrics().get(i)), row, values[i]);
+	}
+
 	protected String getSWCTypesAsString() {
 		final StringBuilder sb = new StringBuilder();
 		final Set<Integer> types = tree.getSWCTypes();
@@ -552,6 +563,10 @@ public class TreeAnalyzer extends ContextCommand {
 	}
 
 	private String getUnitAwareHeader(final String metric) {
+		return getUnitAwareHeader(metric, tree);
+	}
+
+	static String getUnitAwareHeader(final String metric, final Tree tree) {
 		if (MultiTreeStatistics.WIDTH.equals(metric) || MultiTreeStatistics.HEIGHT.equals(metric)
 				|| MultiTreeStatistics.DEPTH.equals(metric) || MultiTreeStatistics.MEAN_RADIUS.equals(metric)
 				|| metric.toLowerCase().contains("length"))
@@ -829,12 +844,12 @@ public class TreeAnalyzer extends ContextCommand {
 				if (includeChildren) {
 					if (isSameOrParentAnnotation(compartment, currentNodeAnnotation)
 							&& isSameOrParentAnnotation(compartment, prevNodeAnnotation)) {
-						sumLength += path.getNode(i).distanceTo(path.getNode(i - 1));
+						sumLength += path.distanceBetweenNodes(i, i - 1);
 					}
 				} else {
 					if (compartment.equals(currentNodeAnnotation) &&
 							compartment.equals(prevNodeAnnotation)) {
-						sumLength += path.getNode(i).distanceTo(path.getNode(i - 1));
+						sumLength += path.distanceBetweenNodes(i, i - 1);
 					}
 				}
 			}
@@ -990,7 +1005,7 @@ public class TreeAnalyzer extends ContextCommand {
 	 * @throws IllegalArgumentException if tree contains multiple roots or loops
 	 */
 	public int getNBranches() throws IllegalArgumentException {
-		return getBranches().size();
+		return getStrahlerAnalyzer().getTopology().getNBranches();
 	}
 
 	/**
@@ -1015,22 +1030,11 @@ public class TreeAnalyzer extends ContextCommand {
 	 * @return the average branch contraction
 	 */
 	public double getAvgContraction() throws IllegalArgumentException {
-		double contraction = 0;
-		final List<Path> branches = getBranches();
-		for (final Path p : branches) {
-			final double pContraction = p.getContraction();
-			if (!Double.isNaN(pContraction)) contraction += pContraction;
-		}
-		return contraction / branches.size();
+		return getStrahlerAnalyzer().getTopology().getAvgContraction(1, Integer.MAX_VALUE);
 	}
 
 	public double getAvgFragmentation() {
-		double fragmentation = 0;
-		final List<Path> branches = getBranches();
-		for (final Path p : branches) {
-			fragmentation += p.size();
-		}
-		return fragmentation / branches.size();
+		return getStrahlerAnalyzer().getTopology().getAvgFragmentation(1, Integer.MAX_VALUE);
 	}
 
 	/**
@@ -1040,8 +1044,7 @@ public class TreeAnalyzer extends ContextCommand {
 	 * @return the average branch length
 	 */
 	public double getAvgBranchLength() throws IllegalArgumentException {
-		final List<Path> branches = getBranches();
-		return sumLength(getBranches()) / branches.size();
+		return getStrahlerAnalyzer().getTopology().getAvgBranchLength(1, Integer.MAX_VALUE);
 	}
 
 	/**
@@ -1054,7 +1057,7 @@ public class TreeAnalyzer extends ContextCommand {
 	 */
 	public List<Double> getRemoteBifAngles() throws IllegalArgumentException {
 		final DirectedWeightedGraph sGraph = tree.getGraph(true);
-		final List<SWCPoint> branchPoints = sGraph.getBPs();
+		final List<SWCPoint> branchPoints = tree.getGraphBranchPoints();
 		final List<Double> angles = new ArrayList<Double>();
 		for (final SWCPoint bp : branchPoints) {
 			final List<SWCPoint> children = Graphs.successorListOf(sGraph, bp);
@@ -1105,33 +1108,29 @@ public class TreeAnalyzer extends ContextCommand {
 	 */
 	public List<Double> getPartitionAsymmetry() throws IllegalArgumentException {
 		final DirectedWeightedGraph sGraph = tree.getGraph(true);
-		final List<SWCPoint> branchPoints = sGraph.getBPs();
+		final List<SWCPoint> branchPoints = tree.getGraphBranchPoints();
 		final List<Double> resultList = new ArrayList<Double>();
+		final SubtreeAggregates aggregates;
+		try {
+			aggregates = sGraph.getSubtreeAggregates();
+		} catch (final IllegalStateException ex) {
+			throw new IllegalArgumentException(ex.getMessage(), ex);
+		}
 		for (final SWCPoint bp : branchPoints) {
 			final List<SWCPoint> children = Graphs.successorListOf(sGraph, bp);
 			// Only consider bifurcations
 			if (children.size() > 2) {
 				continue;
 			}
-			final List<Integer> tipCounts = new ArrayList<Integer>();
-			for (final SWCPoint child : children) {
-				int count = 0;
-				final DepthFirstIterator<SWCPoint, SWCWeightedEdge> dfi = sGraph.getDepthFirstIterator(child);
-				while (dfi.hasNext()) {
-					final SWCPoint node = dfi.next();
-					if (Graphs.successorListOf(sGraph, node).size() == 0) {
-						count++;
-					}
-				}
-				tipCounts.add(count);
-			}
+			final int tipCount0 = aggregates.getTipCount(children.get(0));
+			final int tipCount1 = aggregates.getTipCount(children.get(1));
 			double asymmetry;
 			// Make sure we avoid getting NaN
-			if (tipCounts.get(0) == tipCounts.get(1)) {
+			if (tipCount0 == tipCount1) {
 				asymmetry = 0.0;
 			}
 			else {
-				asymmetry = (double) Math.abs(tipCounts.get(0) - tipCounts.get(1)) / (tipCounts.get(0) + tipCounts.get(1) - 2);
+				asymmetry = (double) Math.abs(tipCount0 - tipCount1) / (tipCount0 + tipCount1 - 2);
 			}
 			resultList.add(asymmetry);
 		}
@@ -1170,28 +1169,16 @@ public class TreeAnalyzer extends ContextCommand {
 			if (b.size() < 5) {
 				continue;
 			}
-			final List<Double> pathDists = new ArrayList<Double>();
-			final List<Double> eucDists  = new ArrayList<Double>();
-			// Start at the second node in the branch
-			for (int i = 1; i < b.size(); i++) {
-				double pDist = b.getNode(i).distanceTo(b.getNode(i-1));
-				if (!pathDists.isEmpty()) {
-					double cumDist = pathDists.get(i-2) + pDist;
-					pathDists.add(cumDist);
-				}
-				else {
-					pathDists.add(pDist);
-				}
-				double eDist = b.getNode(i).distanceTo(b.getNode(0));
-				eucDists.add(eDist);
-			}
+			// Start at the second node in the branch, accumulating the path
+			// distance and the Euclidean distance to the start-node
 			double numerator = 0.0;
-			for (int i = 0; i < eucDists.size(); i++) {
-				numerator += Math.log(1 + eucDists.get(i)) * Math.log(1 + pathDists.get(i));
-			}
 			double denominator = 0.0;
-			for (int i = 0; i < eucDists.size(); i++) {
-				denominator += Math.log(1 + eucDists.get(i)) * Math.log(1 + eucDists.get(i));
+			double pathDist = 0.0;
+			for (int i = 1; i < b.size(); i++) {
+				pathDist += b.distanceBetweenNodes(i, i - 1);
+				final double logEucDist = Math.log(1 + b.distanceBetweenNodes(i, 0));
+				numerator += logEucDist * Math.log(1 + pathDist);
+				denominator += logEucDist * logEucDist;
 			}
 			double fDim = (double) numerator / denominator;
 			fractalDims.add(fDim);	
@@ -1240,7 +1227,11 @@ public class TreeAnalyzer extends ContextCommand {
 		double totalLength = 0d;
 		for (final Path p : paths) {
 			if (p.getStartJoins() != null) {
-				totalLength += p.getStartJoinsPoint().distanceTo(p.getNode(0));
+				final PointInImage join = p.getStartJoinsPoint();
+				final double xd = join.x - p.getNodeX(0);
+				final double yd = join.y - p.getNodeY(0);
+				final double zd = join.z - p.getNodeZ(0);
+				totalLength += Math.sqrt(xd * xd + yd * yd + zd * zd);
 			}
 			totalLength += p.getLength();
 		}
@@ -389,9 +389,7 @@ public class TreeColorMapper extends ColorMapper {
 				p.setNodeValue(dx, 0);
 				for (int i = 1; i < p.size(); ++i) {
 					final double dxPrev = p.getNodeValue(i - 1);
-					final PointInImage prev = p.getNode(i - 1);
-					final PointInImage curr = p.getNode(i);
-					dx = curr.distanceTo(prev) + dxPrev;
+					dx = p.distanceBetweenNodes(i, i - 1) + dxPrev;
 					p.setNodeValue(dx, i);
 					if (setLimits) {
 						if (dx > max) max = dx;
@@ -408,9 +406,7 @@ public class TreeColorMapper extends ColorMapper {
 			p.setNodeValue(dx + p.getNode(0).distanceTo(p.getStartJoinsPoint()), 0);
 			for (int i = 1; i < p.size(); ++i) {
 				final double dxPrev = p.getNodeValue(i - 1);
-				final PointInImage prev = p.getNode(i - 1);
-				final PointInImage curr = p.getNode(i);
-				dx = curr.distanceTo(prev) + dxPrev;
+				dx = p.distanceBetweenNodes(i, i - 1) + dxPrev;
 				p.setNodeValue(dx, i);
 				if (setLimits) {
 					if (dx > max) max = dx;
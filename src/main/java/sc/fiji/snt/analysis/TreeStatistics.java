@@ -605,7 +605,7 @@ public class TreeStatistics extends TreeAnalyzer {
 				if (p.size() < 2)
 					continue;
 				for (int i = 1; i < p.size(); i += 1) {
-					stat.addValue(p.getNode(i).distanceTo(p.getNode(i - 1)));
+					stat.addValue(p.distanceBetweenNodes(i, i - 1));
 				}
 			}
 			break;
@@ -614,7 +614,10 @@ public class TreeStatistics extends TreeAnalyzer {
 				if (p.size() < 2)
 					continue;
 				for (int i = 1; i < p.size(); i += 1) {
-					stat.addValue(p.getNode(i).distanceSquaredTo(p.getNode(i - 1)));
+					final double xd = p.getNodeX(i) - p.getNodeX(i - 1);
+					final double yd = p.getNodeY(i) - p.getNodeY(i - 1);
+					final double zd = p.getNodeZ(i) - p.getNodeZ(i - 1);
+					stat.addValue(xd * xd + yd * yd + zd * zd);
 				}
 			}
 			break;
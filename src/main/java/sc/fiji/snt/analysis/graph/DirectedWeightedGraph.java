@@ -540,6 +540,20 @@ public class DirectedWeightedGraph extends SNTGraph<SWCPoint, SWCWeightedEdge> {
 		return vertexSet().stream().filter(v -> outDegreeOf(v) == 0).collect(Collectors.toList());
 	}
 
+	/**
+	 * Computes per-vertex subtree aggregates (tip counts, node counts, cable
+	 * length and largest path distance to a tip) in a single pass over the graph.
+	 * This is considerably faster than traversing the subtree of each vertex of
+	 * interest independently.
+	 *
+	 * @return the subtree aggregates of the current state of the graph
+	 * @throws IllegalStateException if the graph does not have exactly one root
+	 *           or if it is not a tree
+	 */
+	public SubtreeAggregates getSubtreeAggregates() throws IllegalStateException {
+		return new SubtreeAggregates(this);
+	}
+
 	/**
 	 * Gets a NodeStatistics instance for the vertex set
 	 *
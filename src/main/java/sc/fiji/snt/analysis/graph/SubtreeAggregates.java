@@ -0,0 +1,239 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2021 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.analysis.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import sc.fiji.snt.util.SWCPoint;
+
+/**
+ * Per-vertex aggregates of the subtrees of a {@link DirectedWeightedGraph},
+ * computed in a single post-order pass over the graph. For every vertex, the
+ * subtree rooted at that vertex is described by its number of terminal nodes,
+ * its number of nodes, its cable length (the sum of its edge weights) and the
+ * largest path distance between the vertex and any of its tips.
+ * <p>
+ * Aggregates reflect the state of the graph at the time they were computed:
+ * They are not updated if the graph is modified afterwards.
+ * </p>
+ *
+ * @see DirectedWeightedGraph#getSubtreeAggregates()
+ */
+public class SubtreeAggregates {
+
+	private final SWCPoint[] vertices;
+	private final Map<SWCPoint, Integer> indices;
+	private final int[] parents;
+	private final int[] tipCounts;
+	private final int[] nodeCounts;
+	private final double[] cableLengths;
+	private final double[] maxPathDistances;
+
+	/**
+	 * Computes the subtree aggregates of the specified graph.
+	 *
+	 * @param graph the graph to be parsed
+	 * @throws IllegalStateException if the graph does not have exactly one root
+	 *           or if it is not a tree (e.g., it contains loops or nodes with
+	 *           multiple parents)
+	 */
+	public SubtreeAggregates(final DirectedWeightedGraph graph) throws IllegalStateException {
+		final int n = graph.vertexSet().size();
+		vertices = new SWCPoint[n];
+		indices = new HashMap<>(2 * n);
+		parents = new int[n];
+		tipCounts = new int[n];
+		nodeCounts = new int[n];
+		cableLengths = new double[n];
+		maxPathDistances = new double[n];
+		final double[] inWeights = new double[n];
+
+		// Pre-order: each subtree occupies a contiguous block, headed by its root
+		final SWCPoint[] stack = new SWCPoint[n];
+		final int[] stackParents = new int[n];
+		final double[] stackWeights = new double[n];
+		int top = 0;
+		stack[top] = graph.getRoot();
+		stackParents[top++] = -1;
+		int count = 0;
+		while (top > 0) {
+			final SWCPoint current = stack[--top];
+			if (count == n || indices.putIfAbsent(current, count) != null) {
+				throw new IllegalStateException("Graph is not a tree: " + current + " is reachable through multiple paths");
+			}
+			vertices[count] = current;
+			parents[count] = stackParents[top];
+			inWeights[count] = stackWeights[top];
+			final int first = top;
+			for (final SWCWeightedEdge edge : graph.outgoingEdgesOf(current)) {
+				if (top == n) {
+					throw new IllegalStateException("Graph is not a tree: " + edge.getTarget() + " is reachable through multiple paths");
+				}
+				stack[top] = edge.getTarget();
+				stackParents[top] = count;
+				stackWeights[top++] = edge.getWeight();
+			}
+			// Reverse pushed children so that they are visited in insertion order
+			for (int i = first, j = top - 1; i < j; i++, j--) {
+				final SWCPoint v = stack[i];
+				stack[i] = stack[j];
+				stack[j] = v;
+				final double w = stackWeights[i];
+				stackWeights[i] = stackWeights[j];
+				stackWeights[j] = w;
+			}
+			count++;
+		}
+		if (count != n) {
+			throw new IllegalStateException("Graph has vertices not connected to its root");
+		}
+
+		// Post-order accumulation: children are processed before their parents
+		for (int i = n - 1; i >= 0; i--) {
+			nodeCounts[i] += 1;
+			if (nodeCounts[i] == 1) tipCounts[i] = 1;
+			final int parent = parents[i];
+			if (parent < 0) continue;
+			nodeCounts[parent] += nodeCounts[i];
+			tipCounts[parent] += tipCounts[i];
+			cableLengths[parent] += cableLengths[i] + inWeights[i];
+			maxPathDistances[parent] = Math.max(maxPathDistances[parent], maxPathDistances[i] + inWeights[i]);
+		}
+	}
+
+	private int indexOf(final SWCPoint vertex) throws IllegalArgumentException {
+		final Integer index = indices.get(vertex);
+		if (index == null) {
+			throw new IllegalArgumentException("Vertex not part of the parsed graph: " + vertex);
+		}
+		return index;
+	}
+
+	/**
+	 * @return the root of the parsed graph
+	 */
+	public SWCPoint getRoot() {
+		return vertices[0];
+	}
+
+	/**
+	 * @return the number of vertices in the parsed graph
+	 */
+	public int size() {
+		return vertices.length;
+	}
+
+	/**
+	 * Gets the vertices of the parsed graph in pre-order, i.e., each vertex is
+	 * listed before its descendants. The list starts with the root.
+	 *
+	 * @return the unmodifiable list of vertices
+	 */
+	public List<SWCPoint> getVertices() {
+		return Collections.unmodifiableList(Arrays.asList(vertices));
+	}
+
+	/**
+	 * @param vertex the query vertex
+	 * @return true if the vertex is part of the parsed graph
+	 */
+	public boolean contains(final SWCPoint vertex) {
+		return indices.containsKey(vertex);
+	}
+
+	/**
+	 * Gets the children of the specified vertex.
+	 *
+	 * @param vertex the parent vertex
+	 * @return the children of {@code vertex}, empty if {@code vertex} is a tip
+	 * @throws IllegalArgumentException if {@code vertex} is not part of the
+	 *           parsed graph
+	 */
+	public List<SWCPoint> getChildren(final SWCPoint vertex) throws IllegalArgumentException {
+		final int index = indexOf(vertex);
+		final List<SWCPoint> children = new ArrayList<>();
+		// Descendants occupy the contiguous block that follows their ancestor
+		for (int i = index + 1; i < index + nodeCounts[index]; i += nodeCounts[i]) {
+			children.add(vertices[i]);
+		}
+		return children;
+	}
+
+	/**
+	 * Gets the number of terminal nodes in the subtree rooted at the specified
+	 * vertex. A tip is counted as its own (single-tip) subtree.
+	 *
+	 * @param vertex the root of the subtree
+	 * @return the number of tips in the subtree
+	 * @throws IllegalArgumentException if {@code vertex} is not part of the
+	 *           parsed graph
+	 */
+	public int getTipCount(final SWCPoint vertex) throws IllegalArgumentException {
+		return tipCounts[indexOf(vertex)];
+	}
+
+	/**
+	 * Gets the number of vertices in the subtree rooted at the specified vertex,
+	 * including the vertex itself.
+	 *
+	 * @param vertex the root of the subtree
+	 * @return the number of vertices in the subtree
+	 * @throws IllegalArgumentException if {@code vertex} is not part of the
+	 *           parsed graph
+	 */
+	public int getNodeCount(final SWCPoint vertex) throws IllegalArgumentException {
+		return nodeCounts[indexOf(vertex)];
+	}
+
+	/**
+	 * Gets the cable length of the subtree rooted at the specified vertex, i.e.,
+	 * the sum of the weights of all the edges below {@code vertex}.
+	 *
+	 * @param vertex the root of the subtree
+	 * @return the cable length of the subtree (0 for tips)
+	 * @throws IllegalArgumentException if {@code vertex} is not part of the
+	 *           parsed graph
+	 */
+	public double getCableLength(final SWCPoint vertex) throws IllegalArgumentException {
+		return cableLengths[indexOf(vertex)];
+	}
+
+	/**
+	 * Gets the largest path distance between the specified vertex and any of the
+	 * tips of its subtree.
+	 *
+	 * @param vertex the root of the subtree
+	 * @return the largest path distance to a descendant tip (0 for tips)
+	 * @throws IllegalArgumentException if {@code vertex} is not part of the
+	 *           parsed graph
+	 */
+	public double getMaxPathDistance(final SWCPoint vertex) throws IllegalArgumentException {
+		return maxPathDistances[indexOf(vertex)];
+	}
+
+}
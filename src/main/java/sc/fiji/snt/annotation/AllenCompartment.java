@@ -23,8 +23,6 @@ package sc.fiji.snt.annotation;
 
 import java.io.IOException;
 import java.net.URL;
-import java.util.ArrayList;
-import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
 import java.util.UUID;
@@ -64,7 +62,9 @@ public class AllenCompartment implements BrainAnnotation {
 	private JSONObject jsonObj;
 	// Only access parentStructure via a call to getTreePath()
 	// This will ensure that parentStructure has been initialized
-	private ArrayList<AllenCompartment> parentStructure;
+	private List<AllenCompartment> parentStructure;
+	// Position in the ontology index. Only access it via index()
+	private int index = -1;
 
 	/**
 	 * Instantiates a new ARA annotation from an UUID (as used by MouseLight's
@@ -142,6 +142,11 @@ public class AllenCompartment implements BrainAnnotation {
 		return jsonObj.optInt("parentStructureId");
 	}
 
+	private int index() {
+		if (index < 0) index = AllenUtils.getOntologyIndex().indexOf(id());
+		return index;
+	}
+
 	/**
 	 * Assesses if this annotation is a child of a specified compartment.
 	 *
@@ -155,7 +160,7 @@ public class AllenCompartment implements BrainAnnotation {
 		if (!(childCompartment instanceof AllenCompartment))
 			return false;
 		final AllenCompartment cCompartment = (AllenCompartment) childCompartment;
-		return id() != cCompartment.id() && getStructureIdPath().contains(String.valueOf(cCompartment.id()));
+		return AllenUtils.getOntologyIndex().isDescendant(index(), cCompartment.index());
 	}
 
 	/**
@@ -169,14 +174,8 @@ public class AllenCompartment implements BrainAnnotation {
 	 *         the CCF ontologies tree
 	 */
 	public List<AllenCompartment> getTreePath() {
-		if (parentStructure != null) return parentStructure;
-		final String path = getStructureIdPath();
-		parentStructure = new ArrayList<>();
-		for (final String structureID : path.split("/")) {
-			if (structureID.isEmpty())
-				continue;
-			parentStructure.add(AllenUtils.getCompartment(Integer.parseInt(structureID)));
-		}
+		if (parentStructure == null)
+			parentStructure = AllenUtils.getOntologyIndex().getTreePath(index());
 		return parentStructure;
 	}
 
@@ -197,9 +196,9 @@ public class AllenCompartment implements BrainAnnotation {
 	 * @return the parent of this compartment, of null if this compartment is root.
 	 */
 	public AllenCompartment getParent() {
-		if (getTreePath().size() < 2) return null;
-		final int lastIdx = Math.max(0, getTreePath().size() - 2);
-		return getTreePath().get(lastIdx);
+		final OntologyIndex ontology = AllenUtils.getOntologyIndex();
+		final int parent = ontology.parent(index());
+		return (parent < 0) ? null : ontology.get(parent);
 	}
 
 	/**
@@ -226,10 +225,12 @@ public class AllenCompartment implements BrainAnnotation {
 	public AllenCompartment getAncestor(final int level) {
 		if (level == 0) return getParent();
 		int normLevel = (level > 0) ? -level : level;
-		final int idx = getTreePath().size() - 1 + normLevel;
-		if (idx < 0 || idx >=  getTreePath().size() - 1)
+		final OntologyIndex ontology = AllenUtils.getOntologyIndex();
+		final int depth = ontology.depth(index());
+		final int idx = depth + normLevel;
+		if (idx < 0 || idx >= depth)
 			throw new IllegalArgumentException ("Ancestor level out of range. Compartment has "+ getOntologyDepth() + " ancestors.");
-		return getTreePath().get(idx);
+		return ontology.get(ontology.ancestor(index(), idx));
 	}
 
 	/**
@@ -239,12 +240,7 @@ public class AllenCompartment implements BrainAnnotation {
 	 * @return the "flattened" ontologies list
 	 */
 	public List<AllenCompartment> getChildren() {
-		final ArrayList<AllenCompartment> children = new ArrayList<>();
-		final Collection<AllenCompartment> allCompartments = AllenUtils.getOntologies();
-		for (final AllenCompartment c : allCompartments) {
-			if (c.isChildOf(this)) children.add(c);
-		}
-		return children;
+		return AllenUtils.getOntologyIndex().getDescendants(index(), Integer.MAX_VALUE);
 	}
 
 	/**
@@ -255,14 +251,7 @@ public class AllenCompartment implements BrainAnnotation {
 	 * @return the "flattened" ontologies list
 	 */
 	public List<AllenCompartment> getChildren(final int level) {
-		final int maxLevel = getTreePath().size() + level;
-		final ArrayList<AllenCompartment> children = new ArrayList<>();
-		final Collection<AllenCompartment> allCompartments = AllenUtils.getOntologies();
-		for (AllenCompartment c :  allCompartments) {
-			if (c.isChildOf(this) && c.getTreePath().size() <= maxLevel)
-				children.add(c);
-		}
-		return children;
+		return AllenUtils.getOntologyIndex().getDescendants(index(), level);
 	}
 
 	@Override
@@ -339,7 +328,7 @@ public class AllenCompartment implements BrainAnnotation {
 		if (!(childCompartment instanceof AllenCompartment))
 			return false;
 		final AllenCompartment cCompartment = (AllenCompartment) childCompartment;
-		return id() != cCompartment.id() && cCompartment.getStructureIdPath().contains(String.valueOf(id()));
+		return AllenUtils.getOntologyIndex().isDescendant(cCompartment.index(), index());
 	}
 
 	public UUID getUUID() {
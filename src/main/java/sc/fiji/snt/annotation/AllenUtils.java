@@ -37,7 +37,6 @@ import sc.fiji.snt.viewer.OBJMesh;
 
 import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.DefaultTreeModel;
-import javax.swing.tree.TreeNode;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
@@ -121,13 +120,23 @@ public class AllenUtils {
 		return areaObjectFromUUID;
 	}
 
+	/**
+	 * Gets the precomputed index of the ontology, shared by all compartments.
+	 *
+	 * @return the ontology index
+	 */
+	protected static OntologyIndex getOntologyIndex() {
+		return OntologyIndexHolder.INDEX;
+	}
+
+	/* Lazily builds the index on first access in a thread-safe manner */
+	private static class OntologyIndexHolder {
+		private static final OntologyIndex INDEX = new OntologyIndex(getBrainAreasList());
+	}
+
 	@SuppressWarnings("unused")
 	private static AllenCompartment getCompartment(final UUID uuid) {
-		areaObjectFromUUID = getBrainAreasByUUID();
-		if (areaObjectFromUUID.has(uuid.toString())) {
-			return new AllenCompartment(areaObjectFromUUID.getJSONObject(uuid.toString()), uuid);
-		}
-		return null;
+		return getOntologyIndex().getByUUID(uuid);
 	}
 
 	/**
@@ -137,12 +146,7 @@ public class AllenUtils {
 	 * @return the compartment matching the id or null if id is not valid
 	 */
 	public static AllenCompartment getCompartment(final int id) {
-		areaObjectFromStructureId = getBrainAreasByStructureId();
-		String idString = String.valueOf(id);
-		if (areaObjectFromStructureId.has(idString)) {
-			return new AllenCompartment(id);
-		}
-		return null;
+		return getOntologyIndex().getById(id);
 	}
 
 	/**
@@ -154,15 +158,7 @@ public class AllenUtils {
 	 *         null if no match was found
 	 */
 	public static AllenCompartment getCompartment(final String nameOrAcronym) {
-		areaList = getBrainAreasList();
-		for (int n = 0; n < areaList.length(); n++) {
-			final JSONObject area = (JSONObject) areaList.get(n);
-			if (nameOrAcronym.equalsIgnoreCase(area.getString("name"))
-					|| nameOrAcronym.equalsIgnoreCase(area.getString("acronym"))) {
-				return new AllenCompartment(area, UUID.fromString(area.getString("id")));
-			}
-		}
-		return null;
+		return getOntologyIndex().getByLabel(nameOrAcronym);
 	}
 
 	/**
@@ -393,24 +389,21 @@ public class AllenUtils {
 	private static class AllenTreeModel {
 
 		private static final int ROOT_ID = 997;
-		private final JSONArray areaList;
+		private final List<AllenCompartment> areaList;
+		private final Map<AllenCompartment, DefaultMutableTreeNode> nodes;
 		private DefaultMutableTreeNode root;
 
 		private AllenTreeModel() {
-			areaList = getBrainAreasList();
+			areaList = getOntologyIndex().getCompartments();
+			nodes = new HashMap<>();
 		}
 
 		private AllenCompartment getAreaListCompartment(final int idx) {
-			final JSONObject area = (JSONObject) areaList.get(idx);
-			return new AllenCompartment(UUID.fromString(area.getString("id")));
+			return areaList.get(idx);
 		}
 
 		private List<AllenCompartment> getOntologies() {
-			final List<AllenCompartment> list = new ArrayList<>(areaList.length());
-			for (int n = 0; n < areaList.length(); n++) {
-				list.add(getAreaListCompartment(n));
-			}
-			return list;
+			return new ArrayList<>(areaList);
 		}
 
 		private DefaultTreeModel getTreeModel(final boolean meshesOnly) {
@@ -419,10 +412,11 @@ public class AllenUtils {
 			final Map<Integer, AllenCompartment> idsMap = new HashMap<>();
 			final Set<Integer> visitedIds = new HashSet<>();
 			root = new DefaultMutableTreeNode();
-			for (int n = 0; n < areaList.length(); n++) {
+			for (int n = 0; n < areaList.size(); n++) {
 				final AllenCompartment ac = getAreaListCompartment(n);
 				if (ac.id() == ROOT_ID) {
 					root.setUserObject(ac);
+					nodes.put(ac, root);
 					visitedIds.add(ac.id());
 				} else {
 					idsMap.put(ac.id(), ac);
@@ -447,7 +441,9 @@ public class AllenUtils {
 					if (parentNode != null) {
 						node = parentNode;
 					}
-					node.add(new DefaultMutableTreeNode(c));
+					final DefaultMutableTreeNode childNode = new DefaultMutableTreeNode(c);
+					node.add(childNode);
+					nodes.put(c, childNode);
 					visitedIds.add(id);
 				}
 			}
@@ -456,16 +452,7 @@ public class AllenUtils {
 		}
 
 		private DefaultMutableTreeNode getParentNode(final AllenCompartment parentStructure) {
-			@SuppressWarnings("unchecked")
-			final Enumeration<TreeNode> en = root.depthFirstEnumeration();
-			while (en.hasMoreElements()) {
-				DefaultMutableTreeNode node = (DefaultMutableTreeNode) en.nextElement();
-				final AllenCompartment structure = (AllenCompartment) node.getUserObject();
-				if (structure.equals(parentStructure)) {
-					return node;
-				}
-			}
-			return null;
+			return (parentStructure == null) ? null : nodes.get(parentStructure);
 		}
 	}
 
@@ -0,0 +1,264 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2021 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.annotation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Precomputed index of the Allen CCF ontology. Compartments are stored in
+ * pre-order, so that the descendants of a compartment occupy a contiguous
+ * interval of the index, and each compartment holds the table of its
+ * ancestors indexed by ontology depth. Lookups by id, UUID, name or acronym,
+ * ancestry queries and ancestor retrieval are thus performed in constant
+ * time. Instances are immutable and can be shared across threads.
+ *
+ * @see AllenUtils#getOntologyIndex()
+ */
+final class OntologyIndex {
+
+	private final AllenCompartment[] compartments;
+	private final List<AllenCompartment> compartmentsInListOrder;
+	private final int[] depths;
+	private final int[] parents;
+	private final int[] subtreeEnds;
+	private final int[][] ancestors;
+	private final Map<Integer, Integer> indicesById;
+	private final Map<UUID, Integer> indicesByUUID;
+	private final Map<String, Integer> indicesByLabel;
+
+	/**
+	 * Builds the index from the list of brain areas.
+	 *
+	 * @param areaList the JSON array of brain areas, each defining its
+	 *                 {@code structureIdPath}
+	 * @throws IllegalArgumentException if an area refers to an unknown ancestor
+	 */
+	OntologyIndex(final JSONArray areaList) throws IllegalArgumentException {
+		final int n = areaList.length();
+		final JSONObject[] areas = new JSONObject[n];
+		final Map<Integer, Integer> listIndices = new HashMap<>(2 * n);
+		for (int i = 0; i < n; i++) {
+			areas[i] = areaList.getJSONObject(i);
+			listIndices.put(areas[i].getInt("structureId"), i);
+		}
+
+		// Parents (as list indices) from the penultimate element of each path
+		final int[] listParents = new int[n];
+		final int[] nChildren = new int[n];
+		for (int i = 0; i < n; i++) {
+			final String[] path = areas[i].getString("structureIdPath").replaceAll("^/+|/+$", "").split("/+");
+			listParents[i] = -1;
+			if (path.length > 1) {
+				final Integer parent = listIndices.get(Integer.parseInt(path[path.length - 2]));
+				if (parent == null)
+					throw new IllegalArgumentException("Unknown ancestor in " + areas[i].getString("structureIdPath"));
+				listParents[i] = parent;
+				nChildren[parent]++;
+			}
+		}
+		final int[][] listChildren = new int[n][];
+		for (int i = 0; i < n; i++)
+			listChildren[i] = new int[nChildren[i]];
+		Arrays.fill(nChildren, 0);
+		for (int i = 0; i < n; i++) {
+			if (listParents[i] > -1) listChildren[listParents[i]][nChildren[listParents[i]]++] = i;
+		}
+
+		// Pre-order traversal: children are pushed in reverse, so that they are
+		// visited in list order
+		final int[] order = new int[n];
+		final int[] positions = new int[n];
+		final int[] stack = new int[n];
+		int count = 0;
+		for (int r = 0; r < n; r++) {
+			if (listParents[r] > -1) continue;
+			int top = 0;
+			stack[top++] = r;
+			while (top > 0) {
+				final int i = stack[--top];
+				positions[i] = count;
+				order[count++] = i;
+				for (int c = listChildren[i].length - 1; c >= 0; c--)
+					stack[top++] = listChildren[i][c];
+			}
+		}
+		if (count != n) throw new IllegalArgumentException("Ontology is not a tree");
+
+		compartments = new AllenCompartment[n];
+		depths = new int[n];
+		parents = new int[n];
+		subtreeEnds = new int[n];
+		ancestors = new int[n][];
+		indicesById = new HashMap<>(2 * n);
+		indicesByUUID = new HashMap<>(2 * n);
+		indicesByLabel = new HashMap<>(4 * n);
+		for (int p = 0; p < n; p++) {
+			final JSONObject area = areas[order[p]];
+			final UUID uuid = UUID.fromString(area.getString("id"));
+			compartments[p] = new AllenCompartment(area, uuid);
+			parents[p] = (listParents[order[p]] < 0) ? -1 : positions[listParents[order[p]]];
+			depths[p] = (parents[p] < 0) ? 0 : depths[parents[p]] + 1;
+			ancestors[p] = (parents[p] < 0) ? new int[1] : Arrays.copyOf(ancestors[parents[p]], depths[p] + 1);
+			ancestors[p][depths[p]] = p;
+			indicesById.put(compartments[p].id(), p);
+			indicesByUUID.put(uuid, p);
+		}
+		// Subtree ends (exclusive) accumulated from the leaves up, as the
+		// descendants of p occupy positions p+1 to subtreeEnds[p]-1
+		for (int p = n - 1; p >= 0; p--) {
+			subtreeEnds[p] += p + 1;
+			if (parents[p] > -1) subtreeEnds[parents[p]] += subtreeEnds[p] - p;
+		}
+		// As in a linear scan of the list, the first area matching a label wins
+		final AllenCompartment[] inListOrder = new AllenCompartment[n];
+		for (int i = 0; i < n; i++) {
+			inListOrder[i] = compartments[positions[i]];
+			indicesByLabel.putIfAbsent(areas[i].getString("name").toLowerCase(Locale.ROOT), positions[i]);
+			indicesByLabel.putIfAbsent(areas[i].getString("acronym").toLowerCase(Locale.ROOT), positions[i]);
+		}
+		compartmentsInListOrder = Collections.unmodifiableList(Arrays.asList(inListOrder));
+	}
+
+	/**
+	 * @return the number of compartments in the ontology
+	 */
+	int size() {
+		return compartments.length;
+	}
+
+	/**
+	 * @param id the CCF id of a compartment
+	 * @return the index of the compartment
+	 * @throws IllegalArgumentException if {@code id} is not part of the ontology
+	 */
+	int indexOf(final int id) throws IllegalArgumentException {
+		final Integer index = indicesById.get(id);
+		if (index == null) throw new IllegalArgumentException("Unknown compartment id: " + id);
+		return index;
+	}
+
+	AllenCompartment get(final int index) {
+		return compartments[index];
+	}
+
+	/**
+	 * @return the compartment with the specified CCF id or null if no such
+	 *         compartment exists
+	 */
+	AllenCompartment getById(final int id) {
+		final Integer index = indicesById.get(id);
+		return (index == null) ? null : compartments[index];
+	}
+
+	/**
+	 * @return the compartment with the specified UUID or null if no such
+	 *         compartment exists
+	 */
+	AllenCompartment getByUUID(final UUID uuid) {
+		final Integer index = indicesByUUID.get(uuid);
+		return (index == null) ? null : compartments[index];
+	}
+
+	/**
+	 * @return the first compartment (in the order of the brain areas list) whose
+	 *         name or acronym matches {@code nameOrAcronym} (case insensitive),
+	 *         or null if no match exists
+	 */
+	AllenCompartment getByLabel(final String nameOrAcronym) {
+		final Integer index = indicesByLabel.get(nameOrAcronym.toLowerCase(Locale.ROOT));
+		return (index == null) ? null : compartments[index];
+	}
+
+	/**
+	 * @return all the compartments in the order of the brain areas list
+	 */
+	List<AllenCompartment> getCompartments() {
+		return compartmentsInListOrder;
+	}
+
+	int depth(final int index) {
+		return depths[index];
+	}
+
+	/**
+	 * @return the index of the parent of the specified compartment or -1 if it
+	 *         is a root
+	 */
+	int parent(final int index) {
+		return parents[index];
+	}
+
+	/**
+	 * @param index the index of a compartment
+	 * @param depth the ontology depth of the ancestor, between 0 and
+	 *              {@code depth(index)}
+	 * @return the index of the ancestor at the specified depth
+	 */
+	int ancestor(final int index, final int depth) {
+		return ancestors[index][depth];
+	}
+
+	/**
+	 * @return true if the compartment at {@code index} is a strict descendant of
+	 *         the compartment at {@code ancestorIndex}
+	 */
+	boolean isDescendant(final int index, final int ancestorIndex) {
+		return index > ancestorIndex && index < subtreeEnds[ancestorIndex];
+	}
+
+	/**
+	 * @param index the index of a compartment
+	 * @return the compartments from the root to the specified compartment
+	 */
+	List<AllenCompartment> getTreePath(final int index) {
+		final List<AllenCompartment> path = new ArrayList<>(depths[index] + 1);
+		for (final int ancestor : ancestors[index])
+			path.add(compartments[ancestor]);
+		return path;
+	}
+
+	/**
+	 * @param index    the index of a compartment
+	 * @param maxLevel the maximum depth of descendants, relative to the
+	 *                 compartment
+	 * @return the descendants of the specified compartment, in pre-order
+	 */
+	List<AllenCompartment> getDescendants(final int index, final int maxLevel) {
+		final List<AllenCompartment> descendants = new ArrayList<>();
+		for (int p = index + 1; p < subtreeEnds[index]; p++) {
+			if (depths[p] - depths[index] <= maxLevel) descendants.add(compartments[p]);
+		}
+		return descendants;
+	}
+
+}
@@ -30,8 +30,10 @@ import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.cache.img.*;
 import net.imglib2.cache.img.optional.CacheOptions;
 import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
 import net.imglib2.util.Intervals;
 
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
 
 /**
@@ -44,6 +46,11 @@ import java.util.function.Consumer;
  */
 public class Lazy {
 
+    private static final LongAdder cellsLoaded = new LongAdder();
+    private static final LongAdder cellLoadingNanos = new LongAdder();
+    /* Per thread: cells loaded, loading time, and depth of nested loads (e.g., a lazy image of a lazy image) */
+    private static final ThreadLocal<long[]> threadCellLoads = ThreadLocal.withInitial(() -> new long[3]);
+
     private Lazy() { }
 
     public static <T extends NativeType<T>> CachedCellImg<T, ?> createImg(
@@ -58,7 +65,54 @@ public class Lazy {
                         .cellDimensions(blockSize)
                         .cacheType(CacheOptions.CacheType.SOFTREF)
                         .initializeCellsAsDirty(true))
-                .create(Intervals.dimensionsAsLongArray(targetInterval), loader);
+                .create(Intervals.dimensionsAsLongArray(targetInterval), cell -> {
+                    final long[] threadLoads = threadCellLoads.get();
+                    final long start = System.nanoTime();
+                    threadLoads[2]++;
+                    try {
+                        loader.load(cell);
+                    } finally {
+                        threadLoads[2]--;
+                    }
+                    final long elapsed = System.nanoTime() - start;
+                    cellLoadingNanos.add(elapsed);
+                    cellsLoaded.increment();
+                    threadLoads[0]++;
+                    // The time of nested loads is already included in that of the outermost one
+                    if (threadLoads[2] == 0) threadLoads[1] += elapsed;
+                });
+    }
+
+    /**
+     * @return the number of cells computed by all lazy images since startup
+     */
+    public static long getCellsLoaded() {
+        return cellsLoaded.sum();
+    }
+
+    /**
+     * @return the time spent computing cells of all lazy images since startup, in nanoseconds
+     */
+    public static long getCellLoadingNanos() {
+        return cellLoadingNanos.sum();
+    }
+
+    /**
+     * Cells are computed by the thread accessing them, so that this count can be attributed to the task running
+     * on the calling thread, unlike {@link #getCellsLoaded()}, which includes the cells of concurrent tasks.
+     *
+     * @return the number of cells of lazy images computed by the calling thread
+     */
+    public static long getCellsLoadedByCurrentThread() {
+        return threadCellLoads.get()[0];
+    }
+
+    /**
+     * @return the time spent by the calling thread computing cells of lazy images, in nanoseconds
+     * @see #getCellsLoadedByCurrentThread()
+     */
+    public static long getCellLoadingNanosByCurrentThread() {
+        return threadCellLoads.get()[1];
     }
 
     /**
@@ -109,6 +163,37 @@ public class Lazy {
                         op));
     }
 
+    /**
+     * Create a {@link DiskCachedCellImg} with a cell generator {@link UnaryComputerOp}, whose cells are
+     * persisted in (and, when available, retrieved from) a {@link PersistentCellCache}.
+     *
+     * @param source
+     * @param sourceInterval
+     * @param blockSize
+     * @param type
+     * @param op
+     * @param cache the persistent cache
+     * @param key the key identifying the filtered image in the cache, see {@link PersistentCellCache#key(Object...)}
+     * @return
+     */
+    public static <I, O extends NativeType<O> & RealType<O>> CachedCellImg<O, ?> process(
+            final RandomAccessibleInterval<I> source,
+            final Interval sourceInterval,
+            final int[] blockSize,
+            final O type,
+            final UnaryComputerOp<RandomAccessibleInterval<I>, RandomAccessibleInterval<O>> op,
+            final PersistentCellCache cache,
+            final String key) {
+
+        return createImg(
+                sourceInterval,
+                blockSize,
+                type,
+                cache.wrap(key, new UnaryComputerOpCellLoader<I, O, RandomAccessibleInterval<I>>(
+                        source,
+                        op)));
+    }
+
     /**
      * Create a {@link DiskCachedCellImg} with a cell generator
      * {@link UnaryComputerOp} provided by an {@link OpService}.
@@ -0,0 +1,402 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2021 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.filter;
+
+import ij.ImagePlus;
+import ij.io.FileInfo;
+import ij.measure.Calibration;
+import net.imglib2.Cursor;
+import net.imglib2.cache.img.CellLoader;
+import net.imglib2.cache.img.SingleCellArrayImg;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+import sc.fiji.snt.SNTUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * An on-disk store of the cells of lazily filtered images, so that filtering is performed only once per
+ * image and filter settings, across sessions.
+ * <p>
+ * Each filtered image is identified by a key: a digest of everything the filtered values depend on (see
+ * {@link #key(Object...)}), including a {@link #fingerprint(ImagePlus) fingerprint} of the source image,
+ * computed from the metadata of the file it was opened from. Cells are stored in a sub-directory named
+ * after the key, one file per cell. Use {@link #wrap(String, CellLoader)} (or the {@link Lazy} methods
+ * accepting a cache) so that cells are read from disk when available and computed (and stored) otherwise.
+ * </p>
+ * <p>
+ * The total size of stored cells is capped: once exceeded, the least recently used cells are deleted.
+ * </p>
+ */
+public class PersistentCellCache {
+
+    private static final int MAGIC = 0x534e5443; // 'SNTC'
+    private static final byte FLOAT = 0;
+    private static final byte DOUBLE = 1;
+    private static final int HEADER_BYTES = 4 + 1 + 8;
+    /* Eviction frees space down to this fraction of the cap, so that it does not run on every write */
+    private static final double EVICTION_TARGET = 0.9;
+
+    /** The default cap on the size of stored cells: 4 GiB */
+    public static final long DEFAULT_MAX_BYTES = 4L << 30;
+
+    private final Path directory;
+    private final long maxBytes;
+    /* The size of stored cells, or -1 until the directory is first measured */
+    private final AtomicLong sizeBytes = new AtomicLong(-1);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder failedWrites = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates a cache capped at {@link #DEFAULT_MAX_BYTES}.
+     *
+     * @param directory the root directory of the cache. It is created when the first cell is stored
+     */
+    public PersistentCellCache(final File directory) {
+        this(directory, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param directory the root directory of the cache. It is created when the first cell is stored
+     * @param maxBytes  the maximum size of stored cells, in bytes. Once exceeded, the least recently used
+     *                  cells are deleted
+     */
+    public PersistentCellCache(final File directory, final long maxBytes) {
+        if (maxBytes <= 0) throw new IllegalArgumentException("Cache size must be positive");
+        this.directory = directory.toPath();
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the root directory of this cache
+     */
+    public File getDirectory() {
+        return directory.toFile();
+    }
+
+    /**
+     * Computes a digest identifying the content of an image from cheap metadata: the path, size and
+     * modification time of the file it was opened from, its dimensions, bit depth and spacing. Voxel data
+     * is not read.
+     *
+     * @param imp the image to be fingerprinted
+     * @return the hexadecimal digest, or null if the image is not backed by a file or was modified since
+     *         it was opened, in which case its filtered cells should not be persisted
+     */
+    public static String fingerprint(final ImagePlus imp) {
+        if (imp == null || imp.changes) return null;
+        final FileInfo fi = imp.getOriginalFileInfo();
+        if (fi == null || fi.fileName == null || fi.directory == null || fi.directory.isEmpty()) return null;
+        final File file = new File(fi.directory, fi.fileName);
+        if (!file.isFile()) return null;
+        final Calibration cal = imp.getCalibration();
+        return key(file.getAbsolutePath(), file.length(), file.lastModified(), imp.getWidth(), imp.getHeight(),
+                imp.getNChannels(), imp.getNSlices(), imp.getNFrames(), imp.getBitDepth(), cal.pixelWidth,
+                cal.pixelHeight, cal.pixelDepth, cal.getUnit());
+    }
+
+    /**
+     * Computes the key of a filtered image from the parameters it depends on, e.g., the fingerprint of the
+     * source image, the channel and frame, the filter name, its scales and the voxel spacing. Arrays are
+     * expanded, so that keys only depend on their content.
+     *
+     * @param components the parameters of the filtered image
+     * @return the hexadecimal key
+     */
+    public static String key(final Object... components) {
+        return hex(sha256().digest(descriptor(components).getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String descriptor(final Object... components) {
+        final StringBuilder sb = new StringBuilder("v1");
+        for (final Object c : components) {
+            sb.append('|');
+            if (c instanceof double[]) sb.append(Arrays.toString((double[]) c));
+            else if (c instanceof int[]) sb.append(Arrays.toString((int[]) c));
+            else if (c instanceof long[]) sb.append(Arrays.toString((long[]) c));
+            else if (c instanceof Object[]) sb.append(Arrays.deepToString((Object[]) c));
+            else sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Wraps a cell loader so that cells are read from this cache when available. Cells that are not
+     * available are computed by the wrapped loader and stored.
+     *
+     * @param key    the key of the filtered image, see {@link #key(Object...)}
+     * @param loader the loader computing the filtered cells
+     * @return the caching loader
+     */
+    public <T extends NativeType<T> & RealType<T>> CellLoader<T> wrap(final String key, final CellLoader<T> loader) {
+        final Path cellDirectory = directory.resolve(key);
+        return cell -> {
+            final Path file = cellDirectory.resolve(cellName(cell));
+            if (read(file, cell)) {
+                hits.increment();
+                // Recently used cells are the last to be evicted
+                file.toFile().setLastModified(System.currentTimeMillis());
+                return;
+            }
+            misses.increment();
+            loader.load(cell);
+            write(file, cell);
+        };
+    }
+
+    private static String cellName(final SingleCellArrayImg<?, ?> cell) {
+        final StringBuilder sb = new StringBuilder();
+        for (int d = 0; d < cell.numDimensions(); d++) {
+            if (d > 0) sb.append('_');
+            sb.append(cell.min(d));
+        }
+        return sb.append(".cell").toString();
+    }
+
+    private static <T extends NativeType<T> & RealType<T>> byte typeOf(final SingleCellArrayImg<T, ?> cell) {
+        return (cell.firstElement() instanceof FloatType) ? FLOAT : DOUBLE;
+    }
+
+    private <T extends NativeType<T> & RealType<T>> boolean read(final Path file,
+                                                                 final SingleCellArrayImg<T, ?> cell)
+    {
+        if (!Files.isRegularFile(file)) return false;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // keep reading
+            }
+            buffer.flip();
+            final byte type = typeOf(cell);
+            if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC || buffer.get() != type
+                    || buffer.getLong() != cell.size()
+                    || buffer.remaining() != cell.size() * ((type == FLOAT) ? 4 : 8))
+            {
+                SNTUtils.log("Ignoring invalid cache entry " + file);
+                return false;
+            }
+            final Cursor<T> cursor = Views.flatIterable(cell).cursor();
+            while (cursor.hasNext()) {
+                cursor.next().setReal((type == FLOAT) ? buffer.getFloat() : buffer.getDouble());
+            }
+            return true;
+        } catch (final IOException e) {
+            SNTUtils.log("Could not read cache entry " + file + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private <T extends NativeType<T> & RealType<T>> void write(final Path file, final SingleCellArrayImg<T, ?> cell) {
+        final byte type = typeOf(cell);
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + (int) cell.size() * ((type == FLOAT) ? 4 : 8));
+        buffer.putInt(MAGIC).put(type).putLong(cell.size());
+        for (final T t : Views.flatIterable(cell)) {
+            if (type == FLOAT) buffer.putFloat(t.getRealFloat());
+            else buffer.putDouble(t.getRealDouble());
+        }
+        buffer.flip();
+        final long bytes = buffer.remaining();
+        Path tmp = null;
+        try {
+            if (sizeBytes.get() < 0) measure();
+            Files.createDirectories(file.getParent());
+            // Written to a temporary file first, so that concurrent readers never see partial cells
+            tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) channel.write(buffer);
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (final AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (sizeBytes.addAndGet(bytes) > maxBytes) evict();
+        } catch (final IOException e) {
+            // The cache is an optimization: failing to populate it is not an error
+            failedWrites.increment();
+            SNTUtils.log("Could not write cache entry " + file + ": " + e.getMessage());
+            if (tmp != null) tmp.toFile().delete();
+        }
+    }
+
+    private synchronized void measure() throws IOException {
+        if (sizeBytes.get() >= 0) return;
+        long size = 0;
+        for (final CellFile cellFile : listCells()) size += cellFile.size;
+        sizeBytes.set(size);
+    }
+
+    /* Deletes the least recently used cells, until their size is below the target */
+    private synchronized void evict() throws IOException {
+        if (sizeBytes.get() <= maxBytes) return; // already evicted by another thread
+        final List<CellFile> cells = listCells();
+        long size = 0;
+        for (final CellFile cellFile : cells) size += cellFile.size;
+        cells.sort(Comparator.comparingLong(c -> c.lastModified));
+        final long target = (long) (maxBytes * EVICTION_TARGET);
+        for (final CellFile cellFile : cells) {
+            if (size <= target) break;
+            // Cells being read by other threads are recomputed if deletion wins the race
+            if (cellFile.path.toFile().delete()) {
+                size -= cellFile.size;
+                evictions.increment();
+            }
+        }
+        sizeBytes.set(size);
+    }
+
+    private List<CellFile> listCells() throws IOException {
+        final List<CellFile> cells = new ArrayList<>();
+        if (!Files.isDirectory(directory)) return cells;
+        try (Stream<Path> paths = Files.walk(directory, 2)) {
+            paths.filter(p -> p.getFileName().toString().endsWith(".cell")).forEach(p -> {
+                final File f = p.toFile();
+                cells.add(new CellFile(p, f.length(), f.lastModified()));
+            });
+        }
+        return cells;
+    }
+
+    private static class CellFile {
+        final Path path;
+        final long size;
+        final long lastModified;
+
+        CellFile(final Path path, final long size, final long lastModified) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * @return the maximum size of stored cells, in bytes
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return the size of stored cells, in bytes
+     * @throws IOException if the cache directory could not be read
+     */
+    public long getSizeBytes() throws IOException {
+        if (sizeBytes.get() < 0) measure();
+        return sizeBytes.get();
+    }
+
+    /**
+     * @return the number of cells deleted to keep the cache within its maximum size
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return the number of cells read from disk
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of cells that had to be computed
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of computed cells that could not be stored
+     */
+    public long getFailedWrites() {
+        return failedWrites.sum();
+    }
+
+    /**
+     * @param key the key of a filtered image
+     * @return whether any cell of the specified filtered image is stored
+     */
+    public boolean contains(final String key) {
+        final File dir = directory.resolve(key).toFile();
+        final String[] files = dir.list((d, name) -> name.endsWith(".cell"));
+        return files != null && files.length > 0;
+    }
+
+    /**
+     * Deletes all the cells stored in this cache.
+     *
+     * @throws IOException if some files could not be deleted
+     */
+    public synchronized void clear() throws IOException {
+        if (!Files.isDirectory(directory)) return;
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (final Path p : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                if (!p.equals(directory)) Files.delete(p);
+            }
+        }
+        sizeBytes.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "PersistentCellCache[" + directory + ": " + getHits() + " hits, " + getMisses() + " misses]";
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // Every Java platform is required to support SHA-256
+        }
+    }
+
+    private static String hex(final byte[] bytes) {
+        final StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (final byte b : bytes) sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,135 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2021 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.gui.cmds;
+
+import java.io.File;
+import java.io.IOException;
+
+import net.imagej.ImageJ;
+
+import org.scijava.app.StatusService;
+import org.scijava.command.Command;
+import org.scijava.command.ContextCommand;
+import org.scijava.log.LogService;
+import org.scijava.menu.MenuConstants;
+import org.scijava.plugin.Menu;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+import sc.fiji.snt.PathAndFillManager;
+import sc.fiji.snt.SNTUtils;
+import sc.fiji.snt.gui.GuiUtils;
+import sc.fiji.snt.io.BinaryTraces;
+
+/**
+ * Command for converting a directory of reconstruction files (.traces, SWC and
+ * MouseLight JSON) into binary ({@value BinaryTraces#EXTENSION}) files.
+ *
+ * @see BinaryTraces
+ */
+@Plugin(type = Command.class, menu = {
+		@Menu(label = MenuConstants.PLUGINS_LABEL, weight = MenuConstants.PLUGINS_WEIGHT, mnemonic = MenuConstants.PLUGINS_MNEMONIC), //
+		@Menu(label = "Neuroanatomy", weight = GuiUtils.DEFAULT_MENU_WEIGHT), //
+		@Menu(label = "Convert Reconstructions to Binary...") }, //
+		label = "Convert Reconstructions to Binary Files")
+public class BinaryConverterCmd extends ContextCommand {
+
+	@Parameter
+	private StatusService statusService;
+
+	@Parameter
+	private LogService logService;
+
+	@Parameter(style = "directory", label = "Input directory")
+	private File inputDir;
+
+	@Parameter(label = "Filenames containing", required = false, //
+		description = "<html>Only files containing this string will be considered." +
+			"<br>Leave blank to consider all reconstruction files in the directory.")
+	private String pattern;
+
+	@Parameter(style = "directory", label = "Output directory", required = false, //
+		description = "<html>Leave blank to save converted files in the input directory.")
+	private File outputDir;
+
+	@Parameter(label = "Overwrite existing files")
+	private boolean overwrite;
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		final File[] files = SNTUtils.getReconstructionFiles(inputDir, pattern);
+		if (files == null || files.length == 0) {
+			cancel("No matching files found in directory.");
+			return;
+		}
+		final File destination = (outputDir == null) ? inputDir : outputDir;
+		if (!destination.exists() && !destination.mkdirs()) {
+			cancel("Output directory could not be created.");
+			return;
+		}
+		int converted = 0;
+		int skipped = 0;
+		for (int i = 0; i < files.length; i++) {
+			final File file = files[i];
+			statusService.showStatus(i, files.length, "Converting " + file.getName());
+			if (file.getName().toLowerCase().endsWith(BinaryTraces.EXTENSION)) continue;
+			final File outFile = new File(destination,
+				SNTUtils.stripExtension(file.getName()) + BinaryTraces.EXTENSION);
+			if (outFile.exists() && !overwrite) {
+				logService.info("Skipping " + file.getName() + ": " + outFile.getName() + " already exists");
+				skipped++;
+				continue;
+			}
+			final PathAndFillManager pafm = PathAndFillManager.createFromFile(file.getAbsolutePath());
+			if (pafm == null || pafm.size() == 0) {
+				logService.warn("Skipping " + file.getName() + ": file could not be imported");
+				skipped++;
+				continue;
+			}
+			try {
+				pafm.writeBinary(outFile.getAbsolutePath());
+				converted++;
+			}
+			catch (final IOException e) {
+				logService.error("Could not save " + outFile.getAbsolutePath(), e);
+				skipped++;
+			}
+		}
+		statusService.clearStatus();
+		statusService.showStatus(String.format("%d file(s) converted, %d skipped", converted, skipped));
+	}
+
+	/* IDE debug method **/
+	public static void main(final String[] args) {
+		GuiUtils.setLookAndFeel();
+		final ImageJ ij = new ImageJ();
+		ij.ui().showUI();
+		ij.command().run(BinaryConverterCmd.class, true);
+	}
+
+}
@@ -60,6 +60,7 @@ import ij.measure.Calibration;
 import net.imagej.ImageJ;
 import net.imagej.legacy.LegacyService;
 import net.imagej.ops.OpService;
+import net.imagej.ops.special.computer.UnaryComputerOp;
 import net.imagej.util.Images;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.cell.CellImgFactory;
@@ -69,6 +70,7 @@ import net.imglib2.type.numeric.real.FloatType;
 import sc.fiji.snt.*;
 import sc.fiji.snt.filter.Frangi;
 import sc.fiji.snt.filter.Lazy;
+import sc.fiji.snt.filter.PersistentCellCache;
 import sc.fiji.snt.filter.Tubeness;
 import sc.fiji.snt.gui.GuiUtils;
 import sc.fiji.snt.gui.SigmaPaletteListener;
@@ -371,12 +373,7 @@ public class ComputeSecondaryImg<T extends RealType<T> & NativeType<T>, U extend
 						numThreads);
 
 				if (useLazy) {
-					out = Lazy.process(
-							in,
-							in,
-							new int[]{cellDim, cellDim, cellDim},
-							type,
-							op);
+					out = lazyFilter(in, cellDim, type, op, filter, sigmas, spacing, stackMax);
 				} else {
 					out = ops.create().img(in, type, new CellImgFactory<>(type));
 					op.compute(in, out);
@@ -387,12 +384,7 @@ public class ComputeSecondaryImg<T extends RealType<T> & NativeType<T>, U extend
 			case TUBENESS: {
 				final Tubeness<T, U> op = new Tubeness<>(sigmas, spacing, numThreads);
 				if (useLazy) {
-					out = Lazy.process(
-							in,
-							in,
-							new int[]{cellDim, cellDim, cellDim},
-							type,
-							op);
+					out = lazyFilter(in, cellDim, type, op, filter, sigmas, spacing);
 				} else {
 					out = ops.create().img(in, type, new CellImgFactory<>(type));
 					op.compute(in, out);
@@ -446,6 +438,25 @@ public class ComputeSecondaryImg<T extends RealType<T> & NativeType<T>, U extend
 		apply();
 	}
 
+	/*
+	 * Filters lazily. If SNT persists filtered images, cells computed in earlier
+	 * sessions with the same image and settings are reused.
+	 */
+	private Img<U> lazyFilter(final RandomAccessibleInterval<T> in, final int cellDim, final U type,
+			final UnaryComputerOp<RandomAccessibleInterval<T>, RandomAccessibleInterval<U>> op,
+			final Object... settings)
+	{
+		final int[] blockSize = new int[]{cellDim, cellDim, cellDim};
+		final PersistentCellCache cache = snt.getFilterCellCache();
+		final String fingerprint = (cache == null) ? null : PersistentCellCache.fingerprint(snt.getImagePlus());
+		if (fingerprint == null) {
+			return Lazy.process(in, in, blockSize, type, op);
+		}
+		final String key = PersistentCellCache.key(fingerprint, snt.getChannel(), snt.getFrame(),
+				settings, blockSize, type.getClass().getSimpleName());
+		return Lazy.process(in, in, blockSize, type, op, cache, key);
+	}
+
 	private void apply() {
 		// flush any rogue Img
 		snt.flushSecondaryData();
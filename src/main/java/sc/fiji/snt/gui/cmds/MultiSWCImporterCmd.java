@@ -23,13 +23,16 @@
 package sc.fiji.snt.gui.cmds;
 
 import java.io.File;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
 import java.util.stream.IntStream;
 
 import net.imagej.ImageJ;
 
+import org.scijava.app.StatusService;
 import org.scijava.command.Command;
 import org.scijava.command.ContextCommand;
 import org.scijava.plugin.Parameter;
@@ -43,6 +46,8 @@ import sc.fiji.snt.SNTService;
 import sc.fiji.snt.SNTUI;
 import sc.fiji.snt.Tree;
 import sc.fiji.snt.gui.GuiUtils;
+import sc.fiji.snt.io.TreeSource;
+import sc.fiji.snt.util.SNTColor;
 
 /**
  * Command for importing a folder of SWC files.
@@ -56,6 +61,9 @@ public class MultiSWCImporterCmd extends ContextCommand {
 	@Parameter
 	private SNTService sntService;
 
+	@Parameter
+	private StatusService statusService;
+
 	@Parameter(style = "directory", label = "Directory")
 	private File dir;
 
@@ -86,8 +94,8 @@ public class MultiSWCImporterCmd extends ContextCommand {
 		final SNTUI ui = sntService.getUI();
 		final PathAndFillManager pafm = sntService.getPathAndFillManager();
 
-		final Map<String, String> importMap = getImportMap();
-		if (importMap == null || importMap.isEmpty()) {
+		final File[] files = getFiles();
+		if (files == null || files.length == 0) {
 			cancel("No matching files found in directory.");
 			return;
 		}
@@ -95,15 +103,30 @@ public class MultiSWCImporterCmd extends ContextCommand {
 		ui.showStatus("Importing directory. Please wait...", false);
 		SNTUtils.log("Importing directory " + dir);
 
-		final int lastExistingPathIdx = pafm.size() - 1;
-		final List<Tree> result = pafm.importSWCs(importMap, getColor());
-		final long failures = result.stream().filter(Tree::isEmpty)
-			.count();
-		if (failures == result.size()) {
+		// Files are read and parsed in parallel. Interrupting this command aborts the import
+		final List<String> failedFiles = Collections.synchronizedList(new ArrayList<>());
+		final TreeSource source = new TreeSource(files).setProgressListener((file, success, filesRead, fileCount) -> {
+			if (!success) failedFiles.add(file.getName());
+			statusService.showProgress(filesRead, fileCount);
+		});
+		final List<Tree> result = source.readAll();
+		statusService.clearStatus();
+		if (Thread.currentThread().isInterrupted()) {
+			ui.showStatus("Import aborted...", true);
+			return;
+		}
+		if (result.isEmpty()) {
 			ui.error("No reconstructions could be retrieved. Invalid directory?");
 			ui.showStatus("Error... No reconstructions imported", true);
 			return;
 		}
+		final ColorRGB[] colors = (getColor() == null) ? SNTColor.getDistinctColors(result.size()) : null;
+		for (int i = 0; i < result.size(); i++)
+			result.get(i).setColor((colors == null) ? getColor() : colors[i]);
+
+		final int lastExistingPathIdx = pafm.size() - 1;
+		// SWC files hold no calibration: paths are assigned the one of the manager, as when imported by it
+		pafm.addTrees(result, true);
 
 		if (clearExisting) {
 			final int[] indices = IntStream.rangeClosed(0, lastExistingPathIdx)
@@ -116,14 +139,12 @@ public class MultiSWCImporterCmd extends ContextCommand {
 		sntService.getPlugin().updateAllViewers();
 		sntService.getPlugin().getPrefs().setTemp(SNTPrefs.NO_IMAGE_ASSOCIATED_DATA, true);
 
-		if (failures > 0) {
+		if (!failedFiles.isEmpty()) {
 			ui.error(String.format("%d/%d reconstructions could not be retrieved.",
-				failures, result.size()));
+				failedFiles.size(), files.length));
 			ui.showStatus("Partially successful import...", true);
 			SNTUtils.log("Import failed for the following files:");
-			result.forEach(tree -> {
-				if (tree.isEmpty()) SNTUtils.log(tree.getLabel());
-			});
+			failedFiles.forEach(SNTUtils::log);
 		}
 		else {
 			ui.showStatus("Successful imported " + result.size() +
@@ -136,7 +157,7 @@ public class MultiSWCImporterCmd extends ContextCommand {
 		return (colorChoice.contains("unique")) ? null : color;
 	}
 
-	private Map<String, String> getImportMap() {
+	private File[] getFiles() {
 		if (dir == null || !dir.isDirectory() || !dir.exists()) return null;
 		final File[] files = dir.listFiles(file -> {
 			if (file.isHidden()) return false;
@@ -144,12 +165,8 @@ public class MultiSWCImporterCmd extends ContextCommand {
 			if (!fName.endsWith("swc")) return false;
 			return pattern == null || pattern.isEmpty() || fName.contains(pattern);
 		});
-		if (files == null || files.length == 0) return null;
-		final Map<String, String> map = new HashMap<>();
-		for (final File file : files) {
-			map.put(SNTUtils.stripExtension(file.getName()), file.getAbsolutePath());
-		}
-		return map;
+		if (files != null) Arrays.sort(files, Comparator.comparing(File::getName));
+		return files;
 	}
 
 	/* IDE debug method **/
@@ -0,0 +1,532 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2021 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+import sc.fiji.snt.PathAndFillManager;
+
+/**
+ * Compact, binary representation of a collection of paths. Data is stored in
+ * columns (one primitive array per property) so that a file can be memory
+ * mapped and its columns bulk-copied into arrays, without any parsing. It is
+ * used by {@link PathAndFillManager} to save and load {@code .sntb} files.
+ * <p>
+ * Paths are stored in sequence: the nodes of path {@code i} span the
+ * {@code [nodeOffsets[i], nodeOffsets[i+1])} range of the node columns. Paths
+ * are referenced by their index in the file (not their ID), and nodes by their
+ * global index. Optional columns (radii and tangents, node values, node colors
+ * and brain annotations) are {@code null} when no path in the file makes use of
+ * them. Fills are not stored.
+ * </p>
+ * The file layout (little-endian) is:
+ * <ol>
+ * <li>Header: magic number ({@code SNTB}), version, optional column flags,
+ * number of paths, number of nodes, reserved int, and the x,y,z spacing</li>
+ * <li>Path columns (ints): IDs, tree IDs, SWC types, colors, channels, frames,
+ * spine counts, flags, start join, fitted version of, and node offsets, followed
+ * by the start join coordinates (doubles)</li>
+ * <li>Node columns: x, y, z coordinates (doubles), parents (ints), followed by
+ * the optional columns</li>
+ * <li>String table: spacing units, path names and tree labels</li>
+ * </ol>
+ * All sections start on 8-byte boundaries.
+ */
+public class BinaryTraces {
+
+	/** The extension of binary files */
+	public static final String EXTENSION = ".sntb";
+
+	/*
+	 * Path flags. HAS_RADII, HAS_VALUES, HAS_NODE_COLORS and HAS_ANNOTATIONS are
+	 * also used in the header to flag which optional columns are present.
+	 */
+	/** Path flag: path is primary */
+	public static final int PRIMARY = 1;
+	/** Path flag: path has been assigned a color */
+	public static final int HAS_COLOR = 1 << 1;
+	/** Path flag: the fitted flavor of this path is in use */
+	public static final int USE_FITTED = 1 << 2;
+	/** Path flag: path has radii and tangents */
+	public static final int HAS_RADII = 1 << 3;
+	/** Path flag: path has node values */
+	public static final int HAS_VALUES = 1 << 4;
+	/** Path flag: path has node colors */
+	public static final int HAS_NODE_COLORS = 1 << 5;
+	/** Path flag: path has node annotations and/or hemisphere flags */
+	public static final int HAS_ANNOTATIONS = 1 << 6;
+
+	static final int MAGIC = 0x42544E53; // "SNTB" in little-endian order
+	static final int VERSION = 1;
+	private static final int HEADER_BYTES = 6 * Integer.BYTES + 3 * Double.BYTES;
+	private static final int PATH_INT_COLUMNS = 10;
+	private static final int CHUNK = 1 << 16;
+
+	public final int pathCount;
+	public final int nodeCount;
+
+	public double xSpacing = 1;
+	public double ySpacing = 1;
+	public double zSpacing = 1;
+	public String spacingUnits;
+
+	/* Path columns */
+	public final int[] pathIds;
+	public final int[] treeIds;
+	public final int[] swcTypes;
+	/** Path colors (ARGB). Only meaningful for paths flagged with {@link #HAS_COLOR} */
+	public final int[] colors;
+	public final int[] channels;
+	public final int[] frames;
+	public final int[] spines;
+	public final int[] flags;
+	/** Index of the path each path starts on, or -1 */
+	public final int[] startsOn;
+	/** Index of the path each path is a fitted version of, or -1 */
+	public final int[] fittedVersionOf;
+	/** Index of the first node of each path. Has {@code pathCount + 1} entries */
+	public final int[] nodeOffsets;
+	public final double[] startX;
+	public final double[] startY;
+	public final double[] startZ;
+	public final String[] names;
+	public final String[] treeLabels;
+
+	/* Node columns */
+	public final double[] xs;
+	public final double[] ys;
+	public final double[] zs;
+	/** Global index of the parent of each node, or -1 for root nodes */
+	public final int[] parents;
+	public double[] radii;
+	public double[] tangentsX;
+	public double[] tangentsY;
+	public double[] tangentsZ;
+	public double[] values;
+	/** Node colors (ARGB), 0 when unset */
+	public int[] nodeColors;
+	/** Brain annotation IDs, 0 when unset */
+	public int[] annotations;
+	/** Hemisphere flags */
+	public byte[] hemispheres;
+
+	/**
+	 * Allocates an instance holding the specified number of paths and nodes.
+	 * Optional columns are allocated on demand.
+	 *
+	 * @param pathCount the number of paths
+	 * @param nodeCount the total number of nodes
+	 */
+	public BinaryTraces(final int pathCount, final int nodeCount) {
+		this.pathCount = pathCount;
+		this.nodeCount = nodeCount;
+		pathIds = new int[pathCount];
+		treeIds = new int[pathCount];
+		swcTypes = new int[pathCount];
+		colors = new int[pathCount];
+		channels = new int[pathCount];
+		frames = new int[pathCount];
+		spines = new int[pathCount];
+		flags = new int[pathCount];
+		startsOn = new int[pathCount];
+		fittedVersionOf = new int[pathCount];
+		nodeOffsets = new int[pathCount + 1];
+		startX = new double[pathCount];
+		startY = new double[pathCount];
+		startZ = new double[pathCount];
+		names = new String[pathCount];
+		treeLabels = new String[pathCount];
+		xs = new double[nodeCount];
+		ys = new double[nodeCount];
+		zs = new double[nodeCount];
+		parents = new int[nodeCount];
+	}
+
+	public int size(final int path) {
+		return nodeOffsets[path + 1] - nodeOffsets[path];
+	}
+
+	public boolean hasFlag(final int path, final int flag) {
+		return (flags[path] & flag) != 0;
+	}
+
+	/** Allocates the radii and tangent columns, if not yet allocated. */
+	public void createRadii() {
+		if (radii != null) return;
+		radii = new double[nodeCount];
+		tangentsX = new double[nodeCount];
+		tangentsY = new double[nodeCount];
+		tangentsZ = new double[nodeCount];
+	}
+
+	/** Allocates the node values column, if not yet allocated. */
+	public void createValues() {
+		if (values == null) values = new double[nodeCount];
+	}
+
+	/** Allocates the node colors column, if not yet allocated. */
+	public void createNodeColors() {
+		if (nodeColors == null) nodeColors = new int[nodeCount];
+	}
+
+	/** Allocates the annotation and hemisphere columns, if not yet allocated. */
+	public void createAnnotations() {
+		if (annotations != null) return;
+		annotations = new int[nodeCount];
+		hemispheres = new byte[nodeCount];
+	}
+
+	/**
+	 * Assesses whether the specified bytes start with the magic number of binary
+	 * files.
+	 */
+	static boolean isBinary(final byte[] firstBytes) {
+		return firstBytes.length >= 4 && ByteBuffer.wrap(firstBytes, 0, 4).order(ByteOrder.LITTLE_ENDIAN)
+				.getInt() == MAGIC;
+	}
+
+	/**
+	 * Memory maps and reads a binary file.
+	 *
+	 * @param file the file to be read
+	 * @return the file contents
+	 * @throws IOException if file could not be read or is not a valid binary
+	 *                     file
+	 */
+	public static BinaryTraces read(final File file) throws IOException {
+		try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return read(buffer);
+		}
+	}
+
+	/**
+	 * Reads binary data from a stream, e.g., a resource or a remote file that
+	 * cannot be memory mapped.
+	 *
+	 * @param is the input stream. It is not closed.
+	 * @return the stream contents
+	 * @throws IOException if stream could not be read or does not hold valid
+	 *                     binary data
+	 */
+	public static BinaryTraces read(final InputStream is) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(CHUNK);
+		final byte[] chunk = new byte[CHUNK];
+		int read;
+		while ((read = is.read(chunk)) != -1)
+			bytes.write(chunk, 0, read);
+		return read(ByteBuffer.wrap(bytes.toByteArray()));
+	}
+
+	/**
+	 * Reads binary data from a buffer, starting at its current position.
+	 *
+	 * @param buffer the buffer holding the data
+	 * @return the buffer contents
+	 * @throws IOException if the buffer does not hold valid binary data
+	 */
+	public static BinaryTraces read(final ByteBuffer buffer) throws IOException {
+		final ByteBuffer buf = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+		try {
+			if (buf.getInt() != MAGIC)
+				throw new IOException("Not an SNT binary file");
+			final int version = buf.getInt();
+			if (version > VERSION)
+				throw new IOException("Unsupported binary file version: " + version);
+			final int sections = buf.getInt();
+			final int pathCount = buf.getInt();
+			final int nodeCount = buf.getInt();
+			buf.getInt(); // reserved
+			if (pathCount < 0 || nodeCount < 0)
+				throw new IOException("Corrupted binary file: invalid header");
+			final BinaryTraces data = new BinaryTraces(pathCount, nodeCount);
+			data.xSpacing = buf.getDouble();
+			data.ySpacing = buf.getDouble();
+			data.zSpacing = buf.getDouble();
+
+			for (final int[] column : data.pathIntColumns())
+				getInts(buf, column);
+			getInts(buf, data.nodeOffsets);
+			align(buf);
+			getDoubles(buf, data.startX);
+			getDoubles(buf, data.startY);
+			getDoubles(buf, data.startZ);
+
+			getDoubles(buf, data.xs);
+			getDoubles(buf, data.ys);
+			getDoubles(buf, data.zs);
+			getInts(buf, data.parents);
+			align(buf);
+			if ((sections & HAS_RADII) != 0) {
+				data.createRadii();
+				getDoubles(buf, data.radii);
+				getDoubles(buf, data.tangentsX);
+				getDoubles(buf, data.tangentsY);
+				getDoubles(buf, data.tangentsZ);
+			}
+			if ((sections & HAS_VALUES) != 0) {
+				data.createValues();
+				getDoubles(buf, data.values);
+			}
+			if ((sections & HAS_NODE_COLORS) != 0) {
+				data.createNodeColors();
+				getInts(buf, data.nodeColors);
+				align(buf);
+			}
+			if ((sections & HAS_ANNOTATIONS) != 0) {
+				data.createAnnotations();
+				getInts(buf, data.annotations);
+				buf.get(data.hemispheres);
+				align(buf);
+			}
+
+			data.spacingUnits = getString(buf);
+			for (int i = 0; i < pathCount; i++)
+				data.names[i] = getString(buf);
+			for (int i = 0; i < pathCount; i++)
+				data.treeLabels[i] = getString(buf);
+			data.validate();
+			return data;
+		} catch (final BufferUnderflowException | IllegalArgumentException e) {
+			throw new IOException("Corrupted binary file: unexpected end of data");
+		}
+	}
+
+	private void validate() throws IOException {
+		if (nodeOffsets[0] != 0 || nodeOffsets[pathCount] != nodeCount)
+			throw new IOException("Corrupted binary file: invalid node offsets");
+		for (int i = 0; i < pathCount; i++) {
+			if (nodeOffsets[i + 1] < nodeOffsets[i])
+				throw new IOException("Corrupted binary file: invalid node offsets");
+			if (!isPathReference(startsOn[i]) || !isPathReference(fittedVersionOf[i]))
+				throw new IOException("Corrupted binary file: invalid path reference");
+			if (startsOn[i] == i || fittedVersionOf[i] == i)
+				throw new IOException("Corrupted binary file: path references itself");
+		}
+		// A path has at most one fitted flavor, which cannot itself be fitted
+		final boolean[] fitted = new boolean[pathCount];
+		for (int i = 0; i < pathCount; i++) {
+			final int original = fittedVersionOf[i];
+			if (original < 0) continue;
+			if (fitted[original] || fittedVersionOf[original] >= 0)
+				throw new IOException("Corrupted binary file: invalid fitted path reference");
+			fitted[original] = true;
+		}
+		// Start joins must not form cycles: Follow each chain until a root or an
+		// already validated path is reached
+		final byte[] state = new byte[pathCount]; // 0: unvisited, 1: in chain, 2: valid
+		for (int i = 0; i < pathCount; i++) {
+			int p = i;
+			while (p >= 0 && state[p] == 0) {
+				state[p] = 1;
+				p = startsOn[p];
+			}
+			if (p >= 0 && state[p] == 1)
+				throw new IOException("Corrupted binary file: circular path joins");
+			for (p = i; p >= 0 && state[p] == 1; p = startsOn[p])
+				state[p] = 2;
+		}
+	}
+
+	private boolean isPathReference(final int index) {
+		return index == -1 || (index >= 0 && index < pathCount);
+	}
+
+	/**
+	 * Writes this data to a binary file.
+	 *
+	 * @param file the output file
+	 * @throws IOException if file could not be written
+	 */
+	public void write(final File file) throws IOException {
+		try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			final ByteBuffer buf = ByteBuffer.allocateDirect(CHUNK).order(ByteOrder.LITTLE_ENDIAN);
+			buf.putInt(MAGIC);
+			buf.putInt(VERSION);
+			buf.putInt(sections());
+			buf.putInt(pathCount);
+			buf.putInt(nodeCount);
+			buf.putInt(0);
+			buf.putDouble(xSpacing);
+			buf.putDouble(ySpacing);
+			buf.putDouble(zSpacing);
+
+			for (final int[] column : pathIntColumns())
+				putInts(channel, buf, column);
+			putInts(channel, buf, nodeOffsets);
+			pad(channel, buf);
+			putDoubles(channel, buf, startX);
+			putDoubles(channel, buf, startY);
+			putDoubles(channel, buf, startZ);
+
+			putDoubles(channel, buf, xs);
+			putDoubles(channel, buf, ys);
+			putDoubles(channel, buf, zs);
+			putInts(channel, buf, parents);
+			pad(channel, buf);
+			if (radii != null) {
+				putDoubles(channel, buf, radii);
+				putDoubles(channel, buf, tangentsX);
+				putDoubles(channel, buf, tangentsY);
+				putDoubles(channel, buf, tangentsZ);
+			}
+			if (values != null) {
+				putDoubles(channel, buf, values);
+			}
+			if (nodeColors != null) {
+				putInts(channel, buf, nodeColors);
+				pad(channel, buf);
+			}
+			if (annotations != null) {
+				putInts(channel, buf, annotations);
+				for (final byte b : hemispheres) {
+					ensure(channel, buf, 1);
+					buf.put(b);
+				}
+				pad(channel, buf);
+			}
+
+			putString(channel, buf, spacingUnits);
+			for (final String name : names)
+				putString(channel, buf, name);
+			for (final String label : treeLabels)
+				putString(channel, buf, label);
+			flush(channel, buf);
+		}
+	}
+
+	private int sections() {
+		int sections = 0;
+		if (radii != null) sections |= HAS_RADII;
+		if (values != null) sections |= HAS_VALUES;
+		if (nodeColors != null) sections |= HAS_NODE_COLORS;
+		if (annotations != null) sections |= HAS_ANNOTATIONS;
+		return sections;
+	}
+
+	private int[][] pathIntColumns() {
+		return new int[][] { pathIds, treeIds, swcTypes, colors, channels, frames, spines, flags, startsOn,
+				fittedVersionOf };
+	}
+
+	/* Readers: bulk copies through views of the buffer */
+
+	private static void getInts(final ByteBuffer buf, final int[] column) {
+		buf.asIntBuffer().get(column);
+		buf.position(buf.position() + column.length * Integer.BYTES);
+	}
+
+	private static void getDoubles(final ByteBuffer buf, final double[] column) {
+		buf.asDoubleBuffer().get(column);
+		buf.position(buf.position() + column.length * Double.BYTES);
+	}
+
+	private static String getString(final ByteBuffer buf) {
+		final int length = buf.getInt();
+		if (length < 0) return null;
+		if (length > buf.remaining()) throw new BufferUnderflowException();
+		final byte[] bytes = new byte[length];
+		buf.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void align(final ByteBuffer buf) {
+		final int misalignment = buf.position() % Double.BYTES;
+		if (misalignment != 0) buf.position(buf.position() + Double.BYTES - misalignment);
+	}
+
+	/* Writers: columns are staged through a fixed-size buffer */
+
+	private static void putInts(final FileChannel channel, final ByteBuffer buf, final int[] column)
+			throws IOException {
+		int offset = 0;
+		while (offset < column.length) {
+			ensure(channel, buf, Integer.BYTES);
+			final int n = Math.min(column.length - offset, buf.remaining() / Integer.BYTES);
+			buf.asIntBuffer().put(column, offset, n);
+			buf.position(buf.position() + n * Integer.BYTES);
+			offset += n;
+		}
+	}
+
+	private static void putDoubles(final FileChannel channel, final ByteBuffer buf, final double[] column)
+			throws IOException {
+		int offset = 0;
+		while (offset < column.length) {
+			ensure(channel, buf, Double.BYTES);
+			final int n = Math.min(column.length - offset, buf.remaining() / Double.BYTES);
+			buf.asDoubleBuffer().put(column, offset, n);
+			buf.position(buf.position() + n * Double.BYTES);
+			offset += n;
+		}
+	}
+
+	private static void putString(final FileChannel channel, final ByteBuffer buf, final String string)
+			throws IOException {
+		ensure(channel, buf, Integer.BYTES);
+		if (string == null) {
+			buf.putInt(-1);
+			return;
+		}
+		final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		buf.putInt(bytes.length);
+		int offset = 0;
+		while (offset < bytes.length) {
+			ensure(channel, buf, 1);
+			final int n = Math.min(bytes.length - offset, buf.remaining());
+			buf.put(bytes, offset, n);
+			offset += n;
+		}
+	}
+
+	private static void pad(final FileChannel channel, final ByteBuffer buf) throws IOException {
+		while ((channel.position() + buf.position()) % Double.BYTES != 0) {
+			ensure(channel, buf, 1);
+			buf.put((byte) 0);
+		}
+	}
+
+	private static void ensure(final FileChannel channel, final ByteBuffer buf, final int bytes)
+			throws IOException {
+		if (buf.remaining() < bytes) flush(channel, buf);
+	}
+
+	private static void flush(final FileChannel channel, final ByteBuffer buf) throws IOException {
+		buf.flip();
+		while (buf.hasRemaining())
+			channel.write(buf);
+		buf.clear();
+	}
+
+}
@@ -0,0 +1,364 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2021 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+import org.json.JSONException;
+
+/**
+ * A minimal, pull-based JSON reader. Unlike {@link org.json.JSONObject}, it
+ * does not build the document in memory: values are read one token at a time,
+ * and unwanted values are skipped without being stored, so that arbitrarily
+ * large documents can be parsed with bounded memory. Malformed input is
+ * reported as {@link JSONException}.
+ */
+final class JSONStreamReader implements Closeable {
+
+	enum Token {
+		BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+	}
+
+	private static final int OBJECT = 1;
+	private static final int ARRAY = 2;
+
+	private final Reader reader;
+	private final char[] buffer = new char[8192];
+	private int pos;
+	private int limit;
+	private long charsRead;
+
+	/* Scopes of enclosing containers, and whether an object awaits a name */
+	private int[] scopes = new int[32];
+	private boolean[] expectName = new boolean[32];
+	private int depth;
+
+	private Token peeked;
+	private final StringBuilder text = new StringBuilder();
+
+	JSONStreamReader(final Reader reader) {
+		this.reader = reader;
+	}
+
+	/**
+	 * @return the type of the next token, without consuming it
+	 */
+	Token peek() {
+		if (peeked == null) peeked = lex();
+		return peeked;
+	}
+
+	/**
+	 * @return true if the current object or array has more elements
+	 */
+	boolean hasNext() {
+		final Token token = peek();
+		return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+	}
+
+	void beginObject() {
+		expect(Token.BEGIN_OBJECT);
+	}
+
+	void endObject() {
+		expect(Token.END_OBJECT);
+	}
+
+	void beginArray() {
+		expect(Token.BEGIN_ARRAY);
+	}
+
+	void endArray() {
+		expect(Token.END_ARRAY);
+	}
+
+	String nextName() {
+		expect(Token.NAME);
+		return text.toString();
+	}
+
+	/**
+	 * @return the next string. Numbers and booleans are returned as text
+	 */
+	String nextString() {
+		final Token token = peek();
+		if (token != Token.STRING && token != Token.NUMBER && token != Token.BOOLEAN)
+			throw syntaxError("Expected a string but found " + token);
+		peeked = null;
+		return text.toString();
+	}
+
+	/**
+	 * @return the next number. Strings holding numbers are also accepted
+	 */
+	double nextDouble() {
+		final Token token = peek();
+		if (token != Token.NUMBER && token != Token.STRING)
+			throw syntaxError("Expected a number but found " + token);
+		peeked = null;
+		try {
+			return Double.parseDouble(text.toString());
+		} catch (final NumberFormatException e) {
+			throw syntaxError("Expected a number but found '" + text + "'");
+		}
+	}
+
+	/**
+	 * Reads the next number, or skips the next value if it is not a number.
+	 *
+	 * @param defaultValue the value returned if the next value is not a number
+	 * @return the number or {@code defaultValue}
+	 */
+	double optDouble(final double defaultValue) {
+		final Token token = peek();
+		if (token == Token.NUMBER || token == Token.STRING) {
+			peeked = null;
+			try {
+				return Double.parseDouble(text.toString());
+			} catch (final NumberFormatException ignored) {
+				return defaultValue;
+			}
+		}
+		skipValue();
+		return defaultValue;
+	}
+
+	/**
+	 * Reads the next integer (decimals are truncated), or skips the next value if
+	 * it is not a number.
+	 *
+	 * @param defaultValue the value returned if the next value is not a number
+	 * @return the number or {@code defaultValue}
+	 */
+	int optInt(final int defaultValue) {
+		final Token token = peek();
+		if (token == Token.NUMBER || token == Token.STRING) {
+			peeked = null;
+			try {
+				return Integer.parseInt(text.toString());
+			} catch (final NumberFormatException ignored) {
+				try {
+					return (int) Double.parseDouble(text.toString());
+				} catch (final NumberFormatException ignored2) {
+					return defaultValue;
+				}
+			}
+		}
+		skipValue();
+		return defaultValue;
+	}
+
+	void nextNull() {
+		expect(Token.NULL);
+	}
+
+	/**
+	 * Skips the next value. If it is an object or an array, all of its contents
+	 * are skipped.
+	 */
+	void skipValue() {
+		int level = 0;
+		do {
+			final Token token = peek();
+			peeked = null;
+			switch (token) {
+			case BEGIN_OBJECT:
+			case BEGIN_ARRAY:
+				level++;
+				break;
+			case END_OBJECT:
+			case END_ARRAY:
+				level--;
+				break;
+			case END_DOCUMENT:
+				throw syntaxError("Unexpected end of input");
+			default:
+				break;
+			}
+		} while (level > 0);
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+
+	private void expect(final Token expected) {
+		final Token token = peek();
+		if (token != expected) throw syntaxError("Expected " + expected + " but found " + token);
+		peeked = null;
+	}
+
+	private Token lex() {
+		final int c = nextNonSeparator();
+		switch (c) {
+		case -1:
+			if (depth > 0) throw syntaxError("Unexpected end of input");
+			return Token.END_DOCUMENT;
+		case '{':
+			valueRead();
+			push(OBJECT);
+			return Token.BEGIN_OBJECT;
+		case '[':
+			valueRead();
+			push(ARRAY);
+			return Token.BEGIN_ARRAY;
+		case '}':
+			pop(OBJECT);
+			return Token.END_OBJECT;
+		case ']':
+			pop(ARRAY);
+			return Token.END_ARRAY;
+		case '"':
+		case '\'':
+			readString((char) c);
+			if (depth > 0 && scopes[depth - 1] == OBJECT && expectName[depth - 1]) {
+				expectName[depth - 1] = false;
+				return Token.NAME;
+			}
+			valueRead();
+			return Token.STRING;
+		default:
+			readLiteral((char) c);
+			valueRead();
+			final String literal = text.toString();
+			if ("true".equals(literal) || "false".equals(literal)) return Token.BOOLEAN;
+			if ("null".equals(literal)) return Token.NULL;
+			if (c == '-' || (c >= '0' && c <= '9')) return Token.NUMBER;
+			throw syntaxError("Unexpected value '" + literal + "'");
+		}
+	}
+
+	/* Called when a value of the current container has been read */
+	private void valueRead() {
+		if (depth > 0 && scopes[depth - 1] == OBJECT) {
+			if (expectName[depth - 1]) throw syntaxError("Expected a name");
+			expectName[depth - 1] = true;
+		}
+	}
+
+	private void push(final int scope) {
+		if (depth == scopes.length) {
+			scopes = Arrays.copyOf(scopes, depth * 2);
+			expectName = Arrays.copyOf(expectName, depth * 2);
+		}
+		scopes[depth] = scope;
+		expectName[depth] = scope == OBJECT;
+		depth++;
+	}
+
+	private void pop(final int scope) {
+		if (depth == 0 || scopes[depth - 1] != scope) throw syntaxError("Mismatched " + ((scope == OBJECT) ? "}" : "]"));
+		depth--;
+	}
+
+	private void readString(final char quote) {
+		text.setLength(0);
+		while (true) {
+			final int c = read();
+			if (c == -1) throw syntaxError("Unterminated string");
+			if (c == quote) return;
+			if (c != '\\') {
+				text.append((char) c);
+				continue;
+			}
+			final int escaped = read();
+			switch (escaped) {
+			case 'b':
+				text.append('\b');
+				break;
+			case 't':
+				text.append('\t');
+				break;
+			case 'n':
+				text.append('\n');
+				break;
+			case 'f':
+				text.append('\f');
+				break;
+			case 'r':
+				text.append('\r');
+				break;
+			case 'u':
+				int code = 0;
+				for (int i = 0; i < 4; i++) {
+					final int digit = Character.digit(read(), 16);
+					if (digit < 0) throw syntaxError("Illegal escape");
+					code = (code << 4) | digit;
+				}
+				text.append((char) code);
+				break;
+			case -1:
+				throw syntaxError("Unterminated string");
+			default:
+				text.append((char) escaped);
+			}
+		}
+	}
+
+	private void readLiteral(final char first) {
+		text.setLength(0);
+		text.append(first);
+		while (true) {
+			if (pos == limit && !fill()) return;
+			final char c = buffer[pos];
+			if (c == ',' || c == ':' || c == '}' || c == ']' || c == '"' || Character.isWhitespace(c)) return;
+			text.append(c);
+			pos++;
+		}
+	}
+
+	/* Skips whitespace and the ',' and ':' separators */
+	private int nextNonSeparator() {
+		while (true) {
+			final int c = read();
+			if (c != ',' && c != ':' && c != ' ' && c != '\n' && c != '\r' && c != '\t') return c;
+		}
+	}
+
+	private int read() {
+		if (pos == limit && !fill()) return -1;
+		return buffer[pos++];
+	}
+
+	private boolean fill() {
+		try {
+			charsRead += limit;
+			pos = limit = 0;
+			final int n = reader.read(buffer, 0, buffer.length);
+			if (n <= 0) return false;
+			limit = n;
+			return true;
+		} catch (final IOException e) {
+			throw new JSONException(e);
+		}
+	}
+
+	private JSONException syntaxError(final String message) {
+		return new JSONException(message + " at character " + (charsRead + pos));
+	}
+
+}
@@ -22,7 +22,6 @@
 
 package sc.fiji.snt.io;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
@@ -30,20 +29,24 @@ import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.io.StringReader;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeSet;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONTokener;
 import org.scijava.util.ColorRGB;
 
 import okhttp3.MediaType;
@@ -60,6 +63,8 @@ import sc.fiji.snt.TreeProperties;
 import sc.fiji.snt.annotation.AllenCompartment;
 import sc.fiji.snt.annotation.AllenUtils;
 import sc.fiji.snt.annotation.BrainAnnotation;
+import sc.fiji.snt.io.JSONStreamReader.Token;
+import sc.fiji.snt.util.SNTColor;
 
 /**
  * Methods for retrieving reconstructions from MouseLight's online database at
@@ -208,17 +213,67 @@ public class MouseLightLoader {
 	 * @see #extractNodesFromJSONObject(String, JSONObject)
 	 */
 	public static Map<String, Tree> extractTrees(final File jsonFile, final String compartment) throws FileNotFoundException {
-		final Map<String, TreeSet<SWCPoint>> nodesMap = extractNodes(jsonFile, compartment);
-		final PathAndFillManager pafm = new PathAndFillManager();
-		pafm.setHeadless(true);
-		return pafm.importNeurons(nodesMap, null, null);
+		try (final InputStream is = new FileInputStream(jsonFile)) {
+			return extractTrees(is, compartment);
+		} catch (final FileNotFoundException e) {
+			throw e;
+		} catch (final IOException e) {
+			throw new JSONException(e);
+		}
 	}
 
-	public static Map<String, Tree> extractTrees(final InputStream stream, final String compartment) {
-		final Map<String, TreeSet<SWCPoint>> nodesMap = extractNodes(stream, compartment);
+	/**
+	 * Extracts reconstruction(s) from a JSON stream. Neurons are converted into
+	 * {@link Tree}s as soon as they are parsed, so that the nodes of only one
+	 * neuron are held in memory at a time.
+	 *
+	 * @param stream      the stream of JSON data. It is not closed by this method
+	 * @param compartment 'soma', 'axon', 'dendrite', 'all' (case insensitive). All
+	 *                    nodes are retrieved if {@code compartment} is not
+	 *                    recognized
+	 * @return the map containing the reconstruction nodes as {@link Tree}s
+	 * @throws JSONException if data is malformed
+	 * @see #streamNodes(InputStream, String, BiConsumer)
+	 */
+	public static Map<String, Tree> extractTrees(final InputStream stream, final String compartment) throws JSONException {
 		final PathAndFillManager pafm = new PathAndFillManager();
 		pafm.setHeadless(true);
-		return pafm.importNeurons(nodesMap, null, null);
+		final Map<String, Tree> result = new LinkedHashMap<>();
+		streamNodes(stream, compartment, (id, nodes) -> {
+			result.putAll(pafm.importNeurons(Collections.singletonMap(id, nodes), null, null));
+		});
+		// Neurons were imported one by one: assign distinct colors to the whole set
+		final ColorRGB[] colors = SNTColor.getDistinctColors(result.size());
+		int colorIdx = 0;
+		for (final Tree tree : result.values()) {
+			if (tree != null) tree.setColor(colors[colorIdx]);
+			colorIdx++;
+		}
+		return result;
+	}
+
+	/**
+	 * Extracts reconstruction(s) from a JSON stream, handing each one to
+	 * {@code consumer} as soon as it is parsed. Since trees are not retained,
+	 * files holding an arbitrarily large number of neurons can be processed with
+	 * bounded memory.
+	 *
+	 * @param stream      the stream of JSON data. It is not closed by this method
+	 * @param compartment 'soma', 'axon', 'dendrite', 'all' (case insensitive). All
+	 *                    nodes are retrieved if {@code compartment} is not
+	 *                    recognized
+	 * @param consumer    the consumer of the extracted {@link Tree}s. Neurons that
+	 *                    could not be imported are skipped
+	 * @throws JSONException if data is malformed
+	 */
+	public static void extractTrees(final InputStream stream, final String compartment, final Consumer<Tree> consumer)
+			throws JSONException {
+		streamNodes(stream, compartment, (id, nodes) -> {
+			final PathAndFillManager pafm = new PathAndFillManager();
+			pafm.setHeadless(true);
+			final Tree tree = pafm.importNeurons(Collections.singletonMap(id, nodes), null, null).get(id);
+			if (tree != null && !tree.isEmpty()) consumer.accept(tree);
+		});
 	}
 
 	/**
@@ -234,45 +289,240 @@ public class MouseLightLoader {
 	 * @see #extractTrees(File, String)
 	 */
 	public static Map<String, TreeSet<SWCPoint>> extractNodes(final File jsonFile, final String compartment) throws JSONException, FileNotFoundException {
-		final JSONTokener tokener = new JSONTokener(new BufferedInputStream(new FileInputStream(jsonFile)));
-		return extractNodes(tokener, compartment);
+		try (final InputStream is = new FileInputStream(jsonFile)) {
+			return extractNodes(is, compartment);
+		} catch (final FileNotFoundException e) {
+			throw e;
+		} catch (final IOException e) {
+			throw new JSONException(e);
+		}
 	}
 
 	public static Map<String, TreeSet<SWCPoint>> extractNodes(final InputStream stream, final String compartment) throws JSONException {
-		final JSONTokener tokener = new JSONTokener((stream instanceof BufferedInputStream) ? stream : new BufferedInputStream(stream));
-		return extractNodes(tokener, compartment);
+		final Map<String, TreeSet<SWCPoint>> map = new LinkedHashMap<>();
+		streamNodes(stream, compartment, map::put);
+		return map;
 	}
 
-	private static Map<String, TreeSet<SWCPoint>> extractNodes(final JSONTokener tokener, final String compartment) throws JSONException {
-		final JSONObject json = new JSONObject(tokener);
+	/**
+	 * Parses reconstruction(s) from a JSON stream without building the JSON
+	 * document in memory. The nodes of each neuron are handed to
+	 * {@code consumer} as soon as the neuron has been parsed, so that memory
+	 * usage is bounded by the size of the largest neuron, not by the size of the
+	 * stream. The three MouseLight JSON flavors are supported: a top-level
+	 * {@code neurons} array, a {@code contents} object holding a
+	 * {@code neurons} array, or a single {@code neuron} object. If more than one
+	 * is present, only the first one is parsed.
+	 *
+	 * @param stream      the stream of JSON data. It is not closed by this method
+	 * @param compartment 'soma', 'axon', 'dendrite', 'all' (case insensitive). All
+	 *                    nodes are retrieved if {@code compartment} is not
+	 *                    recognized
+	 * @param consumer    the consumer of (identifier, nodes) pairs. Nodes are
+	 *                    null if the neuron entry is not a valid object
+	 * @throws JSONException if data is malformed or no neurons were found
+	 */
+	public static void streamNodes(final InputStream stream, final String compartment,
+			final BiConsumer<String, TreeSet<SWCPoint>> consumer) throws JSONException {
 		final String normCompartment = (compartment == null) ? "" : compartment.toLowerCase();
-		JSONArray neuronArray;
-		// There are 3 flavors of MLJSON files. We'll have to try all!
-		try {
-			neuronArray = json.getJSONArray("neurons");
-		} catch (final JSONException ignored1) {
-			try {
-				neuronArray = json.getJSONObject("contents").getJSONArray("neurons");
-			} catch (final JSONException ignored2) {
-				return extractNodes(json.getJSONObject("neuron"), normCompartment); // will throw JSONException if object not found
+		final JSONStreamReader reader = new JSONStreamReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+		reader.beginObject();
+		while (reader.hasNext()) {
+			final String name = reader.nextName();
+			final Token value = reader.peek();
+			if ("neurons".equals(name) && value == Token.BEGIN_ARRAY) {
+				streamNeurons(reader, normCompartment, consumer);
+				return;
+			}
+			if ("contents".equals(name) && value == Token.BEGIN_OBJECT) {
+				reader.beginObject();
+				while (reader.hasNext()) {
+					if ("neurons".equals(reader.nextName()) && reader.peek() == Token.BEGIN_ARRAY) {
+						streamNeurons(reader, normCompartment, consumer);
+						return;
+					}
+					reader.skipValue();
+				}
+				reader.endObject();
+				continue;
+			}
+			if ("neuron".equals(name) && value == Token.BEGIN_OBJECT) {
+				final StreamedNeuron neuron = new StreamedNeuron(reader, normCompartment);
+				consumer.accept((neuron.id == null) ? "Neuron" : neuron.id, neuron.getNodes());
+				return;
 			}
+			reader.skipValue();
 		}
-		if (neuronArray == null) return null;
-		final Map<String, TreeSet<SWCPoint>> map = new HashMap<>();
-		for (int i = 0; i < neuronArray.length(); i++) {
-			final JSONObject neuron = neuronArray.optJSONObject(i);
-			final String identifier = neuron.optString("idString", "Neuron "+ i);
-			map.put(identifier, extractNodesFromJSONObject(normCompartment, neuron));
+		throw new JSONException("No [neurons], [contents], or [neuron] field(s) found");
+	}
+
+	private static void streamNeurons(final JSONStreamReader reader, final String normCompartment,
+			final BiConsumer<String, TreeSet<SWCPoint>> consumer) {
+		reader.beginArray();
+		for (int i = 0; reader.hasNext(); i++) {
+			if (reader.peek() != Token.BEGIN_OBJECT) {
+				reader.skipValue();
+				consumer.accept("Neuron " + i, null);
+				continue;
+			}
+			final StreamedNeuron neuron = new StreamedNeuron(reader, normCompartment);
+			consumer.accept((neuron.id == null) ? "Neuron " + i : neuron.id, neuron.getNodes());
 		}
-		return map;
+		reader.endArray();
 	}
 
-	private static Map<String, TreeSet<SWCPoint>> extractNodes(final JSONObject neuron, final String compartment) {
-		final String normCompartment = (compartment == null) ? "" : compartment.toLowerCase();
-		final Map<String, TreeSet<SWCPoint>> map = new HashMap<>();
-		final String identifier = neuron.optString("idString", "Neuron");
-		map.put(identifier, extractNodesFromJSONObject(normCompartment, neuron));
-		return map;
+	/**
+	 * The compartments of a neuron parsed from a JSON stream. Since fields can be
+	 * listed in any order, compartments are only assembled once the whole neuron
+	 * has been read.
+	 */
+	private static class StreamedNeuron {
+
+		private final String normCompartment;
+		private String id;
+		private SWCPoint soma;
+		private List<SWCPoint> dendrite;
+		private List<SWCPoint> axon;
+
+		StreamedNeuron(final JSONStreamReader reader, final String normCompartment) {
+			this.normCompartment = normCompartment;
+			final boolean all = !isSoma() && !isDendrite() && !isAxon();
+			reader.beginObject();
+			while (reader.hasNext()) {
+				final String name = reader.nextName();
+				final Token value = reader.peek();
+				if ("idString".equals(name) && value != Token.NULL && value != Token.BEGIN_OBJECT
+						&& value != Token.BEGIN_ARRAY) {
+					id = reader.nextString();
+				} else if (SOMA.equals(name) && (all || isSoma()) && value == Token.BEGIN_OBJECT) {
+					soma = readNode(reader, Path.SWC_SOMA);
+				} else if (DENDRITE.equals(name) && (all || isDendrite()) && value == Token.BEGIN_ARRAY) {
+					dendrite = readNodes(reader, Path.SWC_DENDRITE, all);
+				} else if (AXON.equals(name) && (all || isAxon()) && value == Token.BEGIN_ARRAY) {
+					axon = readNodes(reader, Path.SWC_AXON, all);
+				} else {
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+		}
+
+		private boolean isSoma() {
+			return SOMA.equals(normCompartment) || "cell body".equals(normCompartment);
+		}
+
+		private boolean isDendrite() {
+			return DENDRITE.equals(normCompartment) || "dendrites".equals(normCompartment);
+		}
+
+		private boolean isAxon() {
+			return AXON.equals(normCompartment) || "axons".equals(normCompartment);
+		}
+
+		/* See extractNodesFromJSONObject() */
+		TreeSet<SWCPoint> getNodes() {
+			final TreeSet<SWCPoint> nodes = new TreeSet<>();
+			if (isSoma()) {
+				if (soma == null) throw new JSONException("JSONObject[\"soma\"] not found.");
+				nodes.add(soma);
+			} else if (isDendrite()) {
+				if (dendrite == null) throw new JSONException("JSONObject[\"dendrite\"] not found.");
+				nodes.addAll(dendrite);
+			} else if (isAxon()) {
+				if (axon == null) throw new JSONException("JSONObject[\"axon\"] not found.");
+				nodes.addAll(axon);
+			} else {
+				int sn = 1;
+				int failures = 0;
+				if (soma != null) {
+					nodes.add(soma);
+					sn++;
+				} else {
+					SNTUtils.log("JSON doesn not contain soma data");
+					failures++;
+				}
+				// The first node of each neurite duplicates the soma and was skipped
+				if (dendrite != null) {
+					for (final SWCPoint node : dendrite) {
+						node.id = sn++;
+						nodes.add(node);
+					}
+				} else {
+					SNTUtils.log("JSON doesn not contain dendrite data");
+					failures++;
+				}
+				if (axon != null) {
+					final int parentOffset = nodes.size() - 1;
+					for (int n = 0; n < axon.size(); n++) {
+						final SWCPoint node = axon.get(n);
+						if (n > 0) node.parent += parentOffset;
+						node.id = sn++;
+						nodes.add(node);
+					}
+				} else {
+					SNTUtils.log("JSON doesn not contain axon data");
+					failures++;
+				}
+				if (failures == 3) {
+					throw new JSONException("No [soma], [dendrites], or [axon] field(s) found");
+				}
+			}
+			return nodes;
+		}
+
+		private static List<SWCPoint> readNodes(final JSONStreamReader reader, final int swcType,
+				final boolean skipFirst) {
+			final List<SWCPoint> nodes = new ArrayList<>();
+			reader.beginArray();
+			if (skipFirst && reader.hasNext()) reader.skipValue();
+			while (reader.hasNext())
+				nodes.add(readNode(reader, swcType));
+			reader.endArray();
+			return nodes;
+		}
+
+		private static SWCPoint readNode(final JSONStreamReader reader, final int swcType) {
+			int sn = 1;
+			int parent = -1;
+			int allenId = -1;
+			double x = Double.NaN;
+			double y = Double.NaN;
+			double z = Double.NaN;
+			double radius = 1;
+			reader.beginObject();
+			while (reader.hasNext()) {
+				switch (reader.nextName()) {
+				case "sampleNumber":
+					sn = reader.optInt(1);
+					break;
+				case "parentNumber":
+					parent = reader.optInt(-1);
+					break;
+				case "allenId":
+					allenId = reader.optInt(-1);
+					break;
+				case "x":
+					x = reader.nextDouble();
+					break;
+				case "y":
+					y = reader.nextDouble();
+					break;
+				case "z":
+					z = reader.nextDouble();
+					break;
+				case "radius":
+					radius = reader.optDouble(1);
+					break;
+				default:
+					reader.skipValue();
+					break;
+				}
+			}
+			reader.endObject();
+			if (Double.isNaN(x) || Double.isNaN(y) || Double.isNaN(z))
+				throw new JSONException("Node " + sn + " lacks x, y, or z coordinates");
+			return newNode(sn, swcType, x, y, z, radius, parent, allenId);
+		}
 	}
 
 	private static TreeSet<SWCPoint> extractNodesFromJSONObject(final String normCompartment, final JSONObject neuron) {
@@ -349,13 +599,18 @@ public class MouseLightLoader {
 		final double z = node.getDouble("z");
 		final double radius = node.optDouble("radius", 1);
 		final int parent = node.optInt("parentNumber", -1);
+		final int allenId = node.optInt("allenId", -1);
+		return newNode(sn, swcType, x, y, z, radius, parent, allenId);
+	}
+
+	private static SWCPoint newNode(final int sn, final int swcType, final double x, final double y,
+			final double z, final double radius, final int parent, final int allenId) {
 		final SWCPoint point = new SWCPoint(sn, swcType, x, y, z, radius, parent)  {
 			@Override
 			public String toString() {
 				return String.valueOf(id);
 			}
 		};
-		final int allenId = node.optInt("allenId", -1);
 		// TODO: add support for Allen v3
 		// return null if allenId is valid but does not exist in brainAreas.json
 		// This is a workaround for until we migrate to Allen CCF v3
@@ -0,0 +1,552 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2021 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+import sc.fiji.snt.PathAndFillManager;
+import sc.fiji.snt.util.SWCPoint;
+
+/**
+ * Column-oriented, in-memory representation of SWC data: Each SWC field is
+ * stored in a primitive array, so that no object is allocated per node. This
+ * class also implements a streaming SWC tokenizer (numbers are parsed directly
+ * from the character buffer, without intermediate Strings) and writer. It is
+ * used by {@link PathAndFillManager} to import and export SWC files.
+ * <p>
+ * Parsing follows the rules of the legacy importer: Everything after a
+ * {@code #} is ignored, blank lines are skipped, fields are separated by
+ * whitespace, and lines must contain at least 7 fields (extra fields are
+ * ignored). Radii that cannot be parsed (e.g., "nan") are set to 0.
+ * </p>
+ */
+public class SWCColumns {
+
+	private static final int INITIAL_CAPACITY = 1024;
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+	private static final double[] POWERS_OF_TEN = new double[23];
+	static {
+		POWERS_OF_TEN[0] = 1d;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++)
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10d;
+	}
+
+	private int size;
+	private int[] ids;
+	private int[] types;
+	private int[] parents;
+	private double[] xs;
+	private double[] ys;
+	private double[] zs;
+	private double[] radii;
+
+	/** Creates an empty instance. */
+	public SWCColumns() {
+		this(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Creates an empty instance.
+	 *
+	 * @param capacity the expected number of nodes
+	 */
+	public SWCColumns(final int capacity) {
+		final int c = Math.max(1, capacity);
+		ids = new int[c];
+		types = new int[c];
+		parents = new int[c];
+		xs = new double[c];
+		ys = new double[c];
+		zs = new double[c];
+		radii = new double[c];
+	}
+
+	/**
+	 * Reads SWC data from a file.
+	 *
+	 * @param file the SWC file
+	 * @param swcTypes if specified, only nodes of these SWC types are retained
+	 * @return the parsed data
+	 * @throws IOException if the file could not be read
+	 * @throws IllegalArgumentException if the file contains malformed data
+	 */
+	public static SWCColumns read(final File file, final int... swcTypes) throws IOException {
+		try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+			return read(reader, swcTypes);
+		}
+	}
+
+	/**
+	 * Reads SWC data from a character stream. The stream is consumed but not
+	 * closed. There is no need to wrap it in a buffered reader.
+	 *
+	 * @param reader the character stream
+	 * @param swcTypes if specified, only nodes of these SWC types are retained
+	 * @return the parsed data
+	 * @throws IOException if the stream could not be read
+	 * @throws IllegalArgumentException if the stream contains malformed data
+	 */
+	public static SWCColumns read(final Reader reader, final int... swcTypes) throws IOException {
+		final SWCColumns columns = new SWCColumns();
+		final int[] tokens = new int[32]; // [start, end) pairs of the first 16 fields
+		char[] buf = new char[1 << 16];
+		int len = 0;
+		int scanned = 0;
+		while (true) {
+			final int n = reader.read(buf, len, buf.length - len);
+			if (n < 0) {
+				if (len > 0) columns.parseLine(buf, 0, len, tokens, swcTypes);
+				break;
+			}
+			len += n;
+			int lineStart = 0;
+			for (int i = scanned; i < len; i++) {
+				if (buf[i] == '\n') {
+					columns.parseLine(buf, lineStart, i, tokens, swcTypes);
+					lineStart = i + 1;
+				}
+			}
+			final int remaining = len - lineStart;
+			if (lineStart == 0 && len == buf.length) {
+				buf = Arrays.copyOf(buf, buf.length * 2); // line longer than buffer
+			}
+			else if (remaining > 0) {
+				System.arraycopy(buf, lineStart, buf, 0, remaining);
+			}
+			len = remaining;
+			scanned = remaining;
+		}
+		return columns;
+	}
+
+	/**
+	 * Converts a collection of {@link SWCPoint}s. Only the SWC fields are
+	 * retained.
+	 *
+	 * @param points the points to be converted
+	 * @return the converted data, in the iteration order of {@code points}
+	 */
+	public static SWCColumns fromPoints(final Collection<SWCPoint> points) {
+		final SWCColumns columns = new SWCColumns(points.size());
+		for (final SWCPoint p : points)
+			columns.add(p.id, p.type, p.x, p.y, p.z, p.radius, p.parent);
+		return columns;
+	}
+
+	/**
+	 * Appends a node.
+	 */
+	public void add(final int id, final int type, final double x, final double y, final double z,
+		final double radius, final int parent)
+	{
+		if (size == ids.length) grow();
+		ids[size] = id;
+		types[size] = type;
+		xs[size] = x;
+		ys[size] = y;
+		zs[size] = z;
+		radii[size] = radius;
+		parents[size++] = parent;
+	}
+
+	/** @return the number of nodes */
+	public int size() {
+		return size;
+	}
+
+	public int getId(final int i) {
+		return ids[i];
+	}
+
+	public int getType(final int i) {
+		return types[i];
+	}
+
+	public int getParent(final int i) {
+		return parents[i];
+	}
+
+	public double getX(final int i) {
+		return xs[i];
+	}
+
+	public double getY(final int i) {
+		return ys[i];
+	}
+
+	public double getZ(final int i) {
+		return zs[i];
+	}
+
+	public double getRadius(final int i) {
+		return radii[i];
+	}
+
+	/**
+	 * Scales and translates all coordinates: {@code x = x * xScale + xOffset},
+	 * etc. Radii are not modified.
+	 */
+	public void transform(final double xScale, final double yScale, final double zScale,
+		final double xOffset, final double yOffset, final double zOffset)
+	{
+		if (xScale == 1 && yScale == 1 && zScale == 1 && xOffset == 0 && yOffset == 0 && zOffset == 0)
+			return;
+		for (int i = 0; i < size; i++) {
+			xs[i] = xScale * xs[i] + xOffset;
+			ys[i] = yScale * ys[i] + yOffset;
+			zs[i] = zScale * zs[i] + zOffset;
+		}
+	}
+
+	/**
+	 * Scales all coordinates and radii.
+	 */
+	public void scale(final double xScale, final double yScale, final double zScale, final double radiusScale) {
+		for (int i = 0; i < size; i++) {
+			xs[i] *= xScale;
+			ys[i] *= yScale;
+			zs[i] *= zScale;
+			radii[i] *= radiusScale;
+		}
+	}
+
+	/**
+	 * Returns a copy of this data sorted by node id, in which only the first
+	 * occurrence of duplicated ids is retained (the same semantics of inserting
+	 * {@link SWCPoint}s into a {@code TreeSet}).
+	 *
+	 * @return the sorted data, or this instance if it is already sorted and free
+	 *         of duplicates
+	 */
+	public SWCColumns sortedById() {
+		boolean sorted = true;
+		for (int i = 1; i < size && sorted; i++)
+			sorted = ids[i] > ids[i - 1];
+		if (sorted) return this;
+		final long[] keys = new long[size];
+		for (int i = 0; i < size; i++)
+			keys[i] = ((long) ids[i] << 32) | i; // sort by id, then by position
+		Arrays.sort(keys);
+		final SWCColumns result = new SWCColumns(size);
+		for (int k = 0; k < size; k++) {
+			final int i = (int) keys[k];
+			if (result.size > 0 && result.ids[result.size - 1] == ids[i]) continue;
+			result.add(ids[i], types[i], xs[i], ys[i], zs[i], radii[i], parents[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * Resolves the parent of each node. Requires nodes to be sorted by id (see
+	 * {@link #sortedById()}). Lookups use a direct id-to-index table when ids
+	 * are reasonably dense, and binary search otherwise.
+	 *
+	 * @return the index of the parent of each node, or -1 if the node is a root
+	 *         or if its parent does not exist
+	 */
+	public int[] parentIndices() {
+		final int[] result = new int[size];
+		if (size == 0) return result;
+		final long range = (long) ids[size - 1] - ids[0] + 1;
+		if (range <= 4L * size + 1024) {
+			final int offset = ids[0];
+			final int[] table = new int[(int) range];
+			Arrays.fill(table, -1);
+			for (int i = 0; i < size; i++)
+				table[ids[i] - offset] = i;
+			for (int i = 0; i < size; i++) {
+				final long slot = (long) parents[i] - offset;
+				result[i] = (parents[i] == -1 || slot < 0 || slot >= range) ? -1 : table[(int) slot];
+			}
+		}
+		else {
+			for (int i = 0; i < size; i++) {
+				final int idx = (parents[i] == -1) ? -1 : Arrays.binarySearch(ids, 0, size, parents[i]);
+				result[i] = Math.max(-1, idx);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Converts this data into {@link SWCPoint}s.
+	 *
+	 * @return the list of points, in storage order
+	 */
+	public List<SWCPoint> toPoints() {
+		final List<SWCPoint> points = new ArrayList<>(size);
+		for (int i = 0; i < size; i++)
+			points.add(new SWCPoint(ids[i], types[i], xs[i], ys[i], zs[i], radii[i], parents[i]));
+		return points;
+	}
+
+	/**
+	 * Writes this data as SWC to a file (UTF-8).
+	 *
+	 * @param file the output file
+	 * @param header optional comment lines (without leading {@code #}) to be
+	 *          written before the data
+	 * @throws IOException if the file could not be written
+	 */
+	public void write(final File file, final String... header) throws IOException {
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+			for (final String line : header)
+				writer.write("# " + line + System.lineSeparator());
+			write(writer);
+		}
+	}
+
+	/**
+	 * Writes this data as SWC (one node per line, tab separated, with
+	 * coordinates and radii rounded to 6 decimal places). The writer is flushed
+	 * but not closed.
+	 *
+	 * @param writer the output stream
+	 * @throws IOException if writing failed
+	 */
+	public void write(final Writer writer) throws IOException {
+		final String newLine = System.lineSeparator();
+		final StringBuilder sb = new StringBuilder(1 << 16);
+		final char[] chunk = new char[1 << 16];
+		for (int i = 0; i < size; i++) {
+			sb.append(ids[i]).append('\t').append(types[i]).append('\t');
+			appendFixed6(sb, xs[i]);
+			sb.append(' ');
+			appendFixed6(sb, ys[i]);
+			sb.append(' ');
+			appendFixed6(sb, zs[i]);
+			sb.append(' ');
+			appendFixed6(sb, radii[i]);
+			sb.append('\t').append(parents[i]).append(newLine);
+			if (sb.length() > chunk.length - 256) {
+				flush(sb, chunk, writer);
+			}
+		}
+		flush(sb, chunk, writer);
+		writer.flush();
+	}
+
+	private static void flush(final StringBuilder sb, final char[] chunk, final Writer writer) throws IOException {
+		final int length = sb.length();
+		sb.getChars(0, length, chunk, 0);
+		writer.write(chunk, 0, length);
+		sb.setLength(0);
+	}
+
+	/*
+	 * Appends v with 6 decimal places, exactly as String.format(Locale.US,
+	 * "%.6f", v). The formatter rounds the decimal representation of v half-up,
+	 * whereas abs * 1e6 carries the binary rounding error of v and of the
+	 * product (a few ulps). Values whose scaled fraction is within that error
+	 * of a tie are thus delegated to the formatter.
+	 */
+	static void appendFixed6(final StringBuilder sb, final double v) {
+		final double abs = Math.abs(v);
+		final double scaledValue = abs * 1e6;
+		if (Double.isNaN(v) || Double.isInfinite(v) || abs >= 1e9 ||
+			Math.abs(scaledValue - Math.floor(scaledValue) - 0.5) <= 4 * Math.ulp(scaledValue))
+		{
+			sb.append(String.format(Locale.US, "%.6f", v));
+			return;
+		}
+		if (Double.doubleToRawLongBits(v) < 0) sb.append('-');
+		final long scaled = Math.round(scaledValue);
+		sb.append(scaled / 1000000).append('.');
+		final long fraction = scaled % 1000000;
+		for (long p = 100000; p > fraction && p > 1; p /= 10)
+			sb.append('0');
+		sb.append(fraction);
+	}
+
+	private void grow() {
+		final int c = ids.length + (ids.length >> 1) + 1;
+		ids = Arrays.copyOf(ids, c);
+		types = Arrays.copyOf(types, c);
+		parents = Arrays.copyOf(parents, c);
+		xs = Arrays.copyOf(xs, c);
+		ys = Arrays.copyOf(ys, c);
+		zs = Arrays.copyOf(zs, c);
+		radii = Arrays.copyOf(radii, c);
+	}
+
+	private void parseLine(final char[] buf, final int start, int end, final int[] tokens,
+		final int... swcTypes)
+	{
+		for (int i = start; i < end; i++) {
+			if (buf[i] == '#') {
+				end = i;
+				break;
+			}
+		}
+		int count = 0;
+		int i = start;
+		while (i < end) {
+			while (i < end && isWhitespace(buf[i]))
+				i++;
+			if (i == end) break;
+			final int tokenStart = i;
+			while (i < end && !isWhitespace(buf[i]))
+				i++;
+			if (count < tokens.length / 2) {
+				tokens[2 * count] = tokenStart;
+				tokens[2 * count + 1] = i;
+			}
+			count++;
+		}
+		if (count == 0) return;
+		if (count < 7) {
+			throw new IllegalArgumentException("Wrong number of fields (" + count + ") in line: " +
+				new String(buf, start, end - start).trim());
+		}
+		try {
+			final int type = parseInt(buf, tokens[2], tokens[3]);
+			if (!matchesType(type, swcTypes)) return;
+			final int id = parseInt(buf, tokens[0], tokens[1]);
+			final double x = parseDouble(buf, tokens[4], tokens[5]);
+			final double y = parseDouble(buf, tokens[6], tokens[7]);
+			final double z = parseDouble(buf, tokens[8], tokens[9]);
+			double radius;
+			try {
+				radius = parseDouble(buf, tokens[10], tokens[11]);
+			}
+			catch (final NumberFormatException ignored) {
+				radius = 0; // files in which radius is set to NaN
+			}
+			final int parent = parseInt(buf, tokens[12], tokens[13]);
+			add(id, type, x, y, z, radius, parent);
+		}
+		catch (final NumberFormatException nfe) {
+			throw new IllegalArgumentException("There was a malformed number in line: " +
+				new String(buf, start, end - start).trim());
+		}
+	}
+
+	private static boolean matchesType(final int type, final int... swcTypes) {
+		if (swcTypes == null || swcTypes.length == 0) return true;
+		for (final int t : swcTypes)
+			if (t == type) return true;
+		return false;
+	}
+
+	/* The characters matched by the \s regex class */
+	private static boolean isWhitespace(final char c) {
+		return c == ' ' || c == '\t' || c == '\r' || c == '\n' || c == '\f' || c == 0x0B;
+	}
+
+	static int parseInt(final char[] buf, final int start, final int end) {
+		int i = start;
+		final boolean negative = buf[i] == '-';
+		if (negative || buf[i] == '+') i++;
+		if (i == end || end - i > 9) // empty, or possible overflow
+			return Integer.parseInt(new String(buf, start, end - start));
+		int value = 0;
+		for (; i < end; i++) {
+			final int d = buf[i] - '0';
+			if (d < 0 || d > 9) return Integer.parseInt(new String(buf, start, end - start));
+			value = value * 10 + d;
+		}
+		return negative ? -value : value;
+	}
+
+	/*
+	 * Parses plain decimal numbers (with optional exponent) directly from the
+	 * buffer. When the significand fits in 53 bits and the decimal exponent is
+	 * small, the result is obtained with a single correctly rounded operation,
+	 * i.e., it is identical to Double.parseDouble(). Anything else is delegated
+	 * to Double.parseDouble().
+	 */
+	static double parseDouble(final char[] buf, final int start, final int end) {
+		int i = start;
+		final boolean negative = buf[i] == '-';
+		if (negative || buf[i] == '+') i++;
+		long mantissa = 0;
+		int exponent = 0;
+		int significantDigits = 0;
+		boolean digits = false;
+		boolean truncated = false;
+		for (; i < end; i++) {
+			final int d = buf[i] - '0';
+			if (d < 0 || d > 9) break;
+			digits = true;
+			if (significantDigits < 18) {
+				mantissa = mantissa * 10 + d;
+				if (mantissa != 0) significantDigits++;
+			}
+			else {
+				exponent++;
+				truncated |= d != 0;
+			}
+		}
+		if (i < end && buf[i] == '.') {
+			for (i++; i < end; i++) {
+				final int d = buf[i] - '0';
+				if (d < 0 || d > 9) break;
+				digits = true;
+				if (significantDigits < 18) {
+					mantissa = mantissa * 10 + d;
+					if (mantissa != 0) significantDigits++;
+					exponent--;
+				}
+				else {
+					truncated |= d != 0;
+				}
+			}
+		}
+		if (digits && i < end && (buf[i] == 'e' || buf[i] == 'E')) {
+			i++;
+			final boolean negativeExponent = i < end && buf[i] == '-';
+			if (i < end && (buf[i] == '-' || buf[i] == '+')) i++;
+			int e = 0;
+			final int exponentStart = i;
+			for (; i < end && e < 10000; i++) {
+				final int d = buf[i] - '0';
+				if (d < 0 || d > 9) break;
+				e = e * 10 + d;
+			}
+			if (i == exponentStart) digits = false;
+			exponent += negativeExponent ? -e : e;
+		}
+		if (!digits || i != end || truncated || mantissa >= MAX_EXACT_MANTISSA ||
+			exponent < -22 || exponent > 22)
+		{
+			return Double.parseDouble(new String(buf, start, end - start));
+		}
+		final double value = (exponent < 0) ? mantissa / POWERS_OF_TEN[-exponent]
+			: mantissa * POWERS_OF_TEN[exponent];
+		return negative ? -value : value;
+	}
+
+}
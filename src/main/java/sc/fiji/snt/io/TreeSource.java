@@ -0,0 +1,493 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2021 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.AbstractCollection;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import sc.fiji.snt.SNTUtils;
+import sc.fiji.snt.Tree;
+
+/**
+ * A lazy source of {@link Tree}s stored in a collection of reconstruction files.
+ * Unlike {@link Tree#listFromDir(String)}, files are only read when iterated,
+ * by a pipeline of background threads that prefetch a bounded number of files
+ * ahead of the consumer. Memory usage is thus bounded by the number of files
+ * being read, not by the size of the collection.
+ * <p>
+ * Reading is split in two stages: a few I/O threads load the raw contents of
+ * files, which are then parsed by a larger pool of parser threads, so that
+ * disk access and parsing overlap. Each call to {@link #iterator()},
+ * {@link #stream()} or {@link #readAll()} reads the files anew, in the order
+ * they were specified. Files that cannot be read are skipped. Progress can be
+ * monitored with a {@link ProgressListener}, and ongoing reads aborted with
+ * {@link #cancel()}.
+ * </p>
+ *
+ * @see Tree#streamFromDir(String, String, String...)
+ */
+public class TreeSource implements Iterable<Tree> {
+
+	/**
+	 * Listener notified as the files of a {@link TreeSource} are read. Calls are
+	 * serialized, but may originate from the background threads of the source.
+	 */
+	@FunctionalInterface
+	public interface ProgressListener {
+
+		/**
+		 * Called once a file has been read.
+		 *
+		 * @param file      the file that has been read
+		 * @param success   whether any tree could be retrieved from {@code file}
+		 * @param filesRead the number of files read so far
+		 * @param fileCount the total number of files to be read
+		 */
+		void fileRead(File file, boolean success, int filesRead, int fileCount);
+	}
+
+	private final File[] files;
+	private final Set<Run> runs = ConcurrentHashMap.newKeySet();
+	private String[] swcTypes;
+	private int concurrency;
+	private int ioConcurrency;
+	private int prefetch;
+	private ProgressListener listener;
+	private volatile boolean cancelled;
+
+	/**
+	 * Instantiates a new source from a list of files.
+	 *
+	 * @param files the reconstruction files (.traces, .(e)swc, .json, .sntb)
+	 */
+	public TreeSource(final File... files) {
+		this.files = (files == null) ? new File[0] : files;
+		concurrency = Math.max(1, Runtime.getRuntime().availableProcessors());
+		ioConcurrency = Math.min(2, concurrency);
+		prefetch = 2 * concurrency;
+	}
+
+	/**
+	 * Instantiates a new source from reconstruction files stored in a common
+	 * directory. Files are sorted by name.
+	 *
+	 * @param dir     the directory containing the reconstruction files
+	 * @param pattern the filename substring (case sensitive) to be matched. Only
+	 *                filenames containing {@code pattern} will be considered.
+	 *                {@code null} allowed.
+	 * @return the source. It holds no files if {@code dir} is not a valid,
+	 *         readable directory.
+	 */
+	public static TreeSource fromDir(final String dir, final String pattern) {
+		final File[] files = (dir == null) ? null : SNTUtils.getReconstructionFiles(new File(dir), pattern);
+		if (files != null) Arrays.sort(files, Comparator.comparing(File::getName));
+		return new TreeSource(files);
+	}
+
+	/**
+	 * Restricts the trees retrieved by this source to the specified SWC type(s).
+	 *
+	 * @param swcTypes SWC type(s) a string with at least 2 characters describing
+	 *                 the SWC type allowed in the subtree (e.g., 'soma', 'axn', or
+	 *                 'dendrite'). Ignored when {@code null}
+	 * @return this source
+	 */
+	public TreeSource setSWCTypes(final String... swcTypes) {
+		this.swcTypes = swcTypes;
+		return this;
+	}
+
+	/**
+	 * Sets the number of files parsed in parallel. Defaults to the number of
+	 * available processors.
+	 *
+	 * @param concurrency the number of parser threads
+	 * @return this source
+	 */
+	public TreeSource setConcurrency(final int concurrency) {
+		this.concurrency = Math.max(1, concurrency);
+		return this;
+	}
+
+	/**
+	 * Sets the number of files loaded from disk in parallel. Defaults to 2.
+	 *
+	 * @param ioConcurrency the number of I/O threads
+	 * @return this source
+	 */
+	public TreeSource setIOConcurrency(final int ioConcurrency) {
+		this.ioConcurrency = Math.max(1, ioConcurrency);
+		return this;
+	}
+
+	/**
+	 * Sets the maximum number of files read ahead of the consumer. Defaults to
+	 * twice the concurrency.
+	 *
+	 * @param prefetch the maximum number of files being read or waiting to be
+	 *                 consumed
+	 * @return this source
+	 */
+	public TreeSource setPrefetch(final int prefetch) {
+		this.prefetch = Math.max(1, prefetch);
+		return this;
+	}
+
+	/**
+	 * Sets the listener to be notified as files are read.
+	 *
+	 * @param listener the progress listener. {@code null} allowed
+	 * @return this source
+	 */
+	public TreeSource setProgressListener(final ProgressListener listener) {
+		this.listener = listener;
+		return this;
+	}
+
+	/**
+	 * @return the number of files in this source. Note that a file may hold more
+	 *         than one tree.
+	 */
+	public int getFileCount() {
+		return files.length;
+	}
+
+	/**
+	 * Aborts all ongoing reads of this source. Once cancelled, the source yields
+	 * no further trees: iterators are exhausted, {@link #readAll()} returns the
+	 * trees read until cancellation, and {@link #parallelForEach(Consumer)}
+	 * returns once the trees being processed have been handled.
+	 */
+	public void cancel() {
+		cancelled = true;
+		runs.forEach(Run::close);
+	}
+
+	/**
+	 * @return whether {@link #cancel()} has been called
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Returns an iterator that reads the files of this source in the background.
+	 * The iterator releases its threads once exhausted. If iteration is
+	 * abandoned earlier, idle threads expire after a few seconds.
+	 */
+	@Override
+	public Iterator<Tree> iterator() {
+		return new PrefetchingIterator();
+	}
+
+	/**
+	 * Returns a sequential, ordered stream of the trees in this source. Threads
+	 * are released when the stream is closed. Note that parallel streams would
+	 * buffer large batches of trees: Use {@link #parallelForEach(Consumer)} to
+	 * process trees in parallel.
+	 *
+	 * @return the stream of trees
+	 */
+	public Stream<Tree> stream() {
+		final PrefetchingIterator iterator = new PrefetchingIterator();
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false)
+				.onClose(iterator::close);
+	}
+
+	/**
+	 * Reads all the trees in this source. Files are read and parsed in parallel,
+	 * but trees are listed in the order of their files. The calling thread can be
+	 * interrupted to abort the read.
+	 *
+	 * @return the list of trees. If the read was cancelled, only the trees read
+	 *         until then are listed.
+	 */
+	public List<Tree> readAll() {
+		final List<Tree> trees = new ArrayList<>();
+		try (final PrefetchingIterator iterator = new PrefetchingIterator()) {
+			while (iterator.hasNext())
+				trees.add(iterator.next());
+		}
+		return trees;
+	}
+
+	/**
+	 * Reads and processes the trees in this source in parallel: Each parser
+	 * thread applies {@code action} to the trees it has parsed, so that only a
+	 * bounded number of files is held in memory. Blocks until all files have
+	 * been processed, or until the read is cancelled (or the calling thread
+	 * interrupted).
+	 *
+	 * @param action the action to be performed on each tree. Must be thread-safe.
+	 */
+	public void parallelForEach(final Consumer<? super Tree> action) {
+		final Semaphore inFlight = new Semaphore(prefetch);
+		final AtomicReference<Throwable> error = new AtomicReference<>();
+		final Run run = new Run();
+		try {
+			for (final File file : files) {
+				inFlight.acquire();
+				if (run.isClosed() || error.get() != null) {
+					inFlight.release();
+					break;
+				}
+				run.submit(file).thenAccept(trees -> trees.forEach(action)).whenComplete((v, t) -> {
+					final Throwable cause = (t instanceof CompletionException) ? t.getCause() : t;
+					if (cause != null && !(cause instanceof CancellationException) && error.compareAndSet(null, cause))
+						run.close();
+					inFlight.release();
+				});
+			}
+			// Wait for the tasks still running
+			inFlight.acquire(prefetch);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			run.close();
+		}
+		final Throwable cause = error.get();
+		if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+		if (cause instanceof Error) throw (Error) cause;
+		if (cause != null) throw new RuntimeException(cause);
+	}
+
+	/**
+	 * Returns a live collection view of this source. Iterating over the
+	 * collection reads its files anew, so that it can be passed to consumers of
+	 * collections that only iterate over their input. Note that
+	 * {@link Collection#size()} requires the files to be read once (the result
+	 * is cached).
+	 *
+	 * @return the collection view
+	 */
+	public Collection<Tree> asCollection() {
+		return new AbstractCollection<Tree>() {
+
+			private int size = -1;
+
+			@Override
+			public Iterator<Tree> iterator() {
+				return TreeSource.this.iterator();
+			}
+
+			@Override
+			public boolean isEmpty() {
+				if (size >= 0) return size == 0;
+				try (final PrefetchingIterator iterator = new PrefetchingIterator()) {
+					return !iterator.hasNext();
+				}
+			}
+
+			@Override
+			public int size() {
+				if (size < 0) {
+					int n = 0;
+					for (final Iterator<Tree> it = iterator(); it.hasNext(); it.next())
+						n++;
+					size = n;
+				}
+				return size;
+			}
+		};
+	}
+
+	/* I/O stage */
+	private byte[] load(final File file) {
+		try {
+			return Files.readAllBytes(file.toPath());
+		} catch (final IOException | SecurityException e) {
+			SNTUtils.log("Skipping " + file.getName() + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/* Parsing stage */
+	private Collection<Tree> parse(final File file, final byte[] contents) {
+		if (contents == null) return Collections.emptyList();
+		final Collection<Tree> trees;
+		try {
+			trees = Tree.listFromStream(new ByteArrayInputStream(contents), SNTUtils.stripExtension(file.getName()));
+		} catch (final RuntimeException e) {
+			SNTUtils.log("Skipping " + file.getName() + ": " + e.getMessage());
+			return Collections.emptyList();
+		}
+		if (swcTypes == null) return trees;
+		final List<Tree> filtered = new ArrayList<>(trees.size());
+		trees.forEach(t -> filtered.add(t.subTree(swcTypes)));
+		return filtered;
+	}
+
+	private static ExecutorService newPool(final int nThreads, final String name) {
+		// Idle threads expire, so that abandoned iterators do not leak threads
+		final ThreadPoolExecutor pool = new ThreadPoolExecutor(nThreads, nThreads, 5, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(), runnable -> {
+					final Thread thread = new Thread(runnable, name);
+					thread.setDaemon(true);
+					return thread;
+				});
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+	/** The state of a single pass over the files of this source. */
+	private class Run implements AutoCloseable {
+
+		private final ExecutorService ioPool = newPool(ioConcurrency, "TreeSource I/O");
+		private final ExecutorService parserPool = newPool(concurrency, "TreeSource parser");
+		private final Set<CompletableFuture<?>> inFlight = ConcurrentHashMap.newKeySet();
+		private boolean closed;
+		private int filesRead;
+
+		Run() {
+			runs.add(this);
+			if (cancelled) close();
+		}
+
+		synchronized CompletableFuture<Collection<Tree>> submit(final File file) {
+			final CompletableFuture<Collection<Tree>> future;
+			try {
+				if (closed) throw new RejectedExecutionException();
+				future = CompletableFuture.supplyAsync(() -> load(file), ioPool)
+						.thenApplyAsync(contents -> parse(file, contents), parserPool);
+			} catch (final RejectedExecutionException e) {
+				final CompletableFuture<Collection<Tree>> rejected = new CompletableFuture<>();
+				rejected.cancel(false);
+				return rejected;
+			}
+			inFlight.add(future);
+			return future.whenComplete((trees, t) -> {
+				inFlight.remove(future);
+				if (trees != null) fileRead(file, !trees.isEmpty());
+			});
+		}
+
+		private synchronized void fileRead(final File file, final boolean success) {
+			++filesRead;
+			if (listener != null && !closed) listener.fileRead(file, success, filesRead, files.length);
+		}
+
+		synchronized boolean isClosed() {
+			return closed;
+		}
+
+		@Override
+		public void close() {
+			synchronized (this) {
+				if (closed) return;
+				closed = true;
+			}
+			runs.remove(this);
+			// Pending tasks are discarded by the pools: their futures must be cancelled
+			inFlight.forEach(future -> future.cancel(true));
+			ioPool.shutdownNow();
+			parserPool.shutdownNow();
+		}
+	}
+
+	private class PrefetchingIterator implements Iterator<Tree>, AutoCloseable {
+
+		private final Run run = new Run();
+		private final ArrayDeque<CompletableFuture<Collection<Tree>>> pending = new ArrayDeque<>();
+		private final ArrayDeque<Tree> ready = new ArrayDeque<>();
+		private int nextFile;
+
+		PrefetchingIterator() {
+			submit();
+		}
+
+		private void submit() {
+			while (pending.size() < prefetch && nextFile < files.length && !run.isClosed())
+				pending.add(run.submit(files[nextFile++]));
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (ready.isEmpty()) {
+				final CompletableFuture<Collection<Tree>> head = pending.poll();
+				if (head == null || run.isClosed()) {
+					close();
+					return false;
+				}
+				submit();
+				try {
+					ready.addAll(head.get());
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					close();
+					return false;
+				} catch (final CancellationException | ExecutionException e) {
+					if (run.isClosed()) {
+						close();
+						return false;
+					}
+					SNTUtils.log("Skipping file: " + e.getCause());
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public Tree next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			return ready.poll();
+		}
+
+		@Override
+		public void close() {
+			ready.clear();
+			pending.clear();
+			run.close();
+		}
+	}
+
+}
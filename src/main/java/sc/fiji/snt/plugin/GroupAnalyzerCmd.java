@@ -25,8 +25,11 @@ package sc.fiji.snt.plugin;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.swing.SwingUtilities;
 
@@ -51,6 +54,7 @@ import sc.fiji.snt.analysis.SNTChart;
 import sc.fiji.snt.analysis.ShollAnalyzer;
 import sc.fiji.snt.gui.GuiUtils;
 import sc.fiji.snt.gui.cmds.CommonDynamicCmd;
+import sc.fiji.snt.io.TreeSource;
 import sc.fiji.snt.util.SNTColor;
 import sc.fiji.snt.viewer.MultiViewer2D;
 import sc.fiji.snt.viewer.Viewer3D;
@@ -96,6 +100,11 @@ public class GroupAnalyzerCmd extends CommonDynamicCmd {
 	@Parameter(label = "Compartments", choices = {"All", "Dendrites", "Axon"})
 	private String scope;
 
+	@Parameter(required = false, label = "Parallel processing", description = "<HTML><div WIDTH=500>"
+			+ "Measure the cells of each group concurrently? Results are the same as those of sequential "
+			+ "processing, but more cells are held in memory at once.")
+	private boolean parallel;
+
 	// II. Metrics
 	@Parameter(label = "<HTML>&nbsp;<br><b>Measurements:", persist = false, required = false, visibility = ItemVisibility.MESSAGE)
 	private String SPACER2;
@@ -219,6 +228,7 @@ public class GroupAnalyzerCmd extends CommonDynamicCmd {
 			recViewer.getManagerPanel().showProgress(-1, 0);
 		}
 		final GroupedTreeStatistics stats = new GroupedTreeStatistics();
+		stats.setParallel(parallel);
 		inputGroupsCounter = 0;
 		addGroup(stats, g1File, "Group 1");
 		addGroup(stats, g2File, "Group 2");
@@ -237,6 +247,10 @@ public class GroupAnalyzerCmd extends CommonDynamicCmd {
 
 		} else {
 
+			// Measure each group once: Plots and report reuse these statistics
+			final Map<String, DescriptiveStatistics> groupStats = new LinkedHashMap<>();
+			stats.getGroups().forEach(group -> groupStats.put(group, stats.getGroupStats(group)
+					.getDescriptiveStats(Collections.singletonList(metric)).get(metric)));
 			stats.setMinNBins(3);
 			final SNTChart histFrame = stats.getHistogram(metric);
 			final SNTChart boxFrame = stats.getBoxPlot(metric);
@@ -245,7 +259,7 @@ public class GroupAnalyzerCmd extends CommonDynamicCmd {
 			final StringBuilder reportBuilder = new StringBuilder("    ").append(metric).append(" Statistics:\r\n");
 			final SummaryStatistics uberStats = new SummaryStatistics();
 			stats.getGroups().forEach(group -> {
-				final DescriptiveStatistics dStats = stats.getGroupStats(group).getDescriptiveStats(metric);
+				final DescriptiveStatistics dStats = groupStats.get(group);
 				final long n = dStats.getN();
 				if (n > largestN[0]) largestN[0] = n;
 				reportBuilder.append(group).append(" Statistics:");
@@ -335,8 +349,13 @@ public class GroupAnalyzerCmd extends CommonDynamicCmd {
 	}
 
 	private void displayGroup(final GroupedTreeStatistics stats, String group, final double min, final double max) {
-		final List<Tree> trees = new ArrayList<>(stats.getGroupStats(group).getGroup()).subList(0,
-				Math.min(11, stats.getGroupStats(group).getGroup().size()));
+		// Take the first trees straight from the iterator: Streams of lazy groups may
+		// compute their size, which would read every file
+		final List<Tree> trees = new ArrayList<>();
+		final Iterator<Tree> it = stats.getGroupStats(group).getGroup().iterator();
+		while (trees.size() < 11 && it.hasNext())
+			trees.add(it.next());
+		if (trees.isEmpty()) return;
 		final MultiTreeColorMapper cm = new MultiTreeColorMapper(trees);
 		cm.setMinMax(min, max);
 		cm.map(metric, ColorTables.ICE);
@@ -358,8 +377,10 @@ public class GroupAnalyzerCmd extends CommonDynamicCmd {
 	private boolean addGroup(final GroupedTreeStatistics stats, final File file, final String label) {
 		if (!validFile(file)) return false;
 		inputGroupsCounter++;
-		final List<Tree> trees = Tree.listFromDir(file.getAbsolutePath(), ("all".equalsIgnoreCase(scope)) ? null : scope);
-		if (trees == null || trees.isEmpty()) return false;
+		// Trees are read on demand, so that large groups do not need to fit in memory.
+		// Files are not read here: Unreadable files are skipped during the analysis
+		final TreeSource trees = TreeSource.fromDir(file.getAbsolutePath(), ("all".equalsIgnoreCase(scope)) ? null : scope);
+		if (trees.getFileCount() == 0) return false;
 		stats.addGroup(trees, label);
 		return true;
 	}
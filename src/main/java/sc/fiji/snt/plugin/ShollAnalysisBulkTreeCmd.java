@@ -24,7 +24,6 @@ package sc.fiji.snt.plugin;
 
 import java.io.File;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import org.scijava.ItemIO;
@@ -52,6 +51,7 @@ import sc.fiji.snt.analysis.sholl.math.LinearProfileStats;
 import sc.fiji.snt.analysis.sholl.math.NormalizedProfileStats;
 import sc.fiji.snt.analysis.sholl.parsers.TreeParser;
 import sc.fiji.snt.gui.GuiUtils;
+import sc.fiji.snt.io.TreeSource;
 import sc.fiji.snt.util.Logger;
 
 /**
@@ -173,8 +173,9 @@ public class ShollAnalysisBulkTreeCmd extends ContextCommand
 	@Override
 	public void run() {
 
-		final List<Tree> treeList = Tree.listFromDir(directory.getAbsolutePath(), filenamePattern, getSWCTypes());
-		if (treeList == null || treeList.isEmpty()) {
+		final TreeSource source = TreeSource.fromDir(directory.getAbsolutePath(), filenamePattern)
+				.setSWCTypes(getSWCTypes());
+		if (source.getFileCount() == 0) {
 			final String msg = (filenamePattern == null || filenamePattern.isEmpty())
 					? "No reconstruction files found in input folder."
 					: "No reconstruction files matching '" + filenamePattern + "' were found in input folder.";
@@ -186,12 +187,11 @@ public class ShollAnalysisBulkTreeCmd extends ContextCommand
 			return;
 		}
 		logger = new Logger(context(), "Sholl");
-		logger.info("Found " + treeList.size() + " reconstructions in " + directory.getAbsolutePath());
+		logger.info("Found " + source.getFileCount() + " reconstruction files in " + directory.getAbsolutePath());
 		logger.info("Running multithreaded analysis...");
 		readPreferences();
-		treeList.parallelStream().forEach(tree -> {
-			new AnalysisRunner(tree).run();
-		});
+		// Files are parsed and analyzed in parallel, without holding the whole collection in memory
+		source.parallelForEach(tree -> new AnalysisRunner(tree).run());
 		logger.info("Done.");
 		if (commonSummaryTable == null) {
 			cancel("Options were likely invalid and no files were parsed. See Console for details.");
@@ -26,6 +26,7 @@ import ij.ImagePlus;
 import ij.measure.Calibration;
 import net.imagej.Dataset;
 import net.imagej.axis.Axes;
+import net.imglib2.Interval;
 import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.display.imagej.ImageJFunctions;
@@ -63,6 +64,10 @@ public abstract class AbstractSearch implements SearchInterface, Runnable {
     protected int timeoutSeconds;
     protected long reportEveryMilliseconds;
     protected ArrayList<SearchProgressCallback> progressListeners;
+    /* If 0, the number of nodes in the search is unbounded. */
+    protected long nodeBudget;
+    /* Null unless metrics are enabled. */
+    protected SearchMetrics metrics;
 
     protected final boolean verbose = SNTUtils.isDebugMode();
 
@@ -172,6 +177,13 @@ public abstract class AbstractSearch implements SearchInterface, Runnable {
         this.reportEveryMilliseconds = 1000;
     }
 
+    /**
+     * @return the (3D) interval over which the search is allowed to expand
+     */
+    public Interval getSearchInterval() {
+        return img;
+    }
+
     public abstract void addProgressListener(SearchProgressCallback callback);
 
     public abstract void printStatus();
@@ -184,4 +196,71 @@ public abstract class AbstractSearch implements SearchInterface, Runnable {
 
     public abstract long pointsConsideredInSearch();
 
+    /**
+     * Sets the maximum number of nodes (open and closed) the search is allowed to hold. Once the budget is
+     * exceeded the search is aborted, as if it had failed.
+     *
+     * @param nodeBudget the maximum number of nodes. If not positive, the search is unbounded (the default)
+     */
+    public void setNodeBudget(final long nodeBudget) {
+        this.nodeBudget = Math.max(0, nodeBudget);
+    }
+
+    /**
+     * @return the maximum number of nodes the search is allowed to hold, or 0 if unbounded
+     */
+    public long getNodeBudget() {
+        return nodeBudget;
+    }
+
+    protected boolean isNodeBudgetExceeded() {
+        return nodeBudget > 0 && pointsConsideredInSearch() > nodeBudget;
+    }
+
+    /**
+     * Estimates the memory held by the search state. The default implementation assumes one search node
+     * object (and its heap handle) per node in the search.
+     *
+     * @return the estimated number of bytes in use
+     */
+    public long estimatedMemoryInSearch() {
+        return pointsConsideredInSearch() * 96L;
+    }
+
+    /**
+     * Sets whether this search should collect {@link SearchMetrics}. Metrics should be enabled before the
+     * search starts running.
+     *
+     * @param enabled whether metrics should be collected. Disabled by default
+     */
+    public void setMetricsEnabled(final boolean enabled) {
+        if (enabled && metrics == null) {
+            metrics = new SearchMetrics();
+        } else if (!enabled) {
+            metrics = null;
+        }
+    }
+
+    /**
+     * @return the metrics collected by this search, or null if metrics are disabled
+     * @see #setMetricsEnabled(boolean)
+     */
+    public SearchMetrics getMetrics() {
+        return metrics;
+    }
+
+    protected void metricsStarted() {
+        if (metrics != null) metrics.searchStarted();
+    }
+
+    protected void metricsFinished() {
+        if (metrics != null) metrics.searchFinished(this);
+    }
+
+    protected void reportMemoryInSearch() {
+        final long bytes = estimatedMemoryInSearch();
+        for (final SearchProgressCallback progress : progressListeners)
+            progress.memoryInSearch(this, bytes);
+    }
+
 }
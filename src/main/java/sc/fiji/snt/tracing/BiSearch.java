@@ -96,7 +96,7 @@ public class BiSearch extends AbstractSearch {
         this.costFunction = costFunction;
         this.heuristic = heuristic;
         nodes_as_image = new SearchImageStack<>(
-                SupplierUtil.createSupplier(searchImageType, BiSearchNode.class, imgWidth, imgHeight));
+                SupplierUtil.createSupplier(searchImageType, BiSearchNode.class, xMin, yMin, imgWidth, imgHeight));
         init();
     }
 
@@ -115,7 +115,7 @@ public class BiSearch extends AbstractSearch {
         this.costFunction = costFunction;
         this.heuristic = heuristic;
         nodes_as_image = new SearchImageStack<>(
-                SupplierUtil.createSupplier(snt.getSearchImageType(), BiSearchNode.class, imgWidth, imgHeight));
+                SupplierUtil.createSupplier(snt.getSearchImageType(), BiSearchNode.class, xMin, yMin, imgWidth, imgHeight));
         init();
     }
 
@@ -133,7 +133,7 @@ public class BiSearch extends AbstractSearch {
         this.costFunction = costFunction;
         this.heuristic = heuristic;
         nodes_as_image = new SearchImageStack<>(
-                SupplierUtil.createSupplier(snt.getSearchImageType(), BiSearchNode.class, imgWidth, imgHeight));
+                SupplierUtil.createSupplier(snt.getSearchImageType(), BiSearchNode.class, xMin, yMin, imgWidth, imgHeight));
         init();
     }
 
@@ -154,7 +154,7 @@ public class BiSearch extends AbstractSearch {
         cal.pixelDepth = snt.getPixelDepth();
         this.heuristic  = new Euclidean(cal);
         nodes_as_image = new SearchImageStack<>(
-                SupplierUtil.createSupplier(snt.getSearchImageType(), BiSearchNode.class, imgWidth, imgHeight));
+                SupplierUtil.createSupplier(snt.getSearchImageType(), BiSearchNode.class, xMin, yMin, imgWidth, imgHeight));
         init();
     }
 
@@ -180,6 +180,7 @@ public class BiSearch extends AbstractSearch {
             }
 
             started_at = lastReportMilliseconds = System.currentTimeMillis();
+            metricsStarted();
 
             final BiSearchNode start = new BiSearchNode(start_x, start_y, start_z);
             final BiSearchNode goal = new BiSearchNode(goal_x, goal_y, goal_z);
@@ -202,6 +203,7 @@ public class BiSearch extends AbstractSearch {
 
             start.setHeapHandleFromStart(open_from_start.insert(start));
             goal.setHeapHandleFromGoal(open_from_goal.insert(goal));
+            if (metrics != null) metrics.heapInsertions += 2;
 
             nodes_as_image.newSlice(start_z);
             nodes_as_image.getSlice(start_z).setValue(start_x, start_y, start);
@@ -227,6 +229,12 @@ public class BiSearch extends AbstractSearch {
                     return;
                 }
 
+                if (isNodeBudgetExceeded()) {
+                    SNTUtils.log("Node budget exceeded...");
+                    reportFinished(false);
+                    return;
+                }
+
                 final boolean fromStart = open_from_start.size() < open_from_goal.size();
 
                 if (fromStart) {
@@ -235,6 +243,10 @@ public class BiSearch extends AbstractSearch {
                     p.setHeapHandleFromStart(null);
                     p.setStateFromStart(BiSearchNode.State.CLOSED);
                     closed_from_start_count++;
+                    if (metrics != null) {
+                        metrics.heapDeletions++;
+                        metrics.nodesExpanded++;
+                    }
 
                     bestFScoreFromStart = p.getFFromStart();
 
@@ -260,6 +272,10 @@ public class BiSearch extends AbstractSearch {
                     p.setHeapHandleFromGoal(null);
                     p.setStateFromGoal(BiSearchNode.State.CLOSED);
                     closed_from_goal_count++;
+                    if (metrics != null) {
+                        metrics.heapDeletions++;
+                        metrics.nodesExpanded++;
+                    }
 
                     bestFScoreFromGoal = p.getFFromGoal();
 
@@ -296,7 +312,9 @@ public class BiSearch extends AbstractSearch {
                 SNTUtils.log("Total loops = " + loops);
             }
 
+            final long reconstructionStart = System.nanoTime();
             result = reconstructPath(xSep, ySep, zSep, spacing_units);
+            if (metrics != null) metrics.pathReconstructed(reconstructionStart);
             reportFinished(true);
 
         } catch (Exception ex) {
@@ -376,16 +394,21 @@ public class BiSearch extends AbstractSearch {
             newNode.setState(BiSearchNode.State.OPEN, fromStart);
             newNode.heapInsert(open_queue, fromStart);
             nodes_as_image.getSlice(newNode.getZ()).setValue(newNode.getX(), newNode.getY(), newNode);
+            if (metrics != null) metrics.heapInsertions++;
 
         } else if (alreadyThere.getF(fromStart) > tentative_f) {
 
             alreadyThere.setFrom(tentative_g, tentative_f, predecessor, fromStart);
             AddressableHeap.Handle<BiSearchNode, Void> handle = alreadyThere.getHeapHandle(fromStart);
             if (handle == null) {
+                if (metrics != null && alreadyThere.getState(fromStart) == BiSearchNode.State.CLOSED)
+                    metrics.nodesReopened++;
                 alreadyThere.setState(BiSearchNode.State.OPEN, fromStart);
                 alreadyThere.heapInsert(open_queue, fromStart);
+                if (metrics != null) metrics.heapInsertions++;
             } else {
                 alreadyThere.heapDecreaseKey(fromStart);
+                if (metrics != null) metrics.heapDecreaseKeys++;
             }
             final double pathLength = alreadyThere.getGFromStart() + alreadyThere.getGFromGoal();
             if (pathLength < bestPathLength)
@@ -436,6 +459,7 @@ public class BiSearch extends AbstractSearch {
     }
 
     public void reportFinished(final boolean success) {
+        metricsFinished();
         for (final SearchProgressCallback progress : progressListeners)
             progress.finished(this, success);
     }
@@ -463,6 +487,7 @@ public class BiSearch extends AbstractSearch {
             }
 
             reportPointsInSearch();
+            reportMemoryInSearch();
 
             loops_at_last_report = loops;
             lastReportMilliseconds = currentMilliseconds;
@@ -0,0 +1,319 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2021 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.tracing;
+
+import ij.measure.Calibration;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+import sc.fiji.snt.Path;
+import sc.fiji.snt.SNT;
+import sc.fiji.snt.SNTUtils;
+import sc.fiji.snt.SearchProgressCallback;
+
+import java.util.ArrayList;
+
+/**
+ * A search between two points that is restricted to a corridor around them, so that memory usage remains
+ * bounded on very large images. The corridor is the bounding box of the start and goal points, padded by a
+ * configurable margin. If the search cannot find a route within the corridor, the padding is doubled and the
+ * search is repeated, until the corridor covers the whole image. In addition, each attempt is aborted once
+ * it holds more nodes than the {@link #setNodeBudget(long) node budget}.
+ * <p>
+ * The actual searches are delegated to {@link AbstractSearch} instances created by a {@link SearchFactory}
+ * over the corridor. Progress (including memory use) of the delegate is relayed to the listeners of this
+ * search.
+ * </p>
+ */
+public class BoundedSearch extends AbstractSearch {
+
+    /**
+     * Creates the delegate searches of a {@link BoundedSearch}.
+     */
+    @FunctionalInterface
+    public interface SearchFactory {
+
+        /**
+         * @param corridor the view of the image the search is restricted to. Note that the view is not
+         *                 zero-min: voxel coordinates are those of the whole image
+         * @return the search between the start and goal points, restricted to {@code corridor}
+         */
+        AbstractSearch create(RandomAccessibleInterval<? extends RealType<?>> corridor);
+    }
+
+    private final int start_x;
+    private final int start_y;
+    private final int start_z;
+    private final int goal_x;
+    private final int goal_y;
+    private final int goal_z;
+    private final SearchFactory factory;
+    private final RelayCallback relay;
+    private int padding = 20;
+    private volatile AbstractSearch currentSearch;
+    private Path result;
+    private int exitReason;
+    private int attempts;
+
+    public BoundedSearch(final SNT snt, final RandomAccessibleInterval<? extends RealType<?>> image,
+                         final int start_x, final int start_y, final int start_z,
+                         final int goal_x, final int goal_y, final int goal_z,
+                         final SearchFactory factory)
+    {
+        super(snt, image);
+        this.start_x = start_x;
+        this.start_y = start_y;
+        this.start_z = start_z;
+        this.goal_x = goal_x;
+        this.goal_y = goal_y;
+        this.goal_z = goal_z;
+        this.factory = factory;
+        this.relay = new RelayCallback();
+        this.progressListeners = new ArrayList<>();
+    }
+
+    /* If you specify 0 for timeoutSeconds then there is no timeout. */
+    public BoundedSearch(final RandomAccessibleInterval<? extends RealType<?>> image,
+                         final Calibration calibration,
+                         final int start_x, final int start_y, final int start_z,
+                         final int goal_x, final int goal_y, final int goal_z,
+                         final int timeoutSeconds, final long reportEveryMilliseconds,
+                         final SearchFactory factory)
+    {
+        super(image, calibration, timeoutSeconds, reportEveryMilliseconds);
+        this.start_x = start_x;
+        this.start_y = start_y;
+        this.start_z = start_z;
+        this.goal_x = goal_x;
+        this.goal_y = goal_y;
+        this.goal_z = goal_z;
+        this.factory = factory;
+        this.relay = new RelayCallback();
+        this.progressListeners = new ArrayList<>();
+    }
+
+    /**
+     * Sets the initial padding of the corridor.
+     *
+     * @param padding the number of voxels by which the bounding box of the start and goal points is
+     *                expanded (in each direction) in the first attempt
+     */
+    public void setPadding(final int padding) {
+        if (padding < 1) throw new IllegalArgumentException("Padding must be positive");
+        this.padding = padding;
+    }
+
+    public int getPadding() {
+        return padding;
+    }
+
+    /**
+     * Computes the corridor for the specified padding, clipped to the image bounds.
+     *
+     * @param pad the padding (in voxels)
+     * @return the corridor
+     */
+    public Interval getCorridor(final long pad) {
+        final long[] min = {
+                Math.max(xMin, Math.min(start_x, goal_x) - pad),
+                Math.max(yMin, Math.min(start_y, goal_y) - pad),
+                Math.max(zMin, Math.min(start_z, goal_z) - pad)};
+        final long[] max = {
+                Math.min(xMax, Math.max(start_x, goal_x) + pad),
+                Math.min(yMax, Math.max(start_y, goal_y) + pad),
+                Math.min(zMax, Math.max(start_z, goal_z) + pad)};
+        return new FinalInterval(min, max);
+    }
+
+    @Override
+    public void run() {
+        final long startedAt = System.currentTimeMillis();
+        metricsStarted();
+        long pad = padding;
+        attempts = 0;
+        result = null;
+        while (true) {
+            final Interval corridor = getCorridor(pad);
+            final AbstractSearch search = factory.create(Views.interval(img, corridor));
+            search.setNodeBudget(nodeBudget);
+            search.addProgressListener(relay);
+            search.setMetricsEnabled(metrics != null);
+            currentSearch = search;
+            ++attempts;
+            if (verbose) {
+                SNTUtils.log("Bounded search attempt #" + attempts + ": corridor " + Util.printInterval(corridor));
+            }
+            search.run();
+            if (metrics != null) metrics.addDelegate(search.getMetrics());
+            result = search.getResult();
+            if (result != null) {
+                setExitReason(SearchThread.SUCCESS);
+                reportFinished(true);
+                return;
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                setExitReason(SearchThread.CANCELLED);
+                break;
+            }
+            final int innerReason = exitReasonOf(search);
+            if (innerReason >= 0 && innerReason != SearchThread.POINTS_EXHAUSTED) {
+                setExitReason(innerReason);
+                break;
+            }
+            if (search.isNodeBudgetExceeded()) {
+                setExitReason(SearchThread.NODE_BUDGET_EXCEEDED);
+                break;
+            }
+            if (timeoutSeconds > 0 && System.currentTimeMillis() - startedAt > 1000L * timeoutSeconds) {
+                setExitReason(SearchThread.TIMED_OUT);
+                break;
+            }
+            if (coversImage(corridor)) {
+                // Nothing else to explore
+                setExitReason(SearchThread.POINTS_EXHAUSTED);
+                break;
+            }
+            // Search exhausted the corridor: grow it
+            pad *= 2;
+        }
+        SNTUtils.log("Bounded search failed: " + SearchThread.EXIT_REASONS_STRINGS[exitReason]);
+        reportFinished(false);
+    }
+
+    private boolean coversImage(final Interval corridor) {
+        return corridor.min(0) <= xMin && corridor.min(1) <= yMin && corridor.min(2) <= zMin
+                && corridor.max(0) >= xMax && corridor.max(1) >= yMax && corridor.max(2) >= zMax;
+    }
+
+    private static int exitReasonOf(final AbstractSearch search) {
+        if (search instanceof SearchThread) return ((SearchThread) search).getExitReason();
+        if (search instanceof PackedSearch) return ((PackedSearch) search).getExitReason();
+        return -1;
+    }
+
+    /* This method is used to set the reason for the search finishing */
+    void setExitReason(final int exitReason) {
+        this.exitReason = exitReason;
+    }
+
+    /**
+     * @return the reason for the search finishing, one of {@link SearchThread#EXIT_REASONS_STRINGS}
+     */
+    public int getExitReason() {
+        return exitReason;
+    }
+
+    /**
+     * @return the number of corridors explored by the last run
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * @return the delegate search currently running (or the last one to have run), or null if the search has
+     * not started
+     */
+    public AbstractSearch getCurrentSearch() {
+        return currentSearch;
+    }
+
+    @Override
+    public Interval getSearchInterval() {
+        final AbstractSearch search = currentSearch;
+        return (search == null) ? img : search.getSearchInterval();
+    }
+
+    @Override
+    public Path getResult() {
+        return result;
+    }
+
+    @Override
+    public void addProgressListener(final SearchProgressCallback callback) {
+        progressListeners.add(callback);
+    }
+
+    public void reportFinished(final boolean success) {
+        metricsFinished();
+        for (final SearchProgressCallback progress : progressListeners)
+            progress.finished(this, success);
+    }
+
+    @Override
+    public void printStatus() {
+        final AbstractSearch search = currentSearch;
+        if (search != null) search.printStatus();
+    }
+
+    @Override
+    protected void reportPointsInSearch() {
+        final AbstractSearch search = currentSearch;
+        if (search == null) return;
+        for (final SearchProgressCallback progress : progressListeners)
+            progress.pointsInSearch(this, search.pointsConsideredInSearch(), 0);
+    }
+
+    @Override
+    public long pointsConsideredInSearch() {
+        final AbstractSearch search = currentSearch;
+        return (search == null) ? 0 : search.pointsConsideredInSearch();
+    }
+
+    @Override
+    public long estimatedMemoryInSearch() {
+        final AbstractSearch search = currentSearch;
+        return (search == null) ? 0 : search.estimatedMemoryInSearch();
+    }
+
+    /* Relays the progress of the delegate searches to the listeners of this search */
+    private class RelayCallback implements SearchProgressCallback {
+
+        @Override
+        public void pointsInSearch(final SearchInterface source, final long inOpen, final long inClosed) {
+            for (final SearchProgressCallback progress : progressListeners)
+                progress.pointsInSearch(BoundedSearch.this, inOpen, inClosed);
+        }
+
+        @Override
+        public void memoryInSearch(final SearchInterface source, final long bytes) {
+            for (final SearchProgressCallback progress : progressListeners)
+                progress.memoryInSearch(BoundedSearch.this, bytes);
+        }
+
+        @Override
+        public void finished(final SearchInterface source, final boolean success) {
+            // Only the outcome of the bounded search is reported
+        }
+
+        @Override
+        public void threadStatus(final SearchInterface source, final int currentStatus) {
+            for (final SearchProgressCallback progress : progressListeners)
+                progress.threadStatus(BoundedSearch.this, currentStatus);
+        }
+    }
+
+}
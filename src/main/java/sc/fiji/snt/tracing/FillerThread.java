@@ -51,12 +51,12 @@ import java.util.*;
  */
 public class FillerThread extends SearchThread {
 
-    private Set<Path> sourcePaths;
+    protected Set<Path> sourcePaths;
     private Set<DefaultSearchNode> aboveThresholdNodeSet;
-    private double threshold;
-    private boolean isStopAtThreshold = false;
-    private boolean isStoreAboveThresholdNodes = true;
-    private double maxExploredDistance;
+    protected double threshold;
+    protected boolean isStopAtThreshold = false;
+    protected boolean isStoreAboveThresholdNodes = true;
+    protected double maxExploredDistance;
 
     public FillerThread(final RandomAccessibleInterval<? extends RealType<?>> image, final Calibration calibration,
                         final double initialThreshold, final Cost costFunction)
@@ -230,21 +230,7 @@ public class FillerThread extends SearchThread {
             }
         }
 
-        final Fill fill = new Fill();
-
-        fill.setThreshold(threshold);
-        if (costFunction.getClass().equals(Reciprocal.class))
-            fill.setMetric(SNT.CostType.RECIPROCAL);
-        else if (costFunction.getClass().equals(Difference.class))
-            fill.setMetric(SNT.CostType.DIFFERENCE);
-        else if (costFunction.getClass().equals(DifferenceSq.class))
-            fill.setMetric(SNT.CostType.DIFFERENCE_SQUARED);
-        else if (costFunction.getClass().equals(OneMinusErf.class))
-            fill.setMetric(SNT.CostType.PROBABILITY);
-        else
-            throw new IllegalArgumentException("Unknown cost " + costFunction.getClass());
-
-        fill.setSpacing(xSep, ySep, zSep, spacing_units);
+        final Fill fill = newFill();
 
         SNTUtils.log("... out of a.size() " + a.size() + " entries");
 
@@ -283,6 +269,32 @@ public class FillerThread extends SearchThread {
         return fill;
     }
 
+    /**
+     * Creates an empty {@link Fill} describing the parameters (threshold, metric and spacing) of this filler.
+     */
+    protected Fill newFill() {
+        final Fill fill = new Fill();
+
+        fill.setThreshold(threshold);
+        // Precomputed costs are reported by the metric used to compute them
+        final Cost costFunction = (this.costFunction instanceof CachedCost)
+                ? ((CachedCost) this.costFunction).getSource()
+                : this.costFunction;
+        if (costFunction.getClass().equals(Reciprocal.class))
+            fill.setMetric(SNT.CostType.RECIPROCAL);
+        else if (costFunction.getClass().equals(Difference.class))
+            fill.setMetric(SNT.CostType.DIFFERENCE);
+        else if (costFunction.getClass().equals(DifferenceSq.class))
+            fill.setMetric(SNT.CostType.DIFFERENCE_SQUARED);
+        else if (costFunction.getClass().equals(OneMinusErf.class))
+            fill.setMetric(SNT.CostType.PROBABILITY);
+        else
+            throw new IllegalArgumentException("Unknown cost " + costFunction.getClass());
+
+        fill.setSpacing(xSep, ySep, zSep, spacing_units);
+        return fill;
+    }
+
     public double getThreshold() {
         return threshold;
     }
@@ -315,6 +327,7 @@ public class FillerThread extends SearchThread {
             }
 
             started_at = lastReportMilliseconds = System.currentTimeMillis();
+            metricsStarted();
 
             aboveThresholdNodeSet = new HashSet<>();
 
@@ -337,6 +350,13 @@ public class FillerThread extends SearchThread {
                     return;
                 }
 
+                if (isNodeBudgetExceeded()) {
+                    SNTUtils.log("Node budget exceeded...");
+                    setExitReason(NODE_BUDGET_EXCEEDED);
+                    reportFinished(false);
+                    return;
+                }
+
                 final DefaultSearchNode p = open_from_start.deleteMin().getKey();
                 if (p == null) continue;
 
@@ -344,6 +364,10 @@ public class FillerThread extends SearchThread {
 
                 p.searchStatus = CLOSED_FROM_START;
                 closed_from_start_count++;
+                if (metrics != null) {
+                    metrics.heapDeletions++;
+                    metrics.nodesExpanded++;
+                }
 
                 expandNeighbors(p);
 
@@ -434,6 +458,7 @@ public class FillerThread extends SearchThread {
             newNode.searchStatus = OPEN_FROM_START;
             newNode.heapHandle = open_from_start.insert(newNode);
             slice.setValue(newNode.x, newNode.y, newNode);
+            if (metrics != null) metrics.heapInsertions++;
         } else {
 
             // The other alternative is that this node is already in on of the lists working from the
@@ -445,10 +470,15 @@ public class FillerThread extends SearchThread {
                     alreadyThereInThisSearch.setFrom(newNode);
                     alreadyThereInThisSearch.searchStatus = OPEN_FROM_START;
                     alreadyThereInThisSearch.heapHandle.decreaseKey(alreadyThereInThisSearch);
+                    if (metrics != null) metrics.heapDecreaseKeys++;
                 } else if (alreadyThereInThisSearch.searchStatus == CLOSED_FROM_START) {
                     alreadyThereInThisSearch.setFrom(newNode);
                     alreadyThereInThisSearch.searchStatus = OPEN_FROM_START;
                     alreadyThereInThisSearch.heapHandle = open_from_start.insert(alreadyThereInThisSearch);
+                    if (metrics != null) {
+                        metrics.nodesReopened++;
+                        metrics.heapInsertions++;
+                    }
                 }
             }
         }
@@ -0,0 +1,433 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2021 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.tracing;
+
+import ij.measure.Calibration;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+import sc.fiji.snt.Path;
+import sc.fiji.snt.SNT;
+import sc.fiji.snt.SNTUtils;
+import sc.fiji.snt.SearchProgressCallback;
+import sc.fiji.snt.filter.Lazy;
+import sc.fiji.snt.tracing.cost.CachedCost;
+import sc.fiji.snt.tracing.cost.Cost;
+import sc.fiji.snt.tracing.heuristic.Heuristic;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A coarse-to-fine search between two points. The route is first computed on a downsampled version of the
+ * image, in which each voxel holds the maximum of the block of voxels it covers (so that thin, bright
+ * structures are preserved). Waypoints are then placed along the coarse route (at the brightest voxel of the
+ * respective block) and consecutive waypoints are connected at full resolution by {@link BoundedSearch}es
+ * restricted to a narrow corridor. On long paths this explores a small fraction of the voxels explored by a
+ * full-resolution search, at the expense of optimality.
+ * <p>
+ * If the image is too small to be downsampled, or no coarse route is found, the full-resolution search is
+ * performed between start and goal directly (within a growing corridor).
+ * </p>
+ *
+ * @see SNT.SearchType#MULTISCALE
+ */
+public class MultiScaleSearch extends AbstractSearch {
+
+    private final int start_x;
+    private final int start_y;
+    private final int start_z;
+    private final int goal_x;
+    private final int goal_y;
+    private final int goal_z;
+    private final SNT.SearchImageType searchImageType;
+    private final Cost costFunction;
+    private final Heuristic heuristic;
+    private final RelayCallback relay;
+    private int downsamplingFactor = 4;
+    private int segmentLength = 8;
+    private volatile AbstractSearch currentSearch;
+    private Path result;
+    private Path coarseResult;
+    private int exitReason;
+    private long started_at;
+    private long pointsInCompletedSearches;
+
+    public MultiScaleSearch(final SNT snt, final RandomAccessibleInterval<? extends RealType<?>> image,
+                            final int start_x, final int start_y, final int start_z,
+                            final int goal_x, final int goal_y, final int goal_z,
+                            final SNT.SearchImageType searchImageType,
+                            final Cost costFunction, final Heuristic heuristic)
+    {
+        super(snt, image);
+        this.start_x = start_x;
+        this.start_y = start_y;
+        this.start_z = start_z;
+        this.goal_x = goal_x;
+        this.goal_y = goal_y;
+        this.goal_z = goal_z;
+        this.searchImageType = searchImageType;
+        this.costFunction = costFunction;
+        this.heuristic = heuristic;
+        this.relay = new RelayCallback();
+        this.progressListeners = new ArrayList<>();
+    }
+
+    /* If you specify 0 for timeoutSeconds then there is no timeout. */
+    public MultiScaleSearch(final RandomAccessibleInterval<? extends RealType<?>> image,
+                            final Calibration calibration,
+                            final int start_x, final int start_y, final int start_z,
+                            final int goal_x, final int goal_y, final int goal_z,
+                            final int timeoutSeconds, final long reportEveryMilliseconds,
+                            final SNT.SearchImageType searchImageType,
+                            final Cost costFunction, final Heuristic heuristic)
+    {
+        super(image, calibration, timeoutSeconds, reportEveryMilliseconds);
+        this.start_x = start_x;
+        this.start_y = start_y;
+        this.start_z = start_z;
+        this.goal_x = goal_x;
+        this.goal_y = goal_y;
+        this.goal_z = goal_z;
+        this.searchImageType = searchImageType;
+        this.costFunction = costFunction;
+        this.heuristic = heuristic;
+        this.relay = new RelayCallback();
+        this.progressListeners = new ArrayList<>();
+    }
+
+    /**
+     * @param downsamplingFactor the XY downsampling factor of the coarse image (default is 4). The Z factor is
+     *                           chosen so that coarse voxels are as isotropic as possible, without exceeding
+     *                           the XY factor. If less than 2, no coarse search is performed
+     */
+    public void setDownsamplingFactor(final int downsamplingFactor) {
+        this.downsamplingFactor = downsamplingFactor;
+    }
+
+    public int getDownsamplingFactor() {
+        return downsamplingFactor;
+    }
+
+    /**
+     * @param segmentLength the number of coarse route nodes between consecutive waypoints (default is 8)
+     */
+    public void setSegmentLength(final int segmentLength) {
+        if (segmentLength < 1) throw new IllegalArgumentException("Segment length must be positive");
+        this.segmentLength = segmentLength;
+    }
+
+    public int getSegmentLength() {
+        return segmentLength;
+    }
+
+    @Override
+    public void run() {
+
+        try {
+            started_at = System.currentTimeMillis();
+            metricsStarted();
+            pointsInCompletedSearches = 0;
+            result = null;
+
+            final long[] factors = factors();
+            coarseResult = (factors == null) ? null : coarseRoute(factors);
+            final List<long[]> waypoints = new ArrayList<>();
+            waypoints.add(new long[]{start_x, start_y, start_z});
+            if (coarseResult != null) {
+                final RandomAccess<? extends RealType<?>> access = img.randomAccess();
+                for (int i = segmentLength; i < coarseResult.size() - segmentLength / 2; i += segmentLength) {
+                    final long[] waypoint = new long[3];
+                    blockMax(access, coarseResult.getXUnscaled(i), coarseResult.getYUnscaled(i),
+                            coarseResult.getZUnscaled(i), factors, waypoint);
+                    waypoints.add(waypoint);
+                }
+            } else {
+                SNTUtils.log("No coarse route available. Searching at full resolution...");
+            }
+            waypoints.add(new long[]{goal_x, goal_y, goal_z});
+
+            final int padding = (factors == null) ? 20 : (int) (2 * Math.max(factors[0], factors[2]));
+            final Path path = new Path(xSep, ySep, zSep, spacing_units);
+            for (int i = 0; i < waypoints.size() - 1; i++) {
+                if (Thread.currentThread().isInterrupted()) {
+                    setExitReason(SearchThread.CANCELLED);
+                    reportFinished(false);
+                    return;
+                }
+                if (timeoutSeconds > 0 && System.currentTimeMillis() - started_at > 1000L * timeoutSeconds) {
+                    setExitReason(SearchThread.TIMED_OUT);
+                    reportFinished(false);
+                    return;
+                }
+                final BoundedSearch segmentSearch = refine(waypoints.get(i), waypoints.get(i + 1), padding);
+                if (segmentSearch.getResult() == null) {
+                    SNTUtils.log("Failed to refine segment #" + (i + 1) + " of the coarse route");
+                    setExitReason(segmentSearch.getExitReason());
+                    reportFinished(false);
+                    return;
+                }
+                path.add(segmentSearch.getResult());
+            }
+            if (verbose) {
+                SNTUtils.log("Coarse-to-fine search: " + (waypoints.size() - 1) + " segments, "
+                        + pointsInCompletedSearches + " nodes explored");
+            }
+            result = path;
+            setExitReason(SearchThread.SUCCESS);
+            reportFinished(true);
+
+        } catch (final OutOfMemoryError oome) {
+            SNTUtils.error("Out Of Memory Error", oome);
+            setExitReason(SearchThread.OUT_OF_MEMORY);
+            reportFinished(false);
+        }
+    }
+
+    /* Returns the downsampling factors, or null if the image is too small to be downsampled */
+    private long[] factors() {
+        final int f = downsamplingFactor;
+        if (f < 2 || imgWidth / f < 2 || imgHeight / f < 2) return null;
+        long fz = 1;
+        if (imgDepth > 1) {
+            fz = Math.max(1, Math.min(f, Math.round(f * xSep / zSep)));
+        }
+        return new long[]{f, f, fz};
+    }
+
+    private Path coarseRoute(final long[] factors) {
+        final long[] coarseDims = {
+                (imgWidth + factors[0] - 1) / factors[0],
+                (imgHeight + factors[1] - 1) / factors[1],
+                (imgDepth + factors[2] - 1) / factors[2]};
+        final int[] blockSize = new int[3];
+        for (int d = 0; d < 3; d++) blockSize[d] = (int) Math.min(64, coarseDims[d]);
+        final RandomAccessibleInterval<FloatType> coarseImg = Lazy.process(new FinalInterval(coarseDims),
+                blockSize, new FloatType(), cell -> maxPool(cell, factors));
+
+        final Calibration coarseCal = new Calibration();
+        coarseCal.pixelWidth = xSep * factors[0];
+        coarseCal.pixelHeight = ySep * factors[1];
+        coarseCal.pixelDepth = zSep * factors[2];
+        // Estimates are computed at full resolution so that they remain admissible
+        final Heuristic coarseHeuristic = (cx, cy, cz, gx, gy, gz) -> heuristic.estimateCostToGoal(
+                (int) (cx * factors[0]), (int) (cy * factors[1]), (int) (cz * factors[2]),
+                (int) (gx * factors[0]), (int) (gy * factors[1]), (int) (gz * factors[2]));
+
+        final AbstractSearch coarseSearch = newSearch(coarseImg, coarseCal,
+                new long[]{(start_x - xMin) / factors[0], (start_y - yMin) / factors[1], (start_z - zMin) / factors[2]},
+                new long[]{(goal_x - xMin) / factors[0], (goal_y - yMin) / factors[1], (goal_z - zMin) / factors[2]},
+                coarseHeuristic);
+        coarseSearch.setNodeBudget(nodeBudget);
+        coarseSearch.addProgressListener(relay);
+        coarseSearch.setMetricsEnabled(metrics != null);
+        coarseSearch.run();
+        if (metrics != null) metrics.addDelegate(coarseSearch.getMetrics());
+        pointsInCompletedSearches += coarseSearch.pointsConsideredInSearch();
+        return coarseSearch.getResult();
+    }
+
+    private BoundedSearch refine(final long[] from, final long[] to, final int padding) {
+        final Calibration calibration = new Calibration();
+        calibration.pixelWidth = xSep;
+        calibration.pixelHeight = ySep;
+        calibration.pixelDepth = zSep;
+        final BoundedSearch search = new BoundedSearch(img, calibration,
+                (int) from[0], (int) from[1], (int) from[2], (int) to[0], (int) to[1], (int) to[2],
+                timeoutSeconds, reportEveryMilliseconds,
+                corridor -> newSearch(corridor, calibration, from, to, heuristic));
+        search.setPadding(padding);
+        search.setNodeBudget(nodeBudget);
+        search.addProgressListener(relay);
+        search.setMetricsEnabled(metrics != null);
+        currentSearch = search;
+        search.run();
+        if (metrics != null) metrics.addDelegate(search.getMetrics());
+        pointsInCompletedSearches += search.pointsConsideredInSearch();
+        currentSearch = null;
+        return search;
+    }
+
+    private AbstractSearch newSearch(final RandomAccessibleInterval<? extends RealType<?>> image,
+                                     final Calibration calibration, final long[] from, final long[] to,
+                                     final Heuristic heuristic)
+    {
+        if (searchImageType == SNT.SearchImageType.PACKED) {
+            return new PackedBiSearch(image, calibration,
+                    (int) from[0], (int) from[1], (int) from[2], (int) to[0], (int) to[1], (int) to[2],
+                    timeoutSeconds, reportEveryMilliseconds, costFunction, heuristic);
+        }
+        return new BiSearch(image, calibration,
+                (int) from[0], (int) from[1], (int) from[2], (int) to[0], (int) to[1], (int) to[2],
+                timeoutSeconds, reportEveryMilliseconds, searchImageType, costFunction, heuristic);
+    }
+
+    private void maxPool(final RandomAccessibleInterval<FloatType> cell, final long[] factors) {
+        final RandomAccess<? extends RealType<?>> access = img.randomAccess();
+        final Cursor<FloatType> cursor = Views.flatIterable(cell).localizingCursor();
+        while (cursor.hasNext()) {
+            cursor.fwd();
+            cursor.get().setReal(blockMax(access, cursor.getLongPosition(0), cursor.getLongPosition(1),
+                    cursor.getLongPosition(2), factors, null));
+        }
+    }
+
+    /*
+     * Computes the maximum of the full resolution block covered by the specified coarse voxel. If argMax is
+     * not null, it is set to the position of the (first) brightest voxel. When searching a precomputed cost
+     * volume, the minimum (i.e., the cheapest voxel) is retrieved instead.
+     */
+    private double blockMax(final RandomAccess<? extends RealType<?>> access, final long cx, final long cy,
+                            final long cz, final long[] factors, final long[] argMax)
+    {
+        final long x0 = xMin + cx * factors[0];
+        final long y0 = yMin + cy * factors[1];
+        final long z0 = zMin + cz * factors[2];
+        final long x1 = Math.min(xMax, x0 + factors[0] - 1);
+        final long y1 = Math.min(yMax, y0 + factors[1] - 1);
+        final long z1 = Math.min(zMax, z0 + factors[2] - 1);
+        final double sign = (costFunction instanceof CachedCost) ? -1 : 1;
+        double max = Double.NEGATIVE_INFINITY;
+        for (long z = z0; z <= z1; z++) {
+            access.setPosition(z, 2);
+            for (long y = y0; y <= y1; y++) {
+                access.setPosition(y, 1);
+                for (long x = x0; x <= x1; x++) {
+                    access.setPosition(x, 0);
+                    final double value = sign * access.get().getRealDouble();
+                    if (value > max) {
+                        max = value;
+                        if (argMax != null) {
+                            argMax[0] = x;
+                            argMax[1] = y;
+                            argMax[2] = z;
+                        }
+                    }
+                }
+            }
+        }
+        return sign * max;
+    }
+
+    /* This method is used to set the reason for the search finishing */
+    void setExitReason(final int exitReason) {
+        this.exitReason = exitReason;
+    }
+
+    /**
+     * @return the reason for the search finishing, one of {@link SearchThread#EXIT_REASONS_STRINGS}
+     */
+    public int getExitReason() {
+        return exitReason;
+    }
+
+    /**
+     * @return the route found on the downsampled image (in downsampled coordinates), or null if the coarse
+     * search was skipped or failed
+     */
+    public Path getCoarseResult() {
+        return coarseResult;
+    }
+
+    /**
+     * @return the full-resolution search currently running, or null if none
+     */
+    public AbstractSearch getCurrentSearch() {
+        return currentSearch;
+    }
+
+    @Override
+    public Path getResult() {
+        return result;
+    }
+
+    @Override
+    public void addProgressListener(final SearchProgressCallback callback) {
+        progressListeners.add(callback);
+    }
+
+    public void reportFinished(final boolean success) {
+        metricsFinished();
+        for (final SearchProgressCallback progress : progressListeners)
+            progress.finished(this, success);
+    }
+
+    @Override
+    public void printStatus() {
+        SNTUtils.log("... Nodes explored by completed searches: " + pointsInCompletedSearches);
+        final AbstractSearch search = currentSearch;
+        if (search != null) search.printStatus();
+    }
+
+    @Override
+    protected void reportPointsInSearch() {
+        for (final SearchProgressCallback progress : progressListeners)
+            progress.pointsInSearch(this, 0, pointsConsideredInSearch());
+    }
+
+    /**
+     * @return the total number of nodes explored so far, across the coarse and the full-resolution searches
+     */
+    @Override
+    public long pointsConsideredInSearch() {
+        final AbstractSearch search = currentSearch;
+        return pointsInCompletedSearches + ((search == null) ? 0 : search.pointsConsideredInSearch());
+    }
+
+    @Override
+    public long estimatedMemoryInSearch() {
+        final AbstractSearch search = currentSearch;
+        return (search == null) ? 0 : search.estimatedMemoryInSearch();
+    }
+
+    /* Relays the progress of the delegate searches to the listeners of this search */
+    private class RelayCallback implements SearchProgressCallback {
+
+        @Override
+        public void pointsInSearch(final SearchInterface source, final long inOpen, final long inClosed) {
+            reportPointsInSearch();
+        }
+
+        @Override
+        public void memoryInSearch(final SearchInterface source, final long bytes) {
+            for (final SearchProgressCallback progress : progressListeners)
+                progress.memoryInSearch(MultiScaleSearch.this, bytes);
+        }
+
+        @Override
+        public void finished(final SearchInterface source, final boolean success) {
+            // Only the outcome of the multi-scale search is reported
+        }
+
+        @Override
+        public void threadStatus(final SearchInterface source, final int currentStatus) {
+            for (final SearchProgressCallback progress : progressListeners)
+                progress.threadStatus(MultiScaleSearch.this, currentStatus);
+        }
+    }
+
+}
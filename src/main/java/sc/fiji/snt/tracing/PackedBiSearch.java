@@ -0,0 +1,290 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2021 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.tracing;
+
+import ij.measure.Calibration;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import sc.fiji.snt.Path;
+import sc.fiji.snt.SNT;
+import sc.fiji.snt.SNTUtils;
+import sc.fiji.snt.tracing.cost.Cost;
+import sc.fiji.snt.tracing.heuristic.Heuristic;
+import sc.fiji.snt.tracing.image.NodeIndexHeap;
+import sc.fiji.snt.tracing.image.PackedNodeStore;
+
+/**
+ * Allocation-free counterpart of {@link BiSearch}: the same bidirectional heuristic search (NBA*), with
+ * the search state kept in {@link PackedNodeStore}s rather than in {@link BiSearchNode}s.
+ *
+ * @see SNT.SearchImageType#PACKED
+ */
+public class PackedBiSearch extends PackedSearch {
+
+    protected final int start_x;
+    protected final int start_y;
+    protected final int start_z;
+    protected final int goal_x;
+    protected final int goal_y;
+    protected final int goal_z;
+    protected final Heuristic heuristic;
+    protected Path result;
+    private double bestPathLength;
+    private long touchNode;
+
+    public PackedBiSearch(final SNT snt, final RandomAccessibleInterval<? extends RealType<?>> image,
+                          final int start_x, final int start_y, final int start_z,
+                          final int goal_x, final int goal_y, final int goal_z,
+                          final Cost costFunction, final Heuristic heuristic)
+    {
+        super(snt, image, true, costFunction);
+        this.start_x = start_x;
+        this.start_y = start_y;
+        this.start_z = start_z;
+        this.goal_x = goal_x;
+        this.goal_y = goal_y;
+        this.goal_z = goal_z;
+        this.heuristic = heuristic;
+    }
+
+    /* If you specify 0 for timeoutSeconds then there is no timeout. */
+    public PackedBiSearch(final RandomAccessibleInterval<? extends RealType<?>> image,
+                          final Calibration calibration,
+                          final int start_x, final int start_y, final int start_z,
+                          final int goal_x, final int goal_y, final int goal_z,
+                          final int timeoutSeconds, final long reportEveryMilliseconds,
+                          final Cost costFunction, final Heuristic heuristic)
+    {
+        super(image, calibration, true, timeoutSeconds, reportEveryMilliseconds, costFunction);
+        this.start_x = start_x;
+        this.start_y = start_y;
+        this.start_z = start_z;
+        this.goal_x = goal_x;
+        this.goal_y = goal_y;
+        this.goal_z = goal_z;
+        this.heuristic = heuristic;
+    }
+
+    @Override
+    public void run() {
+
+        try {
+            if (verbose) {
+                SNTUtils.log("New " + getClass().getSimpleName() + " running!");
+                printStatus();
+            }
+
+            started_at = lastReportMilliseconds = System.currentTimeMillis();
+            metricsStarted();
+
+            final long start = store_from_start.index(start_x, start_y, start_z);
+            final long goal = store_from_goal.index(goal_x, goal_y, goal_z);
+
+            double bestFScoreFromStart = heuristic.estimateCostToGoal(start_x, start_y, start_z,
+                    goal_x, goal_y, goal_z) * costFunction.minStepCost();
+            double bestFScoreFromGoal = heuristic.estimateCostToGoal(goal_x, goal_y, goal_z,
+                    start_x, start_y, start_z) * costFunction.minStepCost();
+
+            bestPathLength = Double.POSITIVE_INFINITY;
+            touchNode = -1;
+
+            store_from_start.set(start, 0d, PackedNodeStore.NO_PARENT, PackedNodeStore.OPEN);
+            open_from_start.insert(start, bestFScoreFromStart);
+            store_from_goal.set(goal, 0d, PackedNodeStore.NO_PARENT, PackedNodeStore.OPEN);
+            open_from_goal.insert(goal, bestFScoreFromGoal);
+            if (metrics != null) metrics.heapInsertions += 2;
+
+            // The search terminates when one side is exhausted
+            while (!open_from_goal.isEmpty() && !open_from_start.isEmpty()) {
+
+                if (Thread.currentThread().isInterrupted()) {
+                    setExitReason(SearchThread.CANCELLED);
+                    reportFinished(false);
+                    return;
+                }
+
+                ++loops;
+
+                if (0 == (loops % 10000) && checkStatus()) {
+                    // search timed out
+                    setExitReason(SearchThread.TIMED_OUT);
+                    reportFinished(false);
+                    return;
+                }
+
+                if (isNodeBudgetExceeded()) {
+                    SNTUtils.log("Node budget exceeded...");
+                    setExitReason(SearchThread.NODE_BUDGET_EXCEEDED);
+                    reportFinished(false);
+                    return;
+                }
+
+                final boolean fromStart = open_from_start.size() < open_from_goal.size();
+                final NodeIndexHeap open_queue = fromStart ? open_from_start : open_from_goal;
+                final PackedNodeStore store = fromStart ? store_from_start : store_from_goal;
+
+                final double f = open_queue.peekKey();
+                final long p = open_queue.deleteMin();
+                store.setStatus(p, PackedNodeStore.CLOSED);
+                if (metrics != null) {
+                    metrics.heapDeletions++;
+                    metrics.nodesExpanded++;
+                }
+                final int px = store.x(p);
+                final int py = store.y(p);
+                final int pz = store.z(p);
+                final double g = store.getG(p);
+
+                final boolean rejected;
+                if (fromStart) {
+                    closed_from_start_count++;
+                    bestFScoreFromStart = f;
+                    rejected = g + heuristic.estimateCostToGoal(px, py, pz, goal_x, goal_y, goal_z)
+                            * costFunction.minStepCost() >= bestPathLength
+                            ||
+                            g + bestFScoreFromGoal - heuristic.estimateCostToGoal(px, py, pz,
+                                    start_x, start_y, start_z) * costFunction.minStepCost() >= bestPathLength;
+                } else {
+                    closed_from_goal_count++;
+                    bestFScoreFromGoal = f;
+                    rejected = g + heuristic.estimateCostToGoal(px, py, pz, start_x, start_y, start_z)
+                            * costFunction.minStepCost() >= bestPathLength
+                            ||
+                            g + bestFScoreFromStart - heuristic.estimateCostToGoal(px, py, pz,
+                                    goal_x, goal_y, goal_z) * costFunction.minStepCost() >= bestPathLength;
+                }
+                if (!rejected) {
+                    // STABILIZED
+                    expandNeighbors(px, py, pz, g, fromStart);
+                }
+            }
+
+            // Failure
+            if (touchNode < 0) {
+                SNTUtils.error("Searches did not meet.");
+                setExitReason(SearchThread.POINTS_EXHAUSTED);
+                reportFinished(false);
+                return;
+            }
+
+            // Success
+            if (verbose) {
+                SNTUtils.log("Searches met!");
+                SNTUtils.log("Cost for path = " + bestPathLength);
+                SNTUtils.log("Total loops = " + loops);
+            }
+
+            final long reconstructionStart = System.nanoTime();
+            result = reconstructPath();
+            if (metrics != null) metrics.pathReconstructed(reconstructionStart);
+            setExitReason(SearchThread.SUCCESS);
+            reportFinished(true);
+
+        } catch (final OutOfMemoryError oome) {
+            SNTUtils.error("Out Of Memory Error", oome);
+            setExitReason(SearchThread.OUT_OF_MEMORY);
+            reportFinished(false);
+        } catch (final Exception ex) {
+            SNTUtils.error("Exception during search", ex);
+            reportFinished(false);
+        }
+    }
+
+    protected void expandNeighbors(final int px, final int py, final int pz, final double current_g,
+                                   final boolean fromStart)
+    {
+        final NodeIndexHeap open_queue = fromStart ? open_from_start : open_from_goal;
+        final PackedNodeStore this_store = fromStart ? store_from_start : store_from_goal;
+        final PackedNodeStore other_store = fromStart ? store_from_goal : store_from_start;
+        final int target_x = fromStart ? goal_x : start_x;
+        final int target_y = fromStart ? goal_y : start_y;
+        final int target_z = fromStart ? goal_z : start_z;
+
+        for (int zdiff = -1; zdiff <= 1; ++zdiff) {
+            final int new_z = pz + zdiff;
+            if (new_z < zMin || new_z > zMax)
+                continue;
+
+            for (int xdiff = -1; xdiff <= 1; xdiff++) {
+                final int new_x = px + xdiff;
+                if (new_x < xMin || new_x > xMax)
+                    continue;
+
+                for (int ydiff = -1; ydiff <= 1; ydiff++) {
+                    if ((xdiff == 0) && (ydiff == 0) && (zdiff == 0))
+                        continue;
+                    final int new_y = py + ydiff;
+                    if (new_y < yMin || new_y > yMax)
+                        continue;
+
+                    final byte direction = PackedNodeStore.direction(xdiff, ydiff, zdiff);
+                    final double tentative_g = current_g + stepLengths[direction] * costMovingTo(new_x, new_y, new_z);
+                    final double tentative_h = heuristic.estimateCostToGoal(new_x, new_y, new_z,
+                            target_x, target_y, target_z) * costFunction.minStepCost();
+                    final double tentative_f = tentative_g + tentative_h;
+
+                    final long n = this_store.index(new_x, new_y, new_z);
+                    final byte status = this_store.getStatus(n);
+                    if (status != PackedNodeStore.FREE && this_store.getG(n) + tentative_h <= tentative_f)
+                        continue;
+
+                    this_store.set(n, tentative_g, direction, PackedNodeStore.OPEN);
+                    if (open_queue.contains(n)) {
+                        open_queue.decreaseKey(n, tentative_f);
+                        if (metrics != null) metrics.heapDecreaseKeys++;
+                    } else {
+                        open_queue.insert(n, tentative_f);
+                        if (metrics != null) {
+                            if (status == PackedNodeStore.CLOSED) metrics.nodesReopened++;
+                            metrics.heapInsertions++;
+                        }
+                    }
+                    if (other_store.getStatus(n) != PackedNodeStore.FREE) {
+                        final double pathLength = tentative_g + other_store.getG(n);
+                        if (pathLength < bestPathLength) {
+                            bestPathLength = pathLength;
+                            touchNode = n;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    protected Path reconstructPath() {
+        final Path path = asPath(store_from_start, touchNode, false);
+        long p = store_from_goal.parentIndex(touchNode);
+        while (p >= 0) {
+            path.addPointDouble(store_from_goal.x(p) * xSep, store_from_goal.y(p) * ySep,
+                    store_from_goal.z(p) * zSep);
+            p = store_from_goal.parentIndex(p);
+        }
+        return path;
+    }
+
+    @Override
+    public Path getResult() {
+        return result;
+    }
+
+}
@@ -0,0 +1,311 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2021 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.tracing;
+
+import ij.measure.Calibration;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import sc.fiji.snt.Fill;
+import sc.fiji.snt.FillerProgressCallback;
+import sc.fiji.snt.Path;
+import sc.fiji.snt.SNT;
+import sc.fiji.snt.SNTUtils;
+import sc.fiji.snt.SearchProgressCallback;
+import sc.fiji.snt.tracing.cost.Cost;
+import sc.fiji.snt.tracing.image.NodeIndexHeap;
+import sc.fiji.snt.tracing.image.PackedNodeStore;
+import sc.fiji.snt.tracing.image.SearchImage;
+import sc.fiji.snt.tracing.image.SearchImageStack;
+import sc.fiji.snt.tracing.image.SupplierUtil;
+
+import java.util.Collection;
+import java.util.HashSet;
+
+/**
+ * Allocation-free counterpart of {@link FillerThread}, keeping the state of the search in a
+ * {@link PackedNodeStore}. When stopping at the threshold, above-threshold voxels remain in the open heap,
+ * so that the fill can be resumed (e.g., after increasing the threshold) from where it stopped.
+ * <p>
+ * {@link SearchNode}s are only created on demand, when the fill is exported through {@link #getFill()}
+ * or {@link #getNodesAsImage()}.
+ * </p>
+ *
+ * @see SNT.SearchImageType#PACKED
+ */
+public class PackedFillerThread extends FillerThread {
+
+    private final PackedNodeStore store;
+    private final NodeIndexHeap open;
+    private final double[] stepLengths;
+
+    public PackedFillerThread(final RandomAccessibleInterval<? extends RealType<?>> image,
+                              final Calibration calibration, final double initialThreshold,
+                              final long reportEveryMilliseconds, final Cost costFunction)
+    {
+        this(image, calibration, initialThreshold, 0, reportEveryMilliseconds, costFunction);
+    }
+
+    /* If you specify 0 for timeoutSeconds then there is no timeout. */
+    public PackedFillerThread(final RandomAccessibleInterval<? extends RealType<?>> image,
+                              final Calibration calibration, final double initialThreshold,
+                              final int timeoutSeconds, final long reportEveryMilliseconds,
+                              final Cost costFunction)
+    {
+        super(image, calibration, initialThreshold, timeoutSeconds, reportEveryMilliseconds, costFunction);
+        store = new PackedNodeStore(xMin, yMin, zMin, imgWidth, imgHeight, imgDepth);
+        open = new NodeIndexHeap(store);
+        stepLengths = PackedNodeStore.stepLengths(xSep, ySep, zSep);
+    }
+
+    @Override
+    public void setSourcePaths(final Collection<Path> newSourcePaths) {
+        sourcePaths = new HashSet<>();
+        sourcePaths.addAll(newSourcePaths);
+        for (final Path p : newSourcePaths) {
+            if (p == null) return;
+            for (int k = 0; k < p.size(); ++k) {
+                final int x = p.getXUnscaled(k);
+                final int y = p.getYUnscaled(k);
+                final int z = p.getZUnscaled(k);
+                if (x < xMin || x > xMax || y < yMin || y > yMax || z < zMin || z > zMax) continue;
+                final long n = store.index(x, y, z);
+                if (store.getStatus(n) != PackedNodeStore.FREE) continue;
+                store.set(n, 0d, PackedNodeStore.NO_PARENT, PackedNodeStore.OPEN);
+                open.insert(n, 0d);
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+
+        try {
+
+            if (verbose) {
+                SNTUtils.log("New PackedFillerThread running!");
+                printStatus();
+            }
+
+            started_at = lastReportMilliseconds = System.currentTimeMillis();
+            metricsStarted();
+
+            while (!open.isEmpty()) {
+
+                if (Thread.currentThread().isInterrupted()) {
+                    setExitReason(CANCELLED);
+                    reportFinished(false);
+                    return;
+                }
+
+                ++loops;
+
+                if (0 == (loops % 10000) && checkStatus()) {
+                    SNTUtils.log("PackedFillerThread timed out...");
+                    setExitReason(TIMED_OUT);
+                    reportFinished(false);
+                    return;
+                }
+
+                if (isNodeBudgetExceeded()) {
+                    SNTUtils.log("Node budget exceeded...");
+                    setExitReason(NODE_BUDGET_EXCEEDED);
+                    reportFinished(false);
+                    return;
+                }
+
+                // Only fill up to the threshold. Nodes beyond it are kept in the heap
+                if (isStopAtThreshold && open.peekKey() > threshold) break;
+
+                final long p = open.deleteMin();
+                final double pg = store.getG(p);
+                maxExploredDistance = Math.max(pg, maxExploredDistance);
+                store.setStatus(p, PackedNodeStore.CLOSED);
+                closed_from_start_count++;
+                if (metrics != null) {
+                    metrics.heapDeletions++;
+                    metrics.nodesExpanded++;
+                }
+
+                expandNeighbors(p, pg);
+            }
+
+            SNTUtils.log("Fill complete for thread " + Thread.currentThread());
+            setExitReason(SUCCESS);
+            reportFinished(true);
+
+        } catch (final OutOfMemoryError e) {
+            SNTUtils.error("Out of memory, try splitting the work across multiple FillerThread instances.", e);
+        }
+    }
+
+    private void expandNeighbors(final long p, final double pg) {
+        final int px = store.x(p);
+        final int py = store.y(p);
+        final int pz = store.z(p);
+        for (int zdiff = -1; zdiff <= 1; ++zdiff) {
+            final int new_z = pz + zdiff;
+            if (new_z < zMin || new_z > zMax) continue;
+            imgAccess.setPosition(new_z, 2);
+
+            for (int xdiff = -1; xdiff <= 1; xdiff++) {
+                final int new_x = px + xdiff;
+                if (new_x < xMin || new_x > xMax) continue;
+                imgAccess.setPosition(new_x, 0);
+
+                for (int ydiff = -1; ydiff <= 1; ydiff++) {
+                    if ((xdiff == 0) && (ydiff == 0) && (zdiff == 0)) continue;
+                    final int new_y = py + ydiff;
+                    if (new_y < yMin || new_y > yMax) continue;
+                    imgAccess.setPosition(new_y, 1);
+
+                    double cost_moving_to_new_point = costFunction.costMovingTo(imgAccess.get().getRealDouble());
+                    if (cost_moving_to_new_point < costFunction.minStepCost()) {
+                        cost_moving_to_new_point = costFunction.minStepCost();
+                    }
+                    final byte direction = PackedNodeStore.direction(xdiff, ydiff, zdiff);
+                    final double g_for_new_point = pg + stepLengths[direction] * cost_moving_to_new_point;
+
+                    final long n = store.index(new_x, new_y, new_z);
+                    final byte status = store.getStatus(n);
+                    if (status == PackedNodeStore.FREE) {
+                        store.set(n, g_for_new_point, direction, PackedNodeStore.OPEN);
+                        open.insert(n, g_for_new_point);
+                        if (metrics != null) metrics.heapInsertions++;
+                    } else if (store.getG(n) > g_for_new_point) {
+                        store.set(n, g_for_new_point, direction, PackedNodeStore.OPEN);
+                        if (status == PackedNodeStore.OPEN) {
+                            open.decreaseKey(n, g_for_new_point);
+                            if (metrics != null) metrics.heapDecreaseKeys++;
+                        } else {
+                            open.insert(n, g_for_new_point);
+                            if (metrics != null) {
+                                metrics.nodesReopened++;
+                                metrics.heapInsertions++;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public double getDistanceAtPoint(final double xd, final double yd, final double zd) {
+        final int x = (int) Math.round(xd);
+        final int y = (int) Math.round(yd);
+        final int z = (int) Math.round(zd);
+        if (x < xMin || x > xMax || y < yMin || y > yMax || z < zMin || z > zMax) return -1.0;
+        final double g = store.peekG(x, y, z);
+        return (g == Double.POSITIVE_INFINITY) ? -1.0 : g;
+    }
+
+    @Override
+    public Fill getFill() {
+        final Long2IntOpenHashMap fillIndices = new Long2IntOpenHashMap();
+        fillIndices.defaultReturnValue(-1);
+        final LongArrayList included = new LongArrayList();
+        store.forEachVisited(n -> {
+            if (!isStoreAboveThresholdNodes && store.getG(n) > threshold) return;
+            fillIndices.put(n, included.size());
+            included.add(n);
+        });
+
+        final Fill fill = newFill();
+        SNTUtils.log("... out of a.size() " + included.size() + " entries");
+        for (int i = 0; i < included.size(); ++i) {
+            final long n = included.getLong(i);
+            final long parent = store.parentIndex(n);
+            final int previousIndex = (parent < 0) ? -1 : fillIndices.get(parent);
+            fill.add(store.x(n), store.y(n), store.z(n), store.getG(n), previousIndex,
+                    store.getStatus(n) == PackedNodeStore.OPEN);
+        }
+        if (sourcePaths != null) {
+            fill.setSourcePaths(sourcePaths);
+        }
+        return fill;
+    }
+
+    /**
+     * Materializes the explored voxels as {@link DefaultSearchNode}s. Note that predecessors are not
+     * assigned. Use {@link #getFill()} for a complete description of the fill.
+     *
+     * @return a new stack holding one node per explored voxel
+     */
+    @Override
+    public SearchImageStack<DefaultSearchNode> getNodesAsImage() {
+        final SearchImageStack<DefaultSearchNode> stack =
+                new SearchImageStack<>(new SupplierUtil.MapSearchImageSupplier<>());
+        store.forEachVisited(n -> {
+            final int x = store.x(n);
+            final int y = store.y(n);
+            final int z = store.z(n);
+            SearchImage<DefaultSearchNode> slice = stack.getSlice(z);
+            if (slice == null) {
+                slice = stack.newSlice(z);
+            }
+            slice.setValue(x, y, new DefaultSearchNode(x, y, z, store.getG(n), 0, null,
+                    (store.getStatus(n) == PackedNodeStore.OPEN) ? OPEN_FROM_START : CLOSED_FROM_START));
+        });
+        return stack;
+    }
+
+    @Override
+    public SearchImageStack<DefaultSearchNode> getNodesAsImageFromStart() {
+        return getNodesAsImage();
+    }
+
+    /**
+     * @return the packed state of this filler
+     */
+    public PackedNodeStore getStore() {
+        return store;
+    }
+
+    @Override
+    public void printStatus() {
+        SNTUtils.log("... Start nodes: open=" + open.size() + " closed=" + closed_from_start_count);
+    }
+
+    @Override
+    protected void reportPointsInSearch() {
+        for (final SearchProgressCallback progress : progressListeners) {
+            progress.pointsInSearch(this, open.size(), closed_from_start_count);
+            if (progress instanceof FillerProgressCallback) {
+                ((FillerProgressCallback) progress).maximumDistanceCompletelyExplored(this, maxExploredDistance);
+            }
+        }
+    }
+
+    @Override
+    public long estimatedMemoryInSearch() {
+        return store.estimateBytes() + open.size() * 16L;
+    }
+
+    @Override
+    public long pointsConsideredInSearch() {
+        return open.size() + closed_from_start_count;
+    }
+
+}
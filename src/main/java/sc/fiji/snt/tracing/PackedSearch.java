@@ -0,0 +1,213 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2021 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.tracing;
+
+import ij.measure.Calibration;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import sc.fiji.snt.Path;
+import sc.fiji.snt.SNT;
+import sc.fiji.snt.SNTUtils;
+import sc.fiji.snt.SearchProgressCallback;
+import sc.fiji.snt.tracing.cost.Cost;
+import sc.fiji.snt.tracing.image.NodeIndexHeap;
+import sc.fiji.snt.tracing.image.PackedNodeStore;
+
+import java.util.ArrayList;
+
+/**
+ * Base class for searches that keep their state in {@link PackedNodeStore}s rather than in
+ * {@link SearchNode} objects, so that no objects are allocated per explored voxel.
+ *
+ * @see SNT.SearchImageType#PACKED
+ */
+public abstract class PackedSearch extends AbstractSearch {
+
+    protected final Cost costFunction;
+    protected final double[] stepLengths;
+    protected PackedNodeStore store_from_start;
+    protected PackedNodeStore store_from_goal;
+    protected NodeIndexHeap open_from_start;
+    protected NodeIndexHeap open_from_goal;
+    protected long closed_from_start_count;
+    protected long closed_from_goal_count;
+    protected int exitReason;
+
+    protected long started_at;
+    protected long loops;
+    protected long loops_at_last_report;
+    protected long lastReportMilliseconds;
+
+    /* If you specify 0 for timeoutSeconds then there is no timeout. */
+    protected PackedSearch(final RandomAccessibleInterval<? extends RealType<?>> image,
+                           final Calibration calibration, final boolean bidirectional,
+                           final int timeoutSeconds, final long reportEveryMilliseconds,
+                           final Cost costFunction)
+    {
+        super(image, calibration, timeoutSeconds, reportEveryMilliseconds);
+        this.costFunction = costFunction;
+        this.stepLengths = PackedNodeStore.stepLengths(xSep, ySep, zSep);
+        init(bidirectional);
+    }
+
+    protected PackedSearch(final SNT snt, final RandomAccessibleInterval<? extends RealType<?>> image,
+                           final boolean bidirectional, final Cost costFunction)
+    {
+        super(snt, image);
+        this.costFunction = costFunction;
+        this.stepLengths = PackedNodeStore.stepLengths(xSep, ySep, zSep);
+        init(bidirectional);
+    }
+
+    private void init(final boolean bidirectional) {
+        store_from_start = new PackedNodeStore(xMin, yMin, zMin, imgWidth, imgHeight, imgDepth);
+        open_from_start = new NodeIndexHeap(store_from_start);
+        if (bidirectional) {
+            store_from_goal = new PackedNodeStore(xMin, yMin, zMin, imgWidth, imgHeight, imgDepth);
+            open_from_goal = new NodeIndexHeap(store_from_goal);
+        }
+        progressListeners = new ArrayList<>();
+    }
+
+    /**
+     * Computes the cost of moving into the specified voxel, clamped to the minimum step cost of the
+     * {@link Cost} function.
+     */
+    protected double costMovingTo(final int x, final int y, final int z) {
+        imgAccess.setPosition(x, 0);
+        imgAccess.setPosition(y, 1);
+        imgAccess.setPosition(z, 2);
+        final double cost = costFunction.costMovingTo(imgAccess.get().getRealDouble());
+        return (cost < costFunction.minStepCost()) ? costFunction.minStepCost() : cost;
+    }
+
+    /**
+     * Assembles the path from the seed of a search to the specified voxel.
+     *
+     * @param store    the store holding the search state
+     * @param index    the linear index of the last voxel
+     * @param reversed if true, the path is assembled from the specified voxel to the seed of the search
+     * @return the assembled path
+     */
+    protected Path asPath(final PackedNodeStore store, final long index, final boolean reversed) {
+        final Path path = new Path(xSep, ySep, zSep, spacing_units);
+        long p = index;
+        do {
+            path.addPointDouble(store.x(p) * xSep, store.y(p) * ySep, store.z(p) * zSep);
+            p = store.parentIndex(p);
+        } while (p >= 0);
+        return (reversed) ? path : path.reversed();
+    }
+
+    public PackedNodeStore getStoreFromStart() {
+        return store_from_start;
+    }
+
+    /**
+     * @return the search state from the goal, or null if this is not a bidirectional search
+     */
+    public PackedNodeStore getStoreFromGoal() {
+        return store_from_goal;
+    }
+
+    @Override
+    public void addProgressListener(final SearchProgressCallback callback) {
+        progressListeners.add(callback);
+    }
+
+    public void reportFinished(final boolean success) {
+        metricsFinished();
+        for (final SearchProgressCallback progress : progressListeners)
+            progress.finished(this, success);
+    }
+
+    protected boolean checkStatus() {
+        final long currentMilliseconds = System.currentTimeMillis();
+        final long millisecondsSinceStart = currentMilliseconds - started_at;
+
+        if ((timeoutSeconds > 0) && (millisecondsSinceStart > (1000L * timeoutSeconds))) {
+            SNTUtils.log("Timed out...");
+            return true;
+        }
+
+        final long since_last_report = currentMilliseconds - lastReportMilliseconds;
+        if ((reportEveryMilliseconds > 0) && (since_last_report > reportEveryMilliseconds)) {
+            final long loops_since_last_report = loops - loops_at_last_report;
+            if (verbose) {
+                SNTUtils.log("" + (since_last_report / (double) loops_since_last_report) + "ms/loop");
+                printStatus();
+            }
+
+            reportPointsInSearch();
+            reportMemoryInSearch();
+
+            loops_at_last_report = loops;
+            lastReportMilliseconds = currentMilliseconds;
+        }
+        return false;
+    }
+
+    /* This method is used to set the reason for the search finishing */
+    void setExitReason(final int exitReason) {
+        this.exitReason = exitReason;
+    }
+
+    /**
+     * @return the reason for the search finishing, one of {@link SearchThread#EXIT_REASONS_STRINGS}
+     */
+    public int getExitReason() {
+        return exitReason;
+    }
+
+    @Override
+    public void printStatus() {
+        SNTUtils.log("... Start nodes: open=" + open_from_start.size() +
+                " closed=" + closed_from_start_count);
+        if (open_from_goal != null) {
+            SNTUtils.log("...  Goal nodes: open=" + open_from_goal.size() +
+                    " closed=" + closed_from_goal_count);
+        }
+    }
+
+    @Override
+    protected void reportPointsInSearch() {
+        for (final SearchProgressCallback progress : progressListeners)
+            progress.pointsInSearch(this, open_from_start.size() + ((open_from_goal == null) ? 0 : open_from_goal.size()),
+                    closed_from_start_count + closed_from_goal_count);
+    }
+
+    @Override
+    public long estimatedMemoryInSearch() {
+        long bytes = store_from_start.estimateBytes() + open_from_start.size() * 16L;
+        if (store_from_goal != null)
+            bytes += store_from_goal.estimateBytes() + open_from_goal.size() * 16L;
+        return bytes;
+    }
+
+    @Override
+    public long pointsConsideredInSearch() {
+        return open_from_start.size() + ((open_from_goal == null) ? 0 : open_from_goal.size()) +
+                closed_from_start_count + closed_from_goal_count;
+    }
+
+}
@@ -0,0 +1,266 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2021 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.tracing;
+
+import ij.measure.Calibration;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import sc.fiji.snt.Path;
+import sc.fiji.snt.SNT;
+import sc.fiji.snt.SNTUtils;
+import sc.fiji.snt.tracing.cost.Cost;
+import sc.fiji.snt.tracing.heuristic.Heuristic;
+import sc.fiji.snt.tracing.image.NodeIndexHeap;
+import sc.fiji.snt.tracing.image.PackedNodeStore;
+
+/**
+ * Allocation-free counterpart of {@link TracerThread}: a bidirectional A* search between two points
+ * whose state is kept in {@link PackedNodeStore}s. Given the same input, it yields the same path as
+ * {@link TracerThread}.
+ *
+ * @see SNT.SearchImageType#PACKED
+ */
+public class PackedTracerThread extends PackedSearch {
+
+    private final int start_x;
+    private final int start_y;
+    private final int start_z;
+    private final int goal_x;
+    private final int goal_y;
+    private final int goal_z;
+    private final Heuristic heuristic;
+    private Path result;
+
+    public PackedTracerThread(final SNT snt, final RandomAccessibleInterval<? extends RealType<?>> image,
+                              final int start_x, final int start_y, final int start_z,
+                              final int goal_x, final int goal_y, final int goal_z,
+                              final Cost costFunction, final Heuristic heuristic)
+    {
+        super(snt, image, true, costFunction);
+        this.start_x = start_x;
+        this.start_y = start_y;
+        this.start_z = start_z;
+        this.goal_x = goal_x;
+        this.goal_y = goal_y;
+        this.goal_z = goal_z;
+        this.heuristic = heuristic;
+        init();
+    }
+
+    /* If you specify 0 for timeoutSeconds then there is no timeout. */
+    public PackedTracerThread(final RandomAccessibleInterval<? extends RealType<?>> image,
+                              final Calibration calibration,
+                              final int start_x, final int start_y, final int start_z,
+                              final int goal_x, final int goal_y, final int goal_z,
+                              final int timeoutSeconds, final long reportEveryMilliseconds,
+                              final Cost costFunction, final Heuristic heuristic)
+    {
+        super(image, calibration, true, timeoutSeconds, reportEveryMilliseconds, costFunction);
+        this.start_x = start_x;
+        this.start_y = start_y;
+        this.start_z = start_z;
+        this.goal_x = goal_x;
+        this.goal_y = goal_y;
+        this.goal_z = goal_z;
+        this.heuristic = heuristic;
+        init();
+    }
+
+    private void init() {
+        final long s = store_from_start.index(start_x, start_y, start_z);
+        store_from_start.set(s, 0, PackedNodeStore.NO_PARENT, PackedNodeStore.OPEN);
+        open_from_start.insert(s, estimateCostToGoal(start_x, start_y, start_z, true));
+        final long g = store_from_goal.index(goal_x, goal_y, goal_z);
+        store_from_goal.set(g, 0, PackedNodeStore.NO_PARENT, PackedNodeStore.OPEN);
+        open_from_goal.insert(g, estimateCostToGoal(goal_x, goal_y, goal_z, false));
+    }
+
+    @Override
+    public void run() {
+
+        try {
+
+            if (verbose) {
+                SNTUtils.log("New " + getClass().getSimpleName() + " running!");
+                printStatus();
+            }
+
+            started_at = lastReportMilliseconds = System.currentTimeMillis();
+            metricsStarted();
+
+            while (!open_from_start.isEmpty() || !open_from_goal.isEmpty()) {
+
+                if (Thread.currentThread().isInterrupted()) {
+                    setExitReason(SearchThread.CANCELLED);
+                    reportFinished(false);
+                    return;
+                }
+
+                ++loops;
+
+                if (0 == (loops % 10000) && checkStatus()) {
+                    setExitReason(SearchThread.TIMED_OUT);
+                    reportFinished(false);
+                    return;
+                }
+
+                if (isNodeBudgetExceeded()) {
+                    SNTUtils.log("Node budget exceeded...");
+                    setExitReason(SearchThread.NODE_BUDGET_EXCEEDED);
+                    reportFinished(false);
+                    return;
+                }
+
+                final boolean fromStart = open_from_goal.size() > open_from_start.size();
+                final NodeIndexHeap open_queue = fromStart ? open_from_start : open_from_goal;
+                final PackedNodeStore this_store = fromStart ? store_from_start : store_from_goal;
+                final PackedNodeStore other_store = fromStart ? store_from_goal : store_from_start;
+
+                if (open_queue.isEmpty()) continue;
+
+                final long p = open_queue.deleteMin();
+                if (metrics != null) metrics.heapDeletions++;
+                final int px = this_store.x(p);
+                final int py = this_store.y(p);
+                final int pz = this_store.z(p);
+
+                if (atGoal(px, py, pz, fromStart)) {
+                    SNTUtils.log("Found the goal!");
+                    final long reconstructionStart = System.nanoTime();
+                    result = asPath(this_store, p, !fromStart);
+                    if (metrics != null) metrics.pathReconstructed(reconstructionStart);
+                    setExitReason(SearchThread.SUCCESS);
+                    reportFinished(true);
+                    return;
+                }
+
+                this_store.setStatus(p, PackedNodeStore.CLOSED);
+                if (fromStart) closed_from_start_count++;
+                else closed_from_goal_count++;
+                if (metrics != null) metrics.nodesExpanded++;
+                final double pg = this_store.getG(p);
+
+                // Neighbors are visited in the same order as in SearchThread
+                for (int zdiff = -1; zdiff <= 1; zdiff++) {
+                    final int new_z = pz + zdiff;
+                    if (new_z < zMin || new_z > zMax) continue;
+
+                    for (int xdiff = -1; xdiff <= 1; xdiff++) {
+                        final int new_x = px + xdiff;
+                        if (new_x < xMin || new_x > xMax) continue;
+
+                        for (int ydiff = -1; ydiff <= 1; ydiff++) {
+                            if ((xdiff == 0) && (ydiff == 0) && (zdiff == 0)) continue;
+                            final int new_y = py + ydiff;
+                            if (new_y < yMin || new_y > yMax) continue;
+
+                            final byte direction = PackedNodeStore.direction(xdiff, ydiff, zdiff);
+                            final double h_for_new_point = estimateCostToGoal(new_x, new_y, new_z, fromStart);
+                            final double g_for_new_point = pg + stepLengths[direction] *
+                                    costMovingTo(new_x, new_y, new_z);
+                            final double f_for_new_point = h_for_new_point + g_for_new_point;
+
+                            final long n = this_store.index(new_x, new_y, new_z);
+                            final byte status = this_store.getStatus(n);
+                            if (status == PackedNodeStore.FREE) {
+                                this_store.set(n, g_for_new_point, direction, PackedNodeStore.OPEN);
+                                open_queue.insert(n, f_for_new_point);
+                                if (metrics != null) metrics.heapInsertions++;
+                            } else if (this_store.getG(n) + h_for_new_point > f_for_new_point) {
+                                // A better route to an already known voxel
+                                this_store.set(n, g_for_new_point, direction, PackedNodeStore.OPEN);
+                                if (status == PackedNodeStore.OPEN) {
+                                    open_queue.decreaseKey(n, f_for_new_point);
+                                    if (metrics != null) metrics.heapDecreaseKeys++;
+                                } else {
+                                    open_queue.insert(n, f_for_new_point);
+                                    if (metrics != null) {
+                                        metrics.nodesReopened++;
+                                        metrics.heapInsertions++;
+                                    }
+                                }
+                            }
+
+                            if (other_store.getStatus(n) == PackedNodeStore.CLOSED) {
+                                final long reconstructionStart = System.nanoTime();
+                                if (fromStart) {
+                                    result = asPath(this_store, p, false);
+                                    result.add(asPath(other_store, n, true));
+                                } else {
+                                    result = asPath(other_store, n, false);
+                                    result.add(asPath(this_store, p, true));
+                                }
+                                if (metrics != null) metrics.pathReconstructed(reconstructionStart);
+                                if (verbose) {
+                                    SNTUtils.log("Searches met!");
+                                    SNTUtils.log("Cost for path = "
+                                            + (this_store.getG(n) + other_store.getG(n)));
+                                    SNTUtils.log("Total loops = " + loops);
+                                }
+                                setExitReason(SearchThread.SUCCESS);
+                                reportFinished(true);
+                                return;
+                            }
+                        }
+                    }
+                }
+            }
+
+            SNTUtils.log("FAILED to find a route.  Shouldn't happen...");
+            setExitReason(SearchThread.POINTS_EXHAUSTED);
+            reportFinished(false);
+
+        } catch (final OutOfMemoryError oome) {
+            SNTUtils.error("Out Of Memory Error", oome);
+            setExitReason(SearchThread.OUT_OF_MEMORY);
+            reportFinished(false);
+        } catch (final Throwable t) {
+            SNTUtils.error("Exception in search thread " + Thread.currentThread(), t);
+        }
+    }
+
+    private boolean atGoal(final int x, final int y, final int z, final boolean fromStart) {
+        if (fromStart)
+            return (x == goal_x) && (y == goal_y) && (z == goal_z);
+        else
+            return (x == start_x) && (y == start_y) && (z == start_z);
+    }
+
+    private double estimateCostToGoal(final int current_x, final int current_y, final int current_z,
+                                      final boolean fromStart)
+    {
+        return costFunction.minStepCost() * heuristic.estimateCostToGoal(
+                current_x,
+                current_y,
+                current_z,
+                fromStart ? goal_x : start_x,
+                fromStart ? goal_y : start_y,
+                fromStart ? goal_z : start_z);
+    }
+
+    @Override
+    public Path getResult() {
+        return result;
+    }
+
+}
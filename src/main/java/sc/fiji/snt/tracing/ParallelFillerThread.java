@@ -0,0 +1,636 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2021 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.tracing;
+
+import ij.measure.Calibration;
+import it.unimi.dsi.fastutil.bytes.ByteArrayList;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import sc.fiji.snt.Fill;
+import sc.fiji.snt.FillerProgressCallback;
+import sc.fiji.snt.Path;
+import sc.fiji.snt.SNTPrefs;
+import sc.fiji.snt.SNTUtils;
+import sc.fiji.snt.SearchProgressCallback;
+import sc.fiji.snt.tracing.cost.Cost;
+import sc.fiji.snt.tracing.image.NodeIndexHeap;
+import sc.fiji.snt.tracing.image.PackedNodeStore;
+import sc.fiji.snt.tracing.image.SearchImage;
+import sc.fiji.snt.tracing.image.SearchImageStack;
+import sc.fiji.snt.tracing.image.SupplierUtil;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Multithreaded counterpart of {@link FillerThread}. The image is partitioned into blocks, each holding its own
+ * search state ({@link PackedNodeStore}) and priority queue. Blocks are processed concurrently: distances are
+ * propagated locally within a block, while improvements to voxels of neighboring blocks are posted to those
+ * blocks, which are then scheduled for processing. Blocks are scheduled in order of their lowest distance, so
+ * that fronts progress in roughly the same order as a sequential fill.
+ * <p>
+ * The fill terminates once no block can improve any distance, so the computed distances are the same as those
+ * of {@link FillerThread}. When a voxel can be reached through multiple shortest paths of equal length, its
+ * predecessor in the {@link Fill} may differ from the one chosen by a sequential fill.
+ * </p>
+ * Like {@link PackedFillerThread}, above-threshold voxels remain queued when stopping at the threshold, so
+ * that the fill can be resumed from where it stopped.
+ */
+public class ParallelFillerThread extends FillerThread {
+
+    /** The default edge length (in voxels) of the blocks the image is partitioned into */
+    public static final int DEFAULT_BLOCK_SIZE = 64;
+
+    private final int nThreads;
+    private final int blockSize;
+    private final int blocksX;
+    private final int blocksY;
+    private final int blocksZ;
+    private final double[] stepLengths;
+    private final AtomicReferenceArray<Block> blocks;
+    private final PriorityBlockingQueue<Block> queue;
+    private final AtomicInteger pending;
+    private volatile boolean cancelled;
+    private volatile Throwable failure;
+
+    public ParallelFillerThread(final RandomAccessibleInterval<? extends RealType<?>> image,
+                                final Calibration calibration, final double initialThreshold,
+                                final long reportEveryMilliseconds, final Cost costFunction)
+    {
+        this(image, calibration, initialThreshold, 0, reportEveryMilliseconds, costFunction, 0, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param timeoutSeconds the maximum duration of the fill. If 0, there is no timeout
+     * @param nThreads       the number of threads used by the fill. If not positive, the number of threads set
+     *                       in SNT's preferences is used
+     * @param blockSize      the edge length (in voxels) of the blocks the image is partitioned into
+     */
+    public ParallelFillerThread(final RandomAccessibleInterval<? extends RealType<?>> image,
+                                final Calibration calibration, final double initialThreshold,
+                                final int timeoutSeconds, final long reportEveryMilliseconds,
+                                final Cost costFunction, final int nThreads, final int blockSize)
+    {
+        super(image, calibration, initialThreshold, timeoutSeconds, reportEveryMilliseconds, costFunction);
+        if (blockSize < 2) throw new IllegalArgumentException("Block size must be larger than 1");
+        this.nThreads = (nThreads > 0) ? nThreads : Math.max(1, SNTPrefs.getThreads());
+        this.blockSize = blockSize;
+        blocksX = (imgWidth + blockSize - 1) / blockSize;
+        blocksY = (imgHeight + blockSize - 1) / blockSize;
+        blocksZ = (imgDepth + blockSize - 1) / blockSize;
+        blocks = new AtomicReferenceArray<>(Math.multiplyExact(Math.multiplyExact(blocksX, blocksY), blocksZ));
+        queue = new PriorityBlockingQueue<>(64, Comparator.comparingDouble(b -> b.priority));
+        pending = new AtomicInteger();
+        stepLengths = PackedNodeStore.stepLengths(xSep, ySep, zSep);
+    }
+
+    /* A region of the image, with its own search state */
+    private final class Block {
+
+        final int x0, y0, z0;
+        final int x1, y1, z1;
+        final PackedNodeStore store;
+        final NodeIndexHeap open;
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        // Improvements posted by neighboring blocks
+        final LongArrayList inboxNodes = new LongArrayList();
+        final DoubleArrayList inboxG = new DoubleArrayList();
+        final ByteArrayList inboxDirections = new ByteArrayList();
+        volatile double priority;
+        volatile double maxExplored;
+        volatile long closedCount;
+
+        Block(final int bx, final int by, final int bz) {
+            x0 = (int) xMin + bx * blockSize;
+            y0 = (int) yMin + by * blockSize;
+            z0 = (int) zMin + bz * blockSize;
+            x1 = (int) Math.min(xMax, x0 + blockSize - 1);
+            y1 = (int) Math.min(yMax, y0 + blockSize - 1);
+            z1 = (int) Math.min(zMax, z0 + blockSize - 1);
+            store = new PackedNodeStore(x0, y0, z0, x1 - x0 + 1, y1 - y0 + 1, z1 - z0 + 1);
+            open = new NodeIndexHeap(store, 64);
+        }
+
+        boolean contains(final int x, final int y, final int z) {
+            return x >= x0 && x <= x1 && y >= y0 && y <= y1 && z >= z0 && z <= z1;
+        }
+
+        boolean hasWork() {
+            synchronized (inboxNodes) {
+                if (!inboxNodes.isEmpty()) return true;
+            }
+            return !open.isEmpty() && !(isStopAtThreshold && open.peekKey() > threshold);
+        }
+    }
+
+    /* Retrieves the block holding the specified voxel, or null if it has not been reached */
+    private Block peekBlock(final int x, final int y, final int z) {
+        return blocks.get(blockIndex(x, y, z));
+    }
+
+    /* Retrieves the block holding the specified voxel, creating it if needed */
+    private Block block(final int x, final int y, final int z) {
+        final int index = blockIndex(x, y, z);
+        Block block = blocks.get(index);
+        if (block == null) {
+            final Block newBlock = new Block((int) (x - xMin) / blockSize, (int) (y - yMin) / blockSize,
+                    (int) (z - zMin) / blockSize);
+            block = blocks.compareAndSet(index, null, newBlock) ? newBlock : blocks.get(index);
+        }
+        return block;
+    }
+
+    private int blockIndex(final int x, final int y, final int z) {
+        return (int) ((((z - zMin) / blockSize) * blocksY + (y - yMin) / blockSize) * blocksX
+                + (x - xMin) / blockSize);
+    }
+
+    private boolean isOutOfBounds(final int x, final int y, final int z) {
+        return x < xMin || x > xMax || y < yMin || y > yMax || z < zMin || z > zMax;
+    }
+
+    @Override
+    public void setSourcePaths(final Collection<Path> newSourcePaths) {
+        sourcePaths = new HashSet<>();
+        sourcePaths.addAll(newSourcePaths);
+        for (final Path p : newSourcePaths) {
+            if (p == null) return;
+            for (int k = 0; k < p.size(); ++k) {
+                final int x = p.getXUnscaled(k);
+                final int y = p.getYUnscaled(k);
+                final int z = p.getZUnscaled(k);
+                if (isOutOfBounds(x, y, z)) continue;
+                final Block block = block(x, y, z);
+                final long n = block.store.index(x, y, z);
+                if (block.store.getStatus(n) != PackedNodeStore.FREE) continue;
+                block.store.set(n, 0d, PackedNodeStore.NO_PARENT, PackedNodeStore.OPEN);
+                block.open.insert(n, 0d);
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+
+        if (verbose) {
+            SNTUtils.log("New ParallelFillerThread running with " + nThreads + " threads!");
+            printStatus();
+        }
+
+        started_at = lastReportMilliseconds = System.currentTimeMillis();
+        metricsStarted();
+        cancelled = false;
+        failure = null;
+        // Blocks may have been left scheduled by an interrupted run
+        queue.clear();
+        pending.set(0);
+        for (int i = 0; i < blocks.length(); i++) {
+            final Block block = blocks.get(i);
+            if (block == null) continue;
+            block.scheduled.set(false);
+            if (block.hasWork()) schedule(block, block.open.isEmpty() ? 0 : block.open.peekKey());
+        }
+
+        final ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        final CountDownLatch latch = new CountDownLatch(nThreads);
+        for (int i = 0; i < nThreads; i++) {
+            pool.submit(() -> {
+                try {
+                    work();
+                } catch (final Throwable t) {
+                    failure = t;
+                    cancelled = true;
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        pool.shutdown();
+
+        try {
+            final long pollMilliseconds = (reportEveryMilliseconds > 0) ? Math.min(reportEveryMilliseconds, 100) : 100;
+            while (!latch.await(pollMilliseconds, TimeUnit.MILLISECONDS)) {
+                if (checkStatus()) {
+                    SNTUtils.log("ParallelFillerThread timed out...");
+                    stopWorkers(pool, latch);
+                    setExitReason(TIMED_OUT);
+                    reportFinished(false);
+                    return;
+                }
+                if (isNodeBudgetExceeded()) {
+                    SNTUtils.log("Node budget exceeded...");
+                    stopWorkers(pool, latch);
+                    setExitReason(NODE_BUDGET_EXCEEDED);
+                    reportFinished(false);
+                    return;
+                }
+            }
+        } catch (final InterruptedException e) {
+            stopWorkers(pool, null);
+            setExitReason(CANCELLED);
+            reportFinished(false);
+            return;
+        }
+
+        if (failure != null) {
+            if (failure instanceof OutOfMemoryError) {
+                SNTUtils.error("Out of memory, try splitting the work across multiple FillerThread instances.",
+                        failure);
+                setExitReason(OUT_OF_MEMORY);
+            } else {
+                SNTUtils.error("Exception during fill", failure);
+            }
+            reportFinished(false);
+            return;
+        }
+
+        SNTUtils.log("Fill complete for thread " + Thread.currentThread());
+        setExitReason(SUCCESS);
+        reportFinished(true);
+    }
+
+    @Override
+    protected boolean checkStatus() {
+        // Workers do not count loops: progress is reported based on elapsed time only
+        final long currentMilliseconds = System.currentTimeMillis();
+        if (timeoutSeconds > 0 && currentMilliseconds - started_at > 1000L * timeoutSeconds) {
+            return true;
+        }
+        if (reportEveryMilliseconds > 0 && currentMilliseconds - lastReportMilliseconds > reportEveryMilliseconds) {
+            reportPointsInSearch();
+            reportMemoryInSearch();
+            lastReportMilliseconds = currentMilliseconds;
+        }
+        return false;
+    }
+
+    private void stopWorkers(final ExecutorService pool, final CountDownLatch latch) {
+        cancelled = true;
+        pool.shutdownNow();
+        if (latch == null) return;
+        try {
+            // Ensure blocks are no longer being modified
+            latch.await();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void schedule(final Block block, final double priority) {
+        if (block.scheduled.compareAndSet(false, true)) {
+            block.priority = priority;
+            pending.incrementAndGet();
+            queue.add(block);
+        }
+    }
+
+    private void work() throws InterruptedException {
+        final RandomAccess<? extends RealType<?>> access = img.randomAccess();
+        // Each worker counts its own work, merged into the metrics of the fill once it is done
+        final SearchMetrics workerMetrics = (metrics == null) ? null : new SearchMetrics();
+        if (workerMetrics != null) workerMetrics.cellLoadsStarted();
+        try {
+            while (!cancelled) {
+                final Block block = queue.poll(10, TimeUnit.MILLISECONDS);
+                if (block == null) {
+                    if (pending.get() == 0) return;
+                    continue;
+                }
+                synchronized (block) {
+                    // From now on, improvements posted to this block will schedule it again
+                    block.scheduled.set(false);
+                    process(block, access, workerMetrics);
+                }
+                pending.decrementAndGet();
+            }
+        } finally {
+            if (workerMetrics != null) {
+                workerMetrics.cellLoadsFinished();
+                metrics.addWorker(workerMetrics);
+            }
+        }
+    }
+
+    private void process(final Block block, final RandomAccess<? extends RealType<?>> access,
+                         final SearchMetrics workerMetrics)
+    {
+        drainInbox(block, workerMetrics);
+        long loops = 0;
+        while (!block.open.isEmpty() && !cancelled) {
+            // Only fill up to the threshold. Nodes beyond it are kept in the heap
+            if (isStopAtThreshold && block.open.peekKey() > threshold) break;
+            final long p = block.open.deleteMin();
+            final double pg = block.store.getG(p);
+            block.store.setStatus(p, PackedNodeStore.CLOSED);
+            block.closedCount++;
+            if (workerMetrics != null) {
+                workerMetrics.heapDeletions++;
+                workerMetrics.nodesExpanded++;
+            }
+            if (pg > block.maxExplored) block.maxExplored = pg;
+            expandNeighbors(block, p, pg, access, workerMetrics);
+            // Pick up improvements posted in the meantime, so that they are propagated early
+            if (0 == (++loops % 4096)) drainInbox(block, workerMetrics);
+        }
+    }
+
+    private void drainInbox(final Block block, final SearchMetrics workerMetrics) {
+        synchronized (block.inboxNodes) {
+            for (int i = 0; i < block.inboxNodes.size(); i++) {
+                relax(block, block.inboxNodes.getLong(i), block.inboxG.getDouble(i), block.inboxDirections.getByte(i),
+                        workerMetrics);
+            }
+            block.inboxNodes.clear();
+            block.inboxG.clear();
+            block.inboxDirections.clear();
+        }
+    }
+
+    private void post(final Block block, final long n, final double g, final byte direction) {
+        synchronized (block.inboxNodes) {
+            block.inboxNodes.add(n);
+            block.inboxG.add(g);
+            block.inboxDirections.add(direction);
+        }
+        schedule(block, g);
+    }
+
+    private void relax(final Block block, final long n, final double g, final byte direction,
+                       final SearchMetrics workerMetrics)
+    {
+        final byte status = block.store.getStatus(n);
+        if (status == PackedNodeStore.FREE) {
+            block.store.set(n, g, direction, PackedNodeStore.OPEN);
+            block.open.insert(n, g);
+            if (workerMetrics != null) workerMetrics.heapInsertions++;
+        } else if (block.store.getG(n) > g) {
+            block.store.set(n, g, direction, PackedNodeStore.OPEN);
+            if (status == PackedNodeStore.OPEN) {
+                block.open.decreaseKey(n, g);
+                if (workerMetrics != null) workerMetrics.heapDecreaseKeys++;
+            } else {
+                block.open.insert(n, g);
+                if (workerMetrics != null) {
+                    workerMetrics.nodesReopened++;
+                    workerMetrics.heapInsertions++;
+                }
+            }
+        }
+    }
+
+    private void expandNeighbors(final Block block, final long p, final double pg,
+                                 final RandomAccess<? extends RealType<?>> access, final SearchMetrics workerMetrics)
+    {
+        final int px = block.store.x(p);
+        final int py = block.store.y(p);
+        final int pz = block.store.z(p);
+        for (int zdiff = -1; zdiff <= 1; ++zdiff) {
+            final int new_z = pz + zdiff;
+            if (new_z < zMin || new_z > zMax) continue;
+            access.setPosition(new_z, 2);
+
+            for (int xdiff = -1; xdiff <= 1; xdiff++) {
+                final int new_x = px + xdiff;
+                if (new_x < xMin || new_x > xMax) continue;
+                access.setPosition(new_x, 0);
+
+                for (int ydiff = -1; ydiff <= 1; ydiff++) {
+                    if ((xdiff == 0) && (ydiff == 0) && (zdiff == 0)) continue;
+                    final int new_y = py + ydiff;
+                    if (new_y < yMin || new_y > yMax) continue;
+                    access.setPosition(new_y, 1);
+
+                    double cost_moving_to_new_point = costFunction.costMovingTo(access.get().getRealDouble());
+                    if (cost_moving_to_new_point < costFunction.minStepCost()) {
+                        cost_moving_to_new_point = costFunction.minStepCost();
+                    }
+                    final byte direction = PackedNodeStore.direction(xdiff, ydiff, zdiff);
+                    final double g_for_new_point = pg + stepLengths[direction] * cost_moving_to_new_point;
+
+                    if (block.contains(new_x, new_y, new_z)) {
+                        relax(block, block.store.index(new_x, new_y, new_z), g_for_new_point, direction,
+                                workerMetrics);
+                    } else {
+                        final Block neighbor = block(new_x, new_y, new_z);
+                        post(neighbor, neighbor.store.index(new_x, new_y, new_z), g_for_new_point, direction);
+                    }
+                }
+            }
+        }
+    }
+
+    /* Linear index of a voxel across the whole image */
+    private long globalIndex(final int x, final int y, final int z) {
+        return ((long) (z - zMin) * imgHeight + (y - yMin)) * imgWidth + (x - xMin);
+    }
+
+    @Override
+    public double getDistanceAtPoint(final double xd, final double yd, final double zd) {
+        final int x = (int) Math.round(xd);
+        final int y = (int) Math.round(yd);
+        final int z = (int) Math.round(zd);
+        final double g = peekG(x, y, z);
+        return (g == Double.POSITIVE_INFINITY) ? -1.0 : g;
+    }
+
+    /**
+     * Retrieves the status of a voxel without modifying the state of the fill.
+     *
+     * @return the status of the voxel at the specified coordinates or {@link PackedNodeStore#FREE} if it has
+     * not been reached
+     * @see PackedNodeStore#peekStatus(int, int, int)
+     */
+    public byte peekStatus(final int x, final int y, final int z) {
+        if (isOutOfBounds(x, y, z)) return PackedNodeStore.FREE;
+        final Block block = peekBlock(x, y, z);
+        return (block == null) ? PackedNodeStore.FREE : block.store.peekStatus(x, y, z);
+    }
+
+    /**
+     * Retrieves the distance of a voxel without modifying the state of the fill.
+     *
+     * @return the distance of the voxel at the specified coordinates or {@link Double#POSITIVE_INFINITY} if
+     * it has not been reached
+     * @see PackedNodeStore#peekG(int, int, int)
+     */
+    public double peekG(final int x, final int y, final int z) {
+        if (isOutOfBounds(x, y, z)) return Double.POSITIVE_INFINITY;
+        final Block block = peekBlock(x, y, z);
+        return (block == null) ? Double.POSITIVE_INFINITY : block.store.peekG(x, y, z);
+    }
+
+    @Override
+    public Fill getFill() {
+        final Long2IntOpenHashMap fillIndices = new Long2IntOpenHashMap();
+        fillIndices.defaultReturnValue(-1);
+        final LongArrayList includedNodes = new LongArrayList();
+        final LongArrayList includedBlocks = new LongArrayList();
+        for (int i = 0; i < blocks.length(); i++) {
+            final Block block = blocks.get(i);
+            if (block == null) continue;
+            final long blockIndex = i;
+            block.store.forEachVisited(n -> {
+                if (!isStoreAboveThresholdNodes && block.store.getG(n) > threshold) return;
+                fillIndices.put(globalIndex(block.store.x(n), block.store.y(n), block.store.z(n)),
+                        includedNodes.size());
+                includedNodes.add(n);
+                includedBlocks.add(blockIndex);
+            });
+        }
+
+        final Fill fill = newFill();
+        SNTUtils.log("... out of a.size() " + includedNodes.size() + " entries");
+        for (int i = 0; i < includedNodes.size(); ++i) {
+            final PackedNodeStore store = blocks.get((int) includedBlocks.getLong(i)).store;
+            final long n = includedNodes.getLong(i);
+            final int x = store.x(n);
+            final int y = store.y(n);
+            final int z = store.z(n);
+            // Predecessors may belong to a neighboring block
+            final byte direction = store.getParent(n);
+            final int previousIndex = (direction == PackedNodeStore.NO_PARENT) ? -1 : fillIndices.get(globalIndex(
+                    x - (direction % 3 - 1), y - ((direction / 3) % 3 - 1), z - (direction / 9 - 1)));
+            fill.add(x, y, z, store.getG(n), previousIndex, store.getStatus(n) == PackedNodeStore.OPEN);
+        }
+        if (sourcePaths != null) {
+            fill.setSourcePaths(sourcePaths);
+        }
+        return fill;
+    }
+
+    /**
+     * Materializes the explored voxels as {@link DefaultSearchNode}s. Note that predecessors are not
+     * assigned. Use {@link #getFill()} for a complete description of the fill.
+     *
+     * @return a new stack holding one node per explored voxel
+     */
+    @Override
+    public SearchImageStack<DefaultSearchNode> getNodesAsImage() {
+        final SearchImageStack<DefaultSearchNode> stack =
+                new SearchImageStack<>(new SupplierUtil.MapSearchImageSupplier<>());
+        for (int i = 0; i < blocks.length(); i++) {
+            final Block block = blocks.get(i);
+            if (block == null) continue;
+            final PackedNodeStore store = block.store;
+            store.forEachVisited(n -> {
+                final int x = store.x(n);
+                final int y = store.y(n);
+                final int z = store.z(n);
+                SearchImage<DefaultSearchNode> slice = stack.getSlice(z);
+                if (slice == null) {
+                    slice = stack.newSlice(z);
+                }
+                slice.setValue(x, y, new DefaultSearchNode(x, y, z, store.getG(n), 0, null,
+                        (store.getStatus(n) == PackedNodeStore.OPEN) ? OPEN_FROM_START : CLOSED_FROM_START));
+            });
+        }
+        return stack;
+    }
+
+    @Override
+    public SearchImageStack<DefaultSearchNode> getNodesAsImageFromStart() {
+        return getNodesAsImage();
+    }
+
+    /**
+     * @return the number of threads used by this filler
+     */
+    public int getNumThreads() {
+        return nThreads;
+    }
+
+    private long openCount() {
+        long count = 0;
+        for (int i = 0; i < blocks.length(); i++) {
+            final Block block = blocks.get(i);
+            if (block != null) count += block.open.size();
+        }
+        return count;
+    }
+
+    private long closedCount() {
+        long count = 0;
+        for (int i = 0; i < blocks.length(); i++) {
+            final Block block = blocks.get(i);
+            if (block != null) count += block.closedCount;
+        }
+        return count;
+    }
+
+    @Override
+    public void printStatus() {
+        SNTUtils.log("... Start nodes: open=" + openCount() + " closed=" + closedCount());
+    }
+
+    @Override
+    protected void reportPointsInSearch() {
+        final long open = openCount();
+        final long closed = closedCount();
+        double maxExplored = 0;
+        for (int i = 0; i < blocks.length(); i++) {
+            final Block block = blocks.get(i);
+            if (block != null) maxExplored = Math.max(maxExplored, block.maxExplored);
+        }
+        maxExploredDistance = maxExplored;
+        for (final SearchProgressCallback progress : progressListeners) {
+            progress.pointsInSearch(this, open, closed);
+            if (progress instanceof FillerProgressCallback) {
+                ((FillerProgressCallback) progress).maximumDistanceCompletelyExplored(this, maxExploredDistance);
+            }
+        }
+    }
+
+    @Override
+    public long estimatedMemoryInSearch() {
+        long bytes = 0;
+        for (int i = 0; i < blocks.length(); i++) {
+            final Block block = blocks.get(i);
+            if (block != null) bytes += block.store.estimateBytes() + block.open.size() * 16L;
+        }
+        return bytes;
+    }
+
+    @Override
+    public long pointsConsideredInSearch() {
+        long count = 0;
+        for (int i = 0; i < blocks.length(); i++) {
+            final Block block = blocks.get(i);
+            if (block != null) count += block.store.size();
+        }
+        return count;
+    }
+
+}
@@ -33,4 +33,12 @@ public interface SearchInterface {
 
 	Path getResult();
 
+	/**
+	 * @return the metrics collected by this search, or null if metrics are not
+	 *         supported or were not enabled
+	 */
+	default SearchMetrics getMetrics() {
+		return null;
+	}
+
 }
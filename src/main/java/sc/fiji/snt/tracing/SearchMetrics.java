@@ -0,0 +1,270 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2021 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.tracing;
+
+import sc.fiji.snt.analysis.SNTTable;
+import sc.fiji.snt.filter.Lazy;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counters and timers describing the work performed by one or more searches. Metrics are only collected
+ * when enabled through {@link AbstractSearch#setMetricsEnabled(boolean)}: disabled searches skip all
+ * bookkeeping.
+ * <p>
+ * Counters are updated by the thread running the search without synchronization. Metrics of different
+ * searches can be aggregated with {@link #add(SearchMetrics)}, which is thread-safe.
+ * </p>
+ */
+public class SearchMetrics {
+
+    /** The phases timed by {@link SearchMetrics}. */
+    public enum Phase {
+        /** The complete run of a search, from start to finish */
+        SEARCH,
+        /** Assembly of the resulting path from the search state */
+        PATH_RECONSTRUCTION,
+        /**
+         * Computation of cells of lazily filtered images (see {@link Lazy}) by the thread(s) running the search.
+         * Cells computed by concurrent searches are not included, even if the search later reads them from the
+         * shared cell cache.
+         */
+        CELL_LOADING
+    }
+
+    long searches;
+    long nodesExpanded;
+    long nodesReopened;
+    long heapInsertions;
+    long heapDecreaseKeys;
+    long heapDeletions;
+    long cellsLoaded;
+    long peakNodes;
+    long peakBytes;
+    final long[] phaseNanos = new long[Phase.values().length];
+
+    private long startedNanos;
+    private long cellsAtStart;
+    private long cellNanosAtStart;
+
+    /* Called by searches when they start running */
+    void searchStarted() {
+        startedNanos = System.nanoTime();
+        cellLoadsStarted();
+    }
+
+    /* Called on the thread doing the work of a search, before it starts */
+    void cellLoadsStarted() {
+        cellsAtStart = Lazy.getCellsLoadedByCurrentThread();
+        cellNanosAtStart = Lazy.getCellLoadingNanosByCurrentThread();
+    }
+
+    /* Called on the same thread as #cellLoadsStarted(), once its work is done */
+    void cellLoadsFinished() {
+        cellsLoaded += Lazy.getCellsLoadedByCurrentThread() - cellsAtStart;
+        phaseNanos[Phase.CELL_LOADING.ordinal()] += Lazy.getCellLoadingNanosByCurrentThread() - cellNanosAtStart;
+    }
+
+    /* Called by searches when they finish running, successfully or not */
+    void searchFinished(final AbstractSearch search) {
+        searches++;
+        phaseNanos[Phase.SEARCH.ordinal()] += System.nanoTime() - startedNanos;
+        cellLoadsFinished();
+        peakNodes = Math.max(peakNodes, search.pointsConsideredInSearch());
+        peakBytes = Math.max(peakBytes, search.estimatedMemoryInSearch());
+    }
+
+    /* Called by searches once a path has been assembled, with the System#nanoTime() at which assembly began */
+    void pathReconstructed(final long startNanos) {
+        phaseNanos[Phase.PATH_RECONSTRUCTION.ordinal()] += System.nanoTime() - startNanos;
+    }
+
+    /*
+     * Adds the work of a search delegated by a composite search (e.g., a BoundedSearch), whose time and cell
+     * loads are already accounted for by the composite, since the delegate runs on the composite's thread.
+     */
+    synchronized void addDelegate(final SearchMetrics other) {
+        if (other == null) return;
+        synchronized (other) {
+            nodesExpanded += other.nodesExpanded;
+            nodesReopened += other.nodesReopened;
+            heapInsertions += other.heapInsertions;
+            heapDecreaseKeys += other.heapDecreaseKeys;
+            heapDeletions += other.heapDeletions;
+            peakNodes = Math.max(peakNodes, other.peakNodes);
+            peakBytes = Math.max(peakBytes, other.peakBytes);
+            phaseNanos[Phase.PATH_RECONSTRUCTION.ordinal()] += other.phaseNanos[Phase.PATH_RECONSTRUCTION.ordinal()];
+        }
+    }
+
+    /*
+     * Adds the work of a worker thread of a parallel search, including the cells loaded by that thread.
+     */
+    synchronized void addWorker(final SearchMetrics worker) {
+        addDelegate(worker);
+        synchronized (worker) {
+            cellsLoaded += worker.cellsLoaded;
+            phaseNanos[Phase.CELL_LOADING.ordinal()] += worker.phaseNanos[Phase.CELL_LOADING.ordinal()];
+        }
+    }
+
+    /**
+     * Adds the metrics of another search (or group of searches) to this one.
+     *
+     * @param other the metrics to be added. Null is ignored
+     */
+    public synchronized void add(final SearchMetrics other) {
+        if (other == null || other == this) return;
+        synchronized (other) {
+            searches += other.searches;
+            nodesExpanded += other.nodesExpanded;
+            nodesReopened += other.nodesReopened;
+            heapInsertions += other.heapInsertions;
+            heapDecreaseKeys += other.heapDecreaseKeys;
+            heapDeletions += other.heapDeletions;
+            cellsLoaded += other.cellsLoaded;
+            peakNodes = Math.max(peakNodes, other.peakNodes);
+            peakBytes = Math.max(peakBytes, other.peakBytes);
+            for (int i = 0; i < phaseNanos.length; i++) phaseNanos[i] += other.phaseNanos[i];
+        }
+    }
+
+    /**
+     * Resets all counters and timers.
+     */
+    public synchronized void reset() {
+        searches = nodesExpanded = nodesReopened = heapInsertions = heapDecreaseKeys = heapDeletions = 0;
+        cellsLoaded = peakNodes = peakBytes = 0;
+        Arrays.fill(phaseNanos, 0);
+    }
+
+    /** @return the number of completed searches */
+    public synchronized long getSearches() {
+        return searches;
+    }
+
+    /** @return the number of nodes removed from the open set and expanded */
+    public synchronized long getNodesExpanded() {
+        return nodesExpanded;
+    }
+
+    /** @return the number of closed nodes that were re-opened after a cheaper route to them was found */
+    public synchronized long getNodesReopened() {
+        return nodesReopened;
+    }
+
+    /** @return the number of insertions into the open heap(s) */
+    public synchronized long getHeapInsertions() {
+        return heapInsertions;
+    }
+
+    /** @return the number of decrease-key operations on the open heap(s) */
+    public synchronized long getHeapDecreaseKeys() {
+        return heapDecreaseKeys;
+    }
+
+    /** @return the number of minimum removals from the open heap(s) */
+    public synchronized long getHeapDeletions() {
+        return heapDeletions;
+    }
+
+    /** @return the number of cells of lazily filtered images computed while searching */
+    public synchronized long getCellsLoaded() {
+        return cellsLoaded;
+    }
+
+    /** @return the largest number of nodes held by a single search */
+    public synchronized long getPeakNodes() {
+        return peakNodes;
+    }
+
+    /** @return the largest estimated memory held by a single search, in bytes */
+    public synchronized long getPeakBytes() {
+        return peakBytes;
+    }
+
+    /**
+     * @param phase the phase of interest
+     * @return the time spent in the specified phase, in milliseconds
+     */
+    public synchronized double getTime(final Phase phase) {
+        return phaseNanos[phase.ordinal()] / 1e6;
+    }
+
+    /**
+     * @return the throughput of the searches, in nodes expanded per second
+     */
+    public synchronized double getNodesPerSecond() {
+        final long nanos = phaseNanos[Phase.SEARCH.ordinal()];
+        return (nanos == 0) ? 0 : nodesExpanded * 1e9 / nanos;
+    }
+
+    /**
+     * @return all metrics, keyed by name, in a predictable order
+     */
+    public synchronized Map<String, Number> asMap() {
+        final Map<String, Number> map = new LinkedHashMap<>();
+        map.put("Searches", searches);
+        map.put("Nodes expanded", nodesExpanded);
+        map.put("Nodes re-opened", nodesReopened);
+        map.put("Heap insertions", heapInsertions);
+        map.put("Heap decrease-keys", heapDecreaseKeys);
+        map.put("Heap deletions", heapDeletions);
+        map.put("Cells loaded", cellsLoaded);
+        map.put("Peak nodes", peakNodes);
+        map.put("Peak memory (MB)", peakBytes / (1024d * 1024d));
+        map.put("Nodes/s", getNodesPerSecond());
+        map.put("Search time (ms)", getTime(Phase.SEARCH));
+        map.put("Path reconstruction time (ms)", getTime(Phase.PATH_RECONSTRUCTION));
+        map.put("Cell loading time (ms)", getTime(Phase.CELL_LOADING));
+        return map;
+    }
+
+    /**
+     * Appends these metrics as a new row of the specified table, one column per metric.
+     *
+     * @param table    the table to be populated
+     * @param rowLabel the row header, e.g., a description of the search
+     */
+    public void addToTable(final SNTTable table, final String rowLabel) {
+        final int row = table.insertRow(rowLabel);
+        asMap().forEach((header, value) -> table.set(header, row, value));
+    }
+
+    /**
+     * @return a new table holding these metrics
+     */
+    public SNTTable toTable() {
+        final SNTTable table = new SNTTable();
+        addToTable(table, "Metrics");
+        return table;
+    }
+
+    @Override
+    public String toString() {
+        return asMap().toString();
+    }
+
+}
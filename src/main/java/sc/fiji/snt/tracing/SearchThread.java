@@ -60,8 +60,9 @@ public abstract class SearchThread extends AbstractSearch {
 	public static final int TIMED_OUT = 2;
 	public static final int POINTS_EXHAUSTED = 3;
 	public static final int OUT_OF_MEMORY = 4;
+	public static final int NODE_BUDGET_EXCEEDED = 5;
 	public static final String[] EXIT_REASONS_STRINGS = { "SUCCESS", "CANCELLED",
-		"TIMED_OUT", "POINTS_EXHAUSTED", "OUT_OF_MEMORY" };
+		"TIMED_OUT", "POINTS_EXHAUSTED", "OUT_OF_MEMORY", "NODE_BUDGET_EXCEEDED" };
 
 	/* The search may only be bidirectional if definedGoal is true */
 	private final boolean bidirectional;
@@ -102,11 +103,15 @@ public abstract class SearchThread extends AbstractSearch {
 		this.definedGoal = definedGoal;
 		this.nodes_as_image_from_start = new SearchImageStack<>(SupplierUtil.createSupplier(searchImageType,
 																							DefaultSearchNode.class,
+																							xMin,
+																							yMin,
 																							imgWidth,
 																							imgHeight));
 		if (bidirectional) {
 			this.nodes_as_image_from_goal = new SearchImageStack<>(SupplierUtil.createSupplier(searchImageType,
 																							   DefaultSearchNode.class,
+																							   xMin,
+																							   yMin,
 																							   imgWidth,
 																							   imgHeight));
 		}
@@ -123,11 +128,15 @@ public abstract class SearchThread extends AbstractSearch {
 		this.definedGoal = definedGoal;
 		this.nodes_as_image_from_start = new SearchImageStack<>(SupplierUtil.createSupplier(searchImageType,
 																							DefaultSearchNode.class,
+																							xMin,
+																							yMin,
 																							imgWidth,
 																							imgHeight));
 		if (bidirectional) {
 			this.nodes_as_image_from_goal = new SearchImageStack<>(SupplierUtil.createSupplier(searchImageType,
 																							   DefaultSearchNode.class,
+																							   xMin,
+																							   yMin,
 																							   imgWidth,
 																							   imgHeight));
 		}
@@ -142,8 +151,8 @@ public abstract class SearchThread extends AbstractSearch {
 		this.costFunction = costFunction;
 		this.bidirectional = true;
 		this.definedGoal = true;
-		this.nodes_as_image_from_start = new SearchImageStack<>(SupplierUtil.createSupplier(snt.getSearchImageType(), DefaultSearchNode.class, imgWidth, imgHeight));
-		this.nodes_as_image_from_goal = new SearchImageStack<>(SupplierUtil.createSupplier(snt.getSearchImageType(), DefaultSearchNode.class, imgWidth, imgHeight));
+		this.nodes_as_image_from_start = new SearchImageStack<>(SupplierUtil.createSupplier(snt.getSearchImageType(), DefaultSearchNode.class, xMin, yMin, imgWidth, imgHeight));
+		this.nodes_as_image_from_goal = new SearchImageStack<>(SupplierUtil.createSupplier(snt.getSearchImageType(), DefaultSearchNode.class, xMin, yMin, imgWidth, imgHeight));
 		init();
 	}
 
@@ -204,6 +213,7 @@ public abstract class SearchThread extends AbstractSearch {
 	}
 
 	public void reportFinished(final boolean success) {
+		metricsFinished();
 		for (final SearchProgressCallback progress : progressListeners)
 			progress.finished(this, success);
 	}
@@ -236,6 +246,7 @@ public abstract class SearchThread extends AbstractSearch {
 			}
 
 			reportPointsInSearch();
+			reportMemoryInSearch();
 
 			loops_at_last_report = loops;
 			lastReportMilliseconds = currentMilliseconds;
@@ -254,6 +265,7 @@ public abstract class SearchThread extends AbstractSearch {
 			}
 
 			started_at = lastReportMilliseconds = System.currentTimeMillis();
+			metricsStarted();
 
 			/*
 			 * We maintain the list of nodes in the search in a couple of different data
@@ -288,6 +300,13 @@ public abstract class SearchThread extends AbstractSearch {
 					return;
 				}
 
+				if (isNodeBudgetExceeded()) {
+					SNTUtils.log("Node budget exceeded...");
+					setExitReason(NODE_BUDGET_EXCEEDED);
+					reportFinished(false);
+					return;
+				}
+
 				boolean fromStart = true;
 				if (bidirectional) fromStart = open_from_goal.size() > open_from_start
 					.size();
@@ -305,15 +324,18 @@ public abstract class SearchThread extends AbstractSearch {
 				if (open_queue.size() == 0) continue;
 
 				p = open_queue.deleteMin().getKey();
+				if (metrics != null) metrics.heapDeletions++;
 				if (p == null) continue;
 
 				// Has the route from the start found the goal?
 				if (definedGoal && atGoal(p.x, p.y, p.z, fromStart)) {
 					SNTUtils.log("Found the goal!");
+					final long reconstructionStart = System.nanoTime();
 					if (fromStart) foundGoal(p.asPath(xSep, ySep, zSep,
 						spacing_units));
 					else foundGoal(p.asPathReversed(xSep, ySep, zSep,
 						spacing_units));
+					if (metrics != null) metrics.pathReconstructed(reconstructionStart);
 					setExitReason(SUCCESS);
 					reportFinished(true);
 					return;
@@ -326,6 +348,7 @@ public abstract class SearchThread extends AbstractSearch {
 					p.searchStatus = CLOSED_FROM_GOAL;
 					closed_from_goal_count++;
 				}
+				if (metrics != null) metrics.nodesExpanded++;
 				//nodes_as_image_this_search.getSlice(p.z).setValueWithoutChecks(p.x, p.y, p);
 
 				// Now look at the neighbours of p. We're going to consider
@@ -385,6 +408,7 @@ public abstract class SearchThread extends AbstractSearch {
 										: OPEN_FROM_GOAL;
 								newNode.heapHandle = open_queue.insert(newNode);
 								nodes_as_image_this_search.getSlice(new_z).setValue(newNode.x, newNode.y, newNode);
+								if (metrics != null) metrics.heapInsertions++;
 							}
 							else {
 
@@ -403,6 +427,7 @@ public abstract class SearchThread extends AbstractSearch {
 										alreadyThereInThisSearch.searchStatus = fromStart
 											? OPEN_FROM_START : OPEN_FROM_GOAL;
 										alreadyThereInThisSearch.heapHandle.decreaseKey(alreadyThereInThisSearch);
+										if (metrics != null) metrics.heapDecreaseKeys++;
 									}
 									else if (alreadyThereInThisSearch.searchStatus == (fromStart
 										? CLOSED_FROM_START : CLOSED_FROM_GOAL))
@@ -411,6 +436,10 @@ public abstract class SearchThread extends AbstractSearch {
 										alreadyThereInThisSearch.searchStatus = fromStart
 											? OPEN_FROM_START : OPEN_FROM_GOAL;
 										alreadyThereInThisSearch.heapHandle = open_queue.insert(alreadyThereInThisSearch);
+										if (metrics != null) {
+											metrics.nodesReopened++;
+											metrics.heapInsertions++;
+										}
 									}
 								}
 							}
@@ -430,7 +459,7 @@ public abstract class SearchThread extends AbstractSearch {
 									if (alreadyThereInOtherSearch.searchStatus == CLOSED_FROM_START ||
 											alreadyThereInOtherSearch.searchStatus == CLOSED_FROM_GOAL)
 									{
-
+										final long reconstructionStart = System.nanoTime();
 										if (fromStart) {
 											result = p.asPath(xSep, ySep, zSep,
 												spacing_units);
@@ -453,6 +482,7 @@ public abstract class SearchThread extends AbstractSearch {
 										}
 
 										foundGoal(result);
+										if (metrics != null) metrics.pathReconstructed(reconstructionStart);
 										setExitReason(SUCCESS);
 										reportFinished(true);
 										return;
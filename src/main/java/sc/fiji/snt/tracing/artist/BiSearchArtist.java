@@ -22,6 +22,7 @@
 
 package sc.fiji.snt.tracing.artist;
 
+import net.imglib2.Interval;
 import sc.fiji.snt.TracerCanvas;
 import sc.fiji.snt.hyperpanes.MultiDThreePanes;
 import sc.fiji.snt.tracing.BiSearch;
@@ -67,6 +68,16 @@ public class BiSearchArtist implements SearchArtist {
                                     final int currentSliceInPlane, final TracerCanvas canvas, final Graphics g)
     {
 
+        final Interval interval = search.getSearchInterval();
+        final int sliceDim = (plane == MultiDThreePanes.XY_PLANE) ? 2 : (plane == MultiDThreePanes.XZ_PLANE) ? 1 : 0;
+        if (currentSliceInPlane < interval.min(sliceDim) || currentSliceInPlane > interval.max(sliceDim)) return;
+        final int xMin = (int) interval.min(0);
+        final int yMin = (int) interval.min(1);
+        final int zMin = (int) interval.min(2);
+        final int xMax = (int) interval.max(0);
+        final int yMax = (int) interval.max(1);
+        final int zMax = (int) interval.max(2);
+
         for (int i = 0; i < 2; ++i) {
 
             /*
@@ -87,8 +98,8 @@ public class BiSearchArtist implements SearchArtist {
             if (pixel_size < 1) pixel_size = 1;
 
             if (plane == MultiDThreePanes.XY_PLANE) {
-                for (int y = 0; y < search.imgHeight; ++y)
-                    for (int x = 0; x < search.imgWidth; ++x) {
+                for (int y = yMin; y <= yMax; ++y)
+                    for (int x = xMin; x <= xMax; ++x) {
                         final BiSearchNode n = anyNodeUnderThreshold(x, y, currentSliceInPlane, drawingThreshold);
                         if (n == null) continue;
                         if (n.getStateFromStart() == start_status || n.getStateFromGoal() == goal_status) g.fillRect(
@@ -97,8 +108,8 @@ public class BiSearchArtist implements SearchArtist {
                     }
             }
             else if (plane == MultiDThreePanes.XZ_PLANE) {
-                for (int z = 0; z < search.imgDepth; ++z)
-                    for (int x = 0; x < search.imgWidth; ++x) {
+                for (int z = zMin; z <= zMax; ++z)
+                    for (int x = xMin; x <= xMax; ++x) {
                         final BiSearchNode n = anyNodeUnderThreshold(x, currentSliceInPlane, z, drawingThreshold);
                         if (n == null) continue;
                         if (n.getStateFromStart() == start_status || n.getStateFromGoal() == goal_status) g.fillRect(
@@ -107,8 +118,8 @@ public class BiSearchArtist implements SearchArtist {
                     }
             }
             else if (plane == MultiDThreePanes.ZY_PLANE) {
-                for (int y = 0; y < search.imgHeight; ++y)
-                    for (int z = 0; z < search.imgDepth; ++z) {
+                for (int y = yMin; y <= yMax; ++y)
+                    for (int z = zMin; z <= zMax; ++z) {
                         final BiSearchNode n = anyNodeUnderThreshold(currentSliceInPlane, y, z, drawingThreshold);
                         if (n == null) continue;
                         if (n.getStateFromStart() == start_status || n.getStateFromGoal() == goal_status) g.fillRect(
@@ -0,0 +1,70 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2021 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.tracing.artist;
+
+import sc.fiji.snt.TracerCanvas;
+import sc.fiji.snt.tracing.AbstractSearch;
+import sc.fiji.snt.tracing.BoundedSearch;
+import sc.fiji.snt.tracing.MultiScaleSearch;
+import sc.fiji.snt.tracing.SearchInterface;
+
+import java.awt.*;
+import java.util.function.Supplier;
+
+/**
+ * Draws the progress of searches that delegate their work to other searches (e.g., {@link BoundedSearch},
+ * {@link MultiScaleSearch}), using the artist of the delegate search currently running.
+ */
+public class CompositeSearchArtist implements SearchArtist {
+
+    private final SearchInterface search;
+    private final Supplier<AbstractSearch> currentSearch;
+    private final SearchArtistFactory factory;
+    private SearchArtist delegate;
+
+    public CompositeSearchArtist(final SearchInterface search, final Supplier<AbstractSearch> currentSearch,
+                                 final SearchArtistFactory factory)
+    {
+        this.search = search;
+        this.currentSearch = currentSearch;
+        this.factory = factory;
+    }
+
+    @Override
+    public void drawProgressOnSlice(final int plane, final int currentSliceInPlane, final TracerCanvas canvas,
+                                    final Graphics g)
+    {
+        final AbstractSearch current = currentSearch.get();
+        if (current == null) return;
+        if (delegate == null || delegate.getSearch() != current) {
+            delegate = factory.create(current);
+        }
+        delegate.drawProgressOnSlice(plane, currentSliceInPlane, canvas, g);
+    }
+
+    @Override
+    public SearchInterface getSearch() {
+        return search;
+    }
+
+}
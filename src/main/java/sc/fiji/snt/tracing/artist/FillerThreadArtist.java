@@ -22,12 +22,16 @@
 
 package sc.fiji.snt.tracing.artist;
 
+import net.imglib2.Interval;
 import sc.fiji.snt.TracerCanvas;
 import sc.fiji.snt.hyperpanes.MultiDThreePanes;
 import sc.fiji.snt.tracing.DefaultSearchNode;
 import sc.fiji.snt.tracing.FillerThread;
+import sc.fiji.snt.tracing.PackedFillerThread;
+import sc.fiji.snt.tracing.ParallelFillerThread;
 import sc.fiji.snt.tracing.SearchInterface;
 import sc.fiji.snt.tracing.SearchThread;
+import sc.fiji.snt.tracing.image.PackedNodeStore;
 import sc.fiji.snt.tracing.image.SearchImage;
 import sc.fiji.snt.util.SNTColor;
 
@@ -65,6 +69,16 @@ public class FillerThreadArtist implements SearchArtist {
                                     TracerCanvas canvas,
                                     Graphics g)
     {
+        final Interval interval = search.getSearchInterval();
+        final int sliceDim = (plane == MultiDThreePanes.XY_PLANE) ? 2 : (plane == MultiDThreePanes.XZ_PLANE) ? 1 : 0;
+        if (currentSliceInPlane < interval.min(sliceDim) || currentSliceInPlane > interval.max(sliceDim)) return;
+        final int xMin = (int) interval.min(0);
+        final int yMin = (int) interval.min(1);
+        final int zMin = (int) interval.min(2);
+        final int xMax = (int) interval.max(0);
+        final int yMax = (int) interval.max(1);
+        final int zMax = (int) interval.max(2);
+
         for (int i = 0; i < 2; ++i) {
 
             /*
@@ -82,36 +96,30 @@ public class FillerThreadArtist implements SearchArtist {
             if (pixel_size < 1) pixel_size = 1;
 
             if (plane == MultiDThreePanes.XY_PLANE) {
-                for (int y = 0; y < search.imgHeight; ++y)
-                    for (int x = 0; x < search.imgWidth; ++x) {
-                        final DefaultSearchNode n = anyNodeUnderThreshold(x, y, currentSliceInPlane,
+                for (int y = yMin; y <= yMax; ++y)
+                    for (int x = xMin; x <= xMax; ++x) {
+                        final byte status = statusUnderThreshold(x, y, currentSliceInPlane,
                                 search.getThreshold());
-                        if (n == null) continue;
-                        final byte status = n.searchStatus;
                         if (status == start_status) g.fillRect(
                                 canvas.myScreenX(x) - pixel_size / 2, canvas.myScreenY(y) -
                                         pixel_size / 2, pixel_size, pixel_size);
                     }
             }
             else if (plane == MultiDThreePanes.XZ_PLANE) {
-                for (int z = 0; z < search.imgDepth; ++z)
-                    for (int x = 0; x < search.imgWidth; ++x) {
-                        final DefaultSearchNode n = anyNodeUnderThreshold(x, currentSliceInPlane, z,
+                for (int z = zMin; z <= zMax; ++z)
+                    for (int x = xMin; x <= xMax; ++x) {
+                        final byte status = statusUnderThreshold(x, currentSliceInPlane, z,
                                 search.getThreshold());
-                        if (n == null) continue;
-                        final byte status = n.searchStatus;
                         if (status == start_status) g.fillRect(
                                 canvas.myScreenX(x) - pixel_size / 2, canvas.myScreenY(z) -
                                         pixel_size / 2, pixel_size, pixel_size);
                     }
             }
             else if (plane == MultiDThreePanes.ZY_PLANE) {
-                for (int y = 0; y < search.imgHeight; ++y)
-                    for (int z = 0; z < search.imgDepth; ++z) {
-                        final DefaultSearchNode n = anyNodeUnderThreshold(currentSliceInPlane, y, z,
+                for (int y = yMin; y <= yMax; ++y)
+                    for (int z = zMin; z <= zMax; ++z) {
+                        final byte status = statusUnderThreshold(currentSliceInPlane, y, z,
                                 search.getThreshold());
-                        if (n == null) continue;
-                        final byte status = n.searchStatus;
                         if (status == start_status) g.fillRect(
                                 canvas.myScreenX(z) - pixel_size / 2, canvas.myScreenY(y) -
                                         pixel_size / 2, pixel_size, pixel_size);
@@ -120,6 +128,37 @@ public class FillerThreadArtist implements SearchArtist {
         }
     }
 
+    /*
+     * Returns the status of the node at the specified position, or SearchThread.FREE if there
+     * is no such node or if it is above threshold
+     */
+    private byte statusUnderThreshold(final int x, final int y, final int z, final double threshold) {
+        if (search instanceof PackedFillerThread) {
+            final PackedNodeStore store = ((PackedFillerThread) search).getStore();
+            try {
+                final byte status = store.peekStatus(x, y, z);
+                if (status == PackedNodeStore.FREE || (threshold >= 0 && store.peekG(x, y, z) > threshold))
+                    return SearchThread.FREE;
+                return (status == PackedNodeStore.OPEN) ? SearchThread.OPEN_FROM_START : SearchThread.CLOSED_FROM_START;
+            } catch (ArrayIndexOutOfBoundsException e) {
+                return SearchThread.FREE;
+            }
+        }
+        if (search instanceof ParallelFillerThread) {
+            final ParallelFillerThread parallelSearch = (ParallelFillerThread) search;
+            try {
+                final byte status = parallelSearch.peekStatus(x, y, z);
+                if (status == PackedNodeStore.FREE || (threshold >= 0 && parallelSearch.peekG(x, y, z) > threshold))
+                    return SearchThread.FREE;
+                return (status == PackedNodeStore.OPEN) ? SearchThread.OPEN_FROM_START : SearchThread.CLOSED_FROM_START;
+            } catch (ArrayIndexOutOfBoundsException e) {
+                return SearchThread.FREE;
+            }
+        }
+        final DefaultSearchNode n = anyNodeUnderThreshold(x, y, z, threshold);
+        return (n == null) ? SearchThread.FREE : n.searchStatus;
+    }
+
     public DefaultSearchNode anyNodeUnderThreshold(final int x, final int y, final int z,
                                                    final double threshold)
     {
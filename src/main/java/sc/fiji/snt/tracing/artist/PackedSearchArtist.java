@@ -0,0 +1,146 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2021 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.tracing.artist;
+
+import net.imglib2.Interval;
+import sc.fiji.snt.TracerCanvas;
+import sc.fiji.snt.hyperpanes.MultiDThreePanes;
+import sc.fiji.snt.tracing.PackedSearch;
+import sc.fiji.snt.tracing.SearchInterface;
+import sc.fiji.snt.tracing.image.PackedNodeStore;
+
+import java.awt.*;
+
+/**
+ * Draws the progress of {@link PackedSearch}es.
+ */
+public class PackedSearchArtist implements SearchArtist {
+
+    private final PackedSearch search;
+    private Color openColor;
+    private Color closedColor;
+    private double drawingThreshold = -1;
+
+    public PackedSearchArtist(final PackedSearch search, final Color openColor, final Color closedColor) {
+        this.search = search;
+        this.openColor = openColor;
+        this.closedColor = closedColor;
+    }
+
+    public void setOpenColor(final Color color) {
+        this.openColor = color;
+    }
+
+    public void setClosedColor(final Color color) {
+        this.closedColor = color;
+    }
+
+    public void setDrawingThreshold(final double threshold) {
+        this.drawingThreshold = threshold;
+    }
+
+    /*
+     * This draws over the Graphics object the current progress of the search at
+     * this slice. If openColor or closedColor are null then that means
+     * "don't bother to draw that list".
+     */
+    @Override
+    public void drawProgressOnSlice(final int plane,
+                                    final int currentSliceInPlane, final TracerCanvas canvas, final Graphics g)
+    {
+        final Interval interval = search.getSearchInterval();
+        final int sliceDim = (plane == MultiDThreePanes.XY_PLANE) ? 2 : (plane == MultiDThreePanes.XZ_PLANE) ? 1 : 0;
+        if (currentSliceInPlane < interval.min(sliceDim) || currentSliceInPlane > interval.max(sliceDim)) return;
+        final int xMin = (int) interval.min(0);
+        final int yMin = (int) interval.min(1);
+        final int zMin = (int) interval.min(2);
+        final int xMax = (int) interval.max(0);
+        final int yMax = (int) interval.max(1);
+        final int zMax = (int) interval.max(2);
+
+        for (int i = 0; i < 2; ++i) {
+
+            /*
+             * The first time through we draw the nodes in the open list, the second time
+             * through we draw the nodes in the closed list.
+             */
+
+            final byte status = (i == 0) ? PackedNodeStore.OPEN : PackedNodeStore.CLOSED;
+            final Color c = (i == 0) ? openColor : closedColor;
+            if (c == null) continue;
+
+            g.setColor(c);
+
+            int pixel_size = (int) canvas.getMagnification();
+            if (pixel_size < 1) pixel_size = 1;
+
+            if (plane == MultiDThreePanes.XY_PLANE) {
+                for (int y = yMin; y <= yMax; ++y)
+                    for (int x = xMin; x <= xMax; ++x) {
+                        if (hasStatus(x, y, currentSliceInPlane, status)) g.fillRect(
+                                canvas.myScreenX(x) - pixel_size / 2, canvas.myScreenY(y) -
+                                        pixel_size / 2, pixel_size, pixel_size);
+                    }
+            }
+            else if (plane == MultiDThreePanes.XZ_PLANE) {
+                for (int z = zMin; z <= zMax; ++z)
+                    for (int x = xMin; x <= xMax; ++x) {
+                        if (hasStatus(x, currentSliceInPlane, z, status)) g.fillRect(
+                                canvas.myScreenX(x) - pixel_size / 2, canvas.myScreenY(z) -
+                                        pixel_size / 2, pixel_size, pixel_size);
+                    }
+            }
+            else if (plane == MultiDThreePanes.ZY_PLANE) {
+                for (int y = yMin; y <= yMax; ++y)
+                    for (int z = zMin; z <= zMax; ++z) {
+                        if (hasStatus(currentSliceInPlane, y, z, status)) g.fillRect(
+                                canvas.myScreenX(z) - pixel_size / 2, canvas.myScreenY(y) -
+                                        pixel_size / 2, pixel_size, pixel_size);
+                    }
+            }
+        }
+    }
+
+    private boolean hasStatus(final int x, final int y, final int z, final byte status) {
+        try {
+            return hasStatus(search.getStoreFromStart(), x, y, z, status) ||
+                    hasStatus(search.getStoreFromGoal(), x, y, z, status);
+        } catch (final ArrayIndexOutOfBoundsException e) {
+            // Store is being modified by the search thread
+            return false;
+        }
+    }
+
+    private boolean hasStatus(final PackedNodeStore store, final int x, final int y, final int z,
+                              final byte status)
+    {
+        if (store == null || store.peekStatus(x, y, z) != status) return false;
+        return drawingThreshold < 0 || store.peekG(x, y, z) <= drawingThreshold;
+    }
+
+    @Override
+    public SearchInterface getSearch() {
+        return search;
+    }
+
+}
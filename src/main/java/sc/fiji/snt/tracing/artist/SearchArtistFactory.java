@@ -23,7 +23,12 @@
 package sc.fiji.snt.tracing.artist;
 
 import sc.fiji.snt.tracing.BiSearch;
+import sc.fiji.snt.tracing.BoundedSearch;
 import sc.fiji.snt.tracing.FillerThread;
+import sc.fiji.snt.tracing.MultiScaleSearch;
+import sc.fiji.snt.tracing.PackedFillerThread;
+import sc.fiji.snt.tracing.PackedSearch;
+import sc.fiji.snt.tracing.ParallelFillerThread;
 import sc.fiji.snt.tracing.SearchInterface;
 import sc.fiji.snt.tracing.TracerThread;
 
@@ -46,6 +51,14 @@ public class SearchArtistFactory {
             return create((TracerThread) search);
         } else if (search.getClass().equals(BiSearch.class)) {
             return create((BiSearch) search);
+        } else if (search instanceof PackedFillerThread || search instanceof ParallelFillerThread) {
+            return create((FillerThread) search);
+        } else if (search instanceof PackedSearch) {
+            return create((PackedSearch) search);
+        } else if (search instanceof BoundedSearch) {
+            return create((BoundedSearch) search);
+        } else if (search instanceof MultiScaleSearch) {
+            return create((MultiScaleSearch) search);
         } else {
             throw new UnsupportedOperationException("Cannot create SearchArtist with type: " + search.getClass());
         }
@@ -64,5 +77,17 @@ public class SearchArtistFactory {
         return new BiSearchArtist(search, Color.CYAN, null);
     }
 
+    public PackedSearchArtist create(PackedSearch search) {
+        return new PackedSearchArtist(search, Color.CYAN, null);
+    }
+
+    public CompositeSearchArtist create(BoundedSearch search) {
+        return new CompositeSearchArtist(search, search::getCurrentSearch, this);
+    }
+
+    public CompositeSearchArtist create(MultiScaleSearch search) {
+        return new CompositeSearchArtist(search, search::getCurrentSearch, this);
+    }
+
 
 }
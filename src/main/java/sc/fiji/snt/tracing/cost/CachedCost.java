@@ -0,0 +1,58 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2021 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.tracing.cost;
+
+/**
+ * A {@link Cost} to be used with a precomputed cost volume (see {@link CostVolumeCache}), i.e., an image whose
+ * values are already the cost of moving into each voxel. Voxel values are thus returned as is, while the minimum
+ * step cost is that of the {@link Cost} function used to compute the volume.
+ */
+public class CachedCost implements Cost {
+
+    private final Cost source;
+
+    /**
+     * @param source the cost function used to compute the cost volume
+     */
+    public CachedCost(final Cost source) {
+        this.source = source;
+    }
+
+    @Override
+    public double costMovingTo(final double valueAtNewPoint) {
+        return valueAtNewPoint;
+    }
+
+    @Override
+    public double minStepCost() {
+        return source.minStepCost();
+    }
+
+    /**
+     * @return the cost function used to compute the cost volume
+     */
+    public Cost getSource() {
+        return source;
+    }
+
+}
@@ -0,0 +1,186 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2021 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.tracing.cost;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+import sc.fiji.snt.SNT;
+import sc.fiji.snt.SNTUtils;
+import sc.fiji.snt.filter.Lazy;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps precomputed cost volumes, so that the cost of each voxel is computed only once across consecutive
+ * searches and fills over the same image. Volumes are float images split into cells that are computed lazily
+ * (see {@link Lazy}), the first time a search visits them, and that can be evicted when memory runs low.
+ * <p>
+ * Volumes are identified by the image they are computed from, the {@link SNT.CostType} and the image statistics
+ * used by the cost function. Only the most recently used volumes are kept.
+ * </p>
+ * Note that costs are stored with single precision.
+ */
+public class CostVolumeCache {
+
+    /** The default number of cost volumes kept by a cache */
+    public static final int DEFAULT_CAPACITY = 4;
+
+    private final Map<Key, RandomAccessibleInterval<FloatType>> volumes;
+    private long hits;
+    private long misses;
+
+    public CostVolumeCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the maximum number of cost volumes to be kept
+     */
+    public CostVolumeCache(final int capacity) {
+        volumes = new LinkedHashMap<Key, RandomAccessibleInterval<FloatType>>(capacity + 1, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Key, RandomAccessibleInterval<FloatType>> eldest) {
+                return size() > Math.max(1, capacity);
+            }
+        };
+    }
+
+    /**
+     * Retrieves the cost volume of the specified image, computing it lazily if it is not cached yet.
+     *
+     * @param image      the image whose voxel intensities are converted into costs
+     * @param costType   the type of the cost function
+     * @param cost       the cost function
+     * @param statistics the image statistics used to create the cost function (e.g., min, max, mean,
+     *                   standard deviation, and any further parameter of the cost function)
+     * @return the cost volume, with the same interval as the image
+     */
+    public synchronized RandomAccessibleInterval<FloatType> get(
+            final RandomAccessibleInterval<? extends RealType<?>> image, final SNT.CostType costType,
+            final Cost cost, final double... statistics)
+    {
+        final Key key = new Key(image, costType, statistics);
+        RandomAccessibleInterval<FloatType> volume = volumes.get(key);
+        if (volume == null) {
+            SNTUtils.log("Creating cost volume (" + costType + ")...");
+            volume = createVolume(image, cost);
+            volumes.put(key, volume);
+            misses++;
+        } else {
+            hits++;
+        }
+        return volume;
+    }
+
+    /**
+     * Discards all cached cost volumes.
+     */
+    public synchronized void clear() {
+        volumes.clear();
+    }
+
+    /**
+     * @return the number of cached cost volumes
+     */
+    public synchronized int size() {
+        return volumes.size();
+    }
+
+    /**
+     * @return the number of requests served by a cached cost volume
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of requests that created a new cost volume
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Creates a lazily computed cost volume of the specified image.
+     *
+     * @param image the image whose voxel intensities are converted into costs
+     * @param cost  the cost function
+     * @return the cost volume, with the same interval as the image
+     */
+    public static RandomAccessibleInterval<FloatType> createVolume(
+            final RandomAccessibleInterval<? extends RealType<?>> image, final Cost cost)
+    {
+        final int n = image.numDimensions();
+        final long[] min = Intervals.minAsLongArray(image);
+        final int[] blockSize = new int[n];
+        for (int d = 0; d < n; d++) blockSize[d] = (int) Math.min(64, image.dimension(d));
+        final RandomAccessibleInterval<FloatType> volume = Lazy.process(image, blockSize, new FloatType(), cell -> {
+            final RandomAccess<? extends RealType<?>> access = image.randomAccess();
+            final Cursor<FloatType> cursor = Views.flatIterable(cell).localizingCursor();
+            while (cursor.hasNext()) {
+                cursor.fwd();
+                for (int d = 0; d < n; d++) access.setPosition(min[d] + cursor.getLongPosition(d), d);
+                cursor.get().setReal(cost.costMovingTo(access.get().getRealDouble()));
+            }
+        });
+        return (Views.isZeroMin(image)) ? volume : Views.translate(volume, min);
+    }
+
+    private static class Key {
+
+        private final RandomAccessibleInterval<?> image;
+        private final SNT.CostType costType;
+        private final double[] statistics;
+
+        Key(final RandomAccessibleInterval<?> image, final SNT.CostType costType, final double[] statistics) {
+            this.image = image;
+            this.costType = costType;
+            this.statistics = statistics.clone();
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            final Key other = (Key) o;
+            // images are compared by identity: a different (or reloaded) image is a different volume
+            return image == other.image && costType == other.costType
+                    && Arrays.equals(statistics, other.statistics);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * System.identityHashCode(image) + costType.hashCode()) + Arrays.hashCode(statistics);
+        }
+    }
+
+}
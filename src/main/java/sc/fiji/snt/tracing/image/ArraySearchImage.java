@@ -30,10 +30,25 @@ import java.util.Iterator;
 
 public class ArraySearchImage<V> implements SearchImage<V> {
 
+    final int xMin;
+    final int yMin;
     final int width;
     final V[] arr;
 
     public ArraySearchImage(Class<V> c, final int width, final int height) {
+        this(c, 0, 0, width, height);
+    }
+
+    /**
+     * @param c      the class of the stored values
+     * @param xMin   the x-coordinate of the first column
+     * @param yMin   the y-coordinate of the first row
+     * @param width  the number of columns
+     * @param height the number of rows
+     */
+    public ArraySearchImage(Class<V> c, final int xMin, final int yMin, final int width, final int height) {
+        this.xMin = xMin;
+        this.yMin = yMin;
         this.width = width;
         @SuppressWarnings("unchecked")
         final V[] arr = (V[]) Array.newInstance(c, width * height);
@@ -42,12 +57,12 @@ public class ArraySearchImage<V> implements SearchImage<V> {
 
     @Override
     public V getValue(final int x, final int y) {
-        return arr[y * width + x];
+        return arr[(y - yMin) * width + (x - xMin)];
     }
 
     @Override
     public void setValue(final int x, final int y, V node) {
-        arr[y * width + x] = node;
+        arr[(y - yMin) * width + (x - xMin)] = node;
     }
 
     @NotNull
@@ -0,0 +1,177 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2021 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.tracing.image;
+
+import java.util.Arrays;
+
+/**
+ * An addressable binary min-heap of voxel indices of a {@link PackedNodeStore}. Keys and indices are held in
+ * parallel primitive arrays and heap positions are recorded in the store itself, so that insertions,
+ * removals and decrease-key operations do not allocate.
+ * <p>
+ * Ties are broken by x, y and z coordinates, which reproduces the ordering of the node-based searches.
+ * </p>
+ */
+public class NodeIndexHeap {
+
+    private final PackedNodeStore store;
+    private long[] nodes;
+    private double[] keys;
+    private int size;
+
+    public NodeIndexHeap(final PackedNodeStore store) {
+        this(store, 1024);
+    }
+
+    public NodeIndexHeap(final PackedNodeStore store, final int initialCapacity) {
+        this.store = store;
+        this.nodes = new long[Math.max(2, initialCapacity)];
+        this.keys = new double[nodes.length];
+        this.size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return whether the specified voxel index is currently in the heap
+     */
+    public boolean contains(final long node) {
+        return store.getHeapSlot(node) > 0;
+    }
+
+    /**
+     * Inserts a voxel index in the heap.
+     *
+     * @param node the voxel index. Must not be already in the heap
+     * @param key  the priority of the voxel
+     */
+    public void insert(final long node, final double key) {
+        if (size == nodes.length) {
+            final int newCapacity = nodes.length + (nodes.length >> 1);
+            nodes = Arrays.copyOf(nodes, newCapacity);
+            keys = Arrays.copyOf(keys, newCapacity);
+        }
+        siftUp(size++, node, key);
+    }
+
+    /**
+     * Lowers the key of a voxel index already in the heap.
+     *
+     * @param node the voxel index
+     * @param key  the new priority. Must not be larger than the current one
+     */
+    public void decreaseKey(final long node, final double key) {
+        final int slot = store.getHeapSlot(node) - 1;
+        if (slot < 0)
+            throw new IllegalArgumentException("Node is not in heap: " + node);
+        siftUp(slot, node, key);
+    }
+
+    /**
+     * @return the smallest key in the heap
+     */
+    public double peekKey() {
+        if (size == 0) throw new IllegalStateException("Heap is empty");
+        return keys[0];
+    }
+
+    /**
+     * @return the voxel index with the smallest key
+     */
+    public long peek() {
+        if (size == 0) throw new IllegalStateException("Heap is empty");
+        return nodes[0];
+    }
+
+    /**
+     * Removes the voxel index with the smallest key.
+     *
+     * @return the removed index
+     */
+    public long deleteMin() {
+        if (size == 0) throw new IllegalStateException("Heap is empty");
+        final long min = nodes[0];
+        store.setHeapSlot(min, 0);
+        --size;
+        if (size > 0) {
+            siftDown(0, nodes[size], keys[size]);
+        }
+        return min;
+    }
+
+    /**
+     * Removes all entries from the heap.
+     */
+    public void clear() {
+        for (int i = 0; i < size; i++)
+            store.setHeapSlot(nodes[i], 0);
+        size = 0;
+    }
+
+    private boolean less(final long n1, final double k1, final long n2, final double k2) {
+        final int result = Double.compare(k1, k2);
+        if (result != 0) return result < 0;
+        if (n1 == n2) return false;
+        int cmp = Integer.compare(store.x(n1), store.x(n2));
+        if (cmp != 0) return cmp < 0;
+        cmp = Integer.compare(store.y(n1), store.y(n2));
+        if (cmp != 0) return cmp < 0;
+        return store.z(n1) < store.z(n2);
+    }
+
+    private void siftUp(int slot, final long node, final double key) {
+        while (slot > 0) {
+            final int parent = (slot - 1) >>> 1;
+            if (!less(node, key, nodes[parent], keys[parent])) break;
+            place(slot, nodes[parent], keys[parent]);
+            slot = parent;
+        }
+        place(slot, node, key);
+    }
+
+    private void siftDown(int slot, final long node, final double key) {
+        final int half = size >>> 1;
+        while (slot < half) {
+            int child = 2 * slot + 1;
+            final int right = child + 1;
+            if (right < size && less(nodes[right], keys[right], nodes[child], keys[child])) child = right;
+            if (!less(nodes[child], keys[child], node, key)) break;
+            place(slot, nodes[child], keys[child]);
+            slot = child;
+        }
+        place(slot, node, key);
+    }
+
+    private void place(final int slot, final long node, final double key) {
+        nodes[slot] = node;
+        keys[slot] = key;
+        store.setHeapSlot(node, slot + 1);
+    }
+
+}
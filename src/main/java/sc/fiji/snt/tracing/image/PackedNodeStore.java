@@ -0,0 +1,336 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2021 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.tracing.image;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+import java.util.function.LongConsumer;
+
+/**
+ * Allocation-free storage of search state, used by {@link sc.fiji.snt.SNT.SearchImageType#PACKED} searches.
+ * <p>
+ * Instead of one node object per visited voxel, the g-score, the search status, the direction to the
+ * predecessor and the position in the open heap are kept in packed primitive arrays. Storage is paged in
+ * tiles of 4096 voxels (16&times;16&times;16 in 3D, 64&times;64 in 2D) that are only allocated once the
+ * search reaches them, so memory usage is proportional to the explored volume rather than to the image size.
+ * </p>
+ * Voxels are addressed by a tile-major linear index (see {@link #index(int, int, int)}), so that moving
+ * between a voxel and its 26 neighbors seldom leaves the current tile.
+ *
+ * @see NodeIndexHeap
+ */
+public class PackedNodeStore {
+
+    /** Status of a voxel that has not been reached by the search */
+    public static final byte FREE = 0;
+    /** Status of a voxel in the open set */
+    public static final byte OPEN = 1;
+    /** Status of a voxel in the closed set */
+    public static final byte CLOSED = 2;
+
+    /** Direction code of a voxel without predecessor, i.e., a seed point */
+    public static final byte NO_PARENT = 13;
+
+    private static final int TILE_BITS = 12;
+    private static final int TILE_SIZE = 1 << TILE_BITS;
+    private static final long TILE_MASK = TILE_SIZE - 1;
+
+    private final long xMin;
+    private final long yMin;
+    private final long zMin;
+    private final int shiftX;
+    private final int shiftY;
+    private final int shiftXY;
+    private final int maskX;
+    private final int maskY;
+    private final int maskZ;
+    private final int shiftZ;
+    private final long tilesX;
+    private final long tilesY;
+    private final long tilesXY;
+
+    private final Long2ObjectOpenHashMap<Tile> tiles;
+    private long lastTileIndex = -1;
+    private Tile lastTile;
+    private long visitedCount;
+
+    private static final class Tile {
+        final double[] g = new double[TILE_SIZE];
+        final int[] heapSlot = new int[TILE_SIZE];
+        final byte[] status = new byte[TILE_SIZE];
+        final byte[] parent = new byte[TILE_SIZE];
+    }
+
+    /**
+     * @param xMin   the minimum x coordinate of the searched interval
+     * @param yMin   the minimum y coordinate of the searched interval
+     * @param zMin   the minimum z coordinate of the searched interval
+     * @param width  the width of the searched interval
+     * @param height the height of the searched interval
+     * @param depth  the depth of the searched interval (1 for 2D images)
+     */
+    public PackedNodeStore(final long xMin, final long yMin, final long zMin, final int width, final int height,
+                           final int depth)
+    {
+        this.xMin = xMin;
+        this.yMin = yMin;
+        this.zMin = zMin;
+        if (depth > 1) {
+            shiftX = 4;
+            shiftY = 4;
+            shiftZ = 4;
+        } else {
+            shiftX = 6;
+            shiftY = 6;
+            shiftZ = 0;
+        }
+        shiftXY = shiftX + shiftY;
+        maskX = (1 << shiftX) - 1;
+        maskY = (1 << shiftY) - 1;
+        maskZ = (1 << shiftZ) - 1;
+        tilesX = ((long) width + maskX) >> shiftX;
+        tilesY = ((long) height + maskY) >> shiftY;
+        tilesXY = tilesX * tilesY;
+        tiles = new Long2ObjectOpenHashMap<>();
+    }
+
+    /**
+     * Computes the direction code of a step between neighboring voxels.
+     *
+     * @return the direction code, in the range [0, 26]. A null step is assigned {@link #NO_PARENT}
+     */
+    public static byte direction(final int xdiff, final int ydiff, final int zdiff) {
+        return (byte) ((zdiff + 1) * 9 + (ydiff + 1) * 3 + (xdiff + 1));
+    }
+
+    /**
+     * Pre-computes the (calibrated) length of the step associated with each direction code.
+     *
+     * @return the lookup table of step lengths, indexed by direction code
+     * @see #direction(int, int, int)
+     */
+    public static double[] stepLengths(final double xSep, final double ySep, final double zSep) {
+        final double[] lengths = new double[27];
+        for (int zdiff = -1; zdiff <= 1; zdiff++)
+            for (int ydiff = -1; ydiff <= 1; ydiff++)
+                for (int xdiff = -1; xdiff <= 1; xdiff++) {
+                    lengths[direction(xdiff, ydiff, zdiff)] = Math.sqrt(
+                            (xdiff * xSep) * (xdiff * xSep) +
+                            (ydiff * ySep) * (ydiff * ySep) +
+                            (zdiff * zSep) * (zdiff * zSep));
+                }
+        return lengths;
+    }
+
+    /**
+     * @return the linear index of the voxel at the given (image) coordinates
+     */
+    public long index(final int x, final int y, final int z) {
+        final int rx = (int) (x - xMin);
+        final int ry = (int) (y - yMin);
+        final int rz = (int) (z - zMin);
+        final long tile = ((long) (rz >> shiftZ) * tilesY + (ry >> shiftY)) * tilesX + (rx >> shiftX);
+        return (tile << TILE_BITS) | ((long) (rz & maskZ) << shiftXY) | ((ry & maskY) << shiftX) | (rx & maskX);
+    }
+
+    public int x(final long index) {
+        final long tile = index >>> TILE_BITS;
+        return (int) ((((tile % tilesX) << shiftX) | (index & maskX)) + xMin);
+    }
+
+    public int y(final long index) {
+        final long tile = index >>> TILE_BITS;
+        return (int) (((((tile / tilesX) % tilesY) << shiftY) | ((index >> shiftX) & maskY)) + yMin);
+    }
+
+    public int z(final long index) {
+        final long tile = index >>> TILE_BITS;
+        return (int) ((((tile / tilesXY) << shiftZ) | ((index & TILE_MASK) >> shiftXY)) + zMin);
+    }
+
+    /**
+     * @return the linear index of the predecessor of the specified voxel, or -1 if the voxel has no predecessor
+     */
+    public long parentIndex(final long index) {
+        final byte dir = getParent(index);
+        if (dir == NO_PARENT) return -1;
+        final int xdiff = dir % 3 - 1;
+        final int ydiff = (dir / 3) % 3 - 1;
+        final int zdiff = dir / 9 - 1;
+        return index(x(index) - xdiff, y(index) - ydiff, z(index) - zdiff);
+    }
+
+    /* Retrieves the tile holding the specified voxel, or null if it has not been allocated */
+    private Tile find(final long index) {
+        final long tileIndex = index >>> TILE_BITS;
+        if (tileIndex == lastTileIndex) return lastTile;
+        final Tile tile = tiles.get(tileIndex);
+        if (tile != null) {
+            lastTileIndex = tileIndex;
+            lastTile = tile;
+        }
+        return tile;
+    }
+
+    /* Retrieves the tile holding the specified voxel, allocating it if needed */
+    private Tile tile(final long index) {
+        Tile tile = find(index);
+        if (tile == null) {
+            tile = new Tile();
+            tiles.put(index >>> TILE_BITS, tile);
+            lastTileIndex = index >>> TILE_BITS;
+            lastTile = tile;
+        }
+        return tile;
+    }
+
+    public byte getStatus(final long index) {
+        final Tile tile = find(index);
+        return (tile == null) ? FREE : tile.status[(int) (index & TILE_MASK)];
+    }
+
+    public void setStatus(final long index, final byte status) {
+        final byte[] arr = tile(index).status;
+        final int offset = (int) (index & TILE_MASK);
+        if (arr[offset] == FREE && status != FREE) visitedCount++;
+        else if (arr[offset] != FREE && status == FREE) visitedCount--;
+        arr[offset] = status;
+    }
+
+    /**
+     * @return the g-score of the specified voxel. Only meaningful if the voxel is not {@link #FREE}
+     */
+    public double getG(final long index) {
+        final Tile tile = find(index);
+        return (tile == null) ? Double.POSITIVE_INFINITY : tile.g[(int) (index & TILE_MASK)];
+    }
+
+    public void setG(final long index, final double g) {
+        tile(index).g[(int) (index & TILE_MASK)] = g;
+    }
+
+    public byte getParent(final long index) {
+        final Tile tile = find(index);
+        return (tile == null) ? NO_PARENT : tile.parent[(int) (index & TILE_MASK)];
+    }
+
+    public void setParent(final long index, final byte direction) {
+        tile(index).parent[(int) (index & TILE_MASK)] = direction;
+    }
+
+    /**
+     * Convenience method to assign g-score, predecessor direction and status in one call.
+     */
+    public void set(final long index, final double g, final byte parentDirection, final byte status) {
+        final Tile tile = tile(index);
+        final int offset = (int) (index & TILE_MASK);
+        tile.g[offset] = g;
+        tile.parent[offset] = parentDirection;
+        if (tile.status[offset] == FREE && status != FREE) visitedCount++;
+        tile.status[offset] = status;
+    }
+
+    /* 1-based heap position, 0 meaning 'not in heap'. Only meant to be used by NodeIndexHeap */
+    int getHeapSlot(final long index) {
+        final Tile tile = find(index);
+        return (tile == null) ? 0 : tile.heapSlot[(int) (index & TILE_MASK)];
+    }
+
+    void setHeapSlot(final long index, final int slot) {
+        tile(index).heapSlot[(int) (index & TILE_MASK)] = slot;
+    }
+
+    /**
+     * Retrieves the status of a voxel without allocating storage for it. Unlike the index-based accessors,
+     * this method does not modify the state of the store and is meant to be used by observers of an ongoing
+     * search (e.g., {@link sc.fiji.snt.tracing.artist.SearchArtist}s).
+     *
+     * @return the status of the voxel at the specified coordinates or {@link #FREE} if it has not been reached
+     */
+    public byte peekStatus(final int x, final int y, final int z) {
+        final long index = index(x, y, z);
+        final Tile tile = tiles.get(index >>> TILE_BITS);
+        return (tile == null) ? FREE : tile.status[(int) (index & TILE_MASK)];
+    }
+
+    /**
+     * Retrieves the g-score of a voxel without allocating storage for it.
+     *
+     * @return the g-score of the voxel at the specified coordinates or {@link Double#POSITIVE_INFINITY} if it
+     * has not been reached
+     * @see #peekStatus(int, int, int)
+     */
+    public double peekG(final int x, final int y, final int z) {
+        final long index = index(x, y, z);
+        final Tile tile = tiles.get(index >>> TILE_BITS);
+        if (tile == null) return Double.POSITIVE_INFINITY;
+        final int offset = (int) (index & TILE_MASK);
+        return (tile.status[offset] == FREE) ? Double.POSITIVE_INFINITY : tile.g[offset];
+    }
+
+    /**
+     * Applies the specified action to the index of every voxel that has been reached by the search.
+     */
+    public void forEachVisited(final LongConsumer action) {
+        for (final Long2ObjectMap.Entry<Tile> entry : tiles.long2ObjectEntrySet()) {
+            final long base = entry.getLongKey() << TILE_BITS;
+            final byte[] status = entry.getValue().status;
+            for (int i = 0; i < TILE_SIZE; i++) {
+                if (status[i] != FREE) action.accept(base | i);
+            }
+        }
+    }
+
+    /**
+     * @return the number of voxels that have been reached by the search
+     */
+    public long size() {
+        return visitedCount;
+    }
+
+    /**
+     * @return the number of allocated tiles
+     */
+    public int tileCount() {
+        return tiles.size();
+    }
+
+    /**
+     * @return an estimate of the memory (in bytes) used by the allocated tiles
+     */
+    public long estimateBytes() {
+        return (long) tiles.size() * TILE_SIZE * (Double.BYTES + Integer.BYTES + 2);
+    }
+
+    /**
+     * Releases all the allocated storage.
+     */
+    public void clear() {
+        tiles.clear();
+        lastTileIndex = -1;
+        lastTile = null;
+        visitedCount = 0;
+    }
+
+}
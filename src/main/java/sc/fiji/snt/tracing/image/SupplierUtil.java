@@ -51,19 +51,29 @@ public class SupplierUtil {
 
     public static class ArraySearchImageSupplier<V extends SearchNode> implements Supplier<SearchImage<V>> {
 
+        private final int xMin;
+        private final int yMin;
         private final int width;
         private final int height;
         private final Class<V> c;
 
         public ArraySearchImageSupplier(Class<V> c, final int width, final int height) {
+            this(c, 0, 0, width, height);
+        }
+
+        public ArraySearchImageSupplier(Class<V> c, final int xMin, final int yMin, final int width,
+                                        final int height)
+        {
             this.c = c;
+            this.xMin = xMin;
+            this.yMin = yMin;
             this.width = width;
             this.height = height;
         }
 
         @Override
         public ArraySearchImage<V> get() {
-            return new ArraySearchImage<>(c, width, height);
+            return new ArraySearchImage<>(c, xMin, yMin, width, height);
         }
 
     }
@@ -98,8 +108,27 @@ public class SupplierUtil {
             Class<V> searchNodeClass,
             int width, int height)
     {
-        if (clazz == SNT.SearchImageType.ARRAY) {
-            return new ArraySearchImageSupplier<>(searchNodeClass, width, height);
+        return createSupplier(clazz, searchNodeClass, 0, 0, width, height);
+    }
+
+    /**
+     * Creates a {@link Supplier} of {@link SearchImage}s covering the XY extent of an interval whose
+     * origin may not be at (0,0), e.g., a cropped view of a larger image.
+     * <p>
+     * {@link SNT.SearchImageType#PACKED} searches keep their state in packed stores rather than in
+     * {@link SearchImage}s. If it is specified here, e.g., because a {@link SearchNode}-based search was
+     * created directly while PACKED is the active type, nodes are stored as with
+     * {@link SNT.SearchImageType#ARRAY}.
+     * </p>
+     */
+    public static <V extends SearchNode> Supplier<SearchImage<V>> createSupplier(
+            SNT.SearchImageType clazz,
+            Class<V> searchNodeClass,
+            long xMin, long yMin,
+            int width, int height)
+    {
+        if (clazz == SNT.SearchImageType.ARRAY || clazz == SNT.SearchImageType.PACKED) {
+            return new ArraySearchImageSupplier<>(searchNodeClass, (int) xMin, (int) yMin, width, height);
         } else if (clazz == SNT.SearchImageType.MAP) {
             return new MapSearchImageSupplier<>();
         }
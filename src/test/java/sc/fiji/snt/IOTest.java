@@ -25,17 +25,36 @@ package sc.fiji.snt;
 import static org.junit.Assert.*;
 import static org.junit.Assume.assumeNotNull;
 
+import java.io.ByteArrayInputStream;
+import java.awt.Color;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.TreeSet;
 
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
+import org.scijava.Context;
+import org.scijava.command.CommandService;
 
 import sc.fiji.snt.analysis.TreeAnalyzer;
+import sc.fiji.snt.annotation.AllenUtils;
+import sc.fiji.snt.annotation.BrainAnnotation;
+import sc.fiji.snt.gui.cmds.BinaryConverterCmd;
+import sc.fiji.snt.io.BinaryTraces;
+import sc.fiji.snt.io.MouseLightLoader;
 import sc.fiji.snt.util.PointInImage;
+import sc.fiji.snt.util.SWCPoint;
 
 /**
  * Test for basic I/O Operations
@@ -84,10 +103,359 @@ public class IOTest {
 				// Did tree change when saving to TRACES?
 				assertEquals(bps, new TreeAnalyzer(tracesTree).getBranchPoints());
 				assertEquals(cableLength, new TreeAnalyzer(tracesTree).getCableLength(), precision);
+
+				// Binary I/O
+				final String binaryPath = folder.newFile(tree.getLabel() + ".sntb").getAbsolutePath();
+				assertTrue("Saving to "+ binaryPath, tree.saveAsBinary(binaryPath));
+				final Tree binaryTree = new Tree(binaryPath);
+				assertFalse("Reading file " + binaryPath, binaryTree.isEmpty());
+
+				// Did tree change when saving to binary?
+				assertEquals(tree.size(), binaryTree.size());
+				assertEquals(nodes.size(), binaryTree.getNodes().size());
+				assertEquals(bps, new TreeAnalyzer(binaryTree).getBranchPoints());
+				assertEquals(cableLength, new TreeAnalyzer(binaryTree).getCableLength(), precision);
 			} catch (final IOException e) {
 				e.printStackTrace();
 			}
 		});
 	}
 
+	@Test
+	public void testBinaryRoundTrip() throws IOException {
+		final PathAndFillManager pafm = createDecoratedPaths();
+		final String binaryPath = folder.newFile("decorated.sntb").getAbsolutePath();
+		pafm.writeBinary(binaryPath);
+		final PathAndFillManager loaded = PathAndFillManager.createFromFile(binaryPath);
+		assertNotNull("Reading file " + binaryPath, loaded);
+		assertEquals(pafm.size(), loaded.size());
+		for (int i = 0; i < pafm.size(); i++) {
+			final Path expected = pafm.getPath(i);
+			final Path actual = loaded.getPath(i);
+			assertEquals(expected.getName(), actual.getName());
+			assertEquals(expected.getID(), actual.getID());
+			assertEquals(expected.isPrimary(), actual.isPrimary());
+			assertEquals(expected.getColor(), actual.getColor());
+			assertEquals(expected.getTreeLabel(), actual.getTreeLabel());
+			assertEquals(expected.getUseFitted(), actual.getUseFitted());
+			assertSameNodes(expected, actual);
+			if (expected.getStartJoins() == null) {
+				assertNull(actual.getStartJoins());
+			} else {
+				assertEquals(expected.getStartJoins().getID(), actual.getStartJoins().getID());
+				assertTrue(expected.getStartJoinsPoint().isSameLocation(actual.getStartJoinsPoint()));
+			}
+			if (expected.getFitted() == null) {
+				assertNull(actual.getFitted());
+			} else {
+				assertNotNull(actual.getFitted());
+				assertSame(actual, actual.getFitted().fittedVersionOf);
+				assertSameNodes(expected.getFitted(), actual.getFitted());
+			}
+		}
+	}
+
+	@Test
+	public void testBinaryRejectsCorruptedFiles() throws IOException {
+		final File valid = folder.newFile("valid.sntb");
+		createDecoratedPaths().writeBinary(valid.getAbsolutePath());
+		final byte[] bytes = Files.readAllBytes(valid.toPath());
+
+		// Truncated files
+		for (final int length : new int[] { 8, 20, bytes.length / 2, bytes.length - 1 }) {
+			final File truncated = folder.newFile("truncated" + length + ".sntb");
+			Files.write(truncated.toPath(), Arrays.copyOf(bytes, length));
+			assertNull("Truncated to " + length + " bytes", PathAndFillManager.createFromFile(truncated.getAbsolutePath()));
+		}
+
+		// Invalid path references: Out of range, self-references, cycles and
+		// multiple fitted flavors of the same path. The decorated paths hold the
+		// primary path (0), its fitted flavor (1) and a child path (2)
+		final int[][] startsOn = { { -1, -1, 3 }, { -1, -1, -2 }, { -1, -1, 2 }, { 2, -1, 0 }, { -1, -1, 0 }, { -1, -1, 0 } };
+		final int[][] fittedVersionOf = { { -1, 0, -1 }, { -1, 0, -1 }, { -1, 0, -1 }, { -1, 0, -1 }, { -1, 1, -1 }, { -1, 0, 0 } };
+		for (int i = 0; i < startsOn.length; i++) {
+			final BinaryTraces data = BinaryTraces.read(valid);
+			assertEquals(-1, data.startsOn[0]);
+			assertEquals(0, data.fittedVersionOf[1]);
+			assertEquals(0, data.startsOn[2]);
+			System.arraycopy(startsOn[i], 0, data.startsOn, 0, data.pathCount);
+			System.arraycopy(fittedVersionOf[i], 0, data.fittedVersionOf, 0, data.pathCount);
+			final File corrupted = folder.newFile("corrupted" + i + ".sntb");
+			data.write(corrupted);
+			try {
+				BinaryTraces.read(corrupted);
+				fail("Corrupted references accepted: startsOn=" + Arrays.toString(startsOn[i]) + ", fittedVersionOf="
+						+ Arrays.toString(fittedVersionOf[i]));
+			} catch (final IOException e) {
+				assertTrue(e.getMessage().startsWith("Corrupted binary file"));
+			}
+			assertNull(PathAndFillManager.createFromFile(corrupted.getAbsolutePath()));
+		}
+	}
+
+	@Test
+	public void testBinaryConverterCmd() throws Exception {
+		final File inputDir = folder.newFolder("input");
+		final File outputDir = new File(folder.getRoot(), "output");
+		final Tree tree = trees.get(0);
+		assertTrue(tree.saveAsSWC(new File(inputDir, "cell.swc").getAbsolutePath()));
+		assertTrue(tree.save(new File(inputDir, "other.traces").getAbsolutePath()));
+		assertTrue(new File(inputDir, "empty.swc").createNewFile());
+
+		final Context context = new Context();
+		try {
+			final Map<String, Object> inputs = new HashMap<>();
+			inputs.put("inputDir", inputDir);
+			inputs.put("pattern", "");
+			inputs.put("outputDir", outputDir);
+			inputs.put("overwrite", false);
+			context.getService(CommandService.class).run(BinaryConverterCmd.class, false, inputs).get();
+		} finally {
+			context.dispose();
+		}
+		final double cableLength = new TreeAnalyzer(tree).getCableLength();
+		for (final String name : new String[] { "cell", "other" }) {
+			final File converted = new File(outputDir, name + BinaryTraces.EXTENSION);
+			assertTrue("Converted " + name, converted.exists());
+			final Tree binaryTree = new Tree(converted.getAbsolutePath());
+			assertEquals(tree.getNodes().size(), binaryTree.getNodes().size());
+			assertEquals(cableLength, new TreeAnalyzer(binaryTree).getCableLength(), precision);
+		}
+		assertFalse("Invalid files are skipped", new File(outputDir, "empty" + BinaryTraces.EXTENSION).exists());
+	}
+
+	/*
+	 * A primary path with a fitted flavor (radii), a color and node values, and
+	 * a child path with node colors and brain annotations
+	 */
+	private PathAndFillManager createDecoratedPaths() {
+		final PathAndFillManager pafm = new PathAndFillManager();
+		pafm.setHeadless(true);
+		final Path primary = new Path(0.5, 0.5, 2, "um");
+		for (int i = 0; i < 4; i++)
+			primary.addPointDouble(i * 10, 0, 0);
+		primary.setIsPrimary(true);
+		primary.setColor(new Color(255, 0, 0, 128));
+		primary.setNodeValues(new double[] { 1, 2.5, -3, 4 });
+		pafm.addPath(primary);
+
+		final Path fitted = new Path(0.5, 0.5, 2, "um");
+		for (int i = 0; i < 4; i++) {
+			fitted.addPointDouble(i * 10, 0.5, 0);
+			fitted.setRadius(1 + i, i);
+		}
+		primary.setFitted(fitted);
+		primary.setUseFitted(true);
+
+		final Path child = new Path(0.5, 0.5, 2, "um");
+		for (int i = 0; i < 3; i++)
+			child.addPointDouble(10, i * 10, 0);
+		child.setStartJoin(primary, primary.getNode(1));
+		child.setNodeColors(new Color[] { Color.GREEN, null, Color.BLUE });
+		child.setNodeAnnotation(AllenUtils.getCompartment("Thalamus"), 1);
+		child.setNodeHemisphere(BrainAnnotation.LEFT_HEMISPHERE, 1);
+		pafm.addPath(child);
+
+		primary.setTreeLabel("Neuron 1");
+		child.setTreeLabel("Neuron 1");
+		return pafm;
+	}
+
+	private void assertSameNodes(final Path expected, final Path actual) {
+		assertEquals(expected.size(), actual.size());
+		assertEquals(expected.hasRadii(), actual.hasRadii());
+		assertEquals(expected.hasNodeValues(), actual.hasNodeValues());
+		assertEquals(expected.hasNodeColors(), actual.hasNodeColors());
+		assertEquals(expected.hasNodeAnnotations(), actual.hasNodeAnnotations());
+		for (int i = 0; i < expected.size(); i++) {
+			assertTrue(expected.getNode(i).isSameLocation(actual.getNode(i)));
+			if (expected.hasRadii()) assertEquals(expected.getNodeRadius(i), actual.getNodeRadius(i), precision);
+			if (expected.hasNodeValues()) assertEquals(expected.getNodeValue(i), actual.getNodeValue(i), precision);
+			assertEquals(expected.getNodeColor(i), actual.getNodeColor(i));
+			assertEquals(expected.getNodeAnnotation(i), actual.getNodeAnnotation(i));
+			assertEquals(expected.getNodeHemisphereFlag(i), actual.getNodeHemisphereFlag(i));
+		}
+	}
+
+	@Test
+	public void testFillCodec() throws IOException {
+		final Fill fill = new Fill();
+		fill.setMetric(SNT.CostType.RECIPROCAL);
+		fill.setThreshold(0.5);
+		fill.setSpacing(0.5, 0.5, 2, "um");
+		// A small cuboid, listed in non-raster order, plus an isolated voxel
+		final Random random = new Random(42);
+		for (int x = 9; x >= 0; x--) {
+			for (int z = 0; z < 3; z++) {
+				for (int y = 0; y < 4; y++) {
+					final int size = fill.getNodeList().size();
+					final int previous = (size == 0) ? -1 : random.nextInt(size);
+					fill.add(x, y, z, x * 0.1 + y * 0.01 + z, previous, x % 2 == 0);
+				}
+			}
+		}
+		fill.add(100, 200, 30, 0.25, 0, true);
+
+		for (final boolean compress : new boolean[] { false, true }) {
+			final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			FillCodec.write(fill, bos, compress);
+			final Fill decoded = FillCodec.read(new ByteArrayInputStream(bos.toByteArray()));
+			assertEquals(fill.getMetric(), decoded.getMetric());
+			assertEquals(fill.getThreshold(), decoded.getThreshold(), 0);
+			assertEquals(fill.z_spacing, decoded.z_spacing, 0);
+			assertEquals(fill.getNodeList().size(), decoded.getNodeList().size());
+			final Map<String, String> expected = new HashMap<>();
+			for (final Fill.Node n : fill.getNodeList())
+				expected.put(n.x + "," + n.y + "," + n.z, describe(fill, n));
+			for (final Fill.Node n : decoded.getNodeList())
+				assertEquals(expected.get(n.x + "," + n.y + "," + n.z), describe(decoded, n));
+
+			final int[] streamed = { 0 };
+			FillCodec.stream(new ByteArrayInputStream(bos.toByteArray()), (x, y, z, distance, open) -> {
+				assertEquals(expected.get(x + "," + y + "," + z).split(";")[0], distance + "," + open);
+				streamed[0]++;
+			});
+			assertEquals(fill.getNodeList().size(), streamed[0]);
+		}
+	}
+
+	@Test
+	public void testFillCodecRejectsInvalidInput() throws IOException {
+		final Fill fill = new Fill();
+		fill.setMetric(SNT.CostType.RECIPROCAL);
+		fill.add(1, 2, 3, 0.1, -1, false);
+		assertTrue(FillCodec.canEncode(fill));
+
+		// Unknown metrics must not be silently replaced
+		final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		FillCodec.write(fill, bos, false);
+		final byte[] data = bos.toByteArray();
+		final byte[] metric = "RECIPROCAL".getBytes(StandardCharsets.UTF_8);
+		int offset = -1;
+		for (int i = 0; i <= data.length - metric.length && offset < 0; i++) {
+			boolean match = true;
+			for (int j = 0; j < metric.length && match; j++)
+				match = data[i + j] == metric[j];
+			if (match) offset = i;
+		}
+		assertTrue(offset >= 0);
+		data[offset + metric.length - 1] = 'X';
+		try {
+			FillCodec.read(new ByteArrayInputStream(data));
+			fail("Unknown metric was accepted");
+		}
+		catch (final IOException expected) {
+			assertTrue(expected.getMessage().contains("RECIPROCAX"));
+		}
+
+		// Coordinates outside the 21-bit range cannot be encoded
+		for (final int[] xyz : new int[][] { { -1, 0, 0 }, { 0, 1 << 21, 0 }, { 0, 0, Integer.MAX_VALUE } }) {
+			final Fill invalid = new Fill();
+			invalid.setMetric(SNT.CostType.RECIPROCAL);
+			invalid.add(xyz[0], xyz[1], xyz[2], 0.1, -1, false);
+			assertFalse(FillCodec.canEncode(invalid));
+			try {
+				FillCodec.write(invalid, new ByteArrayOutputStream(), true);
+				fail("Out-of-range coordinates were encoded");
+			}
+			catch (final IllegalArgumentException expected) {
+				// expected
+			}
+		}
+		final Fill largest = new Fill();
+		largest.setMetric(SNT.CostType.RECIPROCAL);
+		largest.add((1 << 21) - 1, 0, (1 << 21) - 1, 0.1, -1, false);
+		final ByteArrayOutputStream largestOut = new ByteArrayOutputStream();
+		FillCodec.write(largest, largestOut, true);
+		final Fill.Node decoded = FillCodec.read(new ByteArrayInputStream(largestOut.toByteArray())).getNodeList().get(0);
+		assertEquals((1 << 21) - 1, decoded.x);
+		assertEquals((1 << 21) - 1, decoded.z);
+	}
+
+	@Test
+	public void testFillCodecRejectsCorruptedLinks() throws IOException {
+		// A seed, a neighbor and a distant node, both linked to the seed
+		final Fill fill = new Fill();
+		fill.setMetric(SNT.CostType.RECIPROCAL);
+		fill.add(1, 1, 1, 0, -1, false);
+		fill.add(2, 1, 1, 0.1, 0, false);
+		fill.add(5, 5, 5, 0.2, 0, false);
+		final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		FillCodec.write(fill, bos, false);
+		final byte[] data = bos.toByteArray();
+		final List<Fill.Node> nodes = FillCodec.read(new ByteArrayInputStream(data)).getNodeList();
+		assertEquals(0, nodes.get(1).previous);
+		assertEquals(0, nodes.get(2).previous);
+
+		// Trailing node records: flags, [far predecessor,] distance
+		final int farIndex = data.length - 9;
+		final int neighborFlags = data.length - 19;
+		final int[][] corruptions = { //
+			{ farIndex, 3 }, // far predecessor beyond node count
+			{ farIndex, 2 }, // far predecessor referencing itself
+			{ neighborFlags, 28 }, // unknown direction code
+			{ neighborFlags, 0 } // neighbor that is not part of the fill
+		};
+		for (final int[] corruption : corruptions) {
+			final byte[] corrupted = data.clone();
+			corrupted[corruption[0]] = (byte) corruption[1];
+			try {
+				FillCodec.read(new ByteArrayInputStream(corrupted));
+				fail("Corrupted fill was decoded: " + Arrays.toString(corruption));
+			}
+			catch (final IOException expected) {
+				assertTrue(expected.getMessage().startsWith("Corrupted fill data"));
+			}
+		}
+		for (final int[] corruption : new int[][] { corruptions[0], corruptions[2] }) {
+			final byte[] corrupted = data.clone();
+			corrupted[corruption[0]] = (byte) corruption[1];
+			try {
+				FillCodec.stream(new ByteArrayInputStream(corrupted), (x, y, z, distance, open) -> {});
+				fail("Corrupted fill was streamed: " + Arrays.toString(corruption));
+			}
+			catch (final IOException expected) {
+				assertTrue(expected.getMessage().startsWith("Corrupted fill data"));
+			}
+		}
+	}
+
+	@Test
+	public void testMLJSONStreaming() throws IOException {
+		final String node1 = "{\"sampleNumber\": 1, \"x\": 10, \"y\": 20, \"z\": 30, \"parentNumber\": -1}";
+		final String node2 = "{\"sampleNumber\": 2, \"x\": 11, \"y\": 21, \"z\": 31, \"radius\": 2, \"parentNumber\": 1}";
+		final String node3 = "{\"sampleNumber\": 3, \"x\": 12, \"y\": 22, \"z\": 32, \"parentNumber\": 2}";
+		final String neuron = "{\"DOI\": \"n/a\", \"sample\": {\"date\": [1, 2]}, \"soma\": " + node1
+				+ ", \"axon\": [" + node1 + ", " + node2 + ", " + node3 + "], \"dendrite\": [" + node1 + ", "
+				+ node2 + "], \"idString\": \"AA0000\"}";
+		final String[] flavors = { "{\"neurons\": [" + neuron + ", " + neuron.replace("AA0000", "AA0001") + "]}",
+				"{\"comment\": \"\", \"contents\": {\"neurons\": [" + neuron + "]}}", "{\"neuron\": " + neuron + "}" };
+		final int[] expectedNeurons = { 2, 1, 1 };
+		for (int i = 0; i < flavors.length; i++) {
+			final byte[] json = flavors[i].getBytes(StandardCharsets.UTF_8);
+			final Map<String, TreeSet<SWCPoint>> all = MouseLightLoader.extractNodes(new ByteArrayInputStream(json), "all");
+			assertEquals(expectedNeurons[i], all.size());
+			// soma + 1 dendritic node + 2 axonal nodes: the first node of each neurite duplicates the soma
+			all.values().forEach(nodes -> assertEquals(4, nodes.size()));
+			final TreeSet<SWCPoint> axon = MouseLightLoader.extractNodes(new ByteArrayInputStream(json), "axon")
+					.values().iterator().next();
+			assertEquals(3, axon.size());
+			assertEquals(2, axon.last().parent);
+			final Map<String, Tree> trees = MouseLightLoader.extractTrees(new ByteArrayInputStream(json), "dendrites");
+			assertEquals(expectedNeurons[i], trees.size());
+			final int[] streamed = { 0 };
+			MouseLightLoader.extractTrees(new ByteArrayInputStream(json), "all", tree -> {
+				assertFalse(tree.isEmpty());
+				streamed[0]++;
+			});
+			assertEquals(expectedNeurons[i], streamed[0]);
+		}
+	}
+
+	private String describe(final Fill fill, final Fill.Node n) {
+		final String previous = (n.previous < 0) ? "none" : fill.getNodeList().get(n.previous).x + "," +
+			fill.getNodeList().get(n.previous).y + "," + fill.getNodeList().get(n.previous).z;
+		return n.distance + "," + n.open + ";" + previous;
+	}
+
 }
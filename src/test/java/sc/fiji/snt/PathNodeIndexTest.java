@@ -0,0 +1,155 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2021 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import sc.fiji.snt.util.PointInImage;
+
+/**
+ * Tests that the spatial index of {@link PathAndFillManager} retrieves the same
+ * points as the exhaustive search it replaces.
+ */
+public class PathNodeIndexTest {
+
+	private static final int QUERIES = 500;
+	private Random random;
+	private PathAndFillManager pafm;
+
+	@Before
+	public void setUp() {
+		random = new Random(42);
+		pafm = new PathAndFillManager(0.5, 0.5, 2, "um");
+		pafm.setHeadless(true);
+	}
+
+	private Path randomPath(final int nodes, final boolean is2D) {
+		final Path path = new Path(0.5, 0.5, 2, "um");
+		double x = random.nextDouble() * 100;
+		double y = random.nextDouble() * 100;
+		double z = random.nextDouble() * 40;
+		for (int i = 0; i < nodes; i++) {
+			x += random.nextGaussian() * 2;
+			y += random.nextGaussian() * 2;
+			z += random.nextGaussian();
+			path.addNode(new PointInImage(x, y, (is2D) ? 0 : z));
+		}
+		return path;
+	}
+
+	private void populate(final int nPaths, final boolean is2D) {
+		for (int i = 0; i < nPaths; i++)
+			pafm.addPath(randomPath(2 + random.nextInt(60), is2D));
+	}
+
+	private PointInImage randomQuery(final boolean ignoreZ) {
+		return new PointInImage(random.nextDouble() * 120 - 10, random.nextDouble() * 120 - 10,
+				(ignoreZ) ? Double.NaN : random.nextDouble() * 50 - 5);
+	}
+
+	private void assertSameAsExhaustive(final PointInImage query, final double limit,
+			final boolean unScaled)
+	{
+		final double limitSquared = limit * limit;
+		final NearPoint expected = pafm.nearestPointOnAnyPathExhaustive(pafm.getPaths(), query,
+				limitSquared, unScaled);
+		final NearPoint actual = pafm.nearestPointOnAnyPath(pafm.getPaths(), query, limitSquared,
+				unScaled);
+		if (expected == null) {
+			assertNull("Query " + query, actual);
+			return;
+		}
+		assertNotNull("Query " + query, actual);
+		assertEquals("Query " + query, expected.distanceToPathNearPoint(),
+				actual.distanceToPathNearPoint(), 1e-9);
+		assertSame("Query " + query, expected.getPath(), actual.getPath());
+		assertEquals("Query " + query, expected.indexInPath, actual.indexInPath);
+	}
+
+	private void assertSameAsExhaustive(final boolean ignoreZ, final boolean unScaled) {
+		for (int i = 0; i < QUERIES; i++) {
+			final PointInImage query = randomQuery(ignoreZ);
+			if (unScaled) { // pixel coordinates
+				query.x /= 0.5;
+				query.y /= 0.5;
+			}
+			assertSameAsExhaustive(query, (i % 2 == 0) ? 5 : Double.MAX_VALUE / 4, unScaled);
+		}
+	}
+
+	@Test
+	public void testRandom3DQueries() {
+		populate(40, false);
+		assertSameAsExhaustive(false, false);
+	}
+
+	@Test
+	public void test2DPaths() {
+		populate(40, true);
+		assertSameAsExhaustive(true, false);
+	}
+
+	@Test
+	public void testPixelUnits() {
+		populate(40, true);
+		assertSameAsExhaustive(true, true);
+	}
+
+	@Test
+	public void testNodeEditsAndDeletions() {
+		populate(30, false);
+		assertSameAsExhaustive(false, false);
+		final List<Path> paths = new ArrayList<>(pafm.getPaths());
+		for (final Path p : paths) {
+			// NODES_CHANGED events must invalidate the indexed nodes
+			switch (random.nextInt(3)) {
+				case 0:
+					p.moveNode(random.nextInt(p.size()), randomQuery(false));
+					break;
+				case 1:
+					p.insertNode(random.nextInt(p.size() + 1), randomQuery(false));
+					break;
+				default:
+					p.removeNode(random.nextInt(p.size()));
+			}
+		}
+		assertSameAsExhaustive(false, false);
+		for (int i = 0; i < paths.size(); i += 2)
+			assertTrue(pafm.deletePath(paths.get(i)));
+		assertSameAsExhaustive(false, false);
+		// Nodes of deleted paths must no longer be retrieved
+		for (final Path deleted : paths.subList(0, 1)) {
+			final NearPoint np = pafm.nearestPointOnAnyPath(pafm.getPaths(), deleted.getNode(0), 1e-6,
+					false);
+			if (np != null) assertNotSame(deleted, np.getPath());
+		}
+	}
+
+}
@@ -22,18 +22,34 @@
 
 package sc.fiji.snt;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assume.assumeNotNull;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Random;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import sc.fiji.snt.analysis.PersistenceAnalyzer;
+import sc.fiji.snt.analysis.PersistenceFeatures;
 import sc.fiji.snt.analysis.TreeAnalyzer;
+import sc.fiji.snt.analysis.graph.DirectedWeightedGraph;
 import sc.fiji.snt.util.SWCPoint;
 
 /**
@@ -47,6 +63,9 @@ public class PersistenceAnalyzerTest {
 	private final List<String> allDescriptors = PersistenceAnalyzer.getDescriptors();
 	private TreeAnalyzer tAnalyzer;
 
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
 	@Before
 	public void setUp() throws Exception {
 		tree = new SNTService().demoTrees().get(0);
@@ -70,6 +89,97 @@ public class PersistenceAnalyzerTest {
 		}
 	}
 
+	@Test
+	public void testKnownDiagrams() {
+		// Root at (0,0) branching at (0,10) into a tip at (0,20) and a second branch
+		// point at (10,10) that bifurcates into tips at (10,15) and (20,10)
+		final Tree tree = handBuiltTree();
+		final PersistenceAnalyzer analyzer = new PersistenceAnalyzer(tree);
+		assertDiagram("geodesic", analyzer, new double[][] { { 0, 30 }, { 10, 20 }, { 20, 25 } });
+		assertDiagram("radial", analyzer,
+				new double[][] { { 0, Math.sqrt(500) }, { 10, 20 }, { Math.sqrt(200), Math.sqrt(325) } });
+		// Reverse Strahler orders: 2 at tips, 1 elsewhere
+		assertDiagram("centrifugal", analyzer, new double[][] { { 1, 2 }, { 1, 2 }, { 1, 2 } });
+		// Primary path: root to (0,20); 2nd order: (10,10) to (10,15); 3rd order: (20,10)
+		assertDiagram("path order", analyzer, new double[][] { { 1, 1 }, { 1, 3 }, { 2, 2 } });
+		assertDiagram("x", analyzer, new double[][] { { 0, 0 }, { 0, 20 }, { 10, 10 } });
+		assertDiagram("y", analyzer, new double[][] { { 0, 20 }, { 10, 10 }, { 10, 15 } });
+		assertDiagram("z", analyzer, new double[][] { { 0, 0 }, { 0, 0 }, { 0, 0 } });
+		double sumIntervals = 0d;
+		for (final double interval : analyzer.getBarcode("geodesic")) {
+			sumIntervals += interval;
+		}
+		assertEquals("Barcode: summed intervals", 45, sumIntervals, precision);
+	}
+
+	@Test
+	public void testTiesAndSharedGraph() {
+		final Tree tree = handBuiltTree();
+		final DirectedWeightedGraph graph = tree.getGraph(true);
+		final List<SWCPoint> vertices = new ArrayList<>(graph.vertexSet());
+		final double[] v = new double[vertices.size()];
+		for (int i = 0; i < v.length; i++) {
+			vertices.get(i).v = -i;
+			v[i] = vertices.get(i).v;
+		}
+		final PersistenceAnalyzer analyzer = new PersistenceAnalyzer(tree);
+		// All branches tie under these descriptors: The earliest child always survives
+		for (final String descriptor : new String[] { "centrifugal", "z" }) {
+			final ArrayList<ArrayList<SWCPoint>> diagramNodes = analyzer.getDiagramNodes(descriptor);
+			assertEquals("Number of points in diagram", 3, diagramNodes.size());
+			final ArrayList<SWCPoint> rootPoint = diagramNodes.get(diagramNodes.size() - 1);
+			assertEquals("Root of diagram", graph.getRoot(), rootPoint.get(0));
+			assertEquals(descriptor + ": surviving tip", firstTip(graph, graph.getRoot()), rootPoint.get(1));
+			for (final ArrayList<SWCPoint> point : diagramNodes.subList(0, 2)) {
+				final SWCPoint branchPoint = point.get(0);
+				final SWCPoint secondChild = graph.outgoingEdgesOf(branchPoint).stream().skip(1).findFirst().get()
+						.getTarget();
+				assertEquals(descriptor + ": dying tip", firstTip(graph, secondChild), point.get(1));
+			}
+		}
+		// The graph is cached by the tree: Its vertices must not be modified
+		assertTrue("Cached graph", graph == tree.getGraph(true));
+		for (int i = 0; i < v.length; i++) {
+			assertEquals("Unmodified vertex", v[i], vertices.get(i).v, 0d);
+		}
+	}
+
+	private Tree handBuiltTree() {
+		final List<SWCPoint> nodes = new ArrayList<>();
+		nodes.add(new SWCPoint(1, 2, 0, 0, 0, 1, -1));
+		nodes.add(new SWCPoint(2, 2, 0, 10, 0, 1, 1));
+		nodes.add(new SWCPoint(3, 2, 0, 20, 0, 1, 2));
+		nodes.add(new SWCPoint(4, 2, 10, 10, 0, 1, 2));
+		nodes.add(new SWCPoint(5, 2, 10, 15, 0, 1, 4));
+		nodes.add(new SWCPoint(6, 2, 20, 10, 0, 1, 4));
+		return new Tree(nodes, "hand-built");
+	}
+
+	private SWCPoint firstTip(final DirectedWeightedGraph graph, SWCPoint node) {
+		while (graph.outDegreeOf(node) > 0) {
+			node = graph.outgoingEdgesOf(node).iterator().next().getTarget();
+		}
+		return node;
+	}
+
+	private void assertDiagram(final String descriptor, final PersistenceAnalyzer analyzer,
+			final double[][] expected) {
+		final ArrayList<ArrayList<Double>> diagram = analyzer.getDiagram(descriptor);
+		assertEquals(descriptor + ": number of points in diagram", expected.length, diagram.size());
+		final double[][] actual = new double[diagram.size()][];
+		for (int i = 0; i < actual.length; i++) {
+			actual[i] = new double[] { diagram.get(i).get(0), diagram.get(i).get(1) };
+		}
+		final Comparator<double[]> byBirthThenDeath = Comparator.<double[]> comparingDouble(p -> p[0])
+				.thenComparingDouble(p -> p[1]);
+		Arrays.sort(actual, byBirthThenDeath);
+		final double[][] sortedExpected = expected.clone();
+		Arrays.sort(sortedExpected, byBirthThenDeath);
+		for (int i = 0; i < actual.length; i++) {
+			assertArrayEquals(descriptor + ": diagram point", sortedExpected[i], actual[i], precision);
+		}
+	}
+
 	@Test
 	public void testBarcode() {
 		// Use geodesic descriptor since the sum of all intervals equals total cable length.
@@ -120,4 +230,169 @@ public class PersistenceAnalyzerTest {
 		}
 	}
 
+	@Test
+	public void testBatch() {
+		final List<Tree> trees = new SNTService().demoTrees();
+		final List<ArrayList<ArrayList<Double>>> diagrams = PersistenceAnalyzer.getDiagrams(trees, "radial");
+		final List<double[]> landscapes = PersistenceAnalyzer.getLandscapes(trees, "radial", 5, 100);
+		assertEquals("Number of diagrams", trees.size(), diagrams.size());
+		assertEquals("Number of landscapes", trees.size(), landscapes.size());
+		for (int i = 0; i < trees.size(); i++) {
+			final PersistenceAnalyzer analyzer = new PersistenceAnalyzer(trees.get(i));
+			assertEquals("Batch diagram", analyzer.getDiagram("radial"), diagrams.get(i));
+			assertArrayEquals("Batch landscape", analyzer.getLandscape("radial", 5, 100), landscapes.get(i), 0d);
+		}
+	}
+
+	@Test
+	public void testFeatures() {
+		final List<Tree> trees = new SNTService().demoTrees();
+		trees.set(0, new Tree(trees.get(0).list())); // unlabeled
+		final PersistenceFeatures features = new PersistenceFeatures(trees, "geodesic");
+		assertEquals("Number of diagrams", trees.size(), features.size());
+		assertEquals("Default label", "Diagram 1", features.getLabels().get(0));
+		for (int i = 1; i < trees.size(); i++) {
+			assertEquals("Tree label", trees.get(i).getLabel(), features.getLabels().get(i));
+		}
+		final double[][] landscapes = features.getLandscapes(5, 100);
+		final double[][] images = features.getImages(20, 0.05);
+		for (int i = 0; i < trees.size(); i++) {
+			assertArrayEquals("Landscape", new PersistenceAnalyzer(trees.get(i)).getLandscape("geodesic", 5, 100),
+					landscapes[i], 0d);
+			assertEquals("Image size", 400, images[i].length);
+			for (final double pixel : images[i]) {
+				assertTrue("Image: no negative values", pixel >= 0);
+			}
+		}
+	}
+
+	@Test
+	public void testLandscapeValues() {
+		// A single tent sampled at 4 points, and a second tent overlapping its right half
+		final double[] births = { 0, 1 };
+		final double[] deaths = { 2, 2 };
+		final double h = Math.sqrt(2) / 2;
+		assertArrayEquals("Landscape of single point", new double[] { 0, h, 2 * h, h },
+				PersistenceFeatures.landscape(new double[] { 0 }, new double[] { 2 }, 1, 4), 0d);
+		assertArrayEquals("Landscapes of two points", new double[] { 0, h, 2 * h, h, 0, 0, 0, h },
+				PersistenceFeatures.landscape(births, deaths, 2, 4), 0d);
+	}
+
+	@Test
+	public void testLandscapeReference() {
+		final Random random = new Random(42);
+		for (int trial = 0; trial < 200; trial++) {
+			final int n = 1 + random.nextInt(50);
+			final ArrayList<ArrayList<Double>> diagram = new ArrayList<>(n);
+			final double[] births = new double[n];
+			final double[] deaths = new double[n];
+			for (int i = 0; i < n; i++) {
+				// Include ties and points below the diagonal (e.g., radial descriptor)
+				births[i] = (random.nextInt(4) == 0) ? 0 : random.nextDouble() * 100;
+				deaths[i] = (random.nextInt(4) == 0) ? births[i] + random.nextInt(10)
+						: births[i] + (random.nextDouble() - 0.2) * 100;
+				diagram.add(new ArrayList<>(Arrays.asList(births[i], deaths[i])));
+			}
+			final int numLandscapes = 1 + random.nextInt(6);
+			final int resolution = 1 + random.nextInt(120);
+			final double[] expected = referenceLandscape(diagram, numLandscapes, resolution);
+			final double[] actual = PersistenceFeatures.landscape(births, deaths, numLandscapes, resolution);
+			assertEquals("Landscape size", expected.length, actual.length);
+			for (int i = 0; i < expected.length; i++) {
+				assertEquals("Bit-identical landscape", Double.doubleToLongBits(expected[i]),
+						Double.doubleToLongBits(actual[i]));
+			}
+		}
+	}
+
+	@Test
+	public void testFeatureFiles() throws IOException {
+		final List<ArrayList<ArrayList<Double>>> diagrams = new ArrayList<>();
+		diagrams.add(new ArrayList<>(Arrays.asList(new ArrayList<>(Arrays.asList(0d, 2d)))));
+		diagrams.add(new ArrayList<>(Arrays.asList(new ArrayList<>(Arrays.asList(0d, 2d)),
+				new ArrayList<>(Arrays.asList(1d, 2d)))));
+		final PersistenceFeatures features = new PersistenceFeatures(diagrams);
+		final double[][] landscapes = features.getLandscapes(2, 4);
+		landscapes[0][0] = 1d / 3; // exercise full precision
+
+		final File csv = folder.newFile("features.csv");
+		PersistenceFeatures.saveCSV(landscapes, features.getLabels(), csv);
+		final List<String> lines = Files.readAllLines(csv.toPath(), StandardCharsets.UTF_8);
+		assertEquals("CSV rows", landscapes.length + 1, lines.size());
+		assertEquals("CSV header", "-,F0,F1,F2,F3,F4,F5,F6,F7", lines.get(0));
+		for (int row = 0; row < landscapes.length; row++) {
+			final String[] cells = lines.get(row + 1).split(",");
+			assertEquals("CSV columns", landscapes[row].length + 1, cells.length);
+			assertEquals("CSV row header", "\"Diagram " + (row + 1) + "\"", cells[0]);
+			for (int col = 0; col < landscapes[row].length; col++) {
+				assertEquals("CSV value", landscapes[row][col], Double.parseDouble(cells[col + 1]), 0d);
+			}
+		}
+		final File unlabeled = folder.newFile("unlabeled.csv");
+		PersistenceFeatures.saveCSV(landscapes, null, unlabeled);
+		assertEquals("CSV header without labels", "F0,F1,F2,F3,F4,F5,F6,F7",
+				Files.readAllLines(unlabeled.toPath(), StandardCharsets.UTF_8).get(0));
+
+		final File bin = folder.newFile("features.bin");
+		PersistenceFeatures.saveBinary(landscapes, bin);
+		assertEquals("Binary size", 8 + 8 * 2 * 8, bin.length());
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(bin)))) {
+			assertEquals("Binary rows", landscapes.length, in.readInt());
+			assertEquals("Binary columns", landscapes[0].length, in.readInt());
+			for (final double[] row : landscapes) {
+				for (final double value : row) {
+					assertEquals("Binary value", value, in.readDouble(), 0d);
+				}
+			}
+		}
+	}
+
+	/* The boxed implementation PersistenceFeatures#landscape() replaced */
+	private static double[] referenceLandscape(final ArrayList<ArrayList<Double>> diagram, final int numLandscapes,
+			final int resolution) {
+		double minX = Double.MAX_VALUE;
+		double maxY = -Double.MAX_VALUE;
+		for (final ArrayList<Double> point : diagram) {
+			if (point.get(0) < minX) minX = point.get(0);
+			if (point.get(1) > maxY) maxY = point.get(1);
+		}
+		final double stepX = (maxY - minX) / resolution;
+		final double[][] ls = new double[numLandscapes][resolution];
+		final ArrayList<ArrayList<Double>> events = new ArrayList<>();
+		for (int j = 0; j < resolution; j++) {
+			events.add(new ArrayList<>());
+		}
+		for (final ArrayList<Double> point : diagram) {
+			final double px = point.get(0);
+			final double py = point.get(1);
+			final int minIndex = Math.min(Math.max((int) Math.ceil((px - minX) / stepX), 0), resolution);
+			final int midIndex = Math.min(Math.max((int) Math.ceil((0.5 * (py + px) - minX) / stepX), 0), resolution);
+			final int maxIndex = Math.min(Math.max((int) Math.ceil((py - minX) / stepX), 0), resolution);
+			if (minIndex < resolution && maxIndex > 0) {
+				double landscapeValue = minX + minIndex * stepX - px;
+				for (int k = minIndex; k < midIndex; k++) {
+					events.get(k).add(landscapeValue);
+					landscapeValue += stepX;
+				}
+				landscapeValue = py - minX - midIndex * stepX;
+				for (int k = midIndex; k < maxIndex; k++) {
+					events.get(k).add(landscapeValue);
+					landscapeValue -= stepX;
+				}
+			}
+		}
+		for (int j = 0; j < resolution; j++) {
+			events.get(j).sort(Collections.reverseOrder());
+			final int range = Math.min(numLandscapes, events.get(j).size());
+			for (int k = 0; k < range; k++) {
+				ls[k][j] = events.get(j).get(k);
+			}
+		}
+		final double[] landscape = Arrays.stream(ls).flatMapToDouble(Arrays::stream).toArray();
+		for (int i = 0; i < landscape.length; i++) {
+			landscape[i] *= Math.sqrt(2);
+		}
+		return landscape;
+	}
+
 }
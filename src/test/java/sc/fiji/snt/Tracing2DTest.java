@@ -41,6 +41,7 @@ import org.junit.Test;
 import org.scijava.Context;
 import sc.fiji.snt.filter.Frangi;
 import sc.fiji.snt.filter.Lazy;
+import sc.fiji.snt.filter.PersistentCellCache;
 import sc.fiji.snt.filter.Tubeness;
 import sc.fiji.snt.tracing.*;
 import sc.fiji.snt.tracing.cost.*;
@@ -48,6 +49,11 @@ import sc.fiji.snt.tracing.heuristic.Dijkstra;
 import sc.fiji.snt.tracing.heuristic.Euclidean;
 import sc.fiji.snt.tracing.heuristic.Heuristic;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 
 import static org.junit.Assert.*;
@@ -96,6 +102,22 @@ public class Tracing2DTest {
             default:
                 throw new IllegalArgumentException("Unknown heuristic type " + heuristicType);
         }
+        if (searchType == SNT.SearchType.MULTISCALE) {
+            return new MultiScaleSearch(img, cal, startX, startY, 0, endX, endY, 0, -1, 100, imageClass,
+                    cost, heuristic);
+        }
+        if (imageClass == SNT.SearchImageType.PACKED) {
+            switch (searchType) {
+                case ASTAR:
+                    return new PackedTracerThread(img, cal, startX, startY, 0, endX, endY, 0, -1, 100,
+                            cost, heuristic);
+                case NBASTAR:
+                    return new PackedBiSearch(img, cal, startX, startY, 0, endX, endY, 0, -1, 100,
+                            cost, heuristic);
+                default:
+                    throw new IllegalArgumentException("Unknown search type " + searchType);
+            }
+        }
         switch (searchType) {
             case ASTAR:
                 return new TracerThread(
@@ -174,6 +196,13 @@ public class Tracing2DTest {
         }
     }
 
+    @Test
+    public void testNodeSearchWithPackedType() {
+        // SearchNode-based searches fall back to array storage when PACKED is specified
+        searchTest(new TracerThread(img, cal, startX, startY, 0, endX, endY, 0, -1, 100,
+                SNT.SearchImageType.PACKED, new Reciprocal(stats.min, stats.max), new Euclidean(cal)), 191, 192);
+    }
+
     @Test
     public void testAstarAdmissibility() {
         AbstractSearch search = createSearch(
@@ -189,7 +218,8 @@ public class Tracing2DTest {
                 // SearchThread is not guaranteed to yield the optimal path,
                 // since it terminates as soon as the two opposing searches meet.
                 // So ignore it for now.
-                if (searchType == SNT.SearchType.ASTAR)
+                // The coarse-to-fine search trades optimality for speed.
+                if (searchType == SNT.SearchType.ASTAR || searchType == SNT.SearchType.MULTISCALE)
                     continue;
                 search = createSearch(
                         img,
@@ -278,4 +308,61 @@ public class Tracing2DTest {
         searchTest(search, 193, 194);
     }
 
+    @Test
+    public void testPersistentCellCache() throws IOException {
+        final ImagePlus imp = new ImagePlus(
+                Objects.requireNonNull(Tracing2DTest.class.getClassLoader().getResource("OP_1.tif")).getPath());
+        final String fingerprint = PersistentCellCache.fingerprint(imp);
+        assertNotNull(fingerprint);
+        assertEquals(fingerprint, PersistentCellCache.fingerprint(imp));
+        assertNull(PersistentCellCache.fingerprint(imp.crop())); // not backed by a file
+
+        // Room for ~3 cells of 60x60 floats
+        final long cellBytes = 60 * 60 * 4 + 13;
+        final PersistentCellCache cache = new PersistentCellCache(
+                Files.createTempDirectory("snt-cells").toFile(), 3 * cellBytes + 1);
+        try {
+            final String key = PersistentCellCache.key(fingerprint, "tubeness", 0.75);
+            for (int pass = 0; pass < 2; pass++) {
+                final RandomAccessibleInterval<FloatType> filtered = Lazy.process(img, img, new int[]{60, 60},
+                        new FloatType(), new Tubeness<>(new double[]{0.75}, spacing), cache, key);
+                for (final FloatType t : Views.iterable(filtered)) t.get();
+                assertTrue(cache.getSizeBytes() <= cache.getMaxBytes());
+            }
+            assertTrue(cache.getEvictions() > 0);
+            assertTrue(cache.getMisses() > 3);
+        } finally {
+            cache.clear();
+            cache.getDirectory().delete();
+        }
+
+        // With enough room, cells computed once are reused after the cache is reopened
+        final File directory = Files.createTempDirectory("snt-cells").toFile();
+        final PersistentCellCache firstSession = new PersistentCellCache(directory);
+        try {
+            final String key = PersistentCellCache.key(fingerprint, "tubeness", 0.75);
+            final List<Float> expected = new ArrayList<>();
+            for (final FloatType t : Views.flatIterable(Lazy.process(img, img, new int[]{60, 60}, new FloatType(),
+                    new Tubeness<>(new double[]{0.75}, spacing), firstSession, key))) {
+                expected.add(t.get());
+            }
+            assertEquals(0, firstSession.getHits());
+            assertTrue(firstSession.getMisses() > 0);
+            assertEquals(0, firstSession.getEvictions());
+
+            final PersistentCellCache secondSession = new PersistentCellCache(directory);
+            final List<Float> reused = new ArrayList<>();
+            for (final FloatType t : Views.flatIterable(Lazy.process(img, img, new int[]{60, 60}, new FloatType(),
+                    new Tubeness<>(new double[]{0.75}, spacing), secondSession, key))) {
+                reused.add(t.get());
+            }
+            assertTrue(secondSession.getHits() > 0);
+            assertEquals(0, secondSession.getMisses());
+            assertEquals(expected, reused);
+        } finally {
+            firstSession.clear();
+            directory.delete();
+        }
+    }
+
 }
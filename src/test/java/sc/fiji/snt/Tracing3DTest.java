@@ -27,6 +27,7 @@ import ij.measure.Calibration;
 import ij.process.ImageStatistics;
 import net.imagej.ops.OpService;
 import net.imagej.ops.special.computer.UnaryComputerOp;
+import net.imglib2.Interval;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.algorithm.stats.ComputeMinMax;
 import net.imglib2.img.Img;
@@ -46,8 +47,10 @@ import sc.fiji.snt.tracing.cost.*;
 import sc.fiji.snt.tracing.heuristic.Dijkstra;
 import sc.fiji.snt.tracing.heuristic.Euclidean;
 import sc.fiji.snt.tracing.heuristic.Heuristic;
+import sc.fiji.snt.util.PointInImage;
+import sc.fiji.snt.util.SNTPoint;
 
-import java.util.Objects;
+import java.util.*;
 
 import static org.junit.Assert.*;
 import static org.junit.Assume.assumeNotNull;
@@ -97,6 +100,22 @@ public class Tracing3DTest {
 			default:
 				throw new IllegalArgumentException("Unknown heuristic type " + heuristicType);
 		}
+		if (searchType == SNT.SearchType.MULTISCALE) {
+			return new MultiScaleSearch(img, cal, startX, startY, startZ, endX, endY, endZ, -1, 100, imageClass,
+					cost, heuristic);
+		}
+		if (imageClass == SNT.SearchImageType.PACKED) {
+			switch (searchType) {
+				case ASTAR:
+					return new PackedTracerThread(img, cal, startX, startY, startZ, endX, endY, endZ, -1, 100,
+							cost, heuristic);
+				case NBASTAR:
+					return new PackedBiSearch(img, cal, startX, startY, startZ, endX, endY, endZ, -1, 100,
+							cost, heuristic);
+				default:
+					throw new IllegalArgumentException("Unknown search type " + searchType);
+			}
+		}
 		switch (searchType) {
 			case ASTAR:
 				return new TracerThread(
@@ -189,7 +208,8 @@ public class Tracing3DTest {
 				// SearchThread is not guaranteed to yield the optimal path
 				// since it terminates as soon as the two opposing searches meet.
 				// So ignore it for now.
-				if (searchType == SNT.SearchType.ASTAR)
+				// The coarse-to-fine search trades optimality for speed.
+				if (searchType == SNT.SearchType.ASTAR || searchType == SNT.SearchType.MULTISCALE)
 					continue;
 				search = createSearch(
 						img,
@@ -202,6 +222,255 @@ public class Tracing3DTest {
 		}
 	}
 
+	@Test
+	public void testPackedSearchEquality() {
+		for (SNT.SearchType searchType : SNT.SearchType.values()) {
+			final AbstractSearch search = createSearch(img, new Reciprocal(stats.min, stats.max), searchType,
+					ARRAY, SNT.HeuristicType.EUCLIDEAN);
+			search.run();
+			final AbstractSearch packedSearch = createSearch(img, new Reciprocal(stats.min, stats.max), searchType,
+					SNT.SearchImageType.PACKED, SNT.HeuristicType.EUCLIDEAN);
+			packedSearch.run();
+			assertEquals(search.getResult().getLength(), packedSearch.getResult().getLength(), 1e-9);
+		}
+	}
+
+	@Test
+	public void testPackedFillerEquality() {
+		final AbstractSearch search = createSearch(img, new Reciprocal(stats.min, stats.max),
+				SNT.SearchType.NBASTAR, SNT.SearchImageType.PACKED, SNT.HeuristicType.EUCLIDEAN);
+		search.run();
+		final Set<Path> sourcePaths = Collections.singleton(search.getResult());
+		final double threshold = 0.02;
+		final FillerThread filler = new FillerThread(img, cal, threshold, 0, new Reciprocal(stats.min, stats.max));
+		final FillerThread packedFiller = new PackedFillerThread(img, cal, threshold, 0,
+				new Reciprocal(stats.min, stats.max));
+		final Map<String, Double> distances = new HashMap<>();
+		for (final FillerThread f : new FillerThread[]{filler, packedFiller}) {
+			f.setSourcePaths(sourcePaths);
+			f.setStopAtThreshold(true);
+			f.setStoreExtraNodes(false);
+			f.run();
+		}
+		for (final Fill.Node n : filler.getFill().getNodeList())
+			distances.put(n.x + "," + n.y + "," + n.z, n.distance);
+		final List<Fill.Node> packedNodes = packedFiller.getFill().getNodeList();
+		assertEquals(distances.size(), packedNodes.size());
+		for (final Fill.Node n : packedNodes) {
+			final Double distance = distances.get(n.x + "," + n.y + "," + n.z);
+			assertNotNull(distance);
+			assertEquals(distance, n.distance, 1e-9);
+		}
+	}
+
+	@Test
+	public void testParallelFillerEquality() {
+		final AbstractSearch search = createSearch(img, new Reciprocal(stats.min, stats.max),
+				SNT.SearchType.NBASTAR, SNT.SearchImageType.PACKED, SNT.HeuristicType.EUCLIDEAN);
+		search.run();
+		final Set<Path> sourcePaths = Collections.singleton(search.getResult());
+		final double threshold = 0.02;
+		// Serial fills (legacy and packed) are the reference
+		assertSameFill(new FillerThread(img, cal, threshold, 0, new Reciprocal(stats.min, stats.max)),
+				new ParallelFillerThread(img, cal, threshold, 0, 0, new Reciprocal(stats.min, stats.max), 2,
+						ParallelFillerThread.DEFAULT_BLOCK_SIZE), sourcePaths);
+		assertSameFill(new PackedFillerThread(img, cal, threshold, 0, new Reciprocal(stats.min, stats.max)),
+				new ParallelFillerThread(img, cal, threshold, 0, 0, new Reciprocal(stats.min, stats.max), 4, 16),
+				sourcePaths);
+	}
+
+	private void assertSameFill(final FillerThread filler, final ParallelFillerThread parallelFiller,
+								final Set<Path> sourcePaths)
+	{
+		final Map<String, Double> distances = new HashMap<>();
+		for (final FillerThread f : new FillerThread[]{filler, parallelFiller}) {
+			f.setSourcePaths(sourcePaths);
+			f.setStopAtThreshold(true);
+			f.setStoreExtraNodes(false);
+			f.run();
+		}
+		assertEquals(SearchThread.SUCCESS, parallelFiller.getExitReason());
+		for (final Fill.Node n : filler.getFill().getNodeList())
+			distances.put(n.x + "," + n.y + "," + n.z, n.distance);
+		final List<Fill.Node> parallelNodes = parallelFiller.getFill().getNodeList();
+		assertEquals(distances.size(), parallelNodes.size());
+		for (final Fill.Node n : parallelNodes) {
+			final Double distance = distances.get(n.x + "," + n.y + "," + n.z);
+			assertNotNull(distance);
+			assertEquals(distance, n.distance, 1e-9);
+			if (n.previous >= 0) assertTrue(parallelNodes.get(n.previous).distance <= n.distance);
+		}
+	}
+
+	@Test
+	public void testMultiScaleSearch() {
+		final AbstractSearch search = createSearch(img, new Reciprocal(stats.min, stats.max),
+				SNT.SearchType.NBASTAR, SNT.SearchImageType.PACKED, SNT.HeuristicType.EUCLIDEAN);
+		search.run();
+		final AbstractSearch multiScaleSearch = createSearch(img, new Reciprocal(stats.min, stats.max),
+				SNT.SearchType.MULTISCALE, SNT.SearchImageType.PACKED, SNT.HeuristicType.EUCLIDEAN);
+		multiScaleSearch.run();
+		final Path result = multiScaleSearch.getResult();
+		assertNotNull(result);
+		assertNotNull(((MultiScaleSearch) multiScaleSearch).getCoarseResult());
+		assertEquals(startX, result.getXUnscaled(0));
+		assertEquals(endX, result.getXUnscaled(result.size() - 1));
+		assertTrue(multiScaleSearch.pointsConsideredInSearch() < search.pointsConsideredInSearch());
+	}
+
+	@Test
+	public void testBoundedSearch() {
+		final Heuristic heuristic = new Euclidean(cal);
+		for (final SNT.SearchImageType type : SNT.SearchImageType.values()) {
+			final BoundedSearch.SearchFactory factory = corridor -> (type == SNT.SearchImageType.PACKED)
+					? new PackedBiSearch(corridor, cal, startX, startY, startZ, endX, endY, endZ, -1, 100,
+							new Reciprocal(stats.min, stats.max), heuristic)
+					: new BiSearch(corridor, cal, startX, startY, startZ, endX, endY, endZ, -1, 100, type,
+							new Reciprocal(stats.min, stats.max), heuristic);
+
+			final BoundedSearch search = new BoundedSearch(img, cal, startX, startY, startZ, endX, endY, endZ,
+					-1, 100, factory);
+			search.setPadding(2);
+			search.run();
+			final Path result = search.getResult();
+			assertNotNull(result);
+			assertEquals(SearchThread.SUCCESS, search.getExitReason());
+			final Interval corridor = search.getSearchInterval();
+			for (int i = 0; i < result.size(); i++) {
+				assertTrue(result.getXUnscaled(i) >= corridor.min(0) && result.getXUnscaled(i) <= corridor.max(0));
+				assertTrue(result.getYUnscaled(i) >= corridor.min(1) && result.getYUnscaled(i) <= corridor.max(1));
+				assertTrue(result.getZUnscaled(i) >= corridor.min(2) && result.getZUnscaled(i) <= corridor.max(2));
+			}
+
+			final BoundedSearch budgetedSearch = new BoundedSearch(img, cal, startX, startY, startZ, endX, endY,
+					endZ, -1, 100, factory);
+			budgetedSearch.setNodeBudget(100);
+			budgetedSearch.run();
+			assertNull(budgetedSearch.getResult());
+			assertEquals(SearchThread.NODE_BUDGET_EXCEEDED, budgetedSearch.getExitReason());
+		}
+	}
+
+	@Test
+	public void testCostVolumeCache() {
+		final Reciprocal cost = new Reciprocal(stats.min, stats.max);
+		final CostVolumeCache cache = new CostVolumeCache();
+		final RandomAccessibleInterval<FloatType> volume = cache.get(img, SNT.CostType.RECIPROCAL, cost,
+				stats.min, stats.max);
+		assertSame(volume, cache.get(img, SNT.CostType.RECIPROCAL, cost, stats.min, stats.max));
+		assertEquals(1, cache.size());
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+
+		for (final SNT.SearchImageType type : SNT.SearchImageType.values()) {
+			final AbstractSearch search = createSearch(img, cost, SNT.SearchType.NBASTAR, type,
+					SNT.HeuristicType.EUCLIDEAN);
+			search.run();
+			final AbstractSearch cachedSearch = createSearch(volume, new CachedCost(cost), SNT.SearchType.NBASTAR,
+					type, SNT.HeuristicType.EUCLIDEAN);
+			cachedSearch.run();
+			assertNotNull(search.getResult());
+			assertNotNull(cachedSearch.getResult());
+			// Costs are stored with single precision
+			assertEquals(search.getResult().getLength(), cachedSearch.getResult().getLength(),
+					0.01 * search.getResult().getLength());
+		}
+		cache.clear();
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testCostVolumeCacheUsedByTracing() {
+		final Context context = new Context();
+		try {
+			final SNT snt = createHeadlessSNT(context);
+			snt.setUseCostVolumeCache(true);
+			final List<List<SNTPoint>> firstSegment = Collections.singletonList(
+					Arrays.asList(worldPoint(startX, startY, startZ), worldPoint(250, 300, 20)));
+			final List<List<SNTPoint>> secondSegment = Collections.singletonList(
+					Arrays.asList(worldPoint(250, 300, 20), worldPoint(endX, endY, endZ)));
+
+			// Local statistics (the default) differ for every search: the cache is bypassed
+			assertTrue("Sub-volume statistics are the default", snt.getUseSubVolumeStats());
+			assertNotNull(snt.autoTraceHeadless(firstSegment, null, 1).get(0));
+			assertEquals(0, snt.getCostVolumeCache().size());
+
+			// With image-wide statistics, the volume is reused by different segments
+			snt.setUseSubVolumeStats(false);
+			snt.getStats().min = stats.min;
+			snt.getStats().max = stats.max;
+			final Path firstPath = snt.autoTraceHeadless(firstSegment, null, 1).get(0);
+			assertNotNull(firstPath);
+			assertEquals("Cost volume created by tracing", 1, snt.getCostVolumeCache().getMisses());
+			final Path secondPath = snt.autoTraceHeadless(secondSegment, null, 1).get(0);
+			assertNotNull(secondPath);
+			assertEquals("Cost volume reused by a different segment", 1, snt.getCostVolumeCache().getHits());
+			assertEquals(1, snt.getCostVolumeCache().getMisses());
+			assertEquals(1, snt.getCostVolumeCache().size());
+
+			// Costs are stored with single precision
+			snt.setUseCostVolumeCache(false);
+			final Path uncachedPath = snt.autoTraceHeadless(secondSegment, null, 1).get(0);
+			assertEquals(uncachedPath.getLength(), secondPath.getLength(), 0.01 * uncachedPath.getLength());
+		} finally {
+			context.dispose();
+		}
+	}
+
+	@Test
+	public void testParallelAutoTrace() {
+		final Context context = new Context();
+		try {
+			final SNT snt = createHeadlessSNT(context);
+			final List<List<SNTPoint>> pointLists = Arrays.asList(
+					Arrays.asList(worldPoint(startX, startY, startZ), worldPoint(250, 300, 20),
+							worldPoint(endX, endY, endZ)),
+					Arrays.asList(worldPoint(endX, endY, endZ), worldPoint(startX, startY, startZ)),
+					Arrays.asList(worldPoint(100, 400, 5), worldPoint(250, 300, 20), worldPoint(300, 250, 30),
+							worldPoint(endX, endY, endZ)));
+			final List<Path> sequential = snt.autoTraceHeadless(pointLists, null, 1);
+			final List<Path> parallel = snt.autoTraceHeadless(pointLists, null, 4);
+			final List<Path> service = context.getService(SNTService.class).autoTrace(pointLists);
+			assertEquals(pointLists.size(), sequential.size());
+			for (final List<Path> paths : Arrays.asList(parallel, service)) {
+				assertEquals(sequential.size(), paths.size());
+				for (int i = 0; i < sequential.size(); i++) {
+					final Path expected = sequential.get(i);
+					final Path actual = paths.get(i);
+					assertNotNull(expected);
+					assertNotNull(actual);
+					assertEquals("# Nodes of path " + i, expected.size(), actual.size());
+					for (int n = 0; n < expected.size(); n++) {
+						assertTrue("Node " + n + " of path " + i, expected.getNode(n).isSameLocation(actual.getNode(n)));
+					}
+				}
+			}
+			// Paths follow the order of the lists
+			for (int i = 0; i < pointLists.size(); i++) {
+				final List<SNTPoint> points = pointLists.get(i);
+				final Path path = parallel.get(i);
+				assertEquals(points.get(0).getX(), path.getNode(0).getX(), cal.pixelWidth);
+				assertEquals(points.get(points.size() - 1).getY(), path.getNode(path.size() - 1).getY(),
+						cal.pixelHeight);
+			}
+		} finally {
+			context.dispose();
+		}
+	}
+
+	/* An SNT instance holding image data without display canvases, usable in headless runs */
+	private SNT createHeadlessSNT(final Context context) {
+		final ImagePlus imp = new ImagePlus(
+				Objects.requireNonNull(getClass().getClassLoader().getResource("OP_1.tif")).getPath());
+		final SNT snt = new SNT(context, imp);
+		snt.reloadImage(1, 1);
+		return snt;
+	}
+
+	private PointInImage worldPoint(final int x, final int y, final int z) {
+		return new PointInImage(x * cal.pixelWidth, y * cal.pixelHeight, z * cal.pixelDepth);
+	}
+
 	private void filterTest(final RandomAccessibleInterval<FloatType> filteredImg, final Reciprocal cost,
 							final double reductionFactor)
 	{
@@ -275,4 +544,68 @@ public class Tracing3DTest {
 		searchTest(search, 230.1, 230.2);
 	}
 
+	@Test
+	public void testSearchMetrics() {
+		final SearchMetrics total = new SearchMetrics();
+		for (final SNT.SearchImageType imageType : new SNT.SearchImageType[]{ARRAY, SNT.SearchImageType.PACKED}) {
+			final AbstractSearch search = createSearch(img, new Reciprocal(stats.min, stats.max),
+					SNT.SearchType.NBASTAR, imageType, SNT.HeuristicType.EUCLIDEAN);
+			assertNull(search.getMetrics());
+			search.setMetricsEnabled(true);
+			search.run();
+			assertNotNull(search.getResult());
+			final SearchMetrics metrics = search.getMetrics();
+			assertEquals(1, metrics.getSearches());
+			assertTrue(metrics.getNodesExpanded() > 0);
+			assertEquals(metrics.getNodesExpanded(), metrics.getHeapDeletions());
+			assertTrue(metrics.getHeapInsertions() >= metrics.getNodesExpanded());
+			assertEquals(search.pointsConsideredInSearch(), metrics.getPeakNodes());
+			assertTrue(metrics.getTime(SearchMetrics.Phase.SEARCH) > 0);
+			total.add(metrics);
+		}
+		assertEquals(2, total.getSearches());
+		assertEquals(1, total.toTable().getRowCount());
+	}
+
+	@Test
+	public void testSearchMetricsCellLoading() throws InterruptedException {
+		// Cells computed by another thread while searching are not credited to the search
+		final RandomAccessibleInterval<FloatType> other = createLazyGauss();
+		final long[] otherCells = { 0 };
+		final Thread loader = new Thread(() -> {
+			for (final FloatType t : Views.iterable(other)) t.get();
+			otherCells[0] = Lazy.getCellsLoadedByCurrentThread();
+		});
+		final AbstractSearch search = createSearch(img, new Reciprocal(stats.min, stats.max),
+				SNT.SearchType.ASTAR, ARRAY, SNT.HeuristicType.EUCLIDEAN);
+		search.setMetricsEnabled(true);
+		loader.start();
+		search.run();
+		loader.join();
+		assertTrue(otherCells[0] > 0);
+		assertEquals(0, search.getMetrics().getCellsLoaded());
+		assertEquals(0, search.getMetrics().getTime(SearchMetrics.Phase.CELL_LOADING), 0);
+
+		// Whereas cells computed by the search itself are
+		final AbstractSearch lazySearch = createSearch(createLazyGauss(), new Reciprocal(stats.min, stats.max),
+				SNT.SearchType.ASTAR, ARRAY, SNT.HeuristicType.EUCLIDEAN);
+		lazySearch.setMetricsEnabled(true);
+		final long cellsBefore = Lazy.getCellsLoadedByCurrentThread();
+		lazySearch.run();
+		assertNotNull(lazySearch.getResult());
+		assertTrue(lazySearch.getMetrics().getCellsLoaded() > 0);
+		assertEquals(Lazy.getCellsLoadedByCurrentThread() - cellsBefore, lazySearch.getMetrics().getCellsLoaded());
+	}
+
+	private RandomAccessibleInterval<FloatType> createLazyGauss() {
+		return Lazy.process(
+				img,
+				img,
+				new int[]{60, 60, 60},
+				new FloatType(),
+				opService,
+				net.imagej.ops.filter.gauss.DefaultGaussRAI.class,
+				(Object) new double[]{0.5, 0.5, 0.5});
+	}
+
 }
@@ -24,12 +24,20 @@ package sc.fiji.snt;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.junit.Assume.assumeNotNull;
 
+import java.util.List;
+
 import org.junit.Before;
 import org.junit.Test;
 
+import sc.fiji.snt.analysis.MeasurementEngine;
+import sc.fiji.snt.analysis.MultiTreeStatistics;
+import sc.fiji.snt.analysis.StrahlerAnalyzer;
+import sc.fiji.snt.analysis.TopologyEngine;
 import sc.fiji.snt.analysis.TreeAnalyzer;
+import sc.fiji.snt.util.PointInImage;
 
 /**
  * Tests for {@link TreeAnalyzer} and geometric transformations of {@link Tree}s
@@ -106,4 +114,90 @@ public class TreeAnalyzerTest {
 		}
 	}
 
+	@Test
+	public void testNodeAccess() {
+		final List<PointInImage> nodes = tree.getNodes();
+		assertEquals("# Nodes", nodes.size(), tree.getNodesCount());
+		final double[] coords = new double[3 * tree.getNodesCount()];
+		assertEquals("# Copied nodes", nodes.size(), tree.copyNodeCoordinates(coords));
+		final NodeCursor cursor = tree.cursor();
+		int i = 0;
+		while (cursor.next()) {
+			final PointInImage node = nodes.get(i);
+			assertEquals(node, cursor.getNode());
+			assertEquals(node.x, cursor.getX(), 0d);
+			assertEquals(node.y, coords[3 * i + 1], 0d);
+			assertEquals(node.z, cursor.getPath().getNodeZ(cursor.getIndex()), 0d);
+			i++;
+		}
+		assertEquals("# Visited nodes", nodes.size(), i);
+		final Path path = tree.list().get(0);
+		assertEquals(path.getNode(0).distanceTo(path.getNode(1)), path.distanceBetweenNodes(0, 1), precision);
+		assertEquals(path.getNode(1), path.nearestNodeTo(path.getNode(1), 0.1));
+		final double[] radii = new double[path.size() + 1];
+		assertEquals(path.size(), path.copyNodeRadii(radii, 1));
+		assertEquals(path.getNodeRadius(0), radii[1], 0d);
+		for (final int offset : new int[] { -1, 2 }) {
+			try {
+				path.copyNodeRadii(radii, offset);
+				fail("Radii copied out of bounds from offset " + offset);
+			} catch (final IndexOutOfBoundsException expected) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testGraphCache() {
+		final long version = tree.getModificationCount();
+		final Object graph = tree.getGraph();
+		assertTrue("Cached graph", graph == tree.getGraph());
+		assertTrue("Cached simplified graph", tree.getGraph(true) == tree.getGraph(true));
+		assertEquals("# Tips", analyzer.getTips().size(), tree.getGraphTips().size());
+		assertEquals("# Branch points", analyzer.getBranchPoints().size(), tree.getGraphBranchPoints().size());
+		final Path path = tree.list().get(tree.size() - 1);
+		final PointInImage tip = path.getNode(path.size() - 1);
+		path.moveNode(path.size() - 1, new PointInImage(tip.x + 1, tip.y, tip.z));
+		assertTrue("Graph invalidated by path edit", graph != tree.getGraph());
+		assertTrue("Modification count", tree.getModificationCount() > version);
+	}
+
+	@Test
+	public void testMeasurementEngine() {
+		final List<String> metrics = MultiTreeStatistics.getAllMetrics();
+		final Number[] values = new MeasurementEngine(metrics).measure(tree);
+		assertEquals("# Values", metrics.size(), values.length);
+		for (int i = 0; i < values.length; i++) {
+			final Number expected = new TreeAnalyzer(tree).getMetric(metrics.get(i));
+			assertEquals(metrics.get(i), expected.doubleValue(), values[i].doubleValue(), 0d);
+		}
+	}
+
+	@Test
+	public void testTopologyEngine() {
+		final StrahlerAnalyzer sAnalyzer = analyzer.getStrahlerAnalyzer();
+		final TopologyEngine topology = sAnalyzer.getTopology();
+		final List<Path> branches = analyzer.getBranches();
+		assertEquals("# Branches", branches.size(), topology.getNBranches());
+		double length = 0;
+		double contraction = 0;
+		double fragmentation = 0;
+		for (final Path branch : branches) {
+			length += branch.getLength();
+			if (!Double.isNaN(branch.getContraction())) contraction += branch.getContraction();
+			fragmentation += branch.size();
+		}
+		assertEquals("Avg branch length", length / branches.size(), analyzer.getAvgBranchLength(), precision);
+		assertEquals("Avg contraction", contraction / branches.size(), analyzer.getAvgContraction(), precision);
+		assertEquals("Avg fragmentation", fragmentation / branches.size(), analyzer.getAvgFragmentation(), precision);
+		int nBranches = 0;
+		for (int order = 1; order <= sAnalyzer.getRootNumber(); order++) {
+			nBranches += sAnalyzer.getBranchCounts().get(order).intValue();
+			assertEquals("Order " + order + " branches", sAnalyzer.getBranches().get(order).size(),
+					topology.getNBranches(order));
+		}
+		assertEquals("# Branches by order", topology.getNBranches(), nBranches);
+		assertEquals("Root number", topology.getStrahlerOrder(0), sAnalyzer.getRootNumber());
+	}
+
 }
@@ -22,18 +22,23 @@
 
 package sc.fiji.snt;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assume.assumeNotNull;
 
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.junit.Before;
 import org.junit.Test;
 
+import sc.fiji.snt.analysis.MultiTreeStatistics;
 import sc.fiji.snt.analysis.TreeStatistics;
 import sc.fiji.snt.annotation.AllenUtils;
 import sc.fiji.snt.annotation.BrainAnnotation;
@@ -71,4 +76,44 @@ public class TreeStatisticsTest {
 		}
 	}
 
+	@Test
+	public void testParallelGroupStats() {
+		final List<Tree> group = new SNTService().demoTrees();
+		final MultiTreeStatistics sequential = new MultiTreeStatistics(group);
+		final MultiTreeStatistics parallel = new MultiTreeStatistics(group);
+		parallel.setParallel(true);
+		final List<String> metrics = MultiTreeStatistics.getMetrics();
+		final Map<String, DescriptiveStatistics> batch = parallel.getDescriptiveStats(metrics);
+		for (final String metric : metrics) {
+			final double[] expected = sequential.getDescriptiveStats(metric).getValues();
+			assertArrayEquals(metric, expected, parallel.getDescriptiveStats(metric).getValues(), 0d);
+			assertArrayEquals(metric, expected, batch.get(metric).getValues(), 0d);
+			assertEquals(metric, sequential.getSummaryStats(metric).getMean(),
+					parallel.getSummaryStats(metric).getMean(), 0d);
+		}
+	}
+
+	@Test
+	public void testGroupStatsTrackEdits() {
+		final List<Tree> group = new SNTService().demoTrees();
+		final MultiTreeStatistics stats = new MultiTreeStatistics(group);
+		final String metric = MultiTreeStatistics.LENGTH;
+		final DescriptiveStatistics batch = stats.getDescriptiveStats(Collections.singletonList(metric)).get(metric);
+		final double[] lengths = batch.getValues();
+
+		// Returned statistics are copies: Altering them does not affect cached values
+		batch.addValue(-1);
+		stats.getDescriptiveStats(metric).addValue(-1);
+		assertArrayEquals(lengths, stats.getDescriptiveStats(metric).getValues(), 0d);
+
+		// Cached values are discarded once a Tree is edited
+		group.get(0).scale(2, 2, 2);
+		final double[] edited = stats.getDescriptiveStats(metric).getValues();
+		assertEquals(lengths.length, edited.length);
+		assertEquals(2 * lengths[0], edited[0], precision);
+		for (int i = 1; i < lengths.length; i++)
+			assertEquals(lengths[i], edited[i], 0d);
+		assertEquals(2 * lengths[0], stats.getDescriptiveStats(Collections.singletonList(metric)).get(metric).getValues()[0], precision);
+	}
+
 }
@@ -345,4 +345,31 @@ public class DirectedWeightedGraphTest {
 				v2.distanceTo(v4), changedAnalyzer.getCableLength(), precision);
 	}
 
+	@Test
+	public void testSubtreeAggregates() {
+		final SubtreeAggregates aggregates = graph.getSubtreeAggregates();
+		final SWCPoint root = graph.getRoot();
+		assertEquals(graph.vertexSet().size(), aggregates.size());
+		assertEquals(graph.vertexSet().size(), aggregates.getNodeCount(root));
+		assertEquals(graph.getTips().size(), aggregates.getTipCount(root));
+		assertEquals(graph.sumEdgeWeights(), aggregates.getCableLength(root), precision);
+		assertEquals(graph.getLongestPath(true).getLength(), aggregates.getMaxPathDistance(root), precision);
+		for (final SWCPoint bp : graph.getBPs()) {
+			assertEquals(Graphs.successorListOf(graph, bp), aggregates.getChildren(bp));
+			int nTips = 0;
+			int nNodes = 0;
+			final Iterator<SWCPoint> it = graph.getDepthFirstIterator(bp);
+			while (it.hasNext()) {
+				nNodes++;
+				if (graph.outDegreeOf(it.next()) == 0) nTips++;
+			}
+			assertEquals(nTips, aggregates.getTipCount(bp));
+			assertEquals(nNodes, aggregates.getNodeCount(bp));
+		}
+		final DirectedWeightedGraph sGraph = graph.getSimplifiedGraph();
+		final SubtreeAggregates sAggregates = sGraph.getSubtreeAggregates();
+		assertEquals(aggregates.getCableLength(root), sAggregates.getCableLength(sGraph.getRoot()), precision);
+		assertEquals(aggregates.getTipCount(root), sAggregates.getTipCount(sGraph.getRoot()));
+	}
+
 }
@@ -26,6 +26,7 @@ import org.json.JSONArray;
 import org.json.JSONObject;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
@@ -44,6 +45,27 @@ public class AllenUtilsTest {
         assertEquals(1327, ontologies.size());
     }
 
+    @Test
+    public void testOntologyIndex() {
+        final List<AllenCompartment> ontologies = AllenUtils.getOntologies();
+        for (final AllenCompartment c : ontologies) {
+            assertSame(c, AllenUtils.getCompartment(c.id()));
+            final AllenCompartment byName = AllenUtils.getCompartment(c.name().toUpperCase());
+            assertTrue(c.name().equalsIgnoreCase(byName.name()) || c.name().equalsIgnoreCase(byName.acronym()));
+            final List<String> path = new ArrayList<>();
+            for (final AllenCompartment ancestor : c.getTreePath()) {
+                path.add(String.valueOf(ancestor.id()));
+                assertTrue(ancestor == c || c.isChildOf(ancestor));
+                assertTrue(ancestor == c || ancestor.isParentOf(c));
+            }
+            assertEquals(c.getStructureIdPath(), "/" + String.join("/", path) + "/");
+            assertEquals(c.getOntologyDepth(), c.getTreePath().size() - 1);
+            for (final AllenCompartment child : c.getChildren(1)) {
+                assertEquals(c, child.getParent());
+            }
+        }
+    }
+
     @Test
     public void testGetBrainAreasList() {
         final JSONArray brainAreasList = AllenUtils.getBrainAreasList();
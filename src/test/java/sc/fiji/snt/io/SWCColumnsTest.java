@@ -0,0 +1,194 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2021 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.io;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link SWCColumns}
+ */
+public class SWCColumnsTest {
+
+	private static SWCColumns parse(final String swc, final int... types) throws IOException {
+		return SWCColumns.read(new StringReader(swc), types);
+	}
+
+	@Test
+	public void testNumbers() throws IOException {
+		final SWCColumns c = parse("1 1 1.5e2 -2.5E-3 +3 0.25 -1\n" +
+			"2 3 -0 1e0 .5 nan 1\n" +
+			"3 3 12345678901234567890 1e-30 123.456789012345678 2.0 +2\n");
+		assertEquals(3, c.size());
+		assertEquals(150, c.getX(0), 0);
+		assertEquals(-0.0025, c.getY(0), 0);
+		assertEquals(3, c.getZ(0), 0);
+		assertEquals(0.25, c.getRadius(0), 0);
+		assertEquals(-1, c.getParent(0));
+		assertEquals(Double.doubleToLongBits(-0d), Double.doubleToLongBits(c.getX(1)));
+		assertEquals(0.5, c.getZ(1), 0);
+		assertEquals(0, c.getRadius(1), 0); // unparseable radius
+		assertEquals(1.2345678901234567e19, c.getX(2), 0);
+		assertEquals(1e-30, c.getY(2), 0);
+		assertEquals(123.456789012345678, c.getZ(2), 0);
+		assertEquals(2, c.getParent(2));
+	}
+
+	@Test
+	public void testParseDoubleMatchesJDK() {
+		final Random random = new Random(42);
+		for (int i = 0; i < 100000; i++) {
+			final String s;
+			switch (i % 4) {
+				case 0:
+					s = Double.toString(random.nextGaussian() * 1000);
+					break;
+				case 1:
+					s = String.format(Locale.US, "%.6f", random.nextDouble() * 1e4 - 5e3);
+					break;
+				case 2:
+					s = String.format(Locale.US, "%.3e", random.nextGaussian() * Math.pow(10, random.nextInt(40) - 20));
+					break;
+				default:
+					s = Long.toString(random.nextLong() >> random.nextInt(64)) + "." + random.nextInt(1000);
+			}
+			final char[] chars = s.toCharArray();
+			assertEquals(s, Double.doubleToLongBits(Double.parseDouble(s)),
+				Double.doubleToLongBits(SWCColumns.parseDouble(chars, 0, chars.length)));
+		}
+	}
+
+	@Test
+	public void testCommentsAndLineEndings() throws IOException {
+		final String swc = "# header\r\n" +
+			"\r\n" +
+			"   \t \n" +
+			"1 1 0 0 0 1 -1 # soma\r\n" +
+			"#2 3 0 0 0 1 1\n" +
+			"2\t3\t1\t2\t3\t0.5\t1\textra fields\tare ignored\r\n" +
+			"3 3 4 5 6 0.5 2"; // no line terminator
+		final SWCColumns c = parse(swc);
+		assertEquals(3, c.size());
+		assertEquals(2, c.getId(1));
+		assertEquals(3, c.getZ(1), 0);
+		assertEquals(2, c.getParent(2));
+		assertEquals(1, parse(swc, 1).size());
+	}
+
+	@Test
+	public void testOverlongLines() throws IOException {
+		final StringBuilder sb = new StringBuilder("1 1 0 0 0 1 -1 #");
+		for (int i = 0; i < 200000; i++)
+			sb.append('x');
+		sb.append("\n2 3 1 1 1 1 1");
+		for (int i = 0; i < 100000; i++)
+			sb.append(' ');
+		sb.append("\n");
+		final SWCColumns c = parse(sb.toString());
+		assertEquals(2, c.size());
+		assertEquals(1, c.getParent(1));
+	}
+
+	@Test
+	public void testMalformedRows() throws IOException {
+		for (final String row : new String[] { "1 1 0 0 0 1", "1 1 0 x 0 1 -1", "1.5 1 0 0 0 1 -1",
+			"1 1 0 0 0 1 -1.0", "1 1 0 0 1e 1 -1", "1 1 0 0 - 1 -1" })
+		{
+			try {
+				parse("# comment\n" + row + "\n");
+				fail("Malformed row accepted: " + row);
+			}
+			catch (final IllegalArgumentException expected) {
+				assertTrue(expected.getMessage().contains(row));
+			}
+		}
+	}
+
+	@Test
+	public void testSortingAndParents() throws IOException {
+		final SWCColumns c = parse("5 3 5 0 0 1 3\n" + "1 1 1 0 0 1 -1\n" + "3 3 3 0 0 1 1\n" +
+			"3 3 99 0 0 1 1\n" + "7 3 7 0 0 1 42\n");
+		final SWCColumns sorted = c.sortedById();
+		assertEquals(4, sorted.size());
+		assertArrayEquals(new double[] { 1, 3, 5, 7 }, new double[] { sorted.getX(0), sorted.getX(1),
+			sorted.getX(2), sorted.getX(3) }, 0); // first duplicate retained
+		assertSame(sorted, sorted.sortedById());
+		assertArrayEquals(new int[] { -1, 0, 1, -1 }, sorted.parentIndices());
+
+		// Sparse ids are resolved by binary search
+		final SWCColumns sparse = parse("1 1 0 0 0 1 -1\n" + "100000 3 0 0 0 1 1\n" +
+			"200000 3 0 0 0 1 100000\n" + "300000 3 0 0 0 1 5\n");
+		assertArrayEquals(new int[] { -1, 0, 1, -1 }, sparse.sortedById().parentIndices());
+	}
+
+	@Test
+	public void testFixedFormattingMatchesFormatter() {
+		final Random random = new Random(42);
+		final double[] special = { 0, -0d, 0.5e-6, 1.5e-6, 2.5e-6, 0.0000005, 1.0000005, 123.4564995,
+			-123.4565005, 999999999.9999995, 1e9, -1e12, Double.NaN, Double.POSITIVE_INFINITY, 0.1, 0.7,
+			1e-7, -1e-7 };
+		for (final double v : special)
+			assertFormatted(v);
+		for (int i = 0; i < 200000; i++) {
+			switch (i % 3) {
+				case 0:
+					assertFormatted(random.nextGaussian() * Math.pow(10, random.nextInt(12) - 4));
+					break;
+				case 1: // exact ties in decimal
+					assertFormatted((random.nextInt(2000000000) + 0.5) / 1e6 - 500);
+					break;
+				default: // values read from SWC files with 7 decimal places
+					assertFormatted(Double.parseDouble(String.format(Locale.US, "%.7f", random.nextDouble() * 2000)));
+			}
+		}
+	}
+
+	private static void assertFormatted(final double v) {
+		final StringBuilder sb = new StringBuilder();
+		SWCColumns.appendFixed6(sb, v);
+		assertEquals(String.format(Locale.US, "%.6f", v), sb.toString());
+	}
+
+	@Test
+	public void testWriteRoundTrip() throws IOException {
+		final SWCColumns c = new SWCColumns(1);
+		c.add(1, 1, 1.25, -2.5, 3, 0.5, -1);
+		c.add(2, 3, 1e-7, 1234.5678904, -0d, 0, 1);
+		final StringWriter writer = new StringWriter();
+		c.write(writer);
+		final String nl = System.lineSeparator();
+		assertEquals("1\t1\t1.250000 -2.500000 3.000000 0.500000\t-1" + nl +
+			"2\t3\t0.000000 1234.567890 -0.000000 0.000000\t1" + nl, writer.toString());
+		final SWCColumns read = parse(writer.toString());
+		assertEquals(2, read.size());
+		assertEquals(1234.56789, read.getY(1), 0);
+	}
+
+}
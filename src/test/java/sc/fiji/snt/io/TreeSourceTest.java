@@ -0,0 +1,255 @@
+/*-
+ * #%L
+ * Fiji distribution of ImageJ for the life sciences.
+ * %%
+ * Copyright (C) 2010 - 2021 Fiji developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #L%
+ */
+
+package sc.fiji.snt.io;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import sc.fiji.snt.Path;
+import sc.fiji.snt.PathAndFillManager;
+import sc.fiji.snt.SNTService;
+import sc.fiji.snt.Tree;
+import sc.fiji.snt.analysis.MultiTreeStatistics;
+import sc.fiji.snt.analysis.TreeStatistics;
+
+/**
+ * Tests for {@link TreeSource}
+ */
+public class TreeSourceTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File[] validFiles;
+
+	@Before
+	public void setUp() throws IOException {
+		final List<Tree> trees = new SNTService().demoTrees();
+		final File dir = folder.newFolder("swc");
+		for (int i = 0; i < trees.size(); i++)
+			assertTrue(trees.get(i).saveAsSWC(new File(dir, String.format("tree-%02d.swc", i)).getAbsolutePath()));
+		validFiles = dir.listFiles();
+		Arrays.sort(validFiles, Comparator.comparing(File::getName));
+		assertTrue(validFiles.length >= trees.size());
+	}
+
+	private File garbageFile() throws IOException {
+		final File file = folder.newFile("garbage.swc");
+		Files.write(file.toPath(), "1 1 not an swc file\n".getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	private static List<String> describe(final Iterable<Tree> trees) {
+		final List<String> list = new ArrayList<>();
+		for (final Tree tree : trees)
+			list.add(tree.getLabel() + ":" + tree.getNodesCount());
+		return list;
+	}
+
+	@Test
+	public void testMultiplePasses() {
+		final TreeSource source = new TreeSource(validFiles).setConcurrency(3).setPrefetch(2);
+		final List<String> firstPass = describe(source);
+		assertEquals(validFiles.length, firstPass.size());
+		assertEquals(firstPass, describe(source));
+		assertEquals(firstPass, describe(source.readAll()));
+		assertEquals(firstPass, describe(source.asCollection()));
+		assertEquals(validFiles.length, source.asCollection().size());
+		final List<String> streamed = new ArrayList<>();
+		try (Stream<Tree> stream = source.stream()) {
+			stream.forEach(t -> streamed.add(t.getLabel() + ":" + t.getNodesCount()));
+		}
+		assertEquals(firstPass, streamed);
+	}
+
+	@Test
+	public void testUnreadableFilesAreSkipped() throws IOException {
+		final File missing = new File(folder.getRoot(), "missing.swc");
+		final File garbage = garbageFile();
+		final List<File> files = new ArrayList<>(Arrays.asList(validFiles));
+		files.add(1, garbage);
+		files.add(missing);
+		final List<File> failed = new ArrayList<>();
+		final TreeSource source = new TreeSource(files.toArray(new File[0]))
+				.setProgressListener((file, success, read, count) -> {
+					if (!success) failed.add(file);
+				});
+		assertEquals(describe(new TreeSource(validFiles)), describe(source));
+		assertEquals(2, failed.size());
+		assertTrue(failed.contains(garbage));
+		assertTrue(failed.contains(missing));
+	}
+
+	@Test
+	public void testFileOrder() {
+		// Later files are made to finish first: results must still follow file order
+		final List<File> reversed = new ArrayList<>(Arrays.asList(validFiles));
+		Collections.reverse(reversed);
+		final File[] files = reversed.toArray(new File[0]);
+		final List<String> expected = new ArrayList<>();
+		for (final File f : files)
+			expected.add(f.getName().replace(".swc", ""));
+		final TreeSource source = new TreeSource(files).setConcurrency(4).setIOConcurrency(3).setPrefetch(files.length);
+		final List<String> labels = new ArrayList<>();
+		source.readAll().forEach(t -> labels.add(t.getLabel()));
+		assertEquals(expected, labels);
+	}
+
+	@Test
+	public void testReadAllWithFailingFiles() throws IOException {
+		final File garbage = garbageFile();
+		final File[] files = { garbage, validFiles[0], garbage, validFiles[1], garbage };
+		final List<Tree> trees = new TreeSource(files).setConcurrency(2).readAll();
+		assertEquals(2, trees.size());
+		assertEquals(validFiles[0].getName().replace(".swc", ""), trees.get(0).getLabel());
+		assertEquals(validFiles[1].getName().replace(".swc", ""), trees.get(1).getLabel());
+	}
+
+	@Test
+	public void testProgress() throws IOException {
+		final File[] files = Arrays.copyOf(validFiles, validFiles.length + 1);
+		files[validFiles.length] = garbageFile();
+		final List<Integer> progress = new ArrayList<>();
+		final AtomicInteger failures = new AtomicInteger();
+		new TreeSource(files).setConcurrency(3).setProgressListener((file, success, read, count) -> {
+			assertEquals(files.length, count);
+			progress.add(read);
+			if (!success) failures.incrementAndGet();
+		}).readAll();
+		final List<Integer> expected = new ArrayList<>();
+		for (int i = 1; i <= files.length; i++)
+			expected.add(i);
+		assertEquals(expected, progress); // calls are serialized and counts monotonic
+		assertEquals(1, failures.get());
+	}
+
+	@Test
+	public void testCancelAndInterrupt() {
+		final File[] files = new File[20 * validFiles.length];
+		for (int i = 0; i < files.length; i++)
+			files[i] = validFiles[i % validFiles.length];
+
+		final TreeSource source = new TreeSource(files).setConcurrency(1).setIOConcurrency(1).setPrefetch(1);
+		source.setProgressListener((file, success, read, count) -> {
+			if (read == 2) source.cancel();
+		});
+		final List<Tree> trees = source.readAll();
+		assertTrue(source.isCancelled());
+		assertTrue(trees.size() < files.length);
+		assertTrue(source.readAll().isEmpty()); // cancelled sources yield no further trees
+		assertFalse(source.iterator().hasNext());
+
+		Thread.currentThread().interrupt();
+		try {
+			assertTrue(new TreeSource(files).readAll().size() < files.length);
+			assertTrue(Thread.interrupted()); // interrupt status is preserved (and cleared here)
+		} finally {
+			Thread.interrupted();
+		}
+	}
+
+	@Test
+	public void testImportedTreesAssignedManagerCalibration() {
+		final List<Tree> trees = new TreeSource(validFiles[0]).readAll();
+		final PathAndFillManager pafm = new PathAndFillManager(0.5, 0.25, 2, "um");
+		pafm.setHeadless(true);
+		pafm.addTrees(trees, true);
+		assertFalse(pafm.getPaths().isEmpty());
+		for (final Path p : pafm.getPaths()) {
+			assertEquals(0.5, p.getCalibration().pixelWidth, 0);
+			assertEquals(0.25, p.getCalibration().pixelHeight, 0);
+			assertEquals(2, p.getCalibration().pixelDepth, 0);
+		}
+	}
+
+	@Test
+	public void testLazyStatistics() {
+		final TreeSource source = new TreeSource(validFiles);
+		final MultiTreeStatistics lazy = new MultiTreeStatistics(source);
+		final MultiTreeStatistics eager = new MultiTreeStatistics(source.readAll());
+		for (final String metric : MultiTreeStatistics.getMetrics()) {
+			assertArrayEquals(metric, eager.getDescriptiveStats(metric).getValues(),
+					lazy.getDescriptiveStats(metric).getValues(), 0d);
+		}
+	}
+
+	@Test
+	public void testLazyGroupQueries() {
+		final AtomicInteger reads = new AtomicInteger();
+		final TreeSource source = new TreeSource(validFiles)
+				.setProgressListener((file, success, read, count) -> reads.incrementAndGet());
+		final MultiTreeStatistics lazy = new MultiTreeStatistics(source);
+		final MultiTreeStatistics eager = new MultiTreeStatistics(source.readAll());
+		reads.set(0);
+
+		// Queries spanning the whole group are computed one Tree at a time
+		assertEquals(eager.getTips().size(), lazy.getTips().size());
+		assertEquals(eager.getBranchPoints().size(), lazy.getBranchPoints().size());
+		assertEquals(eager.getAnnotations(), lazy.getAnnotations());
+		assertEquals(eager.getAnnotatedLength(1), lazy.getAnnotatedLength(1));
+		for (final String metric : new String[] { TreeStatistics.CONTRACTION, TreeStatistics.REMOTE_BIF_ANGLES }) {
+			final SummaryStatistics expected = eager.getSummaryStats(metric);
+			final SummaryStatistics actual = lazy.getSummaryStats(metric);
+			assertEquals(metric, expected.getN(), actual.getN());
+			assertEquals(metric, expected.getSum(), actual.getSum(), 1e-8);
+		}
+		assertEquals("Files read once per query", 6 * validFiles.length, reads.get());
+	}
+
+	@Test
+	public void testBatchStatisticsReadFilesOnce() {
+		final AtomicInteger reads = new AtomicInteger();
+		final TreeSource source = new TreeSource(validFiles)
+				.setProgressListener((file, success, read, count) -> reads.incrementAndGet());
+		final MultiTreeStatistics stats = new MultiTreeStatistics(source);
+		stats.setParallel(true);
+		final List<String> metrics = MultiTreeStatistics.getMetrics();
+		final Map<String, DescriptiveStatistics> batch = stats.getDescriptiveStats(metrics);
+		assertEquals("Files read by batch", validFiles.length, reads.get());
+		for (final String metric : metrics) {
+			assertArrayEquals(metric, batch.get(metric).getValues(), stats.getDescriptiveStats(metric).getValues(), 0d);
+			assertEquals(metric, batch.get(metric).getSum(), stats.getSummaryStats(metric).getSum(), 0d);
+		}
+		assertEquals("Files re-read after batch", validFiles.length, reads.get());
+	}
+
+}